@@ -19,7 +19,8 @@
 package com.jpexs.cfb;
 
 import com.jpexs.cfb.RedBlackTree.Node;
-import java.io.ByteArrayOutputStream;
+import com.jpexs.helpers.ValueParser;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -27,11 +28,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
-import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -40,8 +46,6 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Compound File Binary file format reading class.
@@ -59,27 +63,27 @@ public class CompoundFileBinary implements AutoCloseable {
     /**
      * Maximum regular sector number.
      */
-    private static final long MAXREGSECT = 0xFFFFFFFAl;
+    static final long MAXREGSECT = 0xFFFFFFFAl;
     /**
      * Reserved for future use.
      */
-    private static final long NOT_APPLICABLE = 0xFFFFFFFBl;
+    static final long NOT_APPLICABLE = 0xFFFFFFFBl;
     /**
      * Specifies a DIFAT sector in the FAT.
      */
-    private static final long DIFSECT = 0xFFFFFFFCl;
+    static final long DIFSECT = 0xFFFFFFFCl;
     /**
      * Specifies a FAT sector in the FAT.
      */
-    private static final long FATSECT = 0xFFFFFFFDl;
+    static final long FATSECT = 0xFFFFFFFDl;
     /**
      * End of a linked chain of sectors.
      */
-    private static final long ENDOFCHAIN = 0xFFFFFFFEl;
+    static final long ENDOFCHAIN = 0xFFFFFFFEl;
     /**
      * Specifies an unallocated sector in the FAT, Mini FAT, or DIFAT.
      */
-    private static final long FREESECT = 0xFFFFFFFFl;
+    static final long FREESECT = 0xFFFFFFFFl;
 
     /**
      * Maximum regular stream ID.
@@ -118,6 +122,17 @@ public class CompoundFileBinary implements AutoCloseable {
     
     private Map<Long, Long> entryParents = new HashMap<>();
 
+    /**
+     * Algorithm used for stream content digests.
+     */
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * Content digests of streams by streamId. Digests are used by extraction
+     * only, streams with same content are still stored separately on write.
+     */
+    private Map<Long, byte[]> digests = new HashMap<>();
+
     public CompoundFileBinary(File file) throws IOException {
         this(file, false);
     }
@@ -131,37 +146,11 @@ public class CompoundFileBinary implements AutoCloseable {
     }
 
     private static byte[] fromStringToByteArray(String clsid) {
-        Pattern pattern = Pattern.compile("^([0-9A-Fa-f]{8})-([0-9A-Fa-f]{4})-([0-9A-Fa-f]{4})-([0-9A-Fa-f]{4})-([0-9A-Fa-f]{12})$");
-        Matcher matcher = pattern.matcher(clsid);
-
-        if (!matcher.matches()) {
+        try {
+            return ValueParser.parseClsid(clsid);
+        } catch (NumberFormatException nfe) {
             throw new IllegalArgumentException("Invalid CLSID format");
         }
-
-        String part1 = matcher.group(1);
-        String part2 = matcher.group(2);
-        String part3 = matcher.group(3);
-        String part4 = matcher.group(4);
-        String part5 = matcher.group(5);
-
-        ByteBuffer buffer = ByteBuffer.allocate(16);
-        buffer.putInt(Integer.reverseBytes((int) Long.parseLong(part1, 16))); // Little-endian
-        buffer.putShort(Short.reverseBytes((short) Integer.parseInt(part2, 16))); // Little-endian
-        buffer.putShort(Short.reverseBytes((short) Integer.parseInt(part3, 16))); // Little-endian
-        buffer.put(hexStringToByteArray(part4));
-        buffer.put(hexStringToByteArray(part5));
-
-        return buffer.array();
-    }
-
-    private static byte[] hexStringToByteArray(String s) {
-        int len = s.length();
-        byte[] data = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4)
-                    + Character.digit(s.charAt(i + 1), 16));
-        }
-        return data;
     }
 
     public void setRootClsId(String value) throws IOException {
@@ -360,15 +349,9 @@ public class CompoundFileBinary implements AutoCloseable {
     }
 
     public DirectoryEntry addFile(String path, File file) throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        byte[] buf = new byte[4096];
-        int cnt;
         try (FileInputStream fis = new FileInputStream(file)) {
-            while ((cnt = fis.read(buf)) > 0) {
-                baos.write(buf, 0, cnt);
-            }
+            return addFile(path, fis, file.length());
         }
-        return addFile(path, baos.toByteArray());
     }
 
     public DirectoryEntry getRootDirEntry() {
@@ -746,6 +729,31 @@ public class CompoundFileBinary implements AutoCloseable {
     }
 
     public DirectoryEntry addFile(String path, byte[] data) throws IOException {
+        return addFile(path, new ByteArrayInputStream(data), data.length);
+    }
+
+    private static void readFully(InputStream is, byte[] buf, int len) throws IOException {
+        int pos = 0;
+        while (pos < len) {
+            int cnt = is.read(buf, pos, len - pos);
+            if (cnt < 0) {
+                throw new IOException("Premature end of the stream reached");
+            }
+            pos += cnt;
+        }
+    }
+
+    /**
+     * Adds file with known length. Large streams are written directly to
+     * their sectors without buffering whole content.
+     *
+     * @param path Path
+     * @param is Input stream, exactly length bytes is read from it
+     * @param length Length of the data
+     * @return Added entry
+     * @throws IOException On I/O error
+     */
+    public DirectoryEntry addFile(String path, InputStream is, long length) throws IOException {
 
         DirectoryEntry existing = getEntryByPath(path);
         if (existing != null) {
@@ -765,7 +773,9 @@ public class CompoundFileBinary implements AutoCloseable {
         }
 
         Long firstSectorId = null;
-        if (data.length < miniStreamCutoffSize) {
+        if (length < miniStreamCutoffSize) {
+            byte[] data = new byte[(int) length];
+            readFully(is, data, data.length);
             Long sectorId = null;
 
             int pos = 0;
@@ -784,23 +794,25 @@ public class CompoundFileBinary implements AutoCloseable {
                 pos += len;
             }
         } else {
-            List<Long> sectors = allocateNewLength(data.length);
+            List<Long> sectors = allocateNewLength(length);
             int sectorSize = sectorLength;
+            byte[] buf = new byte[sectorSize];
 
-            int pos = 0;
+            long pos = 0;
             for (Long sectorId : sectors) {
                 raf.seek((1 + sectorId) * sectorLength);
                 int len = sectorSize;
-                if (pos + len > data.length) {
-                    len = data.length - pos;
+                if (pos + len > length) {
+                    len = (int) (length - pos);
                 }
-                raf.write(data, pos, len);
+                readFully(is, buf, len);
+                raf.write(buf, 0, len);
                 pos += len;
             }
             firstSectorId = sectors.get(0);
         }
 
-        if (data.length == 0) {
+        if (length == 0) {
             firstSectorId = allocateNewMiniSector(null);
         }
 
@@ -808,11 +820,56 @@ public class CompoundFileBinary implements AutoCloseable {
             return null;
         }
         Date d = new Date();
-        DirectoryEntry entry = new DirectoryEntry(-1, -1, -1, path, TYPE_STREAM_OBJECT, COLOR_BLACK, NOSTREAM, NOSTREAM, NOSTREAM, CLSID_NULL, 0, d, d, firstSectorId, data.length);
+        DirectoryEntry entry = new DirectoryEntry(-1, -1, -1, path, TYPE_STREAM_OBJECT, COLOR_BLACK, NOSTREAM, NOSTREAM, NOSTREAM, CLSID_NULL, 0, d, d, firstSectorId, length);
         addDirectoryEntry(parent, entry);
         return entry;
     }
 
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            //every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Gets content digest of a stream. Digest is calculated on first request
+     * and cached.
+     *
+     * @param entry Stream entry
+     * @return Digest or null when entry is not a stream
+     * @throws IOException On I/O error
+     */
+    public byte[] getDigest(DirectoryEntry entry) throws IOException {
+        if (entry.objectType != TYPE_STREAM_OBJECT) {
+            return null;
+        }
+        byte[] digest = digests.get(entry.streamId);
+        if (digest != null) {
+            return digest;
+        }
+        MessageDigest md = createDigest();
+        InputStream is = getEntryStream(entry);
+        byte buf[] = new byte[4096];
+        int cnt;
+        while ((cnt = is.read(buf)) > 0) {
+            md.update(buf, 0, cnt);
+        }
+        digest = md.digest();
+        digests.put(entry.streamId, digest);
+        return digest;
+    }
+
+    public static String digestToString(byte[] digest) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b & 0xFF));
+        }
+        return sb.toString();
+    }
+
     public boolean USE_DIRENTRY = true;
 
     private long allocateNewMiniSector(Long prevSector) throws IOException {
@@ -1269,9 +1326,14 @@ public class CompoundFileBinary implements AutoCloseable {
             sectorLength = 4096;
         }
 
+        long maxChainLength = raf.length() / sectorLength;
         long difatSectorLocation = firstDifatSectorLocation;
+        long chainLength = 0;
 
         while (difatSectorLocation <= MAXREGSECT) { //It should check for ENDOFCHAIN, but some FLA generators put FREESECT there too
+            if (++chainLength > maxChainLength) {
+                throw new IOException("Cycle detected in DIFAT chain");
+            }
             raf.seek((1 + difatSectorLocation) * sectorLength);
             for (int i = 0; i < sectorLength - 4; i += 4) {
                 difat.add(readUI32());
@@ -1294,7 +1356,11 @@ public class CompoundFileBinary implements AutoCloseable {
         minifat = new TreeMap<>();
         long miniFatSectorLocation = firstMiniFatSectorLocation;
         long miniFatPos = 0;
+        chainLength = 0;
         while (miniFatSectorLocation != ENDOFCHAIN) {
+            if (++chainLength > maxChainLength) {
+                throw new IOException("Cycle detected in MiniFAT chain");
+            }
             //System.err.println("file pos: " + raf.getFilePointer());
             //System.err.println("miniFatSectorLocation="+miniFatSectorLocation);
             raf.seek((1 + miniFatSectorLocation) * sectorLength);
@@ -1302,14 +1368,18 @@ public class CompoundFileBinary implements AutoCloseable {
                 minifat.put(miniFatPos, readUI32());
                 miniFatPos++;
             }
-            miniFatSectorLocation = fat.get(miniFatSectorLocation);
+            miniFatSectorLocation = nextSector(miniFatSectorLocation);
         }
 
         long directorySector = firstDirectorySectorLocation;
 
         directoryEntries = new ArrayList<>();
         long streamId = 0;
+        chainLength = 0;
         while (directorySector != ENDOFCHAIN) {
+            if (++chainLength > maxChainLength) {
+                throw new IOException("Cycle detected in directory chain");
+            }
             raf.seek((1 + directorySector) * sectorLength);
 
             for (int i = 0; i < sectorLength; i += 128) {
@@ -1355,8 +1425,16 @@ public class CompoundFileBinary implements AutoCloseable {
                 directoryEntries.add(dirEntry);
                 streamId++;
             }
-            directorySector = fat.get(directorySector);
+            directorySector = nextSector(directorySector);
+        }
+    }
+
+    private long nextSector(long sector) throws IOException {
+        Long next = fat.get(sector);
+        if (next == null) {
+            throw new IOException("Sector " + sector + " is not covered by FAT");
         }
+        return next;
     }
 
     private InputStream getMiniStream(long sector, long totalSize) {
@@ -1492,11 +1570,33 @@ public class CompoundFileBinary implements AutoCloseable {
     }
 
     public void extractTo(String path, File targetDir) throws IOException {
+        extractTo(path, targetDir, false);
+    }
+
+    /**
+     * Extracts entry to target path.
+     *
+     * @param path Path of the entry
+     * @param targetDir Target path
+     * @param linkDuplicates Streams with same content as already extracted
+     * stream are hard-linked to it (or copied when the filesystem does not
+     * support links) instead of reading them again
+     * @throws IOException On I/O error
+     */
+    public void extractTo(String path, File targetDir, boolean linkDuplicates) throws IOException {
         DirectoryEntry de = getEntryByPath(path);
-        extractTo(de, targetDir);
+        if (linkDuplicates) {
+            extractTo(de, targetDir, new HashMap<>(), new HashSet<>());
+        } else {
+            extractTo(de, targetDir, null, null);
+        }
     }
 
     public void extractTo(DirectoryEntry de, File targetPath) throws IOException {
+        extractTo(de, targetPath, null, null);
+    }
+
+    private void extractTo(DirectoryEntry de, File targetPath, Map<String, File> extractedByDigest, Set<Long> extractedSizes) throws IOException {
         if (de == null) {
             return;
         }
@@ -1504,8 +1604,20 @@ public class CompoundFileBinary implements AutoCloseable {
         Logger.getLogger(CompoundFileBinary.class.getName()).log(Level.FINE, "Extracting {0}", de.name);
 
         if (de.objectType == TYPE_STREAM_OBJECT) {
-            InputStream is = getEntryStream(de);
             File outFile = targetPath.toPath().toFile();
+            if (extractedByDigest != null && extractedSizes.contains(de.streamSize)) {
+                File existing = extractedByDigest.get(digestToString(getDigest(de)));
+                if (existing != null) {
+                    linkOrCopy(existing, outFile);
+                    return;
+                }
+            }
+            InputStream is = getEntryStream(de);
+            MessageDigest md = null;
+            if (extractedByDigest != null && !digests.containsKey(de.streamId)) {
+                md = createDigest();
+                is = new DigestInputStream(is, md);
+            }
             try (FileOutputStream fos = new FileOutputStream(outFile)) {
                 byte buf[] = new byte[4096];
                 int cnt;
@@ -1513,17 +1625,34 @@ public class CompoundFileBinary implements AutoCloseable {
                     fos.write(buf, 0, cnt);
                 }
             }
+            if (extractedByDigest != null) {
+                if (md != null) {
+                    digests.put(de.streamId, md.digest());
+                }
+                extractedByDigest.put(digestToString(getDigest(de)), outFile);
+                extractedSizes.add(de.streamSize);
+            }
         }
 
         if (de.objectType == TYPE_STORAGE_OBJECT
                 || de.objectType == TYPE_ROOT_STORAGE_OBJECT) {
             List<DirectoryEntry> entries = getEntriesInDir(de);
             for (DirectoryEntry en : entries) {
-                extractTo(en, targetPath.toPath().resolve(en.getFilename()).toFile());
+                extractTo(en, targetPath.toPath().resolve(en.getFilename()).toFile(), extractedByDigest, extractedSizes);
             }
         }
     }
 
+    private static void linkOrCopy(File existing, File target) throws IOException {
+        Logger.getLogger(CompoundFileBinary.class.getName()).log(Level.FINE, "Linking {0} to {1}", new Object[]{target, existing});
+        Files.deleteIfExists(target.toPath());
+        try {
+            Files.createLink(target.toPath(), existing.toPath());
+        } catch (IOException | UnsupportedOperationException ex) {
+            Files.copy(existing.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     public static void main(String[] args) throws IOException {
         new File("out").mkdir();
         //FlaCfbExtractor.initLog();
@@ -0,0 +1,614 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.cfb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compound File Binary integrity checker.
+ *
+ * Validates header, DIFAT, FAT, MiniFAT, directory tree colors and sibling
+ * links and stream chains without following any chain blindly, so damaged
+ * files cannot make it loop.
+ * FAT and MiniFAT are held as int arrays, sector ownership as bitsets. Stream
+ * chains are checked in parallel, at most one chain bitset per worker thread
+ * is alive at a time.
+ *
+ * @author JPEXS
+ */
+public class CompoundFileBinaryVerifier {
+
+    private static final byte SIGNATURE[] = new byte[]{(byte) 0xD0, (byte) 0xCF, (byte) 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, (byte) 0x1A, (byte) 0xE1};
+
+    private static final int MINI_SECTOR_LENGTH = 64;
+
+    private static final int DIRECTORY_ENTRY_LENGTH = 128;
+
+    /**
+     * Maximum number of reported problems. Further problems are only counted.
+     */
+    public static final int MAX_PROBLEMS = 1000;
+
+    private final File file;
+    private final int threadCount;
+
+    private final List<String> problems = new ArrayList<>();
+    private int omittedProblems = 0;
+
+    private RandomAccessFile raf;
+    private int sectorLength;
+    private long miniStreamCutoffSize;
+    private int sectorCount;
+    private int[] fat;
+    private int[] minifat;
+    private int miniSectorCount;
+    private final BitSet usedSectors = new BitSet();
+    private final BitSet usedMiniSectors = new BitSet();
+
+    private CompoundFileBinaryVerifier(File file, int threadCount) {
+        this.file = file;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Verifies file using all available processors.
+     *
+     * @param file File to verify
+     * @return List of found problems, empty when the file is valid
+     * @throws IOException On I/O error
+     */
+    public static List<String> verify(File file) throws IOException {
+        return verify(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Verifies file.
+     *
+     * @param file File to verify
+     * @param threadCount Number of threads used for checking chains
+     * @return List of found problems, empty when the file is valid
+     * @throws IOException On I/O error
+     */
+    public static List<String> verify(File file, int threadCount) throws IOException {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        CompoundFileBinaryVerifier verifier = new CompoundFileBinaryVerifier(file, threadCount);
+        verifier.run();
+        return verifier.getProblems();
+    }
+
+    private synchronized void problem(String message) {
+        if (problems.size() >= MAX_PROBLEMS) {
+            omittedProblems++;
+            return;
+        }
+        problems.add(message);
+    }
+
+    private synchronized List<String> getProblems() {
+        List<String> ret = new ArrayList<>(problems);
+        if (omittedProblems > 0) {
+            ret.add("... " + omittedProblems + " more problems omitted");
+        }
+        return ret;
+    }
+
+    private ByteBuffer readSector(long sector) throws IOException {
+        byte[] data = new byte[sectorLength];
+        raf.seek((1 + sector) * sectorLength);
+        raf.readFully(data);
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long ui32(ByteBuffer buffer, int pos) {
+        return buffer.getInt(pos) & 0xFFFFFFFFL;
+    }
+
+    private static long ui32(int value) {
+        return value & 0xFFFFFFFFL;
+    }
+
+    private boolean isValidSector(long sector) {
+        return sector <= CompoundFileBinary.MAXREGSECT && sector < sectorCount;
+    }
+
+    private void run() throws IOException {
+        try (RandomAccessFile r = new RandomAccessFile(file, "r")) {
+            raf = r;
+            if (!verifyHeaderAndFat()) {
+                return;
+            }
+            long[] miniStream = new long[2];
+            List<DirectoryEntry> entries = verifyDirectory(miniStream);
+            if (entries == null) {
+                return;
+            }
+            verifyMiniFat(miniStream[0], miniStream[1]);
+            verifyTree(entries);
+            verifyStreams(entries, miniStream[0], miniStream[1]);
+        } finally {
+            raf = null;
+        }
+    }
+
+    private boolean verifyHeaderAndFat() throws IOException {
+        long fileLength = raf.length();
+        if (fileLength < 512) {
+            problem("Header: file is shorter than the header");
+            return false;
+        }
+        byte[] headerBytes = new byte[512];
+        raf.seek(0);
+        raf.readFully(headerBytes);
+        ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        if (!Arrays.equals(Arrays.copyOf(headerBytes, SIGNATURE.length), SIGNATURE)) {
+            problem("Header: not a CFB file");
+            return false;
+        }
+        for (int i = 0x08; i < 0x18; i++) {
+            if (headerBytes[i] != 0) {
+                problem("Header: clsid must be CLSID_NULL");
+                break;
+            }
+        }
+        int majorVersion = header.getShort(0x1A) & 0xFFFF;
+        if (majorVersion != 3 && majorVersion != 4) {
+            problem("Header: unknown major version " + majorVersion);
+            return false;
+        }
+        if ((header.getShort(0x1C) & 0xFFFF) != 0xFFFE) {
+            problem("Header: invalid byte order");
+        }
+        int sectorShift = header.getShort(0x1E) & 0xFFFF;
+        if ((majorVersion == 3 && sectorShift != 0x0009) || (majorVersion == 4 && sectorShift != 0x000C)) {
+            problem("Header: invalid sector shift " + sectorShift + " for major version " + majorVersion);
+            return false;
+        }
+        if ((header.getShort(0x20) & 0xFFFF) != 0x0006) {
+            problem("Header: mini sector shift must be 0x0006");
+        }
+        for (int i = 0x22; i < 0x28; i++) {
+            if (headerBytes[i] != 0) {
+                problem("Header: reserved bytes must be zero");
+                break;
+            }
+        }
+        long numDirectorySectors = ui32(header, 0x28);
+        if (majorVersion == 3 && numDirectorySectors != 0) {
+            problem("Header: number of directory sectors must be zero for major version 3");
+        }
+        long numFatSectors = ui32(header, 0x2C);
+        miniStreamCutoffSize = ui32(header, 0x38);
+        if (miniStreamCutoffSize != 4096) {
+            problem("Header: mini stream cutoff size must be 4096, found " + miniStreamCutoffSize);
+        }
+        long firstDifatSectorLocation = ui32(header, 0x44);
+        long numDifatSectors = ui32(header, 0x48);
+
+        sectorLength = 1 << sectorShift;
+        long fileSectorCount = (fileLength + sectorLength - 1) / sectorLength - 1;
+        if (fileSectorCount > Integer.MAX_VALUE) {
+            problem("Header: file is too large");
+            return false;
+        }
+        sectorCount = (int) fileSectorCount;
+        if (fileLength % sectorLength != 0) {
+            problem("Header: file length " + fileLength + " is not a multiple of sector length");
+        }
+
+        //DIFAT
+        List<Long> fatSectors = new ArrayList<>();
+        for (int i = 0; i < 109; i++) {
+            long fatSect = ui32(header, 0x4C + i * 4);
+            if (fatSect != CompoundFileBinary.FREESECT) {
+                fatSectors.add(fatSect);
+            }
+        }
+        List<Long> difatSectors = new ArrayList<>();
+        BitSet difatVisited = new BitSet();
+        long difatSectorLocation = firstDifatSectorLocation;
+        //ENDOFCHAIN should terminate the chain, but some FLA generators put FREESECT there too
+        while (difatSectorLocation != CompoundFileBinary.ENDOFCHAIN && difatSectorLocation != CompoundFileBinary.FREESECT) {
+            if (!isValidSector(difatSectorLocation)) {
+                problem("DIFAT: invalid sector reference " + CompoundFileBinary.sectToString(difatSectorLocation));
+                break;
+            }
+            if (difatVisited.get((int) difatSectorLocation)) {
+                problem("DIFAT: cycle detected at sector " + difatSectorLocation);
+                break;
+            }
+            difatVisited.set((int) difatSectorLocation);
+            difatSectors.add(difatSectorLocation);
+            ByteBuffer sect = readSector(difatSectorLocation);
+            for (int i = 0; i < sectorLength - 4; i += 4) {
+                long fatSect = ui32(sect, i);
+                if (fatSect != CompoundFileBinary.FREESECT) {
+                    fatSectors.add(fatSect);
+                }
+            }
+            difatSectorLocation = ui32(sect, sectorLength - 4);
+        }
+        if (difatSectors.size() != numDifatSectors) {
+            problem("DIFAT: header says " + numDifatSectors + " DIFAT sectors, chain has " + difatSectors.size());
+        }
+        if (fatSectors.size() != numFatSectors) {
+            problem("DIFAT: header says " + numFatSectors + " FAT sectors, DIFAT lists " + fatSectors.size());
+        }
+
+        //FAT
+        int entriesPerSector = sectorLength / 4;
+        fat = new int[fatSectors.size() * entriesPerSector];
+        Arrays.fill(fat, (int) CompoundFileBinary.FREESECT);
+        BitSet fatVisited = new BitSet();
+        for (int f = 0; f < fatSectors.size(); f++) {
+            long fatSect = fatSectors.get(f);
+            if (!isValidSector(fatSect)) {
+                problem("DIFAT: invalid FAT sector reference " + CompoundFileBinary.sectToString(fatSect));
+                continue;
+            }
+            if (fatVisited.get((int) fatSect)) {
+                problem("DIFAT: FAT sector " + fatSect + " listed more than once");
+                continue;
+            }
+            fatVisited.set((int) fatSect);
+            ByteBuffer sect = readSector(fatSect);
+            for (int i = 0; i < entriesPerSector; i++) {
+                fat[f * entriesPerSector + i] = sect.getInt(i * 4);
+            }
+        }
+        if (fat.length < sectorCount) {
+            problem("FAT: covers " + fat.length + " sectors, file has " + sectorCount);
+            sectorCount = fat.length;
+        }
+
+        for (int f = fatVisited.nextSetBit(0); f >= 0; f = fatVisited.nextSetBit(f + 1)) {
+            if (f < fat.length && ui32(fat[f]) != CompoundFileBinary.FATSECT) {
+                problem("FAT: FAT sector " + f + " is not marked as FATSECT");
+            }
+        }
+        for (long d : difatSectors) {
+            if (!isValidSector(d) || d >= fat.length) {
+                problem("FAT: DIFAT sector " + d + " not covered by FAT");
+            } else if (ui32(fat[(int) d]) != CompoundFileBinary.DIFSECT) {
+                problem("FAT: DIFAT sector " + d + " is not marked as DIFSECT");
+            }
+        }
+        for (int i = 0; i < sectorCount; i++) {
+            long val = ui32(fat[i]);
+            if (val <= CompoundFileBinary.MAXREGSECT && val >= sectorCount) {
+                problem("FAT: sector " + i + " points beyond end of file to " + val);
+            } else if (val == CompoundFileBinary.NOT_APPLICABLE) {
+                problem("FAT: sector " + i + " has reserved value");
+            }
+        }
+        usedSectors.or(fatVisited);
+        usedSectors.or(difatVisited);
+        return true;
+    }
+
+    /**
+     * Walks FAT chain.
+     *
+     * @param name Chain name for reporting
+     * @param start Starting sector
+     * @param expectedLength Expected number of sectors or -1 when unknown
+     * @return Sectors of the chain
+     */
+    private BitSet walkChain(String name, long start, long expectedLength) {
+        BitSet visited = new BitSet();
+        long sector = start;
+        long length = 0;
+        while (sector != CompoundFileBinary.ENDOFCHAIN) {
+            if (!isValidSector(sector)) {
+                problem(name + ": invalid sector reference " + CompoundFileBinary.sectToString(sector));
+                break;
+            }
+            if (visited.get((int) sector)) {
+                problem(name + ": cycle detected at sector " + sector);
+                break;
+            }
+            visited.set((int) sector);
+            length++;
+            sector = ui32(fat[(int) sector]);
+        }
+        if (expectedLength != -1 && length != expectedLength) {
+            problem(name + ": chain has " + length + " sectors, expected " + expectedLength);
+        }
+        claim(name, visited, usedSectors);
+        return visited;
+    }
+
+    private BitSet walkMiniChain(String name, long start, long expectedLength) {
+        BitSet visited = new BitSet();
+        long sector = start;
+        long length = 0;
+        while (sector != CompoundFileBinary.ENDOFCHAIN) {
+            if (sector > CompoundFileBinary.MAXREGSECT || sector >= miniSectorCount) {
+                problem(name + ": invalid mini sector reference " + CompoundFileBinary.sectToString(sector));
+                break;
+            }
+            if (visited.get((int) sector)) {
+                problem(name + ": cycle detected at mini sector " + sector);
+                break;
+            }
+            visited.set((int) sector);
+            length++;
+            sector = ui32(minifat[(int) sector]);
+        }
+        if (expectedLength != -1 && length != expectedLength) {
+            problem(name + ": chain has " + length + " mini sectors, expected " + expectedLength);
+        }
+        claim(name, visited, usedMiniSectors);
+        return visited;
+    }
+
+    private void claim(String name, BitSet chain, BitSet used) {
+        synchronized (used) {
+            if (used.intersects(chain)) {
+                BitSet crossLinked = (BitSet) chain.clone();
+                crossLinked.and(used);
+                problem(name + ": cross-linked with another chain at sector " + crossLinked.nextSetBit(0));
+            }
+            used.or(chain);
+        }
+    }
+
+    private List<DirectoryEntry> verifyDirectory(long[] miniStream) throws IOException {
+        raf.seek(0x30);
+        long firstDirectorySectorLocation = readUI32();
+        BitSet directorySectors = walkChain("Directory", firstDirectorySectorLocation, -1);
+        if (directorySectors.isEmpty()) {
+            problem("Directory: no directory sectors");
+            return null;
+        }
+        List<DirectoryEntry> entries = new ArrayList<>();
+        long directorySector = firstDirectorySectorLocation;
+        long streamId = 0;
+        while (directorySectors.get((int) directorySector)) {
+            directorySectors.clear((int) directorySector);
+            ByteBuffer sect = readSector(directorySector);
+            for (int i = 0; i < sectorLength; i += DIRECTORY_ENTRY_LENGTH) {
+                int nameLen = sect.getShort(i + 0x40) & 0xFFFF;
+                String name = "";
+                if (nameLen > 64 || nameLen % 2 != 0) {
+                    problem("Directory: entry " + streamId + " has invalid name length " + nameLen);
+                } else if (nameLen > 0) {
+                    name = new String(sect.array(), i, nameLen - 2, "UTF-16LE");
+                }
+                int objectType = sect.get(i + 0x42) & 0xFF;
+                if (objectType != CompoundFileBinary.TYPE_UNKNOWN
+                        && objectType != CompoundFileBinary.TYPE_STORAGE_OBJECT
+                        && objectType != CompoundFileBinary.TYPE_STREAM_OBJECT
+                        && objectType != CompoundFileBinary.TYPE_ROOT_STORAGE_OBJECT) {
+                    problem("Directory: entry " + streamId + " has invalid object type " + objectType);
+                    objectType = CompoundFileBinary.TYPE_UNKNOWN;
+                }
+                int colorFlag = sect.get(i + 0x43) & 0xFF;
+                if (colorFlag != CompoundFileBinary.COLOR_RED && colorFlag != CompoundFileBinary.COLOR_BLACK) {
+                    problem("Directory: entry " + streamId + " has invalid color flag " + colorFlag);
+                }
+                long startingSectorLocation = ui32(sect, i + 0x74);
+                long streamSize = sect.getLong(i + 0x78);
+                if (sectorLength == 512) {
+                    streamSize = streamSize & 0xFFFFFFFFL;
+                }
+                entries.add(new DirectoryEntry((1 + directorySector) * sectorLength + i, directorySector, streamId, name, objectType, colorFlag,
+                        ui32(sect, i + 0x44), ui32(sect, i + 0x48), ui32(sect, i + 0x4C), null, 0, null, null,
+                        startingSectorLocation, streamSize));
+                streamId++;
+            }
+            directorySector = ui32(fat[(int) directorySector]);
+            if (directorySector == CompoundFileBinary.ENDOFCHAIN || !isValidSector(directorySector)) {
+                break;
+            }
+        }
+        DirectoryEntry root = entries.get(0);
+        if (root.objectType != CompoundFileBinary.TYPE_ROOT_STORAGE_OBJECT) {
+            problem("Directory: first entry is not a root storage");
+            return null;
+        }
+        for (int i = 1; i < entries.size(); i++) {
+            if (entries.get(i).objectType == CompoundFileBinary.TYPE_ROOT_STORAGE_OBJECT) {
+                problem("Directory: entry " + i + " is a second root storage");
+            }
+        }
+        miniStream[0] = root.startingSectorLocation;
+        miniStream[1] = root.streamSize;
+        return entries;
+    }
+
+    private long readUI32() throws IOException {
+        byte[] data = new byte[4];
+        raf.readFully(data);
+        return ui32(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN), 0);
+    }
+
+    private void verifyMiniFat(long miniStreamStartingSector, long miniStreamSize) throws IOException {
+        raf.seek(0x3C);
+        long firstMiniFatSectorLocation = readUI32();
+        long numMiniFatSectors = readUI32();
+        if (firstMiniFatSectorLocation == CompoundFileBinary.ENDOFCHAIN) {
+            minifat = new int[0];
+        } else {
+            BitSet miniFatSectors = walkChain("MiniFAT", firstMiniFatSectorLocation, numMiniFatSectors);
+            int entriesPerSector = sectorLength / 4;
+            minifat = new int[miniFatSectors.cardinality() * entriesPerSector];
+            long sector = firstMiniFatSectorLocation;
+            int pos = 0;
+            while (isValidSector(sector) && miniFatSectors.get((int) sector)) {
+                miniFatSectors.clear((int) sector);
+                ByteBuffer sect = readSector(sector);
+                for (int i = 0; i < entriesPerSector; i++) {
+                    minifat[pos++] = sect.getInt(i * 4);
+                }
+                sector = ui32(fat[(int) sector]);
+            }
+        }
+
+        long miniStreamLength = 0;
+        if (miniStreamStartingSector != CompoundFileBinary.ENDOFCHAIN) {
+            BitSet miniStreamSectors = walkChain("Mini stream", miniStreamStartingSector, (miniStreamSize + sectorLength - 1) / sectorLength);
+            miniStreamLength = (long) miniStreamSectors.cardinality() * sectorLength;
+        }
+        long count = Math.min(miniStreamLength, miniStreamSize) / MINI_SECTOR_LENGTH;
+        miniSectorCount = (int) Math.min(count, minifat.length);
+        if (count > minifat.length) {
+            problem("MiniFAT: covers " + minifat.length + " mini sectors, mini stream has " + count);
+        }
+        for (int i = 0; i < miniSectorCount; i++) {
+            long val = ui32(minifat[i]);
+            if (val <= CompoundFileBinary.MAXREGSECT && val >= miniSectorCount) {
+                problem("MiniFAT: mini sector " + i + " points beyond end of mini stream to " + val);
+            }
+        }
+    }
+
+    private void verifyTree(List<DirectoryEntry> entries) {
+        BitSet visited = new BitSet();
+        visited.set(0);
+        Deque<DirectoryEntry> storages = new ArrayDeque<>();
+        storages.add(entries.get(0));
+        while (!storages.isEmpty()) {
+            DirectoryEntry storage = storages.poll();
+            if (storage.childId == CompoundFileBinary.NOSTREAM) {
+                continue;
+            }
+            List<DirectoryEntry> inOrder = new ArrayList<>();
+            String name = "Directory tree of entry " + storage.streamId;
+            verifyNode(name, storage.childId, entries, visited, inOrder, false);
+            for (int i = 0; i < inOrder.size(); i++) {
+                DirectoryEntry entry = inOrder.get(i);
+                if (i > 0 && inOrder.get(i - 1).compareTo(entry) >= 0) {
+                    problem(name + ": entry " + entry.streamId + " is not in sibling order");
+                }
+                if (entry.objectType == CompoundFileBinary.TYPE_STORAGE_OBJECT) {
+                    storages.add(entry);
+                } else if (entry.childId != CompoundFileBinary.NOSTREAM) {
+                    problem(name + ": stream entry " + entry.streamId + " has a child");
+                }
+            }
+        }
+        for (int i = 1; i < entries.size(); i++) {
+            if (!visited.get(i) && entries.get(i).objectType != CompoundFileBinary.TYPE_UNKNOWN) {
+                problem("Directory: entry " + i + " is not reachable from root");
+            }
+        }
+    }
+
+    /**
+     * Checks subtree of siblings. Black height is not checked, Flash itself
+     * writes trees which are not balanced.
+     */
+    private void verifyNode(String name, long streamId, List<DirectoryEntry> entries, BitSet visited, List<DirectoryEntry> inOrder, boolean parentRed) {
+        if (streamId == CompoundFileBinary.NOSTREAM) {
+            return;
+        }
+        if (streamId > CompoundFileBinary.MAXREGSID || streamId >= entries.size()) {
+            problem(name + ": invalid stream id " + streamId);
+            return;
+        }
+        if (visited.get((int) streamId)) {
+            problem(name + ": entry " + streamId + " is referenced more than once");
+            return;
+        }
+        visited.set((int) streamId);
+        DirectoryEntry entry = entries.get((int) streamId);
+        if (entry.objectType != CompoundFileBinary.TYPE_STORAGE_OBJECT && entry.objectType != CompoundFileBinary.TYPE_STREAM_OBJECT) {
+            problem(name + ": entry " + streamId + " has invalid object type " + entry.objectType);
+            return;
+        }
+        boolean red = entry.colorFlag == CompoundFileBinary.COLOR_RED;
+        if (red && parentRed) {
+            problem(name + ": red entry " + streamId + " has red parent");
+        }
+        verifyNode(name, entry.leftSiblingId, entries, visited, inOrder, red);
+        inOrder.add(entry);
+        verifyNode(name, entry.rightSiblingId, entries, visited, inOrder, red);
+    }
+
+    private void verifyStreams(List<DirectoryEntry> entries, long miniStreamStartingSector, long miniStreamSize) throws IOException {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (final DirectoryEntry entry : entries) {
+            if (entry.objectType != CompoundFileBinary.TYPE_STREAM_OBJECT || entry.streamSize == 0) {
+                continue;
+            }
+            final String name = "Stream " + entry.streamId + " \"" + entry.getFilename() + "\"";
+            if (entry.streamSize < miniStreamCutoffSize) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        walkMiniChain(name, entry.startingSectorLocation, (entry.streamSize + MINI_SECTOR_LENGTH - 1) / MINI_SECTOR_LENGTH);
+                        return null;
+                    }
+                });
+            } else {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        walkChain(name, entry.startingSectorLocation, (entry.streamSize + sectorLength - 1) / sectorLength);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        if (threadCount == 1 || tasks.size() < 2) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception ex) {
+                    throw new IOException(ex);
+                }
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, tasks.size()));
+        try {
+            List<Future<Void>> futures = executor.invokeAll(tasks);
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Verification interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
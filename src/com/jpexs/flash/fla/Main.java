@@ -19,6 +19,11 @@
 package com.jpexs.flash.fla;
 
 import com.jpexs.cfb.CompoundFileBinary;
+import com.jpexs.cfb.CompoundFileBinaryVerifier;
+import com.jpexs.flash.fla.batch.BatchConverter;
+import com.jpexs.flash.fla.batch.BatchJob;
+import com.jpexs.flash.fla.batch.BatchListenerInterface;
+import com.jpexs.flash.fla.batch.BatchResult;
 import com.jpexs.flash.fla.converter.FlaConverter;
 import com.jpexs.flash.fla.converter.FlaFormatVersion;
 import com.jpexs.flash.fla.converter.streams.CfbOutputStorage;
@@ -27,9 +32,15 @@ import com.jpexs.flash.fla.converter.streams.InputStorageInterface;
 import com.jpexs.flash.fla.converter.streams.OutputStorageInterface;
 import com.jpexs.flash.fla.converter.streams.ZippedInputStorage;
 import com.jpexs.flash.fla.gui.Gui;
+import com.jpexs.flash.fla.probe.FlaProbe;
+import com.jpexs.flash.fla.probe.FlaProbeResult;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -55,7 +66,7 @@ public class Main {
             }
             if (arg.startsWith("--")) {
                 arg = arg.substring(2);
-                if (!arg.matches("^[a-z_A-Z0-9]+(=.*)?$")) {
+                if (!arg.matches("^[a-z_A-Z0-9][a-z_A-Z0-9-]*(=.*)?$")) {
                     throw new IllegalArgumentException("Invalid option: --" + arg);
                 }
                 if (definedLongOptions.contains(arg)) {
@@ -121,9 +132,15 @@ public class Main {
             case "--help":
             case "help":
                 System.out.println("Usage:");
-                System.out.println("java -jar flacomdoc.jar convert [--format <format>] [--charset <charset>] inputfile.fla/xfl outputfile.fla");
+                System.out.println("java -jar flacomdoc.jar convert [--format <format>] [--charset <charset>] [--threads <count>] inputfile.fla/xfl outputfile.fla");
                 System.out.println(" OR ");
-                System.out.println("java -jar flacomdoc.jar extract inputfile.fla outputdir");
+                System.out.println("java -jar flacomdoc.jar convert-batch [--format <format>] [--charset <charset>] [--threads <count>] [--summary <summary.json>] (--manifest <manifest.txt> | inputdir/glob) outputdir");
+                System.out.println(" OR ");
+                System.out.println("java -jar flacomdoc.jar extract [--link-duplicates] inputfile.fla outputdir");
+                System.out.println(" OR ");
+                System.out.println("java -jar flacomdoc.jar verify inputfile.fla [inputfile2.fla ...]");
+                System.out.println(" OR ");
+                System.out.println("java -jar flacomdoc.jar probe [--threads <count>] inputfile.fla/inputdir [inputfile2.fla/inputdir2 ...]");
                 System.out.println();
                 System.out.print("Available formats for --format: ");
                 boolean first = true;
@@ -143,7 +160,7 @@ public class Main {
                 int pos = 1;
                 Map<String, String> options = new HashMap<>();
                 try {
-                    pos = parseOptions(args, "f:c:", Arrays.asList("format:", "charset:"), options);
+                    pos = parseOptions(args, "f:c:t:", Arrays.asList("format:", "charset:", "threads:"), options);
                 } catch (IllegalArgumentException iex) {
                     System.err.println(iex.getMessage());
                     System.exit(1);
@@ -156,12 +173,19 @@ public class Main {
                     System.err.println("Cannot combine --charset and -c options");
                     System.exit(1);
                 }
+                if (options.containsKey("threads") && options.containsKey("t")) {
+                    System.err.println("Cannot combine --threads and -t options");
+                    System.exit(1);
+                }
                 if (options.containsKey("f")) {
                     options.put("format", options.get("f"));
                 }
                 if (options.containsKey("c")) {
                     options.put("charset", options.get("c"));
                 }
+                if (options.containsKey("t")) {
+                    options.put("threads", options.get("t"));
+                }
 
                 String charset = "WINDOWS-1252";
                 if (options.containsKey("charset")) {
@@ -182,9 +206,22 @@ public class Main {
                     }
                 }
 
+                int threadCount = Runtime.getRuntime().availableProcessors();
+                if (options.containsKey("threads")) {
+                    try {
+                        threadCount = Integer.parseInt(options.get("threads"));
+                    } catch (NumberFormatException nfe) {
+                        threadCount = 0;
+                    }
+                    if (threadCount < 1) {
+                        System.err.println("Invalid --threads value");
+                        System.exit(1);
+                    }
+                }
+
                 if (pos + 1 >= args.length) {
                     System.err.println("Invalid arguments for convert.");
-                    System.err.println("Usage: java -jar flacomdoc.jar convert [--format <format>] inputfile.fla/xfl outputfile.fla");
+                    System.err.println("Usage: java -jar flacomdoc.jar convert [--format <format>] [--charset <charset>] [--threads <count>] inputfile.fla/xfl outputfile.fla");
                     System.exit(1);
                 }
                 File inputFile = new File(args[pos]);
@@ -202,13 +239,14 @@ public class Main {
                 try {
                     InputStorageInterface inputStorage;
                     if (inputFile.getAbsolutePath().toLowerCase().endsWith(".xfl")) {
-                        inputStorage = new DirectoryInputStorage(inputFile.getParentFile());
+                        inputStorage = new DirectoryInputStorage(inputFile.getParentFile(), true);
                     } else {
                         inputStorage = new ZippedInputStorage(inputFile);
                     }
                     OutputStorageInterface outputStorage = new CfbOutputStorage(outputFile);
 
                     FlaConverter contentsGenerator = new FlaConverter(flaFormatVersion, charset);
+                    contentsGenerator.setThreadCount(threadCount);
                     contentsGenerator.convert(inputStorage, outputStorage);
                     inputStorage.close();
                     outputStorage.close();
@@ -219,14 +257,133 @@ public class Main {
                 }
             }
             break;
+            case "convert-batch": {
+                int pos = 1;
+                Map<String, String> options = new HashMap<>();
+                try {
+                    pos = parseOptions(args, "f:c:t:m:s:", Arrays.asList("format:", "charset:", "threads:", "manifest:", "summary:"), options);
+                } catch (IllegalArgumentException iex) {
+                    System.err.println(iex.getMessage());
+                    System.exit(1);
+                }
+                String[][] optionPairs = new String[][]{
+                    {"format", "f"},
+                    {"charset", "c"},
+                    {"threads", "t"},
+                    {"manifest", "m"},
+                    {"summary", "s"}
+                };
+                for (String[] optionPair : optionPairs) {
+                    if (options.containsKey(optionPair[0]) && options.containsKey(optionPair[1])) {
+                        System.err.println("Cannot combine --" + optionPair[0] + " and -" + optionPair[1] + " options");
+                        System.exit(1);
+                    }
+                    if (options.containsKey(optionPair[1])) {
+                        options.put(optionPair[0], options.get(optionPair[1]));
+                    }
+                }
+
+                String charset = "WINDOWS-1252";
+                if (options.containsKey("charset")) {
+                    charset = options.get("charset");
+                    if (!Charset.isSupported(charset)) {
+                        System.err.println("The charset " + charset + " is NOT supported by Java");
+                        System.exit(1);
+                    }
+                }
+
+                FlaFormatVersion flaFormatVersion = FlaFormatVersion.CS4;
+                if (options.containsKey("format")) {
+                    try {
+                        flaFormatVersion = FlaFormatVersion.valueOf(options.get("format"));
+                    } catch (IllegalArgumentException iex) {
+                        System.err.println("Invalid --format value");
+                        System.exit(1);
+                    }
+                }
+
+                int threadCount = Runtime.getRuntime().availableProcessors();
+                if (options.containsKey("threads")) {
+                    try {
+                        threadCount = Integer.parseInt(options.get("threads"));
+                    } catch (NumberFormatException nfe) {
+                        threadCount = 0;
+                    }
+                    if (threadCount < 1) {
+                        System.err.println("Invalid --threads value");
+                        System.exit(1);
+                    }
+                }
+
+                boolean hasManifest = options.containsKey("manifest");
+                if (pos + (hasManifest ? 1 : 2) != args.length) {
+                    System.err.println("Invalid arguments for convert-batch.");
+                    System.err.println("Usage: java -jar flacomdoc.jar convert-batch [--format <format>] [--charset <charset>] [--threads <count>] [--summary <summary.json>] (--manifest <manifest.txt> | inputdir/glob) outputdir");
+                    System.exit(1);
+                }
+                File outputDir = new File(args[args.length - 1]);
+                File summaryFile = new File(outputDir, "summary.json");
+                if (options.containsKey("summary")) {
+                    summaryFile = new File(options.get("summary"));
+                }
+
+                boolean allValid = true;
+                try {
+                    List<BatchJob> jobs;
+                    if (hasManifest) {
+                        jobs = BatchConverter.readManifest(new File(options.get("manifest")), outputDir);
+                    } else {
+                        jobs = BatchConverter.findJobs(args[pos], outputDir);
+                    }
+                    BatchConverter batchConverter = new BatchConverter(flaFormatVersion, charset);
+                    batchConverter.setThreadCount(threadCount);
+                    batchConverter.setListener(new BatchListenerInterface() {
+                        @Override
+                        public void documentFinished(BatchResult result) {
+                            System.out.println(result);
+                        }
+                    });
+                    long startTime = System.nanoTime();
+                    List<BatchResult> results = batchConverter.convertAll(jobs);
+                    long timeMs = (System.nanoTime() - startTime) / 1000000;
+                    for (BatchResult result : results) {
+                        if (!result.isValid()) {
+                            allValid = false;
+                        }
+                    }
+                    File summaryDir = summaryFile.getAbsoluteFile().getParentFile();
+                    if (!summaryDir.exists()) {
+                        summaryDir.mkdirs();
+                    }
+                    try (Writer writer = new OutputStreamWriter(new FileOutputStream(summaryFile), "UTF-8")) {
+                        batchConverter.writeSummary(writer, results, timeMs);
+                    }
+                } catch (IOException | UnsupportedOperationException ex) {
+                    System.err.println("Error: " + ex.getLocalizedMessage());
+                    System.exit(1);
+                }
+                if (!allValid) {
+                    System.exit(1);
+                }
+            }
+            break;
             case "extract": {
-                if (args.length != 3) {
+                int pos = 1;
+                Map<String, String> options = new HashMap<>();
+                try {
+                    pos = parseOptions(args, "l", Arrays.asList("link-duplicates"), options);
+                } catch (IllegalArgumentException iex) {
+                    System.err.println(iex.getMessage());
+                    System.exit(1);
+                }
+                boolean linkDuplicates = options.containsKey("l") || options.containsKey("link-duplicates");
+                if (pos + 2 != args.length) {
                     System.err.println("Invalid arguments for extract.");
-                    System.err.println("Usage: java -jar flacomdoc.jar extract inputfile.fla outputdir");
+                    System.err.println("Usage: java -jar flacomdoc.jar extract [--link-duplicates] inputfile.fla outputdir");
                     System.exit(1);
                 }
-                File inputFile = new File(args[1]);
-                File outputDir = new File(args[2]);
+                File inputFile = new File(args[pos]);
+                File outputDir = new File(args[pos + 1]);
 
                 if (!inputFile.exists()) {
                     System.err.println("Input file does not exists");
@@ -247,7 +404,7 @@ public class Main {
 
                 try {
                     CompoundFileBinary cfb = new CompoundFileBinary(inputFile);
-                    cfb.extractTo("", outputDir);
+                    cfb.extractTo("", outputDir, linkDuplicates);
                     cfb.close();
                 } catch (IOException ex) {
                     System.err.println("Error: " + ex.getLocalizedMessage());
@@ -255,6 +412,99 @@ public class Main {
                 }
             }
             break;
+            case "verify": {
+                if (args.length < 2) {
+                    System.err.println("Invalid arguments for verify.");
+                    System.err.println("Usage: java -jar flacomdoc.jar verify inputfile.fla [inputfile2.fla ...]");
+                    System.exit(1);
+                }
+                boolean allValid = true;
+                for (int i = 1; i < args.length; i++) {
+                    File inputFile = new File(args[i]);
+                    if (!inputFile.isFile()) {
+                        System.err.println(args[i] + ": Input file does not exists");
+                        allValid = false;
+                        continue;
+                    }
+                    try {
+                        List<String> problems = CompoundFileBinaryVerifier.verify(inputFile);
+                        if (problems.isEmpty()) {
+                            System.out.println(args[i] + ": OK");
+                        } else {
+                            allValid = false;
+                            for (String problem : problems) {
+                                System.out.println(args[i] + ": " + problem);
+                            }
+                        }
+                    } catch (IOException ex) {
+                        allValid = false;
+                        System.err.println(args[i] + ": Error: " + ex.getLocalizedMessage());
+                    }
+                }
+                if (!allValid) {
+                    System.exit(1);
+                }
+            }
+            break;
+            case "probe": {
+                int pos = 1;
+                Map<String, String> options = new HashMap<>();
+                try {
+                    pos = parseOptions(args, "t:", Arrays.asList("threads:"), options);
+                } catch (IllegalArgumentException iex) {
+                    System.err.println(iex.getMessage());
+                    System.exit(1);
+                }
+                if (options.containsKey("t")) {
+                    options.put("threads", options.get("t"));
+                }
+                int threadCount = Runtime.getRuntime().availableProcessors();
+                if (options.containsKey("threads")) {
+                    try {
+                        threadCount = Integer.parseInt(options.get("threads"));
+                    } catch (NumberFormatException nfe) {
+                        threadCount = 0;
+                    }
+                    if (threadCount < 1) {
+                        System.err.println("Invalid --threads value");
+                        System.exit(1);
+                    }
+                }
+                if (pos >= args.length) {
+                    System.err.println("Invalid arguments for probe.");
+                    System.err.println("Usage: java -jar flacomdoc.jar probe [--threads <count>] inputfile.fla/inputdir [inputfile2.fla/inputdir2 ...]");
+                    System.exit(1);
+                }
+                boolean allValid = true;
+                try {
+                    List<FlaProbeResult> results = new ArrayList<>();
+                    List<File> files = new ArrayList<>();
+                    for (int i = pos; i < args.length; i++) {
+                        File inputFile = new File(args[i]);
+                        if (inputFile.isDirectory()) {
+                            results.addAll(FlaProbe.probeAll(files, threadCount));
+                            files.clear();
+                            results.addAll(FlaProbe.probeTree(inputFile, threadCount));
+                        } else {
+                            files.add(inputFile);
+                        }
+                    }
+                    results.addAll(FlaProbe.probeAll(files, threadCount));
+                    for (FlaProbeResult result : results) {
+                        if (!result.isValid()) {
+                            allValid = false;
+                        }
+                        System.out.println(result);
+                    }
+                } catch (IOException ex) {
+                    System.err.println("Error: " + ex.getLocalizedMessage());
+                    System.exit(1);
+                }
+                if (!allValid) {
+                    System.exit(1);
+                }
+            }
+            break;
             default:
                 System.err.println("Invalid command");
                 System.exit(1);
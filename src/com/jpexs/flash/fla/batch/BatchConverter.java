@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.batch;
+
+import com.jpexs.flash.fla.converter.FlaConverter;
+import com.jpexs.flash.fla.converter.FlaFormatVersion;
+import com.jpexs.flash.fla.converter.streams.CfbOutputStorage;
+import com.jpexs.flash.fla.converter.streams.DirectoryInputStorage;
+import com.jpexs.flash.fla.converter.streams.InputStorageInterface;
+import com.jpexs.flash.fla.converter.streams.OutputStorageInterface;
+import com.jpexs.flash.fla.converter.streams.ZippedInputStorage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Converts many documents in one JVM. Documents are converted in parallel,
+ * each on its own thread, so the font list, loaded classes and compiled code
+ * are shared by all of them. Failure of a document does not stop the batch,
+ * it is reported in its result. StackOverflowError of a deeply nested
+ * document is reported in its result too, the stack unwinds with it. Other
+ * Errors like OutOfMemoryError hit whichever document allocates, so they stop
+ * the whole batch.
+ *
+ * @author JPEXS
+ */
+public class BatchConverter {
+
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    /**
+     * Prefetching threads of each zipped document. Documents already run in
+     * parallel, so one thread per document keeps reading ahead of it.
+     */
+    private static final int PREFETCH_THREAD_COUNT = 1;
+
+    /**
+     * Prefetch memory budget of each zipped document.
+     */
+    private static final long PREFETCH_MEMORY_BUDGET = 8 * 1024 * 1024;
+
+    private final FlaFormatVersion flaFormatVersion;
+    private final String charset;
+
+    private int threadCount = 1;
+
+    private BatchListenerInterface listener = null;
+
+    public BatchConverter(FlaFormatVersion flaFormatVersion, String charset) {
+        if (flaFormatVersion.ordinal() < FlaFormatVersion.F5.ordinal()) {
+            throw new UnsupportedOperationException("Version " + flaFormatVersion + " is not supported yet");
+        }
+        this.flaFormatVersion = flaFormatVersion;
+        this.charset = charset;
+    }
+
+    /**
+     * Sets number of documents converted at the same time.
+     *
+     * @param threadCount Number of threads
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Sets listener of progress.
+     *
+     * @param listener Listener or null
+     */
+    public void setListener(BatchListenerInterface listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Reads jobs from manifest. Manifest is UTF-8 text file with one document
+     * per line - input file, optionally followed by tab and output file.
+     * Empty lines and lines starting with # are ignored. Relative input files
+     * are resolved against directory of the manifest, relative output files
+     * against the output directory. Without output file, the output is named
+     * after the input, with fla extension, in the output directory.
+     *
+     * @param manifestFile Manifest file
+     * @param outputDir Output directory
+     * @return Jobs in manifest order
+     * @throws IOException On I/O error or invalid line
+     */
+    public static List<BatchJob> readManifest(File manifestFile, File outputDir) throws IOException {
+        File baseDir = manifestFile.getAbsoluteFile().getParentFile();
+        List<BatchJob> jobs = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"))) {
+            String line;
+            int lineNum = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNum++;
+                if (lineNum == 1 && line.startsWith("\uFEFF")) {
+                    line = line.substring(1);
+                }
+                if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\t", -1);
+                if (parts.length > 2 || parts[0].trim().isEmpty()) {
+                    throw new IOException("Invalid manifest line " + lineNum + ": " + line);
+                }
+                File inputFile = resolve(baseDir, parts[0].trim());
+                File outputFile;
+                if (parts.length == 2 && !parts[1].trim().isEmpty()) {
+                    outputFile = resolve(outputDir, parts[1].trim());
+                } else {
+                    outputFile = new File(outputDir, getOutputName(inputFile.getName()));
+                }
+                jobs.add(new BatchJob(inputFile, outputFile));
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Finds jobs for *.fla and *.xfl files matching a glob pattern, like
+     * projects/**&#47;*.xfl. The pattern is matched against paths relative to
+     * the directory before the first wildcard. Directory matches all the
+     * files in its tree. Outputs have the same relative paths in the output
+     * directory, with fla extension. The output directory is not searched.
+     *
+     * @param glob Glob pattern or directory
+     * @param outputDir Output directory
+     * @return Jobs sorted by input path
+     * @throws IOException On I/O error while walking the tree
+     */
+    public static List<BatchJob> findJobs(String glob, File outputDir) throws IOException {
+        final Path baseDir;
+        final PathMatcher matcher;
+        if (new File(glob).isDirectory()) {
+            baseDir = new File(glob).toPath();
+            matcher = null;
+        } else {
+            int globStart = -1;
+            for (int i = 0; i < glob.length(); i++) {
+                if (GLOB_CHARACTERS.indexOf(glob.charAt(i)) != -1) {
+                    globStart = i;
+                    break;
+                }
+            }
+            if (globStart == -1) {
+                File inputFile = new File(glob);
+                if (!inputFile.isFile()) {
+                    throw new FileNotFoundException(glob);
+                }
+                return Collections.singletonList(new BatchJob(inputFile, new File(outputDir, getOutputName(inputFile.getName()))));
+            }
+            int separatorPos = Math.max(glob.lastIndexOf('/', globStart), glob.lastIndexOf(File.separatorChar, globStart));
+            if (separatorPos == -1) {
+                baseDir = new File(".").toPath();
+            } else if (separatorPos == 0) {
+                baseDir = new File(glob.substring(0, 1)).toPath();
+            } else {
+                baseDir = new File(glob.substring(0, separatorPos)).toPath();
+            }
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob.substring(separatorPos + 1));
+        }
+        if (!Files.isDirectory(baseDir)) {
+            throw new FileNotFoundException(baseDir.toString());
+        }
+        final Path outputPath = outputDir.toPath().toAbsolutePath().normalize();
+        final List<Path> files = new ArrayList<>();
+        Files.walkFileTree(baseDir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(baseDir) && dir.toAbsolutePath().normalize().equals(outputPath)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String name = file.getFileName().toString().toLowerCase();
+                if (attrs.isRegularFile()
+                        && (name.endsWith(".fla") || name.endsWith(".xfl"))
+                        && (matcher == null || matcher.matches(baseDir.relativize(file)))) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(files);
+        List<BatchJob> jobs = new ArrayList<>();
+        for (Path file : files) {
+            Path relativePath = baseDir.relativize(file);
+            Path outputFile = outputDir.toPath().resolve(relativePath.resolveSibling(getOutputName(file.getFileName().toString())));
+            jobs.add(new BatchJob(file.toFile(), outputFile.toFile()));
+        }
+        return jobs;
+    }
+
+    private static File resolve(File baseDir, String path) {
+        File file = new File(path);
+        if (file.isAbsolute()) {
+            return file;
+        }
+        return new File(baseDir, path);
+    }
+
+    private static String getOutputName(String inputName) {
+        int dotPos = inputName.lastIndexOf('.');
+        if (dotPos > 0) {
+            inputName = inputName.substring(0, dotPos);
+        }
+        return inputName + ".fla";
+    }
+
+    /**
+     * Converts documents in parallel. When more jobs have the same output
+     * file, only the first one is converted, the others fail.
+     *
+     * @param jobs Jobs
+     * @return Results in the same order as jobs
+     * @throws IOException When the batch was interrupted
+     * @throws Error When a conversion failed with an Error other than
+     * StackOverflowError, the remaining conversions are cancelled
+     */
+    public List<BatchResult> convertAll(List<BatchJob> jobs) throws IOException {
+        List<BatchResult> results = new ArrayList<>();
+        if (jobs.isEmpty()) {
+            return results;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, jobs.size()));
+        List<Future<BatchResult>> futures = new ArrayList<>();
+        try {
+            Set<Path> outputs = new HashSet<>();
+            for (final BatchJob job : jobs) {
+                if (!outputs.add(job.getOutputFile().toPath().toAbsolutePath().normalize())) {
+                    FutureTask<BatchResult> task = new FutureTask<>(new Callable<BatchResult>() {
+                        @Override
+                        public BatchResult call() {
+                            return new BatchResult(job, 0, getInputSize(job.getInputFile()), "Output file is used by another document");
+                        }
+                    });
+                    task.run();
+                    futures.add(task);
+                    continue;
+                }
+                futures.add(executor.submit(new Callable<BatchResult>() {
+                    @Override
+                    public BatchResult call() {
+                        return convert(job);
+                    }
+                }));
+            }
+            for (Future<BatchResult> future : futures) {
+                BatchResult result = future.get();
+                if (listener != null) {
+                    listener.documentFinished(result);
+                }
+                results.add(result);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+            throw new IOException("Batch conversion interrupted", ex);
+        } catch (ExecutionException ex) {
+            executor.shutdownNow();
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return results;
+    }
+
+    /**
+     * Converts single document. The document is converted to a temporary
+     * file next to the output file, which replaces the output file only when
+     * the conversion succeeds. A failed conversion leaves existing output file
+     * untouched. Jobs whose output file is the input file fail.
+     *
+     * @param job Job
+     * @return Result
+     */
+    public BatchResult convert(BatchJob job) {
+        long startTime = System.nanoTime();
+        File inputFile = job.getInputFile();
+        File outputFile = job.getOutputFile();
+        long inputSize = getInputSize(inputFile);
+        try {
+            if (!inputFile.isFile()) {
+                throw new FileNotFoundException("Input file does not exists");
+            }
+            if (isSameFile(inputFile, outputFile)) {
+                throw new IOException("Output file is the same as input file");
+            }
+            File outputParent = outputFile.getAbsoluteFile().getParentFile();
+            if (!outputParent.isDirectory() && !outputParent.mkdirs() && !outputParent.isDirectory()) {
+                throw new IOException("Cannot create directory " + outputParent);
+            }
+            File tempFile = File.createTempFile(outputFile.getName() + ".", ".tmp", outputParent);
+            try {
+                try (InputStorageInterface inputStorage = openInputStorage(inputFile);
+                        OutputStorageInterface outputStorage = new CfbOutputStorage(tempFile)) {
+                    FlaConverter converter = new FlaConverter(flaFormatVersion, charset);
+                    converter.convert(inputStorage, outputStorage);
+                }
+                Files.move(tempFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                tempFile.delete();
+            }
+            return new BatchResult(job, getTimeMs(startTime), inputSize, outputFile.length());
+        } catch (Exception | StackOverflowError ex) {
+            String message = ex.getMessage() == null ? ex.toString() : ex.getMessage();
+            return new BatchResult(job, getTimeMs(startTime), inputSize, message);
+        }
+    }
+
+    private static boolean isSameFile(File inputFile, File outputFile) throws IOException {
+        Path inputPath = inputFile.toPath().toAbsolutePath().normalize();
+        Path outputPath = outputFile.toPath().toAbsolutePath().normalize();
+        if (inputPath.equals(outputPath)) {
+            return true;
+        }
+        return outputFile.exists() && Files.isSameFile(inputPath, outputPath);
+    }
+
+    private static InputStorageInterface openInputStorage(File inputFile) throws IOException {
+        if (inputFile.getName().toLowerCase().endsWith(".xfl")) {
+            return new DirectoryInputStorage(inputFile.getAbsoluteFile().getParentFile(), true);
+        }
+        return new ZippedInputStorage(inputFile, PREFETCH_THREAD_COUNT, PREFETCH_MEMORY_BUDGET);
+    }
+
+    private static long getTimeMs(long startTime) {
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    private static long getInputSize(File inputFile) {
+        if (!inputFile.isFile()) {
+            return -1;
+        }
+        if (!inputFile.getName().toLowerCase().endsWith(".xfl")) {
+            return inputFile.length();
+        }
+        final long[] size = new long[]{0};
+        try {
+            Files.walkFileTree(inputFile.getAbsoluteFile().getParentFile().toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    size[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            return -1;
+        }
+        return size[0];
+    }
+
+    /**
+     * Writes JSON summary of the batch.
+     *
+     * @param writer Writer
+     * @param results Results
+     * @param timeMs Total time of the batch in milliseconds
+     * @throws IOException On I/O error
+     */
+    public void writeSummary(Writer writer, List<BatchResult> results, long timeMs) throws IOException {
+        int failedCount = 0;
+        for (BatchResult result : results) {
+            if (!result.isValid()) {
+                failedCount++;
+            }
+        }
+        writer.write("{\n");
+        writer.write("  \"format\": " + toJsonString(flaFormatVersion.toString()) + ",\n");
+        writer.write("  \"charset\": " + toJsonString(charset) + ",\n");
+        writer.write("  \"threads\": " + threadCount + ",\n");
+        writer.write("  \"total\": " + results.size() + ",\n");
+        writer.write("  \"succeeded\": " + (results.size() - failedCount) + ",\n");
+        writer.write("  \"failed\": " + failedCount + ",\n");
+        writer.write("  \"timeMs\": " + timeMs + ",\n");
+        writer.write("  \"documents\": [");
+        for (int i = 0; i < results.size(); i++) {
+            BatchResult result = results.get(i);
+            writer.write(i == 0 ? "\n" : ",\n");
+            writer.write("    {\"input\": " + toJsonString(result.getJob().getInputFile().getPath()));
+            writer.write(", \"output\": " + toJsonString(result.getJob().getOutputFile().getPath()));
+            writer.write(", \"status\": " + (result.isValid() ? "\"ok\"" : "\"error\""));
+            writer.write(", \"timeMs\": " + result.getTimeMs());
+            writer.write(", \"inputSize\": " + result.getInputSize());
+            if (result.isValid()) {
+                writer.write(", \"outputSize\": " + result.getOutputSize());
+            } else {
+                writer.write(", \"error\": " + toJsonString(result.getError()));
+            }
+            writer.write("}");
+        }
+        writer.write(results.isEmpty() ? "]\n" : "\n  ]\n");
+        writer.write("}\n");
+        writer.flush();
+    }
+
+    private static String toJsonString(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+}
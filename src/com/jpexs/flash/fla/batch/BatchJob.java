@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.batch;
+
+import java.io.File;
+
+/**
+ * Document to convert in a batch.
+ *
+ * @author JPEXS
+ */
+public class BatchJob {
+
+    private final File inputFile;
+    private final File outputFile;
+
+    /**
+     * Creates job.
+     *
+     * @param inputFile Input *.fla file or *.xfl file inside the XFL directory
+     * @param outputFile Output *.fla file
+     */
+    public BatchJob(File inputFile, File outputFile) {
+        this.inputFile = inputFile;
+        this.outputFile = outputFile;
+    }
+
+    public File getInputFile() {
+        return inputFile;
+    }
+
+    public File getOutputFile() {
+        return outputFile;
+    }
+
+    @Override
+    public String toString() {
+        return inputFile + " -> " + outputFile;
+    }
+}
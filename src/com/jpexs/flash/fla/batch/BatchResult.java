@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.batch;
+
+/**
+ * Result of converting one document of a batch.
+ *
+ * @author JPEXS
+ */
+public class BatchResult {
+
+    private final BatchJob job;
+    private final long timeMs;
+    private final long inputSize;
+    private final long outputSize;
+    private final String error;
+
+    public BatchResult(BatchJob job, long timeMs, long inputSize, long outputSize) {
+        this.job = job;
+        this.timeMs = timeMs;
+        this.inputSize = inputSize;
+        this.outputSize = outputSize;
+        this.error = null;
+    }
+
+    public BatchResult(BatchJob job, long timeMs, long inputSize, String error) {
+        this.job = job;
+        this.timeMs = timeMs;
+        this.inputSize = inputSize;
+        this.outputSize = -1;
+        this.error = error;
+    }
+
+    public BatchJob getJob() {
+        return job;
+    }
+
+    /**
+     * Gets conversion time.
+     *
+     * @return Time in milliseconds
+     */
+    public long getTimeMs() {
+        return timeMs;
+    }
+
+    /**
+     * Gets size of the input. For XFL, it is total size of files in the XFL
+     * directory.
+     *
+     * @return Size in bytes or -1 when not available
+     */
+    public long getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * Gets size of the output file.
+     *
+     * @return Size in bytes or -1 when the conversion failed
+     */
+    public long getOutputSize() {
+        return outputSize;
+    }
+
+    /**
+     * Gets error message.
+     *
+     * @return Error or null when conversion succeeded
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isValid() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        if (error != null) {
+            return job.getInputFile() + ": error " + error;
+        }
+        return job.getInputFile() + ": OK, " + timeMs + " ms, output size " + outputSize;
+    }
+}
@@ -18,7 +18,9 @@
  */
 package com.jpexs.flash.fla.converter;
 
+import com.jpexs.flash.fla.converter.trace.TraceSinkInterface;
 import com.jpexs.helpers.Reference;
+import com.jpexs.helpers.ValueParser;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.GraphicsEnvironment;
@@ -28,8 +30,6 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -42,6 +42,10 @@ public abstract class AbstractConverter {
 
     protected boolean debugRandom = false;
 
+    protected TraceSinkInterface traceSink = null;
+
+    protected LibraryIndex libraryIndex = null;
+
     protected static final Map<String, Font> psNameToFontName = new HashMap<>();
 
     static {
@@ -63,6 +67,42 @@ public abstract class AbstractConverter {
         this.debugRandom = debugRandom;
     }
 
+    /**
+     * Sets sink for tracing written edges. By default, edges are traced to
+     * the FlaWriter logger when its FINE level is enabled.
+     *
+     * @param traceSink Trace sink or null for default
+     */
+    public void setTraceSink(TraceSinkInterface traceSink) {
+        this.traceSink = traceSink;
+    }
+
+    /**
+     * Sets library index shared with other converters of the same document.
+     *
+     * @param libraryIndex Library index or null to build own
+     */
+    public void setLibraryIndex(LibraryIndex libraryIndex) {
+        this.libraryIndex = libraryIndex;
+    }
+
+    protected LibraryIndex getLibraryIndex(Element document) {
+        if (libraryIndex == null || libraryIndex.getDocument() != document) {
+            libraryIndex = createLibraryIndex(document);
+        }
+        return libraryIndex;
+    }
+
+    protected LibraryIndex createLibraryIndex(Element document) {
+        return new LibraryIndex(
+                document,
+                getSymbols(document),
+                getMedia(document),
+                getAllSubElementsByName(getSubElementByName(document, "folders"), "DOMFolderItem"),
+                getAllSubElementsByName(getSubElementByName(document, "fonts"), "DOMFontItem")
+        );
+    }
+
     protected Element getFirstSubElement(Node n) {
         NodeList list = n.getChildNodes();
         for (int i = 0; i < list.getLength(); i++) {
@@ -138,13 +178,11 @@ public abstract class AbstractConverter {
     }
 
     protected Color parseColor(String value) {
-        Pattern pat = Pattern.compile("^#([a-fA-F0-9]{6})$");
-        Matcher m = pat.matcher(value);
-        if (m.matches()) {
-            int rgb = Integer.parseInt(m.group(1), 16);
-            return new Color(rgb);
+        try {
+            return new Color(ValueParser.parseColor(value));
+        } catch (NumberFormatException nfe) {
+            throw new IllegalArgumentException("Invalid color: " + value);
         }
-        throw new IllegalArgumentException("Invalid color: " + value);
     }
 
     protected Matrix parseMatrix(Element matrixElement) {
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable block of FLA data prepared in advance, with holes for strings
+ * which are known only when the block is written.
+ *
+ * Templates are recorded once by running the usual FlaWriter methods against
+ * memory. Constant parts are then written by bulk copy, holes are written by
+ * writeBomString. A hole is a pattern which can contain parameter
+ * placeholders created by the parameter method.
+ *
+ * @author JPEXS
+ */
+public final class ByteTemplate {
+
+    private static final char PARAMETER_MARK = '\u0000';
+
+    private final byte[][] parts;
+
+    private final String[] holes;
+
+    private ByteTemplate(byte[][] parts, String[] holes) {
+        this.parts = parts;
+        this.holes = holes;
+    }
+
+    /**
+     * Gets placeholder of a parameter to be used in hole patterns.
+     *
+     * @param index Parameter index, 0 to 9
+     * @return Placeholder
+     */
+    public static String parameter(int index) {
+        if (index < 0 || index > 9) {
+            throw new IllegalArgumentException("Parameter index must be 0 to 9");
+        }
+        return "" + PARAMETER_MARK + (char) ('0' + index);
+    }
+
+    public static boolean hasParameters(String pattern) {
+        return pattern.indexOf(PARAMETER_MARK) != -1;
+    }
+
+    /**
+     * Replaces parameter placeholders in a pattern.
+     *
+     * @param pattern Pattern
+     * @param parameters Parameters
+     * @return Value
+     */
+    public static String fill(String pattern, String... parameters) {
+        int mark = pattern.indexOf(PARAMETER_MARK);
+        if (mark == -1) {
+            return pattern;
+        }
+        StringBuilder sb = new StringBuilder(pattern.length() + 16);
+        int start = 0;
+        while (mark != -1 && mark + 1 < pattern.length()) {
+            sb.append(pattern, start, mark);
+            sb.append(parameters[pattern.charAt(mark + 1) - '0']);
+            start = mark + 2;
+            mark = pattern.indexOf(PARAMETER_MARK, start);
+        }
+        sb.append(pattern, start, pattern.length());
+        return sb.toString();
+    }
+
+    /**
+     * Writes the block.
+     *
+     * @param fg Writer
+     * @param parameters Parameters of holes
+     * @throws IOException On I/O error
+     */
+    public void writeTo(FlaWriter fg, String... parameters) throws IOException {
+        for (int i = 0; i < holes.length; i++) {
+            fg.write(parts[i]);
+            fg.writeBomString(fill(holes[i], parameters));
+        }
+        fg.write(parts[holes.length]);
+    }
+
+    /**
+     * Records a template.
+     */
+    public static class Builder {
+
+        private final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        private final FlaWriter writer;
+
+        private final List<byte[]> parts = new ArrayList<>();
+
+        private final List<String> holes = new ArrayList<>();
+
+        public Builder(FlaFormatVersion flaFormatVersion, String charset) {
+            writer = new FlaWriter(baos, flaFormatVersion, charset);
+        }
+
+        /**
+         * Gets writer for constant data.
+         *
+         * @return Writer
+         */
+        public FlaWriter getWriter() {
+            return writer;
+        }
+
+        private void endPart() throws IOException {
+            writer.flush();
+            parts.add(baos.toByteArray());
+            baos.reset();
+        }
+
+        /**
+         * Adds hole to be written by writeBomString.
+         *
+         * @param pattern Pattern, can contain parameter placeholders
+         * @return This
+         * @throws IOException On I/O error
+         */
+        public Builder bomStringHole(String pattern) throws IOException {
+            endPart();
+            holes.add(pattern);
+            return this;
+        }
+
+        public ByteTemplate build() throws IOException {
+            endPart();
+            return new ByteTemplate(parts.toArray(new byte[parts.size()][]), holes.toArray(new String[holes.size()]));
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter;
+
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Parsed cubics attribute of XFL Edge element.
+ *
+ * Grammar: "!mx my(pBCPx,pBCPy;x1,y1 x2,y2 ex,ey points)nBCPx,nBCPy;" where
+ * both BCP pairs are optional and points is a list of "x y" pairs, each
+ * optionally prefixed by one of the letters "QqPp". Point without letter uses
+ * the letter of the previous point, the first one defaults to "q".
+ *
+ * The parser is single pass and keeps points in primitive arrays, so one
+ * instance can be reused for all edges of a shape without allocating per
+ * point.
+ *
+ * See
+ * https://stackoverflow.com/questions/4077200/whats-the-meaning-of-the-non-numerical-values-in-the-xfls-edge-definition
+ *
+ * @author JPEXS
+ */
+public final class CubicsCommands {
+
+    private int mx;
+    private int my;
+    private int x1;
+    private int y1;
+    private int x2;
+    private int y2;
+    private int ex;
+    private int ey;
+
+    private boolean hasPrevBCP;
+    private int prevBCPx;
+    private int prevBCPy;
+    private boolean hasNextBCP;
+    private int nextBCPx;
+    private int nextBCPy;
+
+    private int[] xs = new int[16];
+    private int[] ys = new int[16];
+    private byte[] letters = new byte[16];
+    private int pointCount = 0;
+
+    private String s;
+    private int pos;
+
+    /**
+     * Parses cubics attribute. Previously parsed values are replaced.
+     *
+     * @param cubics Cubics
+     * @throws ParseException On invalid cubics, error offset is position of
+     * the first unexpected character
+     */
+    public void parse(String cubics) throws ParseException {
+        s = cubics;
+        pos = 0;
+        pointCount = 0;
+        try {
+            expect('!');
+            mx = readInt();
+            skipSpaces(1);
+            my = readInt();
+            skipSpaces(0);
+            expect('(');
+            hasPrevBCP = isNumberStart();
+            if (hasPrevBCP) {
+                prevBCPx = readInt();
+                skipSpaces(0);
+                expect(',');
+                skipSpaces(0);
+                prevBCPy = readInt();
+            }
+            skipSpaces(0);
+            expect(';');
+            skipSpaces(0);
+            x1 = readInt();
+            expect(',');
+            y1 = readInt();
+            skipSpaces(1);
+            x2 = readInt();
+            expect(',');
+            y2 = readInt();
+            skipSpaces(1);
+            ex = readInt();
+            expect(',');
+            ey = readInt();
+            skipSpaces(0);
+            if (peek() == '-' && !isDigit(peek(1))) {
+                pos++;
+            }
+            byte letter = 'q';
+            do {
+                char c = peek();
+                if (c == 'Q' || c == 'q' || c == 'P' || c == 'p') {
+                    letter = (byte) c;
+                    pos++;
+                }
+                skipSpaces(0);
+                int x = readInt();
+                skipSpaces(1);
+                int y = readInt();
+                addPoint(x, y, letter);
+            } while (isPointStart());
+            skipSpaces(0);
+            expect(')');
+            hasNextBCP = isNumberStart();
+            if (hasNextBCP) {
+                nextBCPx = readInt();
+                skipSpaces(0);
+                expect(',');
+                skipSpaces(0);
+                nextBCPy = readInt();
+            }
+            skipSpaces(0);
+            expect(';');
+            skipSpaces(0);
+            if (pos < s.length()) {
+                throw unexpected();
+            }
+        } finally {
+            s = null;
+        }
+    }
+
+    private ParseException unexpected() {
+        return new ParseException("Invalid cubics at position " + pos + ": " + s, pos);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private char peek() {
+        return peek(0);
+    }
+
+    private char peek(int offset) {
+        return pos + offset < s.length() ? s.charAt(pos + offset) : 0;
+    }
+
+    private boolean isNumberStart() {
+        char c = peek();
+        return c == '-' || isDigit(c);
+    }
+
+    private boolean isPointStart() {
+        char c = peek();
+        if (c == 'Q' || c == 'q' || c == 'P' || c == 'p') {
+            return true;
+        }
+        int i = pos;
+        while (i < s.length() && s.charAt(i) == ' ') {
+            i++;
+        }
+        return i < s.length() && (s.charAt(i) == '-' || isDigit(s.charAt(i)));
+    }
+
+    private void expect(char c) throws ParseException {
+        if (peek() != c) {
+            throw unexpected();
+        }
+        pos++;
+    }
+
+    private void skipSpaces(int minCount) throws ParseException {
+        int start = pos;
+        while (pos < s.length() && s.charAt(pos) == ' ') {
+            pos++;
+        }
+        if (pos - start < minCount) {
+            throw unexpected();
+        }
+    }
+
+    private int readInt() throws ParseException {
+        int start = pos;
+        boolean negative = false;
+        if (peek() == '-') {
+            negative = true;
+            pos++;
+        }
+        if (!isDigit(peek())) {
+            throw unexpected();
+        }
+        long value = 0;
+        while (isDigit(peek())) {
+            value = value * 10 + (s.charAt(pos) - '0');
+            if (value > 0x80000000L) {
+                pos = start;
+                throw unexpected();
+            }
+            pos++;
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value > Integer.MAX_VALUE) {
+            pos = start;
+            throw unexpected();
+        }
+        return (int) value;
+    }
+
+    private void addPoint(int x, int y, byte letter) {
+        if (pointCount == xs.length) {
+            xs = Arrays.copyOf(xs, pointCount * 2);
+            ys = Arrays.copyOf(ys, pointCount * 2);
+            letters = Arrays.copyOf(letters, pointCount * 2);
+        }
+        xs[pointCount] = x;
+        ys[pointCount] = y;
+        letters[pointCount] = letter;
+        pointCount++;
+    }
+
+    public int getMoveX() {
+        return mx;
+    }
+
+    public int getMoveY() {
+        return my;
+    }
+
+    public int getX1() {
+        return x1;
+    }
+
+    public int getY1() {
+        return y1;
+    }
+
+    public int getX2() {
+        return x2;
+    }
+
+    public int getY2() {
+        return y2;
+    }
+
+    public int getEndX() {
+        return ex;
+    }
+
+    public int getEndY() {
+        return ey;
+    }
+
+    public boolean hasPrevBCP() {
+        return hasPrevBCP;
+    }
+
+    public int getPrevBCPx() {
+        return prevBCPx;
+    }
+
+    public int getPrevBCPy() {
+        return prevBCPy;
+    }
+
+    public boolean hasNextBCP() {
+        return hasNextBCP;
+    }
+
+    public int getNextBCPx() {
+        return nextBCPx;
+    }
+
+    public int getNextBCPy() {
+        return nextBCPy;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public int getPointX(int index) {
+        return xs[index];
+    }
+
+    public int getPointY(int index) {
+        return ys[index];
+    }
+
+    /**
+     * Gets letter of point.
+     *
+     * @param index Point index
+     * @return One of 'Q', 'q', 'P', 'p'
+     */
+    public char getPointLetter(int index) {
+        return (char) letters[index];
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter;
+
+import com.jpexs.helpers.ValueParser;
+import java.util.Arrays;
+
+/**
+ * Parsed edges attribute of XFL Edge element.
+ *
+ * The string is tokenized once into a compact command buffer which is then
+ * used both for counting and for writing the edges.
+ *
+ * Grammar: "!x y" moves (y may be followed by "S" and selection), "|x y" and
+ * "/x y" draw line, "[cx cy x y" draws curve. Tokens are separated by
+ * whitespace, commands do not need to be separated.
+ *
+ * @author JPEXS
+ */
+public final class EdgeCommands {
+
+    public static final int COMMAND_MOVE_TO = 0;
+    public static final int COMMAND_LINE_TO = 1;
+    public static final int COMMAND_GENERAL_LINE_TO = 2;
+    public static final int COMMAND_CURVE_TO = 3;
+
+    /**
+     * Commands. COMMAND_MOVE_TO is followed by selection.
+     */
+    private int[] commands;
+    private int commandsLength = 0;
+
+    private double[] coordinates;
+    private int coordinatesLength = 0;
+
+    private int edgeCount = 0;
+
+    private EdgeCommands(int capacity) {
+        commands = new int[Math.max(4, capacity / 8)];
+        coordinates = new double[Math.max(8, capacity / 4)];
+    }
+
+    /**
+     * Parses edges attribute.
+     *
+     * @param edges Edges
+     * @return Commands
+     * @throws IllegalArgumentException On invalid edges
+     */
+    public static EdgeCommands parse(String edges) {
+        EdgeCommands ret = new EdgeCommands(edges.length());
+        new Tokenizer(edges, ret).parse();
+        return ret;
+    }
+
+    /**
+     * Gets number of edges - lines and curves.
+     *
+     * @return Edge count
+     */
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    public boolean isEmpty() {
+        return commandsLength == 0;
+    }
+
+    int getCommandsLength() {
+        return commandsLength;
+    }
+
+    int getCommand(int index) {
+        return commands[index];
+    }
+
+    double getCoordinate(int index) {
+        return coordinates[index];
+    }
+
+    private void addCommand(int command) {
+        if (commandsLength == commands.length) {
+            commands = Arrays.copyOf(commands, commands.length * 2);
+        }
+        commands[commandsLength++] = command;
+    }
+
+    private void addCoordinate(double coordinate) {
+        if (coordinatesLength == coordinates.length) {
+            coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+        }
+        coordinates[coordinatesLength++] = coordinate;
+    }
+
+    private static boolean isCommandChar(char c) {
+        return c == '!' || c == '|' || c == '/' || c == '[';
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\r' || c == '\n' || c == '\t' || c == '\f';
+    }
+
+    private static class Tokenizer {
+
+        private final String s;
+        private final EdgeCommands target;
+        private int pos = 0;
+        private int tokenStart;
+        private int tokenEnd;
+
+        public Tokenizer(String s, EdgeCommands target) {
+            this.s = s;
+            this.target = target;
+        }
+
+        /**
+         * Reads next token.
+         *
+         * @return False when there are no more tokens
+         */
+        private boolean next() {
+            int len = s.length();
+            while (pos < len && isWhitespace(s.charAt(pos))) {
+                pos++;
+            }
+            if (pos == len) {
+                return false;
+            }
+            tokenStart = pos;
+            if (isCommandChar(s.charAt(pos))) {
+                pos++;
+            } else {
+                while (pos < len && !isWhitespace(s.charAt(pos)) && !isCommandChar(s.charAt(pos))) {
+                    pos++;
+                }
+            }
+            tokenEnd = pos;
+            return true;
+        }
+
+        private boolean isCommand() {
+            return tokenEnd - tokenStart == 1 && isCommandChar(s.charAt(tokenStart));
+        }
+
+        private char command() {
+            return s.charAt(tokenStart);
+        }
+
+        /**
+         * Reads arguments of a command.
+         *
+         * @param count Number of arguments
+         * @param starts Start indices
+         * @param ends End indices
+         * @return False when there are not enough arguments before next move
+         */
+        private boolean readArguments(int count, int[] starts, int[] ends) {
+            for (int a = 0; a < count; a++) {
+                int savedPos = pos;
+                if (!next() || (isCommand() && command() == '!')) {
+                    pos = savedPos;
+                    return false;
+                }
+                starts[a] = tokenStart;
+                ends[a] = tokenEnd;
+            }
+            return true;
+        }
+
+        private String arguments(int count, int[] starts, int[] ends) {
+            StringBuilder sb = new StringBuilder();
+            for (int a = 0; a < count; a++) {
+                if (a > 0) {
+                    sb.append(", ");
+                }
+                sb.append(s, starts[a], ends[a]);
+            }
+            return sb.toString();
+        }
+
+        public void parse() {
+            if (!next()) {
+                return;
+            }
+            if (!(isCommand() && command() == '!')) {
+                throw new IllegalArgumentException("edges must start with !");
+            }
+            int[] starts = new int[4];
+            int[] ends = new int[4];
+            boolean hasToken = true;
+            while (hasToken) {
+                //current token is "!"
+                if (!readArguments(2, starts, ends)) {
+                    throw new IllegalArgumentException("! requires two arguments");
+                }
+                int selection = 0;
+                int yEnd = ends[1];
+                int sPos = s.indexOf('S', starts[1]);
+                if (sPos != -1 && sPos < ends[1]) {
+                    selection = Integer.parseInt(s.substring(sPos + 1, ends[1]));
+                    yEnd = sPos;
+                }
+                try {
+                    double x = ValueParser.parseEdgeNumber(s, starts[0], ends[0]);
+                    double y = ValueParser.parseEdgeNumber(s, starts[1], yEnd);
+                    target.addCommand(COMMAND_MOVE_TO);
+                    target.addCommand(selection);
+                    target.addCoordinate(x);
+                    target.addCoordinate(y);
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("! has invalid arguments: " + s.substring(starts[0], ends[0]) + ", " + s.substring(starts[1], yEnd));
+                }
+
+                hasToken = false;
+                while (next()) {
+                    if (!isCommand()) {
+                        //ignored
+                        continue;
+                    }
+                    char c = command();
+                    if (c == '!') {
+                        hasToken = true;
+                        break;
+                    }
+                    int argCount = c == '[' ? 4 : 2;
+                    if (!readArguments(argCount, starts, ends)) {
+                        if (c == '[') {
+                            throw new IllegalArgumentException("[ requires four arguments");
+                        }
+                        throw new IllegalArgumentException(c + " requires two arguments");
+                    }
+                    try {
+                        for (int a = 0; a < argCount; a++) {
+                            target.addCoordinate(ValueParser.parseEdgeNumber(s, starts[a], ends[a]));
+                        }
+                    } catch (NumberFormatException nfe) {
+                        throw new IllegalArgumentException(c + " has invalid arguments: " + arguments(argCount, starts, ends));
+                    }
+                    if (c == '[') {
+                        target.addCommand(COMMAND_CURVE_TO);
+                    } else if (c == '/') {
+                        target.addCommand(COMMAND_GENERAL_LINE_TO);
+                    } else {
+                        target.addCommand(COMMAND_LINE_TO);
+                    }
+                    target.edgeCount++;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Structural fingerprints of DOM elements for fast equality checks.
+ *
+ * Fingerprint is a 64-bit hash over tag name, attributes (independent of
+ * their order) and child nodes. It is computed lazily and cached per element,
+ * so each subtree is hashed once. Equal elements always have equal
+ * fingerprints, elements with equal fingerprints are compared structurally to
+ * rule out collisions.
+ *
+ * The cache holds references to the elements, instance should live only as
+ * long as the elements are needed.
+ *
+ * @author JPEXS
+ */
+public final class ElementFingerprints {
+
+    /**
+     * FNV-1a offset basis and prime for primary fingerprint, other constants
+     * for independent secondary fingerprint.
+     */
+    private static final long[] OFFSET_BASIS = {0xcbf29ce484222325L, 0x84222325cbf29ce4L};
+    private static final long[] PRIME = {0x100000001b3L, 0x9e3779b97f4a7c15L};
+
+    /**
+     * Cached hashes of attributes and content, for primary fingerprint.
+     */
+    private final Map<Element, long[]> primaryCache = new IdentityHashMap<>();
+
+    /**
+     * Cached hashes of attributes and content, for secondary fingerprint. It
+     * is filled only when secondary fingerprint is requested.
+     */
+    private final Map<Element, long[]> secondaryCache = new IdentityHashMap<>();
+
+    /**
+     * Gets fingerprint of element including its attributes.
+     *
+     * @param element Element
+     * @return Fingerprint
+     */
+    public long getFingerprint(Element element) {
+        return getFingerprint(element, 0);
+    }
+
+    /**
+     * Gets secondary fingerprint of element including its attributes. It is
+     * computed independently of the primary one, both together make 128-bit
+     * fingerprint for content addressing.
+     *
+     * @param element Element
+     * @return Fingerprint
+     */
+    public long getSecondaryFingerprint(Element element) {
+        return getFingerprint(element, 1);
+    }
+
+    /**
+     * Gets fingerprint of element attributes.
+     *
+     * @param element Element
+     * @return Fingerprint
+     */
+    public long getAttributesFingerprint(Element element) {
+        return get(element, 0)[0];
+    }
+
+    /**
+     * Gets fingerprint of element tag name and child nodes, without
+     * attributes of the element itself.
+     *
+     * @param element Element
+     * @return Fingerprint
+     */
+    public long getContentFingerprint(Element element) {
+        return get(element, 0)[1];
+    }
+
+    /**
+     * Checks whether two elements have the same tag name and equal child
+     * nodes, recursively.
+     *
+     * @param elem1 Element 1 or null
+     * @param elem2 Element 2 or null
+     * @param includeAttributes Compare also attributes of elem1 and elem2,
+     * attributes of descendants are compared always
+     * @return True when equal
+     */
+    public boolean areElementsEqual(Element elem1, Element elem2, boolean includeAttributes) {
+        if (elem1 == elem2) {
+            return true;
+        }
+        if (elem1 == null || elem2 == null) {
+            return false;
+        }
+        long[] hashes1 = get(elem1, 0);
+        long[] hashes2 = get(elem2, 0);
+        if (hashes1[1] != hashes2[1]) {
+            return false;
+        }
+        if (includeAttributes && hashes1[0] != hashes2[0]) {
+            return false;
+        }
+        return compareElements(elem1, elem2, includeAttributes);
+    }
+
+    /**
+     * Checks whether two elements have the same attributes.
+     *
+     * @param elem1 Element 1
+     * @param elem2 Element 2
+     * @return True when equal
+     */
+    public boolean areAttributesEqual(Element elem1, Element elem2) {
+        if (getAttributesFingerprint(elem1) != getAttributesFingerprint(elem2)) {
+            return false;
+        }
+        return compareAttributes(elem1, elem2);
+    }
+
+    private long getFingerprint(Element element, int lane) {
+        long[] hashes = get(element, lane);
+        return mix(hashes[0] * PRIME[lane] + hashes[1]);
+    }
+
+    private long[] get(Element element, int lane) {
+        Map<Element, long[]> cache = lane == 0 ? primaryCache : secondaryCache;
+        long[] hashes = cache.get(element);
+        if (hashes == null) {
+            hashes = new long[]{hashAttributes(element, lane), hashContent(element, lane)};
+            cache.put(element, hashes);
+        }
+        return hashes;
+    }
+
+    private static long hashAttributes(Element element, int lane) {
+        NamedNodeMap attributes = element.getAttributes();
+        int length = attributes.getLength();
+        long sum = 0;
+        for (int i = 0; i < length; i++) {
+            Node attr = attributes.item(i);
+            long h = hash(OFFSET_BASIS[lane], PRIME[lane], attr.getNodeName());
+            h = hash(h, PRIME[lane], attr.getNodeValue());
+            //addition is commutative - attribute order does not matter
+            sum += mix(h);
+        }
+        return mix(sum + length);
+    }
+
+    private long hashContent(Element element, int lane) {
+        long prime = PRIME[lane];
+        long h = hash(OFFSET_BASIS[lane], prime, element.getTagName());
+        NodeList children = element.getChildNodes();
+        int length = children.getLength();
+        h = (h ^ length) * prime;
+        for (int i = 0; i < length; i++) {
+            Node child = children.item(i);
+            long childHash;
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                childHash = getFingerprint((Element) child, lane);
+            } else {
+                childHash = mix(hash(OFFSET_BASIS[lane] ^ child.getNodeType(), prime, child.getNodeValue()));
+            }
+            h = (h ^ childHash) * prime;
+        }
+        return mix(h);
+    }
+
+    private static long hash(long h, long prime, String s) {
+        if (s == null) {
+            return (h ^ 0xFFFF) * prime;
+        }
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            h = (h ^ s.charAt(i)) * prime;
+        }
+        return (h ^ length) * prime;
+    }
+
+    /**
+     * Finalizer of SplitMix64 generator.
+     */
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+        h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+        return h ^ (h >>> 31);
+    }
+
+    private boolean compareElements(Element elem1, Element elem2, boolean includeAttributes) {
+        if (!elem1.getTagName().equals(elem2.getTagName())) {
+            return false;
+        }
+
+        if (includeAttributes) {
+            if (!compareAttributes(elem1, elem2)) {
+                return false;
+            }
+        }
+
+        NodeList children1 = elem1.getChildNodes();
+        NodeList children2 = elem2.getChildNodes();
+
+        if (children1.getLength() != children2.getLength()) {
+            return false;
+        }
+
+        for (int i = 0; i < children1.getLength(); i++) {
+            Node child1 = children1.item(i);
+            Node child2 = children2.item(i);
+
+            if (child1.getNodeType() == Node.ELEMENT_NODE && child2.getNodeType() == Node.ELEMENT_NODE) {
+                if (!areElementsEqual((Element) child1, (Element) child2, true)) {
+                    return false;
+                }
+            } else if (!child1.isEqualNode(child2)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean compareAttributes(Element elem1, Element elem2) {
+        NamedNodeMap attributes1 = elem1.getAttributes();
+        NamedNodeMap attributes2 = elem2.getAttributes();
+
+        if (attributes1.getLength() != attributes2.getLength()) {
+            return false;
+        }
+
+        for (int i = 0; i < attributes1.getLength(); i++) {
+            Node attr1 = attributes1.item(i);
+            Node attr2 = attributes2.getNamedItem(attr1.getNodeName());
+
+            if (attr2 == null || !attr1.getNodeValue().equals(attr2.getNodeValue())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
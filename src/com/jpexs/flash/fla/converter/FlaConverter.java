@@ -27,10 +27,13 @@ import com.jpexs.flash.fla.converter.swatches.SolidSwatchItem;
 import com.jpexs.helpers.Reference;
 import java.awt.Color;
 import java.awt.Font;
-import java.io.DataInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.security.SecureRandom;
 import java.text.SimpleDateFormat;
@@ -45,6 +48,13 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -74,8 +84,33 @@ public class FlaConverter extends AbstractConverter {
     public static final int SYMBOLTYPE_BUTTON = 1;
     public static final int SYMBOLTYPE_MOVIECLIP = 2;
 
+    public static final long DEFAULT_STREAMING_THRESHOLD = 64 * 1024 * 1024;
+
     private static final SecureRandom random = new SecureRandom();
 
+    private int threadCount = 1;
+
+    private long streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+
+    private long recordMemoSize = RecordMemo.DEFAULT_MAX_SIZE;
+
+    /**
+     * State of one conversion. It is passed down the calls instead of being
+     * held in fields, so one converter can run more conversions at once.
+     */
+    private static class Conversion {
+
+        private final LibraryIndex libraryIndex;
+        private final ExecutorService executor;
+        private final RecordMemo recordMemo;
+
+        public Conversion(LibraryIndex libraryIndex, ExecutorService executor, RecordMemo recordMemo) {
+            this.libraryIndex = libraryIndex;
+            this.executor = executor;
+            this.recordMemo = recordMemo;
+        }
+    }
+
     public FlaConverter(FlaFormatVersion flaFormatVersion, String charset) {
         super(flaFormatVersion, charset);
         if (flaFormatVersion.ordinal() < FlaFormatVersion.F5.ordinal()) {
@@ -83,6 +118,51 @@ public class FlaConverter extends AbstractConverter {
         }
     }
 
+    /**
+     * Sets number of threads converting symbol and scene timelines and
+     * encoding layers of each timeline. The output does not depend on the
+     * number of threads.
+     *
+     * @param threadCount Number of threads, 1 converts everything on the
+     * calling thread
+     */
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Sets size of symbol files which are converted by streaming - frame by
+     * frame, without building DOM of the whole symbol. Streaming reads the
+     * file once per layer, so it is slower, but the memory used does not
+     * depend on the timeline length.
+     *
+     * @param streamingThreshold Files larger than this number of bytes are
+     * streamed, -1 disables streaming
+     */
+    public void setStreamingThreshold(long streamingThreshold) {
+        if (streamingThreshold < -1) {
+            throw new IllegalArgumentException("Invalid streaming threshold");
+        }
+        this.streamingThreshold = streamingThreshold;
+    }
+
+    /**
+     * Sets size of memo of encoded records. Shapes, filters and color effects
+     * which repeat in the document are encoded once and copied afterwards.
+     *
+     * @param recordMemoSize Maximum total size of memoized records in bytes,
+     * 0 disables the memo
+     */
+    public void setRecordMemoSize(long recordMemoSize) {
+        if (recordMemoSize < 0) {
+            throw new IllegalArgumentException("Invalid record memo size");
+        }
+        this.recordMemoSize = recordMemoSize;
+    }
+
     private void writeTime(FlaWriter fg, long time) throws IOException {
         if (debugRandom) {
             fg.write('X', 'X', 'X', 'X');
@@ -161,7 +241,7 @@ public class FlaConverter extends AbstractConverter {
         return sb.toString();
     }
 
-    protected List<SolidSwatchItem> defaultSolidSwatches = Arrays.asList(
+    protected static final List<SolidSwatchItem> defaultSolidSwatches = Collections.unmodifiableList(Arrays.asList(
             new SolidSwatchItem(0x00, 0x00, 0x00, 0x00, 0x00, 0x00),
             new SolidSwatchItem(0x00, 0x00, 0x00, 0x00, 0x00, 0x00),
             new SolidSwatchItem(0x00, 0x00, 0x00, 0x00, 0x00, 0x00),
@@ -414,9 +494,9 @@ public class FlaConverter extends AbstractConverter {
             new SolidSwatchItem(0xFF, 0x99, 0xFF, 0xC8, 0xEF, 0xC0),
             new SolidSwatchItem(0xFF, 0xCC, 0xFF, 0xC8, 0xEF, 0xD8),
             new SolidSwatchItem(0xFF, 0xFF, 0xFF, 0x00, 0x00, 0xF0)
-    );
+    ));
 
-    protected List<ExtendedSwatchItem> defaultExtendedSwatches = Arrays.asList(
+    protected static final List<ExtendedSwatchItem> defaultExtendedSwatches = Collections.unmodifiableList(Arrays.asList(
             new LinearGradientSwatchItem(new GradientEntry(new Color(0xFF, 0xFF, 0xFF), 0), new GradientEntry(1)),
             new RadialGradientSwatchItem(new GradientEntry(new Color(0xFF, 0xFF, 0xFF), 0), new GradientEntry(1)),
             new RadialGradientSwatchItem(new GradientEntry(new Color(0xFF, 0x00, 0x00), 0), new GradientEntry(1)),
@@ -438,7 +518,31 @@ public class FlaConverter extends AbstractConverter {
                     new GradientEntry(new Color(0x00, 0x00, 0xFF), 0.666666666666667f),
                     new GradientEntry(new Color(0xFF, 0x00, 0xFF), 0.831372549019608f),
                     new GradientEntry(new Color(0xFF, 0x00, 0x00), 1)
-            ));
+            )));
+
+    /**
+     * Templates of default properties maps by version and charset.
+     */
+    private static final Map<String, ByteTemplate> propertiesTemplates = new ConcurrentHashMap<>();
+
+    /**
+     * Properties maps by version, with parameter placeholders.
+     */
+    private static final Map<FlaFormatVersion, Map<String, String>> propertiesPatterns = new ConcurrentHashMap<>();
+
+    /**
+     * Templates of legacy properties map by version and charset.
+     */
+    private static final Map<String, ByteTemplate> legacyPropertiesTemplates = new ConcurrentHashMap<>();
+
+    /**
+     * Templates of default color definitions by version and debugRandom.
+     */
+    private static final Map<String, List<ByteTemplate>> defaultSolidSwatchTemplates = new ConcurrentHashMap<>();
+
+    private static final Map<String, List<ByteTemplate>> defaultExtendedSwatchTemplates = new ConcurrentHashMap<>();
+
+    private static final Map<String, ByteTemplate> colorDefTrailerTemplates = new ConcurrentHashMap<>();
 
     private void writeAsLinkage(FlaWriter dw, Element element) throws IOException {
         boolean linkageExportForAS = false;
@@ -525,30 +629,10 @@ public class FlaConverter extends AbstractConverter {
         }
     }
 
-    private String getParentFolderItemID(Element document, String itemName) {
-        if (!itemName.contains("/")) {
-            return null;
-        }
-        String folderName = itemName.substring(0, itemName.lastIndexOf("/"));
-        Element foldersElement = getSubElementByName(document, "folders");
-        if (foldersElement == null) {
-            return null;
-        }
-        List<Element> domFolderItems = getAllSubElementsByName(foldersElement, "DOMFolderItem");
-        for (Element domFolderItem : domFolderItems) {
-            if (domFolderItem.getAttribute("name").equals(folderName)) {
-                if (domFolderItem.hasAttribute("itemID")) {
-                    return domFolderItem.getAttribute("itemID");
-                }
-                return null;
-            }
-        }
-        return null;
-    }
-
-    private int writeSymbols(FlaWriter fg, Element document, DocumentBuilder docBuilder, InputStorageInterface sourceDir, OutputStorageInterface outputDir, Reference<Long> generatedItemIdOrder, Map<String, Integer> definedClasses, Reference<Integer> objectsCount) throws SAXException, IOException, FileNotFoundException, ParserConfigurationException {
+    private int writeSymbols(FlaWriter fg, Element document, DocumentBuilderFactory factory, Conversion conversion, InputStorageInterface sourceDir, OutputStorageInterface outputDir, Reference<Long> generatedItemIdOrder, Map<String, Integer> definedClasses, Reference<Integer> objectsCount) throws SAXException, IOException, FileNotFoundException, ParserConfigurationException {
         int symbolCount = 0;
-        List<Element> includes = getSymbols(document);
+        ExecutorService executor = conversion.executor;
+        final List<Element> includes = conversion.libraryIndex.getSymbols();
         List<Element> sorted = new ArrayList<>(includes);
         sorted.sort(new Comparator<Element>() {
             @Override
@@ -565,22 +649,54 @@ public class FlaConverter extends AbstractConverter {
             }
         });
 
+        //symbols are read ahead, so the converting threads have some work
+        int readAhead = executor == null ? 0 : 2 * threadCount;
+        List<FutureTask<ConvertedSymbol>> tasks = new ArrayList<>();
+
         for (int i = 0; i < includes.size(); i++) {
-            Element include = includes.get(i);
-            if (!include.hasAttribute("href")) {
-                continue;
+            while (tasks.size() < includes.size() && tasks.size() <= i + readAhead) {
+                final int includeIndex = tasks.size();
+                Element include = includes.get(includeIndex);
+                if (!include.hasAttribute("href")) {
+                    tasks.add(null);
+                    continue;
+                }
+                String fileName = "LIBRARY/" + include.getAttribute("href");
+                final DocumentBuilder symbolDocBuilder = factory.newDocumentBuilder();
+                if (streamingThreshold >= 0 && sourceDir.getFileSize(fileName) > streamingThreshold) {
+                    //read on the calling thread, when the stream is committed
+                    final SymbolStreamReader symbolStreamReader = new SymbolStreamReader(sourceDir, fileName, symbolDocBuilder);
+                    tasks.add(new FutureTask<>(new Callable<ConvertedSymbol>() {
+                        @Override
+                        public ConvertedSymbol call() throws Exception {
+                            return readSymbolOutline(symbolStreamReader, includeIndex + 1);
+                        }
+                    }));
+                    continue;
+                }
+                final byte[] symbolData = readFully(sourceDir, fileName);
+                FutureTask<ConvertedSymbol> task = new FutureTask<>(new Callable<ConvertedSymbol>() {
+                    @Override
+                    public ConvertedSymbol call() throws Exception {
+                        return convertSymbol(conversion, symbolDocBuilder, symbolData, includeIndex + 1, document);
+                    }
+                });
+                if (executor != null) {
+                    executor.execute(task);
+                }
+                tasks.add(task);
             }
-            String href = include.getAttribute("href");
-            Document symbolDocument = docBuilder.parse(sourceDir.readFile("LIBRARY/" + href));
-            Element symbolElement = symbolDocument.getDocumentElement();
-            Element timelineElement = getSubElementByName(symbolElement, "timeline");
-            if (timelineElement == null) {
+            FutureTask<ConvertedSymbol> task = tasks.get(i);
+            if (task == null) {
                 continue;
             }
-            Element domTimelineElement = getSubElementByName(timelineElement, "DOMTimeline");
-            if (domTimelineElement == null) {
+            tasks.set(i, null);
+            ConvertedSymbol convertedSymbol = getResult(task);
+            if (convertedSymbol == null) {
                 continue;
             }
+            Element symbolElement = convertedSymbol.symbolElement;
+            String symbolName = convertedSymbol.symbolName;
             symbolCount++;
             int symbolId = i + 1;
             long symbolTime = timeCreated;
@@ -589,13 +705,9 @@ public class FlaConverter extends AbstractConverter {
                 int symbolIdOrdered = sorted.indexOf(includes.get(i)) + 1;
                 symbolFile = "S " + symbolIdOrdered + " " + getTimeAsString(symbolTime);
             }
-            String symbolName = "Symbol " + symbolId;
-            if (domTimelineElement.hasAttribute("name")) {
-                symbolName = domTimelineElement.getAttribute("name");
-            }
 
             String symbolFullName = symbolElement.getAttribute("name");
-            String parentFolderItemId = getParentFolderItemID(document, symbolFullName);
+            String parentFolderItemId = conversion.libraryIndex.getParentFolderItemID(symbolFullName);
 
             //scaleGridLeft="22.75" scaleGridRight="68.25" scaleGridTop="22.75" scaleGridBottom="68.25" 
             float scaleGridLeft = 0f;
@@ -767,20 +879,240 @@ public class FlaConverter extends AbstractConverter {
             if (flaFormatVersion == FlaFormatVersion.CS4) {
                 fg.write(0x00, 0x00);
             }
-            TimelineConverter symbolPageGenerator = new TimelineConverter(flaFormatVersion, charset, symbolName);
-            symbolPageGenerator.setDebugRandom(debugRandom);
             try (OutputStream sos = outputDir.getOutputStream(symbolFile)) {
-                symbolPageGenerator.convert(domTimelineElement, document, sos);
+                if (convertedSymbol.symbolStreamReader != null) {
+                    TimelineConverter symbolPageGenerator = createTimelineConverter(conversion, symbolName);
+                    symbolPageGenerator.convert(convertedSymbol.symbolStreamReader, document, sos);
+                } else {
+                    sos.write(convertedSymbol.data);
+                }
             }
         }
 
         return symbolCount;
     }
 
+    /**
+     * Symbol parsed from the library and its converted timeline.
+     */
+    private static class ConvertedSymbol {
+
+        private final Element symbolElement;
+        private final String symbolName;
+        private final byte[] data;
+        private final SymbolStreamReader symbolStreamReader;
+
+        public ConvertedSymbol(Element symbolElement, String symbolName, byte[] data, SymbolStreamReader symbolStreamReader) {
+            this.symbolElement = symbolElement;
+            this.symbolName = symbolName;
+            this.data = data;
+            this.symbolStreamReader = symbolStreamReader;
+        }
+    }
+
+    private static String getSymbolName(Element domTimelineElement, int symbolId) {
+        if (domTimelineElement.hasAttribute("name")) {
+            return domTimelineElement.getAttribute("name");
+        }
+        return "Symbol " + symbolId;
+    }
+
+    /**
+     * Reads outline of symbol converted by streaming. The timeline is converted
+     * later, directly to the output stream.
+     *
+     * @param symbolStreamReader Symbol stream reader
+     * @param symbolId Symbol id
+     * @return Symbol without data or null when the symbol has no timeline
+     */
+    private ConvertedSymbol readSymbolOutline(SymbolStreamReader symbolStreamReader, int symbolId) throws IOException {
+        Element symbolElement = symbolStreamReader.readOutline();
+        Element domTimelineElement = symbolStreamReader.getTimeline();
+        if (domTimelineElement == null) {
+            return null;
+        }
+        return new ConvertedSymbol(symbolElement, getSymbolName(domTimelineElement, symbolId), null, symbolStreamReader);
+    }
+
+    /**
+     * Parses symbol and converts its timeline.
+     *
+     * @param conversion Conversion
+     * @param docBuilder Document builder, not shared with other threads
+     * @param symbolData Symbol XML data
+     * @param symbolId Symbol id
+     * @param document Document element
+     * @return Converted symbol or null when the symbol has no timeline
+     */
+    private ConvertedSymbol convertSymbol(Conversion conversion, DocumentBuilder docBuilder, byte[] symbolData, int symbolId, Element document) throws SAXException, IOException, ParserConfigurationException {
+        Document symbolDocument = docBuilder.parse(new ByteArrayInputStream(symbolData));
+        Element symbolElement = symbolDocument.getDocumentElement();
+        Element timelineElement = getSubElementByName(symbolElement, "timeline");
+        if (timelineElement == null) {
+            return null;
+        }
+        Element domTimelineElement = getSubElementByName(timelineElement, "DOMTimeline");
+        if (domTimelineElement == null) {
+            return null;
+        }
+        String symbolName = getSymbolName(domTimelineElement, symbolId);
+        return new ConvertedSymbol(symbolElement, symbolName, convertTimeline(conversion, domTimelineElement, document, symbolName), null);
+    }
+
+    /**
+     * Converts timeline to page or symbol stream data.
+     *
+     * @param conversion Conversion
+     * @param domTimeline DOMTimeline element
+     * @param document Document element
+     * @param name Timeline name
+     * @return Stream data
+     */
+    private byte[] convertTimeline(Conversion conversion, Element domTimeline, Element document, String name) throws SAXException, IOException, ParserConfigurationException {
+        TimelineConverter timelineConverter = createTimelineConverter(conversion, name);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        timelineConverter.convert(domTimeline, document, baos);
+        return baos.toByteArray();
+    }
+
+    private TimelineConverter createTimelineConverter(Conversion conversion, String name) {
+        TimelineConverter timelineConverter = new TimelineConverter(flaFormatVersion, charset, name);
+        timelineConverter.setDebugRandom(debugRandom);
+        timelineConverter.setTraceSink(traceSink);
+        timelineConverter.setLibraryIndex(conversion.libraryIndex);
+        timelineConverter.setRecordMemo(conversion.recordMemo);
+        timelineConverter.setExecutor(conversion.executor);
+        return timelineConverter;
+    }
+
+    /**
+     * Gets result of a conversion task. When the task was not started yet,
+     * it is run on the calling thread.
+     *
+     * @param <T> Result type
+     * @param task Task
+     * @return Result
+     */
+    private static <T> T getResult(FutureTask<T> task) throws SAXException, IOException, ParserConfigurationException {
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for conversion");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof ParserConfigurationException) {
+                throw (ParserConfigurationException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static byte[] readFully(InputStorageInterface sourceDir, String fileName) throws IOException {
+        try (InputStream is = sourceDir.readFile(fileName)) {
+            if (is == null) {
+                throw new FileNotFoundException(fileName);
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int cnt;
+            while ((cnt = is.read(buf)) > 0) {
+                baos.write(buf, 0, cnt);
+            }
+            return baos.toByteArray();
+        }
+    }
+
+    /**
+     * Gets files which will be read from the source, in the order they are
+     * needed - symbols first, then media data.
+     *
+     * @param index Library index
+     * @return List of file names
+     */
+    private List<String> getNeededFiles(LibraryIndex index) {
+        List<String> ret = new ArrayList<>();
+        for (Element include : index.getSymbols()) {
+            if (include.hasAttribute("href")) {
+                ret.add("LIBRARY/" + include.getAttribute("href"));
+            }
+        }
+        for (Element mediaItem : index.getMedia()) {
+            String dataHRefAttribute;
+            switch (mediaItem.getTagName()) {
+                case "DOMBitmapItem":
+                    dataHRefAttribute = "bitmapDataHRef";
+                    break;
+                case "DOMSoundItem":
+                    dataHRefAttribute = "soundDataHRef";
+                    break;
+                case "DOMVideoItem":
+                    dataHRefAttribute = "videoDataHRef";
+                    break;
+                default:
+                    continue;
+            }
+            if (mediaItem.hasAttribute(dataHRefAttribute)) {
+                ret.add("bin/" + mediaItem.getAttribute(dataHRefAttribute));
+            }
+        }
+        return ret;
+    }
+
     public void convert(
             InputStorageInterface sourceDir,
             OutputStorageInterface outputDir
     ) throws SAXException, IOException, ParserConfigurationException {
+        ExecutorService executor = null;
+        if (threadCount > 1) {
+            executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                private int threadNum = 0;
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "FlaConverter worker " + (++threadNum));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        try {
+            convert(sourceDir, outputDir, executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Converts the document. With executor, symbol and scene timelines are
+     * parsed and converted on the executor threads, while the Contents records
+     * and the streams are written on the calling thread in the same order as
+     * without executor.
+     *
+     * @param sourceDir Source
+     * @param outputDir Output
+     * @param executor Executor or null to convert on the calling thread
+     */
+    private void convert(
+            InputStorageInterface sourceDir,
+            OutputStorageInterface outputDir,
+            ExecutorService executor
+    ) throws SAXException, IOException, ParserConfigurationException {
 
         InputStream domDocumentIs = sourceDir.readFile("DOMDocument.xml");
         InputStream publishSettingsIs = sourceDir.readFile("PublishSettings.xml");
@@ -788,6 +1120,10 @@ public class FlaConverter extends AbstractConverter {
 
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         factory.setIgnoringElementContentWhitespace(false);
+        if (executor != null) {
+            //deferred nodes are expanded on first access, main document is read by more threads
+            factory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+        }
         DocumentBuilder docBuilder = factory.newDocumentBuilder();
 
         Document domDocument = docBuilder.parse(domDocumentIs);
@@ -796,6 +1132,12 @@ public class FlaConverter extends AbstractConverter {
 
         Color backgroundColor = Color.white;
         Element document = domDocument.getDocumentElement();
+        final Conversion conversion = new Conversion(
+                createLibraryIndex(document),
+                executor,
+                recordMemoSize > 0 ? new RecordMemo(recordMemoSize) : null
+        );
+        sourceDir.prefetch(getNeededFiles(conversion.libraryIndex));
         if (document.hasAttribute("backgroundColor")) {
             backgroundColor = parseColor(document.getAttribute("backgroundColor"));
         }
@@ -817,12 +1159,48 @@ public class FlaConverter extends AbstractConverter {
 
         List<Element> timelinesElements = getAllSubElementsByName(document, "timelines");
 
+        List<Element> pageTimelines = new ArrayList<>();
+        List<FutureTask<byte[]>> pageTasks = new ArrayList<>();
+        for (Element timelinesElement : timelinesElements) {
+            Element domTimeline = getSubElementByName(timelinesElement, "DOMTimeline");
+            if (domTimeline == null) {
+                continue;
+            }
+            if (!domTimeline.hasAttribute("name")) {
+                continue;
+            }
+            pageTimelines.add(domTimeline);
+            final Element pageTimeline;
+            if (executor == null) {
+                pageTimeline = domTimeline;
+            } else {
+                //own copy - DOM is not safe for concurrent traversal
+                Document pageDocument = docBuilder.newDocument();
+                pageTimeline = (Element) pageDocument.importNode(domTimeline, true);
+                pageDocument.appendChild(pageTimeline);
+            }
+            final String pageTitle = "Page " + pageTimelines.size();
+            FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return convertTimeline(conversion, pageTimeline, document, pageTitle);
+                }
+            });
+            if (executor != null) {
+                executor.execute(task);
+            }
+            pageTasks.add(task);
+        }
+
         Map<String, Integer> definedClasses = new HashMap<>();
         Reference<Integer> objectsCount = new Reference<>(0);
 
         try (OutputStream os = outputDir.getOutputStream("Contents")) {
             FlaWriter fg = new FlaWriter(os, flaFormatVersion, charset);
             fg.setTitle("Contents");
+            if (traceSink != null) {
+                fg.setTraceSink(traceSink);
+            }
             if (debugRandom) {
                 fg.setDebugRandom(true);
             }
@@ -863,14 +1241,7 @@ public class FlaConverter extends AbstractConverter {
             int pageCount = 0;
             Reference<Long> generatedItemIdOrder = new Reference<>(0L);
 
-            for (Element timelinesElement : timelinesElements) {
-                Element domTimeline = getSubElementByName(timelinesElement, "DOMTimeline");
-                if (domTimeline == null) {
-                    continue;
-                }
-                if (!domTimeline.hasAttribute("name")) {
-                    continue;
-                }
+            for (Element domTimeline : pageTimelines) {
                 String sceneName = domTimeline.getAttribute("name");
 
                 useClass("CDocumentPage", 1, fg, definedClasses, objectsCount);
@@ -1044,10 +1415,9 @@ public class FlaConverter extends AbstractConverter {
                     fg.write(0x00, 0x00);
                 }
 
-                TimelineConverter pageGenerator = new TimelineConverter(flaFormatVersion, charset, "Page " + pageCount);
-                pageGenerator.setDebugRandom(debugRandom);
+                byte[] pageData = getResult(pageTasks.get(pageCount - 1));
                 try (OutputStream pos = outputDir.getOutputStream(pageName)) {
-                    pageGenerator.convert(domTimeline, document, pos);
+                    pos.write(pageData);
                 }
             }
 
@@ -1076,13 +1446,13 @@ public class FlaConverter extends AbstractConverter {
                     1 + currentTimeline,
                     0x00);
 
-            int symbolCount = writeSymbols(fg, document, docBuilder, sourceDir, outputDir, generatedItemIdOrder, definedClasses, objectsCount);
+            int symbolCount = writeSymbols(fg, document, factory, conversion, sourceDir, outputDir, generatedItemIdOrder, definedClasses, objectsCount);
 
             fg.write(0x00, 0x00);
             fg.write(debugRandom ? 'U' : 0x01); //??
 
             fg.write(0x00);
-            int mediaCount = writeMedia(fg, document, generatedItemIdOrder, definedClasses, objectsCount, outputDir, sourceDir);
+            int mediaCount = writeMedia(fg, conversion.libraryIndex, generatedItemIdOrder, definedClasses, objectsCount, outputDir, sourceDir);
 
             fg.write(0x00, 0x00);
 
@@ -1280,14 +1650,14 @@ public class FlaConverter extends AbstractConverter {
                     writeMap(fg, new HashMap<>()); // 0x00, 0x00
                 } else {
                     if (flaFormatVersion.ordinal() >= FlaFormatVersion.MX2004.ordinal()) {
-                        writeMap(fg, getLegacyProperties());
+                        getLegacyPropertiesTemplate().writeTo(fg);
                     }
 
                     if (publishSettings == null) {
                         if (flaFormatVersion.ordinal() >= FlaFormatVersion.MX2004.ordinal()) {
                             fg.writeUI32(1);
                         }
-                        writeMap(fg, getProperties("Untitled-1", width, height, flaFormatVersion));
+                        getPropertiesTemplate().writeTo(fg, "Untitled-1", "" + width, "" + height);
                     } else {
                         List<Element> flashProfiles = getAllSubElementsByName(publishSettings.getDocumentElement(), "flash_profile");
 
@@ -1482,7 +1852,7 @@ public class FlaConverter extends AbstractConverter {
                         guidesSnapTo ? 1 : 0,
                         0x00, 0x00, 0x00, 0x00);
 
-                int fontCount = writeFonts(fg, document, generatedItemIdOrder);
+                int fontCount = writeFonts(fg, conversion.libraryIndex, generatedItemIdOrder);
 
                 String sharedLibraryURL = "";
                 if (document.hasAttribute("sharedLibraryURL")) {
@@ -1614,6 +1984,7 @@ public class FlaConverter extends AbstractConverter {
                     }
                 }
             }
+            fg.flush();
         }
     }
 
@@ -1626,7 +1997,7 @@ public class FlaConverter extends AbstractConverter {
         return itemID;
     }
 
-    protected void writeDomSoundItem(FlaWriter dw, Element domSoundItem, Map<String, Integer> definedClasses, Reference<Integer> objectsCount, int mediaCount, Reference<Long> generatedItemIdOrder, OutputStorageInterface outputDir, InputStorageInterface sourceDir) throws IOException {
+    protected void writeDomSoundItem(FlaWriter dw, LibraryIndex index, Element domSoundItem, Map<String, Integer> definedClasses, Reference<Integer> objectsCount, int mediaCount, Reference<Long> generatedItemIdOrder, OutputStorageInterface outputDir, InputStorageInterface sourceDir) throws IOException {
         useClass("CMediaSound", 1, dw, definedClasses, objectsCount);
         dw.write(flaFormatVersion.getMediaSoundVersion());
         String mediaFile = "M " + mediaCount + " " + getTimeCreatedAsString();
@@ -1639,7 +2010,7 @@ public class FlaConverter extends AbstractConverter {
         if (name.contains("/")) {
             name = name.substring(name.lastIndexOf("/") + 1);
         }
-        String parentFolderItemID = getParentFolderItemID(domSoundItem.getOwnerDocument().getDocumentElement(), fullName);
+        String parentFolderItemID = index.getParentFolderItemID(fullName);
 
         dw.writeBomString(name);
         String importFilePath = "";
@@ -1741,13 +2112,7 @@ public class FlaConverter extends AbstractConverter {
             //File videDataFile = sourceDir.toPath().resolve("bin").resolve(videoDataHRef).toFile();
             if (sourceDir.fileExists("bin/" + videoDataHRef)) {
                 //copy the data file
-                try (OutputStream fos = outputDir.getOutputStream(mediaFile); InputStream fis = sourceDir.readFile("bin/" + videoDataHRef)) {
-                    byte[] buf = new byte[4096];
-                    int cnt;
-                    while ((cnt = fis.read(buf)) > 0) {
-                        fos.write(buf, 0, cnt);
-                    }
-                }
+                outputDir.transfer("bin/" + videoDataHRef, sourceDir, mediaFile);
                 hasBinData = true;
             }
         }
@@ -1757,7 +2122,7 @@ public class FlaConverter extends AbstractConverter {
         }
     }
 
-    protected void writeDomVideoItem(FlaWriter dw, Element domVideoItem, Map<String, Integer> definedClasses, Reference<Integer> objectsCount, int mediaCount, Reference<Long> generatedItemIdOrder, OutputStorageInterface outputDir, InputStorageInterface sourceDir) throws IOException {
+    protected void writeDomVideoItem(FlaWriter dw, LibraryIndex index, Element domVideoItem, Map<String, Integer> definedClasses, Reference<Integer> objectsCount, int mediaCount, Reference<Long> generatedItemIdOrder, OutputStorageInterface outputDir, InputStorageInterface sourceDir) throws IOException {
         useClass("CMediaVideoStream", 1, dw, definedClasses, objectsCount);
         dw.write(flaFormatVersion.getMediaVideoVersion());
         String mediaFile = "M " + mediaCount + " " + getTimeCreatedAsString();
@@ -1770,7 +2135,7 @@ public class FlaConverter extends AbstractConverter {
         if (name.contains("/")) {
             name = name.substring(name.lastIndexOf("/") + 1);
         }
-        String parentFolderItemID = getParentFolderItemID(domVideoItem.getOwnerDocument().getDocumentElement(), fullName);
+        String parentFolderItemID = index.getParentFolderItemID(fullName);
 
         dw.writeBomString(name);
 
@@ -1823,27 +2188,52 @@ public class FlaConverter extends AbstractConverter {
             //File videDataFile = sourceDir.toPath().resolve("bin").resolve(videoDataHRef).toFile();
             if (sourceDir.fileExists("bin/" + videoDataHRef)) {
                 //copy the data file
-                try (OutputStream fos = outputDir.getOutputStream(mediaFile); InputStream fis = sourceDir.readFile("bin/" + videoDataHRef)) {
-                    DataInputStream dais = new DataInputStream(fis);
-                    byte[] buf = new byte[0x31];
-                    dais.readFully(buf);
-                    fos.write(buf);
-                    fis.read();
-                    fos.write(0); //change 1 to 0
-                    fis.read();
-                    fos.write(0); //change 1 to 0
-
-                    buf = new byte[4];
-                    dais.readFully(buf);
-                    fos.write(buf);
-                    fis.read();
-                    fos.write(0); //change 1 to 0
-
-                    //copy rest of the file
-                    buf = new byte[4096];
-                    int cnt;
-                    while ((cnt = fis.read(buf)) > 0) {
-                        fos.write(buf, 0, cnt);
+                long size = sourceDir.getFileSize("bin/" + videoDataHRef);
+                try (InputStream fis = sourceDir.readFile("bin/" + videoDataHRef)) {
+                    InputStream pis = new FilterInputStream(fis) {
+                        private long pos = 0;
+
+                        private int patch(long p, int b) {
+                            //change 1 to 0
+                            if (p == 0x31 || p == 0x32 || p == 0x37) {
+                                return 0;
+                            }
+                            return b;
+                        }
+
+                        @Override
+                        public int read() throws IOException {
+                            int b = super.read();
+                            if (b == -1) {
+                                return -1;
+                            }
+                            return patch(pos++, b);
+                        }
+
+                        @Override
+                        public int read(byte[] b, int off, int len) throws IOException {
+                            int cnt = super.read(b, off, len);
+                            for (int i = 0; i < cnt; i++) {
+                                b[off + i] = (byte) patch(pos++, b[off + i]);
+                            }
+                            return cnt;
+                        }
+
+                        @Override
+                        public long skip(long n) throws IOException {
+                            throw new IOException("Skipping is not supported");
+                        }
+                    };
+                    if (size >= 0) {
+                        outputDir.storeStream(mediaFile, pis, size);
+                    } else {
+                        try (OutputStream fos = outputDir.getOutputStream(mediaFile)) {
+                            byte[] buf = new byte[4096];
+                            int cnt;
+                            while ((cnt = pis.read(buf)) > 0) {
+                                fos.write(buf, 0, cnt);
+                            }
+                        }
                     }
                 }
                 hasBinData = true;
@@ -1855,7 +2245,7 @@ public class FlaConverter extends AbstractConverter {
         }
     }
 
-    protected void writeDomBitmapItem(FlaWriter dw, Element domBitmapItem, Map<String, Integer> definedClasses, Reference<Integer> objectsCount, int mediaCount, Reference<Long> generatedItemIdOrder, OutputStorageInterface outputDir, InputStorageInterface sourceDir) throws IOException {
+    protected void writeDomBitmapItem(FlaWriter dw, LibraryIndex index, Element domBitmapItem, Map<String, Integer> definedClasses, Reference<Integer> objectsCount, int mediaCount, Reference<Long> generatedItemIdOrder, OutputStorageInterface outputDir, InputStorageInterface sourceDir) throws IOException {
 
         /*
         <media>
@@ -1875,7 +2265,7 @@ public class FlaConverter extends AbstractConverter {
         if (name.contains("/")) {
             name = name.substring(name.lastIndexOf("/") + 1);
         }
-        String parentFolderItemID = getParentFolderItemID(domBitmapItem.getOwnerDocument().getDocumentElement(), fullName);
+        String parentFolderItemID = index.getParentFolderItemID(fullName);
 
         String sourceExternalFilepath = domBitmapItem.getAttribute("sourceExternalFilepath");
         dw.writeBomString(name);
@@ -1947,13 +2337,7 @@ public class FlaConverter extends AbstractConverter {
             String bitmapDataHRef = domBitmapItem.getAttribute("bitmapDataHRef");
             if (sourceDir.fileExists("bin/" + bitmapDataHRef)) {
                 //copy the data file
-                try (OutputStream fos = outputDir.getOutputStream(mediaFile); InputStream fis = sourceDir.readFile("bin/" + bitmapDataHRef);) {
-                    byte[] buf = new byte[4096];
-                    int cnt;
-                    while ((cnt = fis.read(buf)) > 0) {
-                        fos.write(buf, 0, cnt);
-                    }
-                }
+                outputDir.transfer("bin/" + bitmapDataHRef, sourceDir, mediaFile);
                 hasBinData = true;
             }
         }
@@ -1988,8 +2372,8 @@ public class FlaConverter extends AbstractConverter {
         }
     }
 
-    protected int writeMedia(FlaWriter dw, Element document, Reference<Long> generatedItemIdOrder, Map<String, Integer> definedClasses, Reference<Integer> objectsCount, OutputStorageInterface outputDir, InputStorageInterface sourceDir) throws IOException {
-        List<Element> media = getMedia(document);
+    protected int writeMedia(FlaWriter dw, LibraryIndex index, Reference<Long> generatedItemIdOrder, Map<String, Integer> definedClasses, Reference<Integer> objectsCount, OutputStorageInterface outputDir, InputStorageInterface sourceDir) throws IOException {
+        List<Element> media = index.getMedia();
 
         /*int imageCount = 0;
         for (Element mediaItem : media) {
@@ -2003,13 +2387,13 @@ public class FlaConverter extends AbstractConverter {
             mediaCount++;
             switch (mediaItem.getTagName()) {
                 case "DOMBitmapItem":
-                    writeDomBitmapItem(dw, mediaItem, definedClasses, objectsCount, mediaCount, generatedItemIdOrder, outputDir, sourceDir);
+                    writeDomBitmapItem(dw, index, mediaItem, definedClasses, objectsCount, mediaCount, generatedItemIdOrder, outputDir, sourceDir);
                     break;
                 case "DOMSoundItem":
-                    writeDomSoundItem(dw, mediaItem, definedClasses, objectsCount, mediaCount, generatedItemIdOrder, outputDir, sourceDir);
+                    writeDomSoundItem(dw, index, mediaItem, definedClasses, objectsCount, mediaCount, generatedItemIdOrder, outputDir, sourceDir);
                     break;
                 case "DOMVideoItem":
-                    writeDomVideoItem(dw, mediaItem, definedClasses, objectsCount, mediaCount, generatedItemIdOrder, outputDir, sourceDir);
+                    writeDomVideoItem(dw, index, mediaItem, definedClasses, objectsCount, mediaCount, generatedItemIdOrder, outputDir, sourceDir);
                     break;
             }
 
@@ -2018,13 +2402,8 @@ public class FlaConverter extends AbstractConverter {
         return mediaCount;
     }
 
-    protected int getNextId(Element document) {
-        Element fontsElement = getSubElementByName(document, "fonts");
-        if (fontsElement == null) {
-            return 1;
-        }
-
-        List<Element> domFontItems = getAllSubElementsByName(fontsElement, "DOMFontItem");
+    protected int getNextId(LibraryIndex index) {
+        List<Element> domFontItems = index.getFontItems();
         int id = 0;
         for (Element domFontItem : domFontItems) {
             if (domFontItem.hasAttribute("id")) {
@@ -2037,12 +2416,8 @@ public class FlaConverter extends AbstractConverter {
         return id + 1;
     }
 
-    protected int writeFonts(FlaWriter dw, Element document, Reference<Long> generatedItemIdOrder) throws IOException {
-        Element fontsElement = getSubElementByName(document, "fonts");
-        List<Element> domFontItems = new ArrayList<>();
-        if (fontsElement != null) {
-            domFontItems = getAllSubElementsByName(fontsElement, "DOMFontItem");
-        }
+    protected int writeFonts(FlaWriter dw, LibraryIndex index, Reference<Long> generatedItemIdOrder) throws IOException {
+        List<Element> domFontItems = new ArrayList<>(index.getFontItems());
         dw.writeUI32(domFontItems.size());
 
         if (flaFormatVersion.ordinal() <= FlaFormatVersion.CS3.ordinal()) {
@@ -2060,7 +2435,7 @@ public class FlaConverter extends AbstractConverter {
             if (name.contains("/")) {
                 name = name.substring(name.lastIndexOf("/") + 1);
             }
-            String parentFolderItemID = getParentFolderItemID(domFontItem.getOwnerDocument().getDocumentElement(), fullName);
+            String parentFolderItemID = index.getParentFolderItemID(fullName);
 
             String fontPsName = domFontItem.getAttribute("font"); //assuming has font
             int id = Integer.parseInt(domFontItem.getAttribute("id"));
@@ -2284,17 +2659,23 @@ public class FlaConverter extends AbstractConverter {
             }
         }
 
+        List<ByteTemplate> solidSwatchTemplates = null;
+        List<ByteTemplate> extendedSwatchTemplates = null;
         if (solidSwatches.isEmpty() && extendedSwatches.isEmpty()) {
             solidSwatches.addAll(defaultSolidSwatches);
             extendedSwatches.addAll(defaultExtendedSwatches);
+            solidSwatchTemplates = getDefaultSolidSwatchTemplates(flaFormatVersion);
+            extendedSwatchTemplates = getDefaultExtendedSwatchTemplates(flaFormatVersion);
         }
 
         dw.writeUI16(solidSwatches.size());
         for (int s = 0; s < solidSwatches.size(); s++) {
             useClass("CColorDef", 0x00, dw, definedClasses, objectsCount);
-            dw.write(flaFormatVersion.getColorDefVersion());
-            SolidSwatchItem sw = solidSwatches.get(s);
-            dw.write(sw.red, sw.green, sw.blue, sw.alpha, 0x00, 0x00, sw.hue, 0x00, sw.saturation, 0x00, sw.brightness, 0x00);
+            if (solidSwatchTemplates != null) {
+                solidSwatchTemplates.get(s).writeTo(dw);
+            } else {
+                writeSolidSwatch(dw, flaFormatVersion, solidSwatches.get(s));
+            }
         }
 
         if (flaFormatVersion == FlaFormatVersion.CS4) {
@@ -2304,84 +2685,143 @@ public class FlaConverter extends AbstractConverter {
         dw.writeUI16(extendedSwatches.size());
 
         for (int x = 0; x < extendedSwatches.size(); x++) {
-            ExtendedSwatchItem ex = extendedSwatches.get(x);
             useClass("CColorDef", 0x00, dw, definedClasses, objectsCount);
-            dw.write(flaFormatVersion.getColorDefVersion());
-            /*if (x == 5) {
-                dw.write(0xFF, 0xFF, 0xFF);
-            } else if (x == 6) {
-                dw.write(0xFF, 0x00, 0x00);
-            } else {*/
-
-            if (debugRandom) {
-                dw.write('U', 'U', 'U');
+            if (extendedSwatchTemplates != null) {
+                extendedSwatchTemplates.get(x).writeTo(dw);
             } else {
-                dw.write(0x00, 0x00, 0x00);
-            }
-            //}
-            dw.write(0xFF, ex.getType(), 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
-                    0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
-                    ex.entries.size());
-            if (flaFormatVersion.ordinal() >= FlaFormatVersion.F8.ordinal()) {
-                dw.write(0x00,//focalRatio
-                        0x00, 0x00, 0x00,
-                        ex.spreadMethod + (ex.interpolationMethodLinearRGB ? 1 : 0), 0x00, 0x00, 0x00);
+                writeExtendedSwatch(dw, flaFormatVersion, extendedSwatches.get(x));
             }
-            for (GradientEntry en : ex.entries) {
-                int r = (int) Math.round(en.ratio * 255);
-                dw.write(r, en.color.getRed(), en.color.getGreen(), en.color.getBlue(), en.color.getAlpha());
-            }
-            dw.write(0x00, 0x00);
-            /*if (x == 5) { //WTF are these?
-                dw.write(0x00, 0x00, 0xF0, 0x00);
-            } else if (x == 6) {
-                dw.write(0xEF, 0x00, 0x78, 0x00);
-            } else {*/
-            if (debugRandom) {
-                dw.write('U', 'U', 'U', 'U');
-            } else {
-                dw.write(0x00, 0x00, 0x00, 0x00);
+        }
+
+        getColorDefTrailerTemplate(flaFormatVersion).writeTo(dw);
+    }
+
+    private static String getTemplateKey(FlaFormatVersion flaFormatVersion, String variant) {
+        return flaFormatVersion.name() + "/" + variant;
+    }
+
+    private List<ByteTemplate> getDefaultSolidSwatchTemplates(FlaFormatVersion flaFormatVersion) throws IOException {
+        String key = getTemplateKey(flaFormatVersion, "" + debugRandom);
+        List<ByteTemplate> templates = defaultSolidSwatchTemplates.get(key);
+        if (templates == null) {
+            templates = new ArrayList<>();
+            for (SolidSwatchItem sw : defaultSolidSwatches) {
+                ByteTemplate.Builder builder = new ByteTemplate.Builder(flaFormatVersion, charset);
+                writeSolidSwatch(builder.getWriter(), flaFormatVersion, sw);
+                templates.add(builder.build());
             }
-            //}
+            defaultSolidSwatchTemplates.put(key, templates);
         }
+        return templates;
+    }
 
-        if (flaFormatVersion == FlaFormatVersion.CS4) {
-            dw.write(0x01);
+    private List<ByteTemplate> getDefaultExtendedSwatchTemplates(FlaFormatVersion flaFormatVersion) throws IOException {
+        String key = getTemplateKey(flaFormatVersion, "" + debugRandom);
+        List<ByteTemplate> templates = defaultExtendedSwatchTemplates.get(key);
+        if (templates == null) {
+            templates = new ArrayList<>();
+            for (ExtendedSwatchItem ex : defaultExtendedSwatches) {
+                ByteTemplate.Builder builder = new ByteTemplate.Builder(flaFormatVersion, charset);
+                writeExtendedSwatch(builder.getWriter(), flaFormatVersion, ex);
+                templates.add(builder.build());
+            }
+            defaultExtendedSwatchTemplates.put(key, templates);
         }
+        return templates;
+    }
 
-        dw.write(0x00, 0x03, 0x00, 0x00, 0x00);
-        //if (flaFormatVersion.ordinal() >= FlaFormatVersion.CS3.ordinal()) {
+    private void writeSolidSwatch(FlaWriter dw, FlaFormatVersion flaFormatVersion, SolidSwatchItem sw) throws IOException {
+        dw.write(flaFormatVersion.getColorDefVersion());
+        dw.write(sw.red, sw.green, sw.blue, sw.alpha, 0x00, 0x00, sw.hue, 0x00, sw.saturation, 0x00, sw.brightness, 0x00);
+    }
+
+    private void writeExtendedSwatch(FlaWriter dw, FlaFormatVersion flaFormatVersion, ExtendedSwatchItem ex) throws IOException {
+        dw.write(flaFormatVersion.getColorDefVersion());
+        /*if (x == 5) {
+            dw.write(0xFF, 0xFF, 0xFF);
+        } else if (x == 6) {
+            dw.write(0xFF, 0x00, 0x00);
+        } else {*/
 
         if (debugRandom) {
-            dw.write('U', 0x00, 0x00, 0x00,
-                    'U', 'U', 0x00, 0x00,
-                    'U', 'U', 0x00, 0x00,
-                    'U', 'U', 0x00, 0x00,
-                    'U', 'U', 0x00, 0x00,
-                    0x01,
-                    0x00, 0x00, 0x00, 'U');
+            dw.write('U', 'U', 'U');
         } else {
-            dw.write(0x00, 0x00, 0x00, 0x00,
-                    0x00, 0x00, 0x00, 0x00,
-                    0x00, 0x00, 0x00, 0x00,
-                    0x00, 0x00, 0x00, 0x00,
-                    0x00, 0x00, 0x00, 0x00,
-                    0x01,
-                    0x00, 0x00, 0x00, 0x01);
-        }
-        //In F8:
-        /*
-            dw.write(0x01, 0x00, 0x00, 0x00,
-                    0x97, 0x01, 0x00, 0x00, //wtf are these?
-                    0x11, 0x03, 0x00, 0x00,
-                    0xA6, 0x02, 0x00, 0x00,
-                    0xE1, 0x03, 0x00, 0x00,
-                    0x01,
-                    0x00, 0x00, 0x00, 0x00);
-        }*/
-        dw.write(0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
-                0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
-                0x01, 0x00, 0x00, 0x00);
+            dw.write(0x00, 0x00, 0x00);
+        }
+        //}
+        dw.write(0xFF, ex.getType(), 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+                0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+                ex.entries.size());
+        if (flaFormatVersion.ordinal() >= FlaFormatVersion.F8.ordinal()) {
+            dw.write(0x00,//focalRatio
+                    0x00, 0x00, 0x00,
+                    ex.spreadMethod + (ex.interpolationMethodLinearRGB ? 1 : 0), 0x00, 0x00, 0x00);
+        }
+        for (GradientEntry en : ex.entries) {
+            int r = (int) Math.round(en.ratio * 255);
+            dw.write(r, en.color.getRed(), en.color.getGreen(), en.color.getBlue(), en.color.getAlpha());
+        }
+        dw.write(0x00, 0x00);
+        /*if (x == 5) { //WTF are these?
+            dw.write(0x00, 0x00, 0xF0, 0x00);
+        } else if (x == 6) {
+            dw.write(0xEF, 0x00, 0x78, 0x00);
+        } else {*/
+        if (debugRandom) {
+            dw.write('U', 'U', 'U', 'U');
+        } else {
+            dw.write(0x00, 0x00, 0x00, 0x00);
+        }
+        //}
+    }
+
+    private ByteTemplate getColorDefTrailerTemplate(FlaFormatVersion flaFormatVersion) throws IOException {
+        String key = getTemplateKey(flaFormatVersion, "" + debugRandom);
+        ByteTemplate template = colorDefTrailerTemplates.get(key);
+        if (template == null) {
+            ByteTemplate.Builder builder = new ByteTemplate.Builder(flaFormatVersion, charset);
+            FlaWriter dw = builder.getWriter();
+            if (flaFormatVersion == FlaFormatVersion.CS4) {
+                dw.write(0x01);
+            }
+
+            dw.write(0x00, 0x03, 0x00, 0x00, 0x00);
+            //if (flaFormatVersion.ordinal() >= FlaFormatVersion.CS3.ordinal()) {
+
+            if (debugRandom) {
+                dw.write('U', 0x00, 0x00, 0x00,
+                        'U', 'U', 0x00, 0x00,
+                        'U', 'U', 0x00, 0x00,
+                        'U', 'U', 0x00, 0x00,
+                        'U', 'U', 0x00, 0x00,
+                        0x01,
+                        0x00, 0x00, 0x00, 'U');
+            } else {
+                dw.write(0x00, 0x00, 0x00, 0x00,
+                        0x00, 0x00, 0x00, 0x00,
+                        0x00, 0x00, 0x00, 0x00,
+                        0x00, 0x00, 0x00, 0x00,
+                        0x00, 0x00, 0x00, 0x00,
+                        0x01,
+                        0x00, 0x00, 0x00, 0x01);
+            }
+            //In F8:
+            /*
+                dw.write(0x01, 0x00, 0x00, 0x00,
+                        0x97, 0x01, 0x00, 0x00, //wtf are these?
+                        0x11, 0x03, 0x00, 0x00,
+                        0xA6, 0x02, 0x00, 0x00,
+                        0xE1, 0x03, 0x00, 0x00,
+                        0x01,
+                        0x00, 0x00, 0x00, 0x00);
+            }*/
+            dw.write(0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+                    0x01, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+                    0x01, 0x00, 0x00, 0x00);
+            template = builder.build();
+            colorDefTrailerTemplates.put(key, template);
+        }
+        return template;
     }
 
     protected void writeMap(FlaWriter dw, Map<String, String> map) throws IOException {
@@ -2403,7 +2843,69 @@ public class FlaConverter extends AbstractConverter {
         return propertiesMap;
     }
 
+    private ByteTemplate getLegacyPropertiesTemplate() throws IOException {
+        String key = getTemplateKey(flaFormatVersion, charset);
+        ByteTemplate template = legacyPropertiesTemplates.get(key);
+        if (template == null) {
+            ByteTemplate.Builder builder = new ByteTemplate.Builder(flaFormatVersion, charset);
+            writeMap(builder.getWriter(), getLegacyProperties());
+            template = builder.build();
+            legacyPropertiesTemplates.put(key, template);
+        }
+        return template;
+    }
+
+    /**
+     * Gets template of default properties map. Parameters are base publish
+     * name, width and height.
+     *
+     * @return Template
+     * @throws IOException On I/O error
+     */
+    private ByteTemplate getPropertiesTemplate() throws IOException {
+        String key = getTemplateKey(flaFormatVersion, charset);
+        ByteTemplate template = propertiesTemplates.get(key);
+        if (template == null) {
+            Map<String, String> pattern = getPropertiesPattern(flaFormatVersion);
+            ByteTemplate.Builder builder = new ByteTemplate.Builder(flaFormatVersion, charset);
+            FlaWriter dw = builder.getWriter();
+            dw.writeUI16(pattern.size());
+            for (String propertyKey : pattern.keySet()) {
+                String value = pattern.get(propertyKey);
+                dw.writeBomString(propertyKey);
+                if (ByteTemplate.hasParameters(value)) {
+                    builder.bomStringHole(value);
+                } else {
+                    dw.writeBomString(value);
+                }
+            }
+            template = builder.build();
+            propertiesTemplates.put(key, template);
+        }
+        return template;
+    }
+
+    private static Map<String, String> getPropertiesPattern(FlaFormatVersion flaFormatVersion) {
+        Map<String, String> pattern = propertiesPatterns.get(flaFormatVersion);
+        if (pattern == null) {
+            pattern = Collections.unmodifiableMap(createProperties(ByteTemplate.parameter(0), ByteTemplate.parameter(1), ByteTemplate.parameter(2), flaFormatVersion));
+            propertiesPatterns.put(flaFormatVersion, pattern);
+        }
+        return pattern;
+    }
+
     private Map<String, String> getProperties(String basePublishName, int width, int height, FlaFormatVersion flaFormatVersion) {
+        Map<String, String> pattern = getPropertiesPattern(flaFormatVersion);
+        Map<String, String> propertiesMap = new LinkedHashMap<>();
+        String widthStr = "" + width;
+        String heightStr = "" + height;
+        for (String key : pattern.keySet()) {
+            propertiesMap.put(key, ByteTemplate.fill(pattern.get(key), basePublishName, widthStr, heightStr));
+        }
+        return propertiesMap;
+    }
+
+    private static Map<String, String> createProperties(String basePublishName, String width, String height, FlaFormatVersion flaFormatVersion) {
         switch (flaFormatVersion) {
             case CS4:
                 return getPropertiesCs4(basePublishName, width, height);
@@ -2421,7 +2923,7 @@ public class FlaConverter extends AbstractConverter {
         return null;
     }
 
-    private Map<String, String> getPropertiesF5(String basePublishName, int width, int height) {
+    private static Map<String, String> getPropertiesF5(String basePublishName, String width, String height) {
         Map<String, String> propertiesMap = new LinkedHashMap<>();
         propertiesMap.put("PublishGifProperties::PaletteName", "");
         propertiesMap.put("PublishRNWKProperties::speed256K", "0");
@@ -2437,7 +2939,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishProfileProperties::name", "Default");
         propertiesMap.put("PublishHtmlProperties::Loop", "1");
         propertiesMap.put("PublishFormatProperties::jpeg", "0");
-        propertiesMap.put("PublishQTProperties::Width", "" + width);
+        propertiesMap.put("PublishQTProperties::Width", width);
         propertiesMap.put("PublishPNGProperties::OptimizeColors", "1");
         propertiesMap.put("PublishRNWKProperties::speedSingleISDN", "0");
         propertiesMap.put("PublishRNWKProperties::singleRateAudio", "0");
@@ -2485,7 +2987,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishFormatProperties::jpegDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::gif", "0");
         propertiesMap.put("PublishGifProperties::Loop", "1");
-        propertiesMap.put("PublishGifProperties::Width", "" + width);
+        propertiesMap.put("PublishGifProperties::Width", width);
         propertiesMap.put("PublishRNWKProperties::mediaKeywords", "");
         propertiesMap.put("PublishRNWKProperties::mediaTitle", "");
         propertiesMap.put("PublishRNWKProperties::speed28K", "1");
@@ -2514,12 +3016,12 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("Vector::Export Swc", "0");
         propertiesMap.put("Vector::Debugging Password", "");
         propertiesMap.put("Vector::Omit Trace Actions", "0");
-        propertiesMap.put("PublishHtmlProperties::Height", "" + height);
-        propertiesMap.put("PublishHtmlProperties::Width", "" + width);
+        propertiesMap.put("PublishHtmlProperties::Height", height);
+        propertiesMap.put("PublishHtmlProperties::Width", width);
         propertiesMap.put("PublishFormatProperties::jpegFileName", basePublishName + ".jpg");
         propertiesMap.put("PublishFormatProperties::flashDefaultName", "1");
         propertiesMap.put("PublishPNGProperties::Interlace", "0");
-        propertiesMap.put("PublishGifProperties::Height", "" + height);
+        propertiesMap.put("PublishGifProperties::Height", height);
         propertiesMap.put("PublishJpegProperties::Size", "0");
         propertiesMap.put("Vector::DefaultLibraryLinkage", "0");
         propertiesMap.put("Vector::UseAS3Namespace", "1");
@@ -2533,7 +3035,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishFormatProperties::htmlDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::rnwk", "0");
         propertiesMap.put("PublishFormatProperties::png", "0");
-        propertiesMap.put("PublishQTProperties::Height", "" + height);
+        propertiesMap.put("PublishQTProperties::Height", height);
         propertiesMap.put("PublishPNGProperties::RemoveGradients", "0");
         propertiesMap.put("PublishGifProperties::MaxColors", "255");
         propertiesMap.put("PublishGifProperties::TransparentOption", "");
@@ -2553,11 +3055,11 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("Vector::Event Format", "0");
         propertiesMap.put("Vector::Stream Compress", "7");
         propertiesMap.put("PublishFormatProperties::qt", "0");
-        propertiesMap.put("PublishPNGProperties::Height", "" + height);
-        propertiesMap.put("PublishPNGProperties::Width", "" + width);
+        propertiesMap.put("PublishPNGProperties::Height", height);
+        propertiesMap.put("PublishPNGProperties::Width", width);
         propertiesMap.put("PublishGifProperties::RemoveGradients", "0");
         propertiesMap.put("PublishRNWKProperties::speed512K", "0");
-        propertiesMap.put("PublishJpegProperties::Height", "" + height);
+        propertiesMap.put("PublishJpegProperties::Height", height);
         propertiesMap.put("Vector::EventUse8kSampleRate", "0");
         propertiesMap.put("Vector::StreamUse8kSampleRate", "0");
         propertiesMap.put("Vector::ActionScriptVersion", "2");
@@ -2574,7 +3076,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishRNWKProperties::speedCorporateLAN", "0");
         propertiesMap.put("PublishRNWKProperties::showBitrateDlog", "1");
         propertiesMap.put("PublishRNWKProperties::exportFlash", "1");
-        propertiesMap.put("PublishJpegProperties::Width", "" + width);
+        propertiesMap.put("PublishJpegProperties::Width", width);
         propertiesMap.put("Vector::Stream Format", "0");
         propertiesMap.put("Vector::DeblockingFilter", "0");
         propertiesMap.put("PublishHtmlProperties::VersionInfo", "10,1,52,0;9,0,124,0;8,0,24,0;7,0,14,0;6,0,79,0;5,0,58,0;4,0,32,0;3,0,8,0;2,0,1,12;1,0,0,1;");
@@ -2591,7 +3093,7 @@ public class FlaConverter extends AbstractConverter {
         return propertiesMap;
     }
 
-    private Map<String, String> getPropertiesMx(String basePublishName, int width, int height) {
+    private static Map<String, String> getPropertiesMx(String basePublishName, String width, String height) {
         Map<String, String> propertiesMap = new LinkedHashMap<>();
         propertiesMap.put("PublishFormatProperties::htmlFileName", basePublishName + ".html");
         propertiesMap.put("PublishHtmlProperties::StartPaused", "0");
@@ -2616,7 +3118,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishRNWKProperties::singleRateAudio", "0");
         propertiesMap.put("PublishRNWKProperties::speedSingleISDN", "0");
         propertiesMap.put("PublishPNGProperties::OptimizeColors", "1");
-        propertiesMap.put("PublishQTProperties::Width", "" + width);
+        propertiesMap.put("PublishQTProperties::Width", width);
         propertiesMap.put("PublishFormatProperties::projectorMac", "0");
         propertiesMap.put("PublishFormatProperties::gifDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::flashFileName", basePublishName + ".swf");
@@ -2659,7 +3161,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishRNWKProperties::speed28K", "1");
         propertiesMap.put("PublishRNWKProperties::mediaTitle", "");
         propertiesMap.put("PublishRNWKProperties::mediaKeywords", "");
-        propertiesMap.put("PublishGifProperties::Width", "" + width);
+        propertiesMap.put("PublishGifProperties::Width", width);
         propertiesMap.put("PublishGifProperties::Loop", "1");
         propertiesMap.put("PublishFormatProperties::flash", "1");
         propertiesMap.put("Vector::IncludeXMP", "1");
@@ -2680,8 +3182,8 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishPNGProperties::PaletteOption", "");
         propertiesMap.put("PublishFormatProperties::flashDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::jpegFileName", basePublishName + ".jpg");
-        propertiesMap.put("PublishHtmlProperties::Width", "" + width);
-        propertiesMap.put("PublishHtmlProperties::Height", "" + height);
+        propertiesMap.put("PublishHtmlProperties::Width", width);
+        propertiesMap.put("PublishHtmlProperties::Height", height);
         propertiesMap.put("Vector::Omit Trace Actions", "0");
         propertiesMap.put("Vector::Debugging Password", "");
         propertiesMap.put("Vector::Export Swc", "0");
@@ -2701,7 +3203,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("Vector::UseAS3Namespace", "1");
         propertiesMap.put("Vector::DefaultLibraryLinkage", "0");
         propertiesMap.put("PublishJpegProperties::Size", "0");
-        propertiesMap.put("PublishGifProperties::Height", "" + height);
+        propertiesMap.put("PublishGifProperties::Height", height);
         propertiesMap.put("PublishPNGProperties::Interlace", "0");
         propertiesMap.put("PublishHtmlProperties::ContentFilename", basePublishName + "_content.html");
         propertiesMap.put("PublishHtmlProperties::AlternateFilename", basePublishName + "_alternate.html");
@@ -2712,7 +3214,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishGifProperties::TransparentOption", "");
         propertiesMap.put("PublishGifProperties::MaxColors", "255");
         propertiesMap.put("PublishPNGProperties::RemoveGradients", "0");
-        propertiesMap.put("PublishQTProperties::Height", "" + height);
+        propertiesMap.put("PublishQTProperties::Height", height);
         propertiesMap.put("PublishFormatProperties::qt", "0");
         propertiesMap.put("Vector::Stream Compress", "7");
         propertiesMap.put("Vector::Event Format", "0");
@@ -2729,17 +3231,17 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("Vector::ActionScriptVersion", "2");
         propertiesMap.put("Vector::StreamUse8kSampleRate", "0");
         propertiesMap.put("Vector::EventUse8kSampleRate", "0");
-        propertiesMap.put("PublishJpegProperties::Height", "" + height);
+        propertiesMap.put("PublishJpegProperties::Height", height);
         propertiesMap.put("PublishRNWKProperties::speed512K", "0");
         propertiesMap.put("PublishGifProperties::RemoveGradients", "0");
-        propertiesMap.put("PublishPNGProperties::Width", "" + width);
-        propertiesMap.put("PublishPNGProperties::Height", "" + height);
+        propertiesMap.put("PublishPNGProperties::Width", width);
+        propertiesMap.put("PublishPNGProperties::Height", height);
         propertiesMap.put("PublishFormatProperties::qtDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::gifFileName", basePublishName + ".gif");
         propertiesMap.put("PublishHtmlProperties::VersionInfo", "10,1,52,0;9,0,124,0;8,0,24,0;7,0,14,0;6,0,79,0;5,0,58,0;4,0,32,0;3,0,8,0;2,0,1,12;1,0,0,1;");
         propertiesMap.put("Vector::DeblockingFilter", "0");
         propertiesMap.put("Vector::Stream Format", "0");
-        propertiesMap.put("PublishJpegProperties::Width", "" + width);
+        propertiesMap.put("PublishJpegProperties::Width", width);
         propertiesMap.put("PublishRNWKProperties::exportFlash", "1");
         propertiesMap.put("PublishRNWKProperties::showBitrateDlog", "1");
         propertiesMap.put("PublishRNWKProperties::speedCorporateLAN", "0");
@@ -2761,7 +3263,7 @@ public class FlaConverter extends AbstractConverter {
         return propertiesMap;
     }
 
-    private Map<String, String> getPropertiesMx2004(String basePublishName, int width, int height) {
+    private static Map<String, String> getPropertiesMx2004(String basePublishName, String width, String height) {
         Map<String, String> propertiesMap = new LinkedHashMap<>();
         propertiesMap.put("PublishFormatProperties::htmlFileName", basePublishName + ".html");
         propertiesMap.put("PublishHtmlProperties::StartPaused", "0");
@@ -2786,7 +3288,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishRNWKProperties::singleRateAudio", "0");
         propertiesMap.put("PublishRNWKProperties::speedSingleISDN", "0");
         propertiesMap.put("PublishPNGProperties::OptimizeColors", "1");
-        propertiesMap.put("PublishQTProperties::Width", "" + width);
+        propertiesMap.put("PublishQTProperties::Width", width);
         propertiesMap.put("PublishFormatProperties::projectorMac", "0");
         propertiesMap.put("PublishFormatProperties::gifDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::flashFileName", basePublishName + ".swf");
@@ -2829,7 +3331,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishRNWKProperties::speed28K", "1");
         propertiesMap.put("PublishRNWKProperties::mediaTitle", "");
         propertiesMap.put("PublishRNWKProperties::mediaKeywords", "");
-        propertiesMap.put("PublishGifProperties::Width", "" + width);
+        propertiesMap.put("PublishGifProperties::Width", width);
         propertiesMap.put("PublishGifProperties::Loop", "1");
         propertiesMap.put("PublishFormatProperties::flash", "1");
         propertiesMap.put("Vector::IncludeXMP", "1");
@@ -2850,8 +3352,8 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishPNGProperties::PaletteOption", "");
         propertiesMap.put("PublishFormatProperties::flashDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::jpegFileName", basePublishName + ".jpg");
-        propertiesMap.put("PublishHtmlProperties::Width", "" + width);
-        propertiesMap.put("PublishHtmlProperties::Height", "" + height);
+        propertiesMap.put("PublishHtmlProperties::Width", width);
+        propertiesMap.put("PublishHtmlProperties::Height", height);
         propertiesMap.put("Vector::Omit Trace Actions", "0");
         propertiesMap.put("Vector::Debugging Password", "");
         propertiesMap.put("Vector::Export Swc", "0");
@@ -2871,7 +3373,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("Vector::UseAS3Namespace", "1");
         propertiesMap.put("Vector::DefaultLibraryLinkage", "0");
         propertiesMap.put("PublishJpegProperties::Size", "0");
-        propertiesMap.put("PublishGifProperties::Height", "" + height);
+        propertiesMap.put("PublishGifProperties::Height", height);
         propertiesMap.put("PublishPNGProperties::Interlace", "0");
         propertiesMap.put("PublishHtmlProperties::ContentFilename", basePublishName + "_content.html");
         propertiesMap.put("PublishHtmlProperties::AlternateFilename", basePublishName + "_alternate.html");
@@ -2882,7 +3384,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishGifProperties::TransparentOption", "");
         propertiesMap.put("PublishGifProperties::MaxColors", "255");
         propertiesMap.put("PublishPNGProperties::RemoveGradients", "0");
-        propertiesMap.put("PublishQTProperties::Height", "" + height);
+        propertiesMap.put("PublishQTProperties::Height", height);
         propertiesMap.put("PublishFormatProperties::qt", "0");
         propertiesMap.put("Vector::Stream Compress", "7");
         propertiesMap.put("Vector::Event Format", "0");
@@ -2898,17 +3400,17 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("Vector::ActionScriptVersion", "2");
         propertiesMap.put("Vector::StreamUse8kSampleRate", "0");
         propertiesMap.put("Vector::EventUse8kSampleRate", "0");
-        propertiesMap.put("PublishJpegProperties::Height", "" + height);
+        propertiesMap.put("PublishJpegProperties::Height", height);
         propertiesMap.put("PublishRNWKProperties::speed512K", "0");
         propertiesMap.put("PublishGifProperties::RemoveGradients", "0");
-        propertiesMap.put("PublishPNGProperties::Width", "" + width);
-        propertiesMap.put("PublishPNGProperties::Height", "" + height);
+        propertiesMap.put("PublishPNGProperties::Width", width);
+        propertiesMap.put("PublishPNGProperties::Height", height);
         propertiesMap.put("PublishFormatProperties::qtDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::gifFileName", basePublishName + ".gif");
         propertiesMap.put("PublishHtmlProperties::VersionInfo", "10,1,52,0;9,0,124,0;8,0,24,0;7,0,14,0;6,0,79,0;5,0,58,0;4,0,32,0;3,0,8,0;2,0,1,12;1,0,0,1;");
         propertiesMap.put("Vector::DeblockingFilter", "0");
         propertiesMap.put("Vector::Stream Format", "0");
-        propertiesMap.put("PublishJpegProperties::Width", "" + width);
+        propertiesMap.put("PublishJpegProperties::Width", width);
         propertiesMap.put("PublishRNWKProperties::exportFlash", "1");
         propertiesMap.put("PublishRNWKProperties::showBitrateDlog", "1");
         propertiesMap.put("PublishRNWKProperties::speedCorporateLAN", "0");
@@ -2929,7 +3431,7 @@ public class FlaConverter extends AbstractConverter {
         return propertiesMap;
     }
 
-    private Map<String, String> getPropertiesF8(String basePublishName, int width, int height) {
+    private static Map<String, String> getPropertiesF8(String basePublishName, String width, String height) {
         Map<String, String> propertiesMap = new LinkedHashMap<>();
         propertiesMap.put("PublishGifProperties::PaletteName", "");
         propertiesMap.put("PublishRNWKProperties::speed256K", "0");
@@ -2945,7 +3447,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishProfileProperties::name", "Default");
         propertiesMap.put("PublishHtmlProperties::Loop", "1");
         propertiesMap.put("PublishFormatProperties::jpeg", "0");
-        propertiesMap.put("PublishQTProperties::Width", "" + width);
+        propertiesMap.put("PublishQTProperties::Width", width);
         propertiesMap.put("PublishPNGProperties::OptimizeColors", "1");
         propertiesMap.put("PublishRNWKProperties::speedSingleISDN", "0");
         propertiesMap.put("PublishRNWKProperties::singleRateAudio", "0");
@@ -2993,7 +3495,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishFormatProperties::jpegDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::gif", "0");
         propertiesMap.put("PublishGifProperties::Loop", "1");
-        propertiesMap.put("PublishGifProperties::Width", "" + width);
+        propertiesMap.put("PublishGifProperties::Width", width);
         propertiesMap.put("PublishRNWKProperties::mediaKeywords", "");
         propertiesMap.put("PublishRNWKProperties::mediaTitle", "");
         propertiesMap.put("PublishRNWKProperties::speed28K", "1");
@@ -3022,12 +3524,12 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("Vector::Export Swc", "0");
         propertiesMap.put("Vector::Debugging Password", "");
         propertiesMap.put("Vector::Omit Trace Actions", "0");
-        propertiesMap.put("PublishHtmlProperties::Height", "" + height);
-        propertiesMap.put("PublishHtmlProperties::Width", "" + width);
+        propertiesMap.put("PublishHtmlProperties::Height", height);
+        propertiesMap.put("PublishHtmlProperties::Width", width);
         propertiesMap.put("PublishFormatProperties::jpegFileName", basePublishName + ".jpg");
         propertiesMap.put("PublishFormatProperties::flashDefaultName", "1");
         propertiesMap.put("PublishPNGProperties::Interlace", "0");
-        propertiesMap.put("PublishGifProperties::Height", "" + height);
+        propertiesMap.put("PublishGifProperties::Height", height);
         propertiesMap.put("PublishJpegProperties::Size", "0");
         propertiesMap.put("Vector::DefaultLibraryLinkage", "0");
         propertiesMap.put("Vector::UseAS3Namespace", "1");
@@ -3041,7 +3543,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishFormatProperties::htmlDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::rnwk", "0");
         propertiesMap.put("PublishFormatProperties::png", "0");
-        propertiesMap.put("PublishQTProperties::Height", "" + height);
+        propertiesMap.put("PublishQTProperties::Height", height);
         propertiesMap.put("PublishPNGProperties::RemoveGradients", "0");
         propertiesMap.put("PublishGifProperties::MaxColors", "255");
         propertiesMap.put("PublishGifProperties::TransparentOption", "");
@@ -3060,11 +3562,11 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("Vector::Event Format", "0");
         propertiesMap.put("Vector::Stream Compress", "7");
         propertiesMap.put("PublishFormatProperties::qt", "0");
-        propertiesMap.put("PublishPNGProperties::Height", "" + height);
-        propertiesMap.put("PublishPNGProperties::Width", "" + width);
+        propertiesMap.put("PublishPNGProperties::Height", height);
+        propertiesMap.put("PublishPNGProperties::Width", width);
         propertiesMap.put("PublishGifProperties::RemoveGradients", "0");
         propertiesMap.put("PublishRNWKProperties::speed512K", "0");
-        propertiesMap.put("PublishJpegProperties::Height", "" + height);
+        propertiesMap.put("PublishJpegProperties::Height", height);
         propertiesMap.put("Vector::EventUse8kSampleRate", "0");
         propertiesMap.put("Vector::StreamUse8kSampleRate", "0");
         propertiesMap.put("Vector::ActionScriptVersion", "2");
@@ -3081,7 +3583,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishRNWKProperties::speedCorporateLAN", "0");
         propertiesMap.put("PublishRNWKProperties::showBitrateDlog", "1");
         propertiesMap.put("PublishRNWKProperties::exportFlash", "1");
-        propertiesMap.put("PublishJpegProperties::Width", "" + width);
+        propertiesMap.put("PublishJpegProperties::Width", width);
         propertiesMap.put("Vector::Stream Format", "0");
         propertiesMap.put("Vector::DeblockingFilter", "0");
         propertiesMap.put("PublishHtmlProperties::VersionInfo", "10,1,52,0;9,0,124,0;8,0,24,0;7,0,14,0;6,0,79,0;5,0,58,0;4,0,32,0;3,0,8,0;2,0,1,12;1,0,0,1;");
@@ -3097,7 +3599,7 @@ public class FlaConverter extends AbstractConverter {
         return propertiesMap;
     }
 
-    private Map<String, String> getPropertiesCs3(String basePublishName, int width, int height) {
+    private static Map<String, String> getPropertiesCs3(String basePublishName, String width, String height) {
         Map<String, String> propertiesMap = new LinkedHashMap<>();
         propertiesMap.put("PublishFormatProperties::htmlFileName", basePublishName + ".html");
         propertiesMap.put("PublishHtmlProperties::StartPaused", "0");
@@ -3122,7 +3624,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishRNWKProperties::singleRateAudio", "0");
         propertiesMap.put("PublishRNWKProperties::speedSingleISDN", "0");
         propertiesMap.put("PublishPNGProperties::OptimizeColors", "1");
-        propertiesMap.put("PublishQTProperties::Width", "" + width);
+        propertiesMap.put("PublishQTProperties::Width", width);
         propertiesMap.put("PublishFormatProperties::projectorMac", "0");
         propertiesMap.put("PublishFormatProperties::gifDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::flashFileName", basePublishName + ".swf");
@@ -3165,7 +3667,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishRNWKProperties::speed28K", "1");
         propertiesMap.put("PublishRNWKProperties::mediaTitle", "");
         propertiesMap.put("PublishRNWKProperties::mediaKeywords", "");
-        propertiesMap.put("PublishGifProperties::Width", "" + width);
+        propertiesMap.put("PublishGifProperties::Width", width);
         propertiesMap.put("PublishGifProperties::Loop", "1");
         propertiesMap.put("PublishFormatProperties::flash", "1");
         propertiesMap.put("Vector::IncludeXMP", "1");
@@ -3186,8 +3688,8 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishPNGProperties::PaletteOption", "");
         propertiesMap.put("PublishFormatProperties::flashDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::jpegFileName", basePublishName + ".jpg");
-        propertiesMap.put("PublishHtmlProperties::Width", "" + width);
-        propertiesMap.put("PublishHtmlProperties::Height", "" + height);
+        propertiesMap.put("PublishHtmlProperties::Width", width);
+        propertiesMap.put("PublishHtmlProperties::Height", height);
         propertiesMap.put("Vector::Omit Trace Actions", "0");
         propertiesMap.put("Vector::Debugging Password", "");
         propertiesMap.put("Vector::Export Swc", "0");
@@ -3207,7 +3709,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("Vector::UseAS3Namespace", "1");
         propertiesMap.put("Vector::DefaultLibraryLinkage", "0");
         propertiesMap.put("PublishJpegProperties::Size", "0");
-        propertiesMap.put("PublishGifProperties::Height", "" + height);
+        propertiesMap.put("PublishGifProperties::Height", height);
         propertiesMap.put("PublishPNGProperties::Interlace", "0");
         propertiesMap.put("PublishHtmlProperties::ContentFilename", basePublishName + "_content.html");
         propertiesMap.put("PublishHtmlProperties::AlternateFilename", basePublishName + "_alternate.html");
@@ -3218,7 +3720,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishGifProperties::TransparentOption", "");
         propertiesMap.put("PublishGifProperties::MaxColors", "255");
         propertiesMap.put("PublishPNGProperties::RemoveGradients", "0");
-        propertiesMap.put("PublishQTProperties::Height", "" + height);
+        propertiesMap.put("PublishQTProperties::Height", height);
         propertiesMap.put("PublishFormatProperties::qt", "0");
         propertiesMap.put("Vector::Stream Compress", "7");
         propertiesMap.put("Vector::Event Format", "0");
@@ -3237,14 +3739,14 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishJpegProperties::Height", "400");
         propertiesMap.put("PublishRNWKProperties::speed512K", "0");
         propertiesMap.put("PublishGifProperties::RemoveGradients", "0");
-        propertiesMap.put("PublishPNGProperties::Width", "" + width);
-        propertiesMap.put("PublishPNGProperties::Height", "" + height);
+        propertiesMap.put("PublishPNGProperties::Width", width);
+        propertiesMap.put("PublishPNGProperties::Height", height);
         propertiesMap.put("PublishFormatProperties::qtDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::gifFileName", basePublishName + ".gif");
         propertiesMap.put("PublishHtmlProperties::VersionInfo", "10,1,52,0;9,0,124,0;8,0,24,0;7,0,14,0;6,0,79,0;5,0,58,0;4,0,32,0;3,0,8,0;2,0,1,12;1,0,0,1;");
         propertiesMap.put("Vector::DeblockingFilter", "0");
         propertiesMap.put("Vector::Stream Format", "0");
-        propertiesMap.put("PublishJpegProperties::Width", "" + width);
+        propertiesMap.put("PublishJpegProperties::Width", width);
         propertiesMap.put("PublishRNWKProperties::exportFlash", "1");
         propertiesMap.put("PublishRNWKProperties::showBitrateDlog", "1");
         propertiesMap.put("PublishRNWKProperties::speedCorporateLAN", "0");
@@ -3265,7 +3767,7 @@ public class FlaConverter extends AbstractConverter {
         return propertiesMap;
     }
 
-    private Map<String, String> getPropertiesCs4(String basePublishName, int width, int height) {
+    private static Map<String, String> getPropertiesCs4(String basePublishName, String width, String height) {
         Map<String, String> propertiesMap = new LinkedHashMap<>();
         propertiesMap.put("PublishGifProperties::PaletteName", "");
         propertiesMap.put("PublishRNWKProperties::speed256K", "0");
@@ -3282,7 +3784,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishProfileProperties::name", "Default");
         propertiesMap.put("PublishHtmlProperties::Loop", "1");
         propertiesMap.put("PublishFormatProperties::jpeg", "0");
-        propertiesMap.put("PublishQTProperties::Width", "" + width);
+        propertiesMap.put("PublishQTProperties::Width", width);
         propertiesMap.put("PublishPNGProperties::OptimizeColors", "1");
         propertiesMap.put("PublishRNWKProperties::speedSingleISDN", "0");
         propertiesMap.put("PublishRNWKProperties::singleRateAudio", "0");
@@ -3330,7 +3832,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishFormatProperties::jpegDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::gif", "0");
         propertiesMap.put("PublishGifProperties::Loop", "1");
-        propertiesMap.put("PublishGifProperties::Width", "" + width);
+        propertiesMap.put("PublishGifProperties::Width", width);
         propertiesMap.put("PublishRNWKProperties::mediaKeywords", "");
         propertiesMap.put("PublishRNWKProperties::mediaTitle", "");
         propertiesMap.put("PublishRNWKProperties::speed28K", "1");
@@ -3359,12 +3861,12 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("Vector::Export Swc", "0");
         propertiesMap.put("Vector::Debugging Password", "");
         propertiesMap.put("Vector::Omit Trace Actions", "0");
-        propertiesMap.put("PublishHtmlProperties::Height", "" + height);
-        propertiesMap.put("PublishHtmlProperties::Width", "" + width);
+        propertiesMap.put("PublishHtmlProperties::Height", height);
+        propertiesMap.put("PublishHtmlProperties::Width", width);
         propertiesMap.put("PublishFormatProperties::jpegFileName", basePublishName + ".jpg");
         propertiesMap.put("PublishFormatProperties::flashDefaultName", "1");
         propertiesMap.put("PublishPNGProperties::Interlace", "0");
-        propertiesMap.put("PublishGifProperties::Height", "" + height);
+        propertiesMap.put("PublishGifProperties::Height", height);
         propertiesMap.put("PublishJpegProperties::Size", "0");
         propertiesMap.put("Vector::DefaultLibraryLinkage", "0");
         propertiesMap.put("Vector::UseAS3Namespace", "1");
@@ -3378,7 +3880,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishFormatProperties::htmlDefaultName", "1");
         propertiesMap.put("PublishFormatProperties::rnwk", "0");
         propertiesMap.put("PublishFormatProperties::png", "0");
-        propertiesMap.put("PublishQTProperties::Height", "" + height);
+        propertiesMap.put("PublishQTProperties::Height", height);
         propertiesMap.put("PublishPNGProperties::RemoveGradients", "0");
         propertiesMap.put("PublishGifProperties::MaxColors", "255");
         propertiesMap.put("PublishGifProperties::TransparentOption", "");
@@ -3398,11 +3900,11 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("Vector::Event Format", "0");
         propertiesMap.put("Vector::Stream Compress", "7");
         propertiesMap.put("PublishFormatProperties::qt", "0");
-        propertiesMap.put("PublishPNGProperties::Height", "" + height);
-        propertiesMap.put("PublishPNGProperties::Width", "" + width);
+        propertiesMap.put("PublishPNGProperties::Height", height);
+        propertiesMap.put("PublishPNGProperties::Width", width);
         propertiesMap.put("PublishGifProperties::RemoveGradients", "0");
         propertiesMap.put("PublishRNWKProperties::speed512K", "0");
-        propertiesMap.put("PublishJpegProperties::Height", "" + height);
+        propertiesMap.put("PublishJpegProperties::Height", height);
         propertiesMap.put("Vector::EventUse8kSampleRate", "0");
         propertiesMap.put("Vector::StreamUse8kSampleRate", "0");
         propertiesMap.put("Vector::ActionScriptVersion", "3");
@@ -3419,7 +3921,7 @@ public class FlaConverter extends AbstractConverter {
         propertiesMap.put("PublishRNWKProperties::speedCorporateLAN", "0");
         propertiesMap.put("PublishRNWKProperties::showBitrateDlog", "1");
         propertiesMap.put("PublishRNWKProperties::exportFlash", "1");
-        propertiesMap.put("PublishJpegProperties::Width", "" + width);
+        propertiesMap.put("PublishJpegProperties::Width", width);
         propertiesMap.put("Vector::Stream Format", "0");
         propertiesMap.put("Vector::DeblockingFilter", "0");
         propertiesMap.put("PublishHtmlProperties::VersionInfo", "10,1,52,0;9,0,124,0;8,0,24,0;7,0,14,0;6,0,79,0;5,0,58,0;4,0,32,0;3,0,8,0;2,0,1,12;1,0,0,1;");
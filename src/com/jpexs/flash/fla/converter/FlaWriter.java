@@ -18,22 +18,37 @@
  */
 package com.jpexs.flash.fla.converter;
 
+import com.jpexs.flash.fla.converter.trace.LoggerTraceSink;
+import com.jpexs.flash.fla.converter.trace.NoTraceSink;
+import com.jpexs.flash.fla.converter.trace.TraceSinkInterface;
+import com.jpexs.helpers.ValueParser;
 import java.awt.Color;
 import java.awt.geom.Point2D;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Random;
+import java.util.TreeMap;
 import java.util.logging.Level;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.logging.Logger;
 
 /**
- * Writes FLA data
+ * Writes FLA data.
+ *
+ * Data are collected in an internal little-endian buffer and passed to the
+ * output stream in large chunks. flush must be called after writing.
+ *
+ * Counts which are not known in advance can be reserved by reserveUI16 or
+ * reserveUI32 and patched later. Data from the first unpatched reservation
+ * on are held in the buffer, which grows as needed.
  *
  * @author JPEXS
  */
-public class FlaWriter {
+public class FlaWriter implements Flushable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     public static int EDGESELECTION_FILL0 = 1;
     public static int EDGESELECTION_FILL1 = 2;
@@ -99,26 +114,42 @@ public class FlaWriter {
     public static final int LAYERTYPE_FOLDER = 3;
     public static final int LAYERTYPE_MASK = 4;
 
-    private String x = "0";
-    private String y = "0";
+    private double x = 0;
+    private double y = 0;
     private int strokeStyle = 0;
     private int fillStyle0 = 0;
     private int fillStyle1 = 0;
     private boolean stylesChanged = false;
     private boolean moved = false;
-    private String moveX = null;
-    private String moveY = null;
+    private double moveX = 0;
+    private double moveY = 0;
     private int edgeSelection = 0;
 
     private static final Logger logger = Logger.getLogger(FlaWriter.class.getName());
 
+    private TraceSinkInterface traceSink;
+
+    private boolean tracing;
+
     private OutputStream os;
 
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
     private boolean debugRandom = false;
     private final FlaFormatVersion flaFormatVersion;
 
     private long pos = 0;
 
+    /**
+     * Position of the first byte in the buffer.
+     */
+    private long bufferStart = 0;
+
+    /**
+     * Unpatched reservations - position to size.
+     */
+    private final TreeMap<Long, Integer> reservations = new TreeMap<>();
+
     private String title = "";
     private final String charset;
 
@@ -138,6 +169,22 @@ public class FlaWriter {
         this.os = os;
         this.flaFormatVersion = flaFormatVersion;
         this.charset = charset;
+        setTraceSink(logger.isLoggable(Level.FINE) ? new LoggerTraceSink(logger) : NoTraceSink.INSTANCE);
+    }
+
+    /**
+     * Sets sink for tracing written edges. The sink is asked whether it is
+     * enabled only here, disabled sink is never called.
+     *
+     * @param traceSink Trace sink
+     */
+    public void setTraceSink(TraceSinkInterface traceSink) {
+        this.traceSink = traceSink;
+        this.tracing = traceSink.isEnabled();
+    }
+
+    public TraceSinkInterface getTraceSink() {
+        return traceSink;
     }
 
     public void writeFloat(float val) throws IOException {
@@ -151,8 +198,8 @@ public class FlaWriter {
     public void beginShape() {
         stylesChanged = true;
         moved = false;
-        x = "0";
-        y = "0";
+        x = 0;
+        y = 0;
         edgeSelection = 0;
     }
 
@@ -178,143 +225,58 @@ public class FlaWriter {
     }
 
     public static int getEdgesCount(String edges) throws IOException {
-        edges = edges.replaceAll("[ \r\n\t\f]+", " ");
-        edges = edges.replaceAll("([^ ])([!\\[\\|/])", "$1 $2");
-        edges = edges.replaceAll("([!\\[\\|/])([^ ])", "$1 $2");
-
-        edges = edges.trim();
-
-        if (edges.isEmpty()) {
-            return 0;
-        }
-
-        if (!edges.startsWith("!")) {
-            throw new IllegalArgumentException("edges must start with !");
-        }
-
-        String[] moveToParts = edges.split("!", -1);
-
-        int totalEdges = 0;
-
-        for (int m = 1 /*first always empty*/; m < moveToParts.length; m++) {
-            String moveToPart = moveToParts[m].trim();
-            String[] parts = moveToPart.split(" ", -1);
-
-            if (1 >= parts.length) {
-                throw new IllegalArgumentException("! requires two arguments");
-            }
-
-            for (int i = 2; i < parts.length; i++) {
-                switch (parts[i]) {
-                    case "|":
-                    case "/":
-                        if (i + 2 >= parts.length) {
-                            throw new IllegalArgumentException(parts[i] + " requires two arguments");
-                        }
-                        i += 2;
-                        totalEdges++;
-                        break;
-                    case "[":
-                        if (i + 4 >= parts.length) {
-                            throw new IllegalArgumentException("[ requires four arguments");
-                        }
-                        i += 4;
-                        totalEdges++;
-                        break;
-                }
-            }
-        }
-
-        return totalEdges;
+        return EdgeCommands.parse(edges).getEdgeCount();
     }
 
     public void writeEdges(String edges, int strokeStyle, int fillStyle0, int fillStyle1) throws IOException {
+        writeEdges(EdgeCommands.parse(edges), strokeStyle, fillStyle0, fillStyle1);
+    }
+
+    public void writeEdges(EdgeCommands edges, int strokeStyle, int fillStyle0, int fillStyle1) throws IOException {
         setStrokeStyle(strokeStyle);
         setFillStyle0(fillStyle0);
         setFillStyle1(fillStyle1);
 
-        edges = edges.replaceAll("[ \r\n\t\f]+", " ");
-        edges = edges.replaceAll("([^ ])([!\\[\\|/])", "$1 $2");
-        edges = edges.replaceAll("([!\\[\\|/])([^ ])", "$1 $2");
-
-        edges = edges.trim();
-
-        if (edges.isEmpty()) {
-            return;
-        }
-        if (!edges.startsWith("!")) {
-            throw new IllegalArgumentException("edges must start with !");
-        }
-
-        String[] moveToParts = edges.split("!", -1);
-
-        for (int m = 1 /*first always empty*/; m < moveToParts.length; m++) {
-            String moveToPart = moveToParts[m].trim();
-            String[] parts = moveToPart.split(" ", -1);
-
-            if (1 >= parts.length) {
-                throw new IllegalArgumentException("! requires two arguments");
-            }
-
-            int selection = 0;
-            if (parts[1].contains("S")) {
-                selection = Integer.parseInt(parts[1].substring(parts[1].indexOf("S") + 1));
-                parts[1] = parts[1].substring(0, parts[1].indexOf("S"));
-            }
-
-            try {
-                moveTo(
-                        selection,
-                        parts[0],
-                        parts[1]
-                );
-            } catch (NumberFormatException nfe) {
-                throw new IllegalArgumentException("! has invalid arguments: " + parts[0] + ", " + parts[1]);
-            }
-
-            for (int i = 2; i < parts.length; i++) {
-                switch (parts[i]) {
-                    case "|":
-                    case "/":
-                        if (i + 2 >= parts.length) {
-                            throw new IllegalArgumentException(parts[i] + " requires two arguments");
-                        }
-                        try {
-                            lineTo(
-                                    parts[i + 1],
-                                    parts[i + 2],
-                                    parts[i].equals("/")
-                            );
-                        } catch (NumberFormatException nfe) {
-                            throw new IllegalArgumentException(parts[i] + " has invalid arguments: " + parts[i + 1] + ", " + parts[i + 2]);
-                        }
-                        i += 2;
-                        break;
-                    case "[":
-                        if (i + 4 >= parts.length) {
-                            throw new IllegalArgumentException("[ requires four arguments");
-                        }
-
-                        try {
-                            curveTo(
-                                    parts[i + 1],
-                                    parts[i + 2],
-                                    parts[i + 3],
-                                    parts[i + 4]
-                            );
-                        } catch (NumberFormatException nfe) {
-                            throw new IllegalArgumentException("[ has invalid arguments: " + parts[i + 1] + ", " + parts[i + 2] + ", " + parts[i + 3] + ", " + parts[i + 4]);
-                        }
-                        i += 4;
-                        break;
-                }
+        int c = 0;
+        for (int i = 0; i < edges.getCommandsLength(); i++) {
+            switch (edges.getCommand(i)) {
+                case EdgeCommands.COMMAND_MOVE_TO:
+                    i++;
+                    moveTo(edges.getCommand(i), edges.getCoordinate(c), edges.getCoordinate(c + 1));
+                    c += 2;
+                    break;
+                case EdgeCommands.COMMAND_LINE_TO:
+                case EdgeCommands.COMMAND_GENERAL_LINE_TO:
+                    lineTo(edges.getCoordinate(c), edges.getCoordinate(c + 1), edges.getCommand(i) == EdgeCommands.COMMAND_GENERAL_LINE_TO);
+                    c += 2;
+                    break;
+                case EdgeCommands.COMMAND_CURVE_TO:
+                    curveTo(edges.getCoordinate(c), edges.getCoordinate(c + 1), edges.getCoordinate(c + 2), edges.getCoordinate(c + 3));
+                    c += 4;
+                    break;
             }
         }
     }
 
-    public void writeEdge(int selection, String fromX, String fromY, String toX, String toY, String controlX, String controlY, boolean generalLine) throws IOException {
+    /**
+     * Writes single edge. Coordinates are relative, in fixed point 1/256 twip
+     * units.
+     *
+     * @param selection Edge selection
+     * @param hasFrom Whether the edge starts with a move
+     * @param fromX Move X
+     * @param fromY Move Y
+     * @param toX Anchor X
+     * @param toY Anchor Y
+     * @param hasControl Whether the edge is a curve
+     * @param controlX Control X
+     * @param controlY Control Y
+     * @param generalLine General line flag
+     * @throws IOException On I/O error
+     */
+    public void writeEdge(int selection, boolean hasFrom, long fromX, long fromY, long toX, long toY, boolean hasControl, long controlX, long controlY, boolean generalLine) throws IOException {
         int type = 0;
-        if (controlX != null && controlY != null) {
+        if (hasControl) {
             if (fitsXYByte(controlX, controlY)) {
                 type |= FLAG_EDGE_CONTROL_BYTE;
             } else if (fitsXYShort(controlX, controlY)) {
@@ -323,7 +285,7 @@ public class FlaWriter {
                 type |= FLAG_EDGE_CONTROL_FLOAT;
             }
         }
-        if (fromX != null && fromY != null && !(fromX.equals("0") && fromY.equals("0"))) {
+        if (hasFrom) {
             if (fitsXYByte(fromX, fromY)) {
                 type |= FLAG_EDGE_FROM_BYTE;
             } else if (fitsXYShort(fromX, fromY)) {
@@ -348,10 +310,14 @@ public class FlaWriter {
                 type |= FLAG_EDGE_NO_SELECTION;
             }
         }
-        logger.log(Level.FINE, "writing type 0x{0} ({1}{2}{3})", new Object[]{String.format("%02X", type), stylesChanged ? "style + " : "", fromX != null && fromY != null && !(fromX.equals("0") && fromY.equals("0")) ? "move + " : "", controlX != null ? "curve" : "straight"});
+        if (tracing) {
+            traceSink.trace(title, pos, TraceSinkInterface.RECORD_EDGE_TYPE, type, 0, 0);
+        }
         write(type);
         if (stylesChanged) {
-            logger.log(Level.FINE, "writing style 0x{0} 0x{1} 0x{2}", new Object[]{String.format("%02X", strokeStyle), String.format("%02X", fillStyle0), String.format("%02X", fillStyle1)});
+            if (tracing) {
+                traceSink.trace(title, pos, TraceSinkInterface.RECORD_EDGE_STYLES, strokeStyle, fillStyle0, fillStyle1);
+            }
             write(strokeStyle);
             if (selection != 0) {
                 if ((selection & EDGESELECTION_STROKE) == EDGESELECTION_STROKE) {
@@ -378,18 +344,18 @@ public class FlaWriter {
             }
             stylesChanged = false;
         }
-        if (fromX != null && fromY != null && !(fromX.equals("0") && fromY.equals("0"))) {
+        if (hasFrom) {
             writeXY(fromX, fromY);
         }
-        if (controlX != null && controlY != null) {
+        if (hasControl) {
             writeXY(controlX, controlY);
         }
-        if (toX != null && toY != null) {
-            writeXY(toX, toY);
-        }
+        writeXY(toX, toY);
         if (flaFormatVersion.ordinal() >= FlaFormatVersion.CS3.ordinal()) {
-            if (controlX == null) {
-                logger.log(Level.FINE, "writing generalLineFlag {0}", generalLine ? 1 : 0);
+            if (!hasControl) {
+                if (tracing) {
+                    traceSink.trace(title, pos, TraceSinkInterface.RECORD_GENERAL_LINE_FLAG, generalLine ? 1 : 0, 0, 0);
+                }
                 write(generalLine ? 1 : 0);
             }
         }
@@ -399,106 +365,83 @@ public class FlaWriter {
     /**
      * 8 bits for fraction, 8 bits for value
      *
-     * @param x
-     * @param y
-     * @return
+     * @param x X in 1/256 twips
+     * @param y Y in 1/256 twips
+     * @return True when fits
      */
-    public boolean fitsXYByte(String x, String y) {
-        double vx = parseEdge(x);
-        double vy = parseEdge(y);
-
-        long integerX = (long) Math.floor(vx);
-        long integerY = (long) Math.floor(vy);
-        int fractX = (int) Math.floor((vx - integerX) * 256);
-        int fractY = (int) Math.floor((vy - integerY) * 256);
+    public boolean fitsXYByte(long x, long y) {
+        long integerX = x >> 8;
+        long integerY = y >> 8;
 
-        if (integerX >= Byte.MIN_VALUE
+        return integerX >= Byte.MIN_VALUE
                 && integerX <= Byte.MAX_VALUE
                 && integerY >= Byte.MIN_VALUE
-                && integerY <= Byte.MAX_VALUE) {
-            return true;
-        }
-        return false;
+                && integerY <= Byte.MAX_VALUE;
     }
 
     /**
      * 1 bit for fraction, 15 bit for integer part
      *
-     * @param x
-     * @param y
-     * @return
+     * @param x X in 1/256 twips
+     * @param y Y in 1/256 twips
+     * @return True when fits
      */
-    public boolean fitsXYShort(String x, String y) {
-
-        double vx = parseEdge(x);
-        double vy = parseEdge(y);
-
-        long integerX = (long) Math.floor(vx);
-        long integerY = (long) Math.floor(vy);
-        int fractX = (int) Math.floor((vx - integerX) * 256);
-        int fractY = (int) Math.floor((vy - integerY) * 256);
-
-        try {
-
-            int nBits = 15;
-            int min = -(1 << (nBits - 1));
-            int max = (1 << (nBits - 1)) - 1;
-
-            if (integerX >= min
-                    && integerX <= max
-                    && integerY >= min
-                    && integerY <= max
-                    && (fractX == 0 || fractX == 128)
-                    && (fractY == 0 || fractY == 128)) {
-                return true;
-            }
-        } catch (NumberFormatException nfe) {
-            //ignore            
-        }
-        return false;
+    public boolean fitsXYShort(long x, long y) {
+        long integerX = x >> 8;
+        long integerY = y >> 8;
+        int fractX = (int) (x & 0xFF);
+        int fractY = (int) (y & 0xFF);
+
+        int nBits = 15;
+        int min = -(1 << (nBits - 1));
+        int max = (1 << (nBits - 1)) - 1;
+
+        return integerX >= min
+                && integerX <= max
+                && integerY >= min
+                && integerY <= max
+                && (fractX == 0 || fractX == 128)
+                && (fractY == 0 || fractY == 128);
     }
 
-    public void writeXY(String x, String y) throws IOException {
-
-        double vx = parseEdge(x);
-        double vy = parseEdge(y);
+    /**
+     * Writes XY pair.
+     *
+     * @param x X in 1/256 twips
+     * @param y Y in 1/256 twips
+     * @throws IOException On I/O error
+     */
+    public void writeXY(long x, long y) throws IOException {
 
-        int integerX = (int) Math.floor(vx);
-        int integerY = (int) Math.floor(vy);
-        int fractX = (int) Math.floor((vx - integerX) * 256);
-        int fractY = (int) Math.floor((vy - integerY) * 256);
+        long integerX = x >> 8;
+        long integerY = y >> 8;
+        int fractX = (int) (x & 0xFF);
+        int fractY = (int) (y & 0xFF);
 
-        if (integerX >= Byte.MIN_VALUE
-                && integerX <= Byte.MAX_VALUE
-                && integerY >= Byte.MIN_VALUE
-                && integerY <= Byte.MAX_VALUE) {
-            logger.log(Level.FINE, "writing as byte 0x00 0X{0} 0x00 0x{1} ({2,number,#}, {3,number,#})", new Object[]{String.format("%02X", integerX & 0xFF), String.format("%02X", integerY & 0xFF), integerX, integerY});
+        if (fitsXYByte(x, y)) {
+            if (tracing) {
+                traceSink.trace(title, pos, TraceSinkInterface.RECORD_XY_BYTE, x, y, 0);
+            }
             write(fractX);
-            write(integerX);
+            write((int) (integerX & 0xFF));
             write(fractY);
-            write(integerY);
+            write((int) (integerY & 0xFF));
             return;
         }
 
-        int shortNBits = 15;
-        int minShort = -(1 << (shortNBits - 1));
-        int maxShort = (1 << (shortNBits - 1)) - 1;
-        if (integerX >= minShort
-                && integerX <= maxShort
-                && integerY >= minShort
-                && integerY <= maxShort
-                && (fractX == 0 || fractX == 0x80)
-                && (fractY == 0 || fractY == 0x80)) {
-            logger.log(Level.FINE, "writing as short 0x{0} 0x{1} 0x{2} 0x{3} ({4,number,#}, {5,number,#})", new Object[]{String.format("%02X", (integerX << 1) & 0xFF), String.format("%02X", (integerX >> 7) & 0xFF), String.format("%02X", (integerY << 1) & 0xFF), String.format("%02X", (integerY >> 7) & 0xFF), integerX, integerY});
+        if (fitsXYShort(x, y)) {
+            if (tracing) {
+                traceSink.trace(title, pos, TraceSinkInterface.RECORD_XY_SHORT, x, y, 0);
+            }
 
-            integerX = (int) Math.floor(vx * 2);
-            integerY = (int) Math.floor(vy * 2);
+            long halfX = x >> 7;
+            long halfY = y >> 7;
 
-            write(integerX & 0xFF);
-            write((integerX >> 8) & 0xFF);
+            write((int) (halfX & 0xFF));
+            write((int) ((halfX >> 8) & 0xFF));
 
-            write(integerY & 0xFF);
-            write((integerY >> 8) & 0xFF);
+            write((int) (halfY & 0xFF));
+            write((int) ((halfY >> 8) & 0xFF));
 
             return;
         }
@@ -511,23 +454,32 @@ public class FlaWriter {
                 || integerX > maxInt
                 || integerY < minInt
                 || integerY > maxInt) {
-            throw new NumberFormatException("cannot store XY values: " + x + ", " + y);
+            throw new NumberFormatException("cannot store XY values: " + (x / 256.0) + ", " + (y / 256.0));
         }
 
-        logger.log(Level.FINE, "writing as fract 0x{0} 0x{1} 0x{2} 0x{3} 0x{4} 0x{5} 0x{6} 0x{7} ({8,number,#}.{9,number,#},{10,number,#}.{11,number,#} )", new Object[]{String.format("%02X", fractX), String.format("%02X", integerX & 0xFF), String.format("%02X", (integerX >> 8) & 0xFF), String.format("%02X", (integerX >> 16) & 0xFF), String.format("%02X", fractY), String.format("%02X", integerY & 0xFF), String.format("%02X", (integerY >> 8) & 0xFF), String.format("%02X", (integerY >> 16) & 0xFF), integerX, fractX, integerY, fractY});
+        if (tracing) {
+            traceSink.trace(title, pos, TraceSinkInterface.RECORD_XY_FRACT, x, y, 0);
+        }
 
         write(fractX);
-        write(integerX & 0xFF);
-        write((integerX >> 8) & 0xFF);
-        write((integerX >> 16) & 0xFF);
+        write((int) (integerX & 0xFF));
+        write((int) ((integerX >> 8) & 0xFF));
+        write((int) ((integerX >> 16) & 0xFF));
 
         write(fractY);
-        write(integerY & 0xFF);
-        write((integerY >> 8) & 0xFF);
-        write((integerY >> 16) & 0xFF);
+        write((int) (integerY & 0xFF));
+        write((int) ((integerY >> 8) & 0xFF));
+        write((int) ((integerY >> 16) & 0xFF));
     }
 
-    public void moveTo(int selection, String x, String y) {
+    /**
+     * Starts new path.
+     *
+     * @param selection Edge selection
+     * @param x X in twips
+     * @param y Y in twips
+     */
+    public void moveTo(int selection, double x, double y) {
         moved = true;
         this.moveX = x;
         this.moveY = y;
@@ -535,82 +487,86 @@ public class FlaWriter {
     }
 
     public Point2D parsePoint(String pointData) {
-        if (pointData.isEmpty()) {
-            return new Point2D.Double(0, 0);
-        }
-        String[] parts = pointData.split(",", -1);
-        if (parts.length != 2) {
+        double[] point = new double[2];
+        if (!ValueParser.parsePoint(pointData, point)) {
             return null;
         }
-        return new Point2D.Double(parseEdge(parts[0].trim()), parseEdge(parts[1].trim()));
+        return new Point2D.Double(point[0], point[1]);
     }
 
-    private double parseEdge(String edge) {
-        Pattern doubleHexPattern = Pattern.compile("#(?<before>[a-fA-F0-9]+){1,6}(\\.(?<after>[0-9a-fA-F]{1,2}))?");
-        Matcher m = doubleHexPattern.matcher(edge);
-        if (m.matches()) {
-            String before = m.group("before");
-            String after = m.group("after");
-            int afterInt = 0;
-            if (after != null) {
-                if (after.length() == 1) {
-                    after += "0";
-                }
-                afterInt = Integer.parseInt(after, 16);
-            }
-            int beforeInt = Integer.parseInt(before, 16);
-            beforeInt = (beforeInt << 8) >> 8; //sign extend
-            return beforeInt + afterInt / 256.0;
-        }
-        return Double.parseDouble(edge);
-    }
-
-    private String numEdgeToString(double value) {
+    /**
+     * Converts difference of two edge coordinates to fixed point 1/256 twip
+     * units. Integral values are kept as they are, fractional values are
+     * floored to 1/256 and their integer part is wrapped to 24 bits.
+     *
+     * @param value Value in twips
+     * @return Value in 1/256 twips
+     */
+    private static long deltaToFixed(double value) {
         if (value == Math.floor(value)) {
-            long lval = (long) value;
-            return "" + lval;
+            if (Math.abs(value) >= (1L << 40)) {
+                throw new NumberFormatException("cannot store XY value: " + value);
+            }
+            return ((long) value) << 8;
         }
         long integerPart = (long) Math.floor(value);
-        double fractionalPart = value - integerPart;
-        int fractionalPart256 = (int) Math.floor(fractionalPart * 256);
-        String h = Long.toHexString(integerPart).toUpperCase();
-        if (h.length() > 6) {
-            h = h.substring(h.length() - 6, h.length());
-        }
-        return "#" + h + "." + String.format("%02X", fractionalPart256);
-    }
-
-    private String deltaEdge(String v1, String v2) {
-        return numEdgeToString(parseEdge(v1) - parseEdge(v2));
+        int fractionalPart256 = (int) Math.floor((value - integerPart) * 256);
+        long wrapped = (integerPart << 40) >> 40;
+        return (wrapped << 8) + fractionalPart256;
     }
 
-    public void lineTo(String x2, String y2, boolean generalLine) throws IOException {
-        String newX = moved ? moveX : this.x;
-        String newY = moved ? moveY : this.y;
+    /**
+     * Draws straight edge.
+     *
+     * @param x2 X in twips
+     * @param y2 Y in twips
+     * @param generalLine General line flag
+     * @throws IOException On I/O error
+     */
+    public void lineTo(double x2, double y2, boolean generalLine) throws IOException {
+        double newX = moved ? moveX : this.x;
+        double newY = moved ? moveY : this.y;
+        double fromX = moved ? moveX - this.x : 0;
+        double fromY = moved ? moveY - this.y : 0;
         writeEdge(
                 moved ? edgeSelection : 0,
-                moved ? deltaEdge(moveX, this.x) : null,
-                moved ? deltaEdge(moveY, this.y) : null,
-                deltaEdge(x2, newX),
-                deltaEdge(y2, newY),
-                null,
-                null,
+                moved && !(fromX == 0 && fromY == 0),
+                deltaToFixed(fromX),
+                deltaToFixed(fromY),
+                deltaToFixed(x2 - newX),
+                deltaToFixed(y2 - newY),
+                false,
+                0,
+                0,
                 generalLine);
         this.x = x2;
         this.y = y2;
     }
 
-    public void curveTo(String controlX, String controlY, String anchorX, String anchorY) throws IOException {
-        String newX = moved ? moveX : this.x;
-        String newY = moved ? moveY : this.y;
+    /**
+     * Draws quadratic curve.
+     *
+     * @param controlX Control X in twips
+     * @param controlY Control Y in twips
+     * @param anchorX Anchor X in twips
+     * @param anchorY Anchor Y in twips
+     * @throws IOException On I/O error
+     */
+    public void curveTo(double controlX, double controlY, double anchorX, double anchorY) throws IOException {
+        double newX = moved ? moveX : this.x;
+        double newY = moved ? moveY : this.y;
+        double fromX = moved ? moveX - this.x : 0;
+        double fromY = moved ? moveY - this.y : 0;
         writeEdge(
                 moved ? edgeSelection : 0,
-                moved ? deltaEdge(moveX, this.x) : null,
-                moved ? deltaEdge(moveY, this.y) : null,
-                deltaEdge(anchorX, newX),
-                deltaEdge(anchorY, newY),
-                deltaEdge(controlX, newX),
-                deltaEdge(controlY, newY),
+                moved && !(fromX == 0 && fromY == 0),
+                deltaToFixed(fromX),
+                deltaToFixed(fromY),
+                deltaToFixed(anchorX - newX),
+                deltaToFixed(anchorY - newY),
+                true,
+                deltaToFixed(controlX - newX),
+                deltaToFixed(controlY - newY),
                 false
         );
         this.x = anchorX;
@@ -864,19 +820,204 @@ public class FlaWriter {
         write(0);
     }
 
+    /**
+     * Makes room for given number of bytes in the buffer.
+     *
+     * @param length Number of bytes
+     * @throws IOException On I/O error
+     */
+    private void ensureRemaining(int length) throws IOException {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+        flushBuffer();
+        if (buffer.remaining() < length) {
+            ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length)).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+    }
+
+    /**
+     * Passes buffered data before the first unpatched reservation to the
+     * output stream.
+     *
+     * @throws IOException On I/O error
+     */
+    private void flushBuffer() throws IOException {
+        int length = buffer.position();
+        if (!reservations.isEmpty()) {
+            length = (int) (reservations.firstKey() - bufferStart);
+        }
+        if (length == 0) {
+            return;
+        }
+        os.write(buffer.array(), 0, length);
+        int remaining = buffer.position() - length;
+        System.arraycopy(buffer.array(), length, buffer.array(), 0, remaining);
+        buffer.position(remaining);
+        bufferStart += length;
+    }
+
+    private long reserve(int size) throws IOException {
+        ensureRemaining(size);
+        long slot = pos;
+        reservations.put(slot, size);
+        for (int i = 0; i < size; i++) {
+            buffer.put((byte) 0);
+        }
+        pos += size;
+        return slot;
+    }
+
+    private void patch(long slot, int size, long value) {
+        Integer reservedSize = reservations.get(slot);
+        if (reservedSize == null) {
+            throw new IllegalStateException("No reservation at position " + slot);
+        }
+        if (reservedSize != size) {
+            throw new IllegalStateException("Reservation at position " + slot + " has " + reservedSize + " bytes, not " + size);
+        }
+        reservations.remove(slot);
+        int index = (int) (slot - bufferStart);
+        if (size == 2) {
+            buffer.putShort(index, (short) value);
+        } else {
+            buffer.putInt(index, (int) value);
+        }
+    }
+
+    /**
+     * Writes UI16 placeholder to be patched by patchUI16 later.
+     *
+     * @return Slot
+     * @throws IOException On I/O error
+     */
+    public long reserveUI16() throws IOException {
+        return reserve(2);
+    }
+
+    /**
+     * Writes UI32 placeholder to be patched by patchUI32 later.
+     *
+     * @return Slot
+     * @throws IOException On I/O error
+     */
+    public long reserveUI32() throws IOException {
+        return reserve(4);
+    }
+
+    public void patchUI16(long slot, int value) {
+        if (value > 0xFFFF) {
+            throw new IllegalArgumentException("Attempt to write larger value than 0xFFFF as UI16");
+        }
+        patch(slot, 2, value);
+    }
+
+    public void patchUI32(long slot, long value) {
+        patch(slot, 4, value);
+    }
+
+    /**
+     * Passes buffered data to the output stream and flushes it.
+     *
+     * @throws IOException On I/O error
+     * @throws IllegalStateException When there are unpatched reservations
+     */
+    @Override
+    public void flush() throws IOException {
+        if (!reservations.isEmpty()) {
+            throw new IllegalStateException("There are unpatched reservations");
+        }
+        flushBuffer();
+        os.flush();
+    }
+
+    private static void checkByte(int value) {
+        if (value > 255) {
+            throw new IllegalArgumentException("Attempt to write larger value than 255 as byte");
+        }
+    }
+
     public void write(byte[] bytes) throws IOException {
-        os.write(bytes);
-        pos += bytes.length;
+        write(bytes, 0, bytes.length);
+    }
+
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (length > buffer.capacity() && reservations.isEmpty()) {
+            flushBuffer();
+            os.write(bytes, offset, length);
+        } else {
+            ensureRemaining(length);
+            buffer.put(bytes, offset, length);
+        }
+        pos += length;
+    }
+
+    public void write(int value) throws IOException {
+        checkByte(value);
+        ensureRemaining(1);
+        buffer.put((byte) value);
+        pos++;
+    }
+
+    public void write(int v1, int v2) throws IOException {
+        checkByte(v1);
+        checkByte(v2);
+        ensureRemaining(2);
+        buffer.put((byte) v1).put((byte) v2);
+        pos += 2;
+    }
+
+    public void write(int v1, int v2, int v3) throws IOException {
+        checkByte(v1);
+        checkByte(v2);
+        checkByte(v3);
+        ensureRemaining(3);
+        buffer.put((byte) v1).put((byte) v2).put((byte) v3);
+        pos += 3;
+    }
+
+    public void write(int v1, int v2, int v3, int v4) throws IOException {
+        checkByte(v1);
+        checkByte(v2);
+        checkByte(v3);
+        checkByte(v4);
+        ensureRemaining(4);
+        buffer.put((byte) v1).put((byte) v2).put((byte) v3).put((byte) v4);
+        pos += 4;
+    }
+
+    public void write(int v1, int v2, int v3, int v4, int v5) throws IOException {
+        write(v1, v2, v3, v4);
+        write(v5);
+    }
+
+    public void write(int v1, int v2, int v3, int v4, int v5, int v6) throws IOException {
+        write(v1, v2, v3, v4);
+        write(v5, v6);
+    }
+
+    public void write(int v1, int v2, int v3, int v4, int v5, int v6, int v7) throws IOException {
+        write(v1, v2, v3, v4);
+        write(v5, v6, v7);
+    }
+
+    public void write(int v1, int v2, int v3, int v4, int v5, int v6, int v7, int v8) throws IOException {
+        write(v1, v2, v3, v4);
+        write(v5, v6, v7, v8);
     }
 
     public void write(int... values) throws IOException {
         for (int i : values) {
-            if (i > 255) {
-                throw new IllegalArgumentException("Attempt to write larger value than 255 as byte");
-            }
-            os.write(i);
-            pos++;
+            checkByte(i);
+        }
+        ensureRemaining(values.length);
+        for (int i : values) {
+            buffer.put((byte) i);
         }
+        pos += values.length;
     }
 
     public void writeEncodedUI(int value) throws IOException {
@@ -892,8 +1033,9 @@ public class FlaWriter {
         if (value > 0xFFFF) {
             throw new IllegalArgumentException("Attempt to write larger value than 0xFFFF as UI16");
         }
-        write(value & 0xFF);
-        write((value >> 8) & 0xFF);
+        ensureRemaining(2);
+        buffer.putShort((short) value);
+        pos += 2;
     }
 
     public void writeItemID(String itemID) throws IOException {
@@ -901,34 +1043,29 @@ public class FlaWriter {
             write('X', 'X', 'X', 'X', 'X', 'X', 'X', 'X');
             return;
         }
-        Pattern itemIdPattern = Pattern.compile("^(?<hi>[a-f0-9]{8})-(?<lo>[a-f0-9]{8})$");
-        Matcher m = itemIdPattern.matcher(itemID);
-        if (!m.matches()) {
+        long itemIDValue;
+        try {
+            itemIDValue = ValueParser.parseItemId(itemID);
+        } catch (NumberFormatException nfe) {
             throw new IllegalArgumentException("Invalid itemID supplied: " + itemID);
         }
-        Long itemIDHigh = Long.parseLong(m.group("hi"), 16);
-        Long itemIDLow = Long.parseLong(m.group("lo"), 16);
+        long itemIDHigh = itemIDValue >>> 32;
+        long itemIDLow = itemIDValue & 0xFFFFFFFFL;
 
         writeUI32(itemIDHigh);
         writeUI32(itemIDLow);
     }
 
     public void writeUI32(long value) throws IOException {
-        write((int) (value & 0xFF));
-        write((int) ((value >> 8) & 0xFF));
-        write((int) ((value >> 16) & 0xFF));
-        write((int) ((value >> 24) & 0xFF));
+        ensureRemaining(4);
+        buffer.putInt((int) value);
+        pos += 4;
     }
 
     public void writeUI64(long value) throws IOException {
-        write((int) (value & 0xFF));
-        write((int) ((value >> 8) & 0xFF));
-        write((int) ((value >> 16) & 0xFF));
-        write((int) ((value >> 24) & 0xFF));
-        write((int) ((value >> 32) & 0xFF));
-        write((int) ((value >> 40) & 0xFF));
-        write((int) ((value >> 48) & 0xFF));
-        write((int) ((value >> 56) & 0xFF));
+        ensureRemaining(8);
+        buffer.putLong(value);
+        pos += 8;
     }
 
     private void writePointPart(double val) throws IOException {
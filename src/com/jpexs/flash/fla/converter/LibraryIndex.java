@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.w3c.dom.Element;
+
+/**
+ * Index of library items of a document - symbols, media, folders and fonts.
+ *
+ * Built once per document and shared by all converters of the document, so
+ * looking up an item by name does not scan the library. Ids are one-based
+ * positions in the symbol or media list, same as in the FLA file. When more
+ * items have the same name, the first one wins.
+ *
+ * @author JPEXS
+ */
+public final class LibraryIndex {
+
+    private final Element document;
+
+    private final List<Element> symbols;
+
+    private final List<Element> media;
+
+    private final List<Element> fontItems;
+
+    private final Map<String, Integer> symbolIdByName = new HashMap<>();
+
+    private final Map<String, Integer> mediaIdByName = new HashMap<>();
+
+    private final Map<String, Integer> bitmapIdByName = new HashMap<>();
+
+    private final Map<String, Integer> videoIdByName = new HashMap<>();
+
+    private final Map<String, String> folderItemIdByName = new HashMap<>();
+
+    private final Map<String, List<Element>> fontItemsByFace = new HashMap<>();
+
+    /**
+     * Constructs index.
+     *
+     * @param document Document element
+     * @param symbols Include elements in document order
+     * @param media Media items in the order they are stored to FLA
+     * @param folderItems DOMFolderItem elements
+     * @param fontItems DOMFontItem elements in document order
+     */
+    public LibraryIndex(Element document, List<Element> symbols, List<Element> media, List<Element> folderItems, List<Element> fontItems) {
+        this.document = document;
+        this.symbols = Collections.unmodifiableList(new ArrayList<>(symbols));
+        this.media = Collections.unmodifiableList(new ArrayList<>(media));
+        this.fontItems = Collections.unmodifiableList(new ArrayList<>(fontItems));
+
+        for (int i = 0; i < symbols.size(); i++) {
+            Element include = symbols.get(i);
+            if (!include.hasAttribute("href")) {
+                continue;
+            }
+            String name = include.getAttribute("href");
+            if (name.endsWith(".xml")) {
+                name = name.substring(0, name.length() - 4);
+            }
+            putFirst(symbolIdByName, name, i + 1);
+        }
+
+        for (int i = 0; i < media.size(); i++) {
+            Element mediaItem = media.get(i);
+            if (!mediaItem.hasAttribute("name")) {
+                continue;
+            }
+            String name = mediaItem.getAttribute("name");
+            putFirst(mediaIdByName, name, i + 1);
+            switch (mediaItem.getTagName()) {
+                case "DOMBitmapItem":
+                    putFirst(bitmapIdByName, name, i + 1);
+                    break;
+                case "DOMVideoItem":
+                    putFirst(videoIdByName, name, i + 1);
+                    break;
+            }
+        }
+
+        for (Element folderItem : folderItems) {
+            String name = folderItem.getAttribute("name");
+            if (!folderItemIdByName.containsKey(name)) {
+                folderItemIdByName.put(name, folderItem.hasAttribute("itemID") ? folderItem.getAttribute("itemID") : null);
+            }
+        }
+
+        for (Element fontItem : fontItems) {
+            String font = fontItem.getAttribute("font");
+            addFontItem(font, fontItem);
+            String importedFace = fontItem.getAttribute("name") + "*";
+            if (!importedFace.equals(font)) {
+                addFontItem(importedFace, fontItem);
+            }
+        }
+    }
+
+    private static void putFirst(Map<String, Integer> map, String name, int id) {
+        if (!map.containsKey(name)) {
+            map.put(name, id);
+        }
+    }
+
+    private void addFontItem(String face, Element fontItem) {
+        List<Element> list = fontItemsByFace.get(face);
+        if (list == null) {
+            list = new ArrayList<>();
+            fontItemsByFace.put(face, list);
+        }
+        list.add(fontItem);
+    }
+
+    public Element getDocument() {
+        return document;
+    }
+
+    public List<Element> getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Gets id of a symbol.
+     *
+     * @param libraryItemName Library item name
+     * @return Id or -1 when there is no such symbol
+     */
+    public int getSymbolId(String libraryItemName) {
+        Integer id = symbolIdByName.get(libraryItemName);
+        return id == null ? -1 : id;
+    }
+
+    public List<Element> getMedia() {
+        return media;
+    }
+
+    /**
+     * Gets id of a media item of any type.
+     *
+     * @param name Media item name
+     * @return Id or 0 when there is no such item
+     */
+    public int getMediaId(String name) {
+        Integer id = mediaIdByName.get(name);
+        return id == null ? 0 : id;
+    }
+
+    /**
+     * Gets id of a bitmap.
+     *
+     * @param name Bitmap name
+     * @return Id or 0 when there is no such bitmap
+     */
+    public int getBitmapId(String name) {
+        Integer id = bitmapIdByName.get(name);
+        return id == null ? 0 : id;
+    }
+
+    /**
+     * Gets id of a video.
+     *
+     * @param name Video name
+     * @return Id or 0 when there is no such video
+     */
+    public int getVideoId(String name) {
+        Integer id = videoIdByName.get(name);
+        return id == null ? 0 : id;
+    }
+
+    /**
+     * Gets media item by id.
+     *
+     * @param id One-based id
+     * @return Media item
+     */
+    public Element getMediaItem(int id) {
+        return media.get(id - 1);
+    }
+
+    /**
+     * Gets itemID of the folder containing an item.
+     *
+     * @param itemName Full item name
+     * @return ItemID or null when the item is not in a folder or the folder
+     * has no itemID
+     */
+    public String getParentFolderItemID(String itemName) {
+        if (!itemName.contains("/")) {
+            return null;
+        }
+        return folderItemIdByName.get(itemName.substring(0, itemName.lastIndexOf("/")));
+    }
+
+    public List<Element> getFontItems() {
+        return fontItems;
+    }
+
+    /**
+     * Gets font items used by a text face - with the face as font name or,
+     * for imported fonts, as item name followed by "*".
+     *
+     * @param face Face
+     * @return Font items in document order, empty list when there is none
+     */
+    public List<Element> getFontItemsByFace(String face) {
+        List<Element> list = fontItemsByFace.get(face);
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(list);
+    }
+}
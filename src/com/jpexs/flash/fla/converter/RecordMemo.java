@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memo of encoded records - byte slices of FLA data which depend only on
+ * content of a DOM subtree. Identical subtrees which repeat across frames and
+ * symbols are then encoded once and further occurrences are copied.
+ *
+ * Records are addressed by kind, FLA format version and 128-bit fingerprint
+ * of the subtree. The memo is bounded by total size of the records, least
+ * recently used records are evicted first. It is safe for use by multiple
+ * threads.
+ *
+ * Only records without position dependent state can be memoized - no class
+ * references by useClass, random IDs or traced edges.
+ *
+ * @author JPEXS
+ */
+public final class RecordMemo {
+
+    public static final long DEFAULT_MAX_SIZE = 16 * 1024 * 1024;
+
+    private final long maxSize;
+
+    private long size = 0;
+
+    private final LinkedHashMap<Key, byte[]> records = new LinkedHashMap<>(256, 0.75f, true);
+
+    /**
+     * Creates memo of default size.
+     */
+    public RecordMemo() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates memo.
+     *
+     * @param maxSize Maximum total size of records in bytes
+     */
+    public RecordMemo(long maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Maximum size must be positive");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets record.
+     *
+     * @param kind Kind of record
+     * @param flaFormatVersion FLA format version
+     * @param fingerprint Fingerprint of the subtree
+     * @param secondaryFingerprint Secondary fingerprint of the subtree
+     * @return Record data or null when not present
+     */
+    public synchronized byte[] get(String kind, FlaFormatVersion flaFormatVersion, long fingerprint, long secondaryFingerprint) {
+        return records.get(new Key(kind, flaFormatVersion, fingerprint, secondaryFingerprint));
+    }
+
+    /**
+     * Stores record. Records larger than the maximum size are not stored.
+     *
+     * @param kind Kind of record
+     * @param flaFormatVersion FLA format version
+     * @param fingerprint Fingerprint of the subtree
+     * @param secondaryFingerprint Secondary fingerprint of the subtree
+     * @param data Record data, must not be modified later
+     */
+    public synchronized void put(String kind, FlaFormatVersion flaFormatVersion, long fingerprint, long secondaryFingerprint, byte[] data) {
+        if (data.length > maxSize) {
+            return;
+        }
+        byte[] previous = records.put(new Key(kind, flaFormatVersion, fingerprint, secondaryFingerprint), data);
+        if (previous != null) {
+            size -= previous.length;
+        }
+        size += data.length;
+        Iterator<Map.Entry<Key, byte[]>> it = records.entrySet().iterator();
+        while (size > maxSize) {
+            size -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    /**
+     * Gets total size of stored records.
+     *
+     * @return Size in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private static final class Key {
+
+        private final String kind;
+        private final FlaFormatVersion flaFormatVersion;
+        private final long fingerprint;
+        private final long secondaryFingerprint;
+
+        public Key(String kind, FlaFormatVersion flaFormatVersion, long fingerprint, long secondaryFingerprint) {
+            this.kind = kind;
+            this.flaFormatVersion = flaFormatVersion;
+            this.fingerprint = fingerprint;
+            this.secondaryFingerprint = secondaryFingerprint;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (fingerprint ^ (fingerprint >>> 32));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return fingerprint == other.fingerprint
+                    && secondaryFingerprint == other.secondaryFingerprint
+                    && flaFormatVersion == other.flaFormatVersion
+                    && kind.equals(other.kind);
+        }
+    }
+}
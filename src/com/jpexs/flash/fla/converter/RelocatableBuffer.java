@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data of a layer encoded without knowledge of the preceding layers. Values
+ * which depend on records written before - class references and object
+ * numbers assigned by useClass, count of copied components - are left out of
+ * the data. Patch points in their place tell what to write there when the
+ * buffer is linked into the timeline.
+ *
+ * @author JPEXS
+ */
+public final class RelocatableBuffer {
+
+    /**
+     * Class reference written by useClass. Name is the class name, value is
+     * the define number.
+     */
+    public static final int PATCH_CLASS = 0;
+
+    /**
+     * Component text with number of copied components. Value is the number
+     * of copied components within this buffer.
+     */
+    public static final int PATCH_COPIED_COMPONENT_PATH = 1;
+
+    private final List<PatchPoint> patchPoints = new ArrayList<>();
+
+    private byte[] data = new byte[0];
+
+    private int copiedComponentCount = 0;
+
+    private int framesCount = 0;
+
+    /**
+     * Adds class reference at the position.
+     *
+     * @param position Position in data
+     * @param className Class name
+     * @param defineNum Define number
+     */
+    public void addClass(long position, String className, int defineNum) {
+        addPatchPoint(new PatchPoint(position, PATCH_CLASS, className, defineNum));
+    }
+
+    /**
+     * Adds component text at the position.
+     *
+     * @param position Position in data
+     * @param copiedComponentPath Number of copied components within this
+     * buffer
+     */
+    public void addCopiedComponentPath(long position, int copiedComponentPath) {
+        addPatchPoint(new PatchPoint(position, PATCH_COPIED_COMPONENT_PATH, null, copiedComponentPath));
+    }
+
+    private void addPatchPoint(PatchPoint patchPoint) {
+        if (!patchPoints.isEmpty() && patchPoints.get(patchPoints.size() - 1).position > patchPoint.position) {
+            throw new IllegalArgumentException("Patch points must be added in order of their positions");
+        }
+        patchPoints.add(patchPoint);
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setCopiedComponentCount(int copiedComponentCount) {
+        this.copiedComponentCount = copiedComponentCount;
+    }
+
+    /**
+     * Gets number of copied components in this buffer. It is added to the
+     * count of the following buffers when linking.
+     *
+     * @return Number of copied components
+     */
+    public int getCopiedComponentCount() {
+        return copiedComponentCount;
+    }
+
+    public void setFramesCount(int framesCount) {
+        this.framesCount = framesCount;
+    }
+
+    public int getFramesCount() {
+        return framesCount;
+    }
+
+    public int getPatchPointCount() {
+        return patchPoints.size();
+    }
+
+    public int getPatchPosition(int index) {
+        return (int) patchPoints.get(index).position;
+    }
+
+    public int getPatchKind(int index) {
+        return patchPoints.get(index).kind;
+    }
+
+    public String getPatchName(int index) {
+        return patchPoints.get(index).name;
+    }
+
+    public int getPatchValue(int index) {
+        return patchPoints.get(index).value;
+    }
+
+    private static class PatchPoint {
+
+        private final long position;
+        private final int kind;
+        private final String name;
+        private final int value;
+
+        public PatchPoint(long position, int kind, String name, int value) {
+            this.position = position;
+            this.kind = kind;
+            this.name = name;
+            this.value = value;
+        }
+    }
+}
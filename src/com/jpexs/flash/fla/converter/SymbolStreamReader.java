@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter;
+
+import com.jpexs.flash.fla.converter.streams.InputStorageInterface;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Reads symbol XML file with StAX parser, without building DOM of the whole
+ * symbol.
+ *
+ * First the outline is read - the symbol element, its timeline and layers,
+ * with attributes only. Frames of a layer are then read one by one, each layer
+ * in a new pass over the file, so only the current frames are held in memory
+ * no matter how long the timeline is. The elements are built the same way as
+ * by a non namespace aware DocumentBuilder.
+ *
+ * @author JPEXS
+ */
+public final class SymbolStreamReader {
+
+    private static final String REPORT_CDATA_EVENT_PROPERTY = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private final InputStorageInterface sourceDir;
+
+    private final String fileName;
+
+    private final Document document;
+
+    private final XMLInputFactory inputFactory;
+
+    private Element symbolElement = null;
+
+    private Element timelineElement = null;
+
+    /**
+     * Constructs reader.
+     *
+     * @param sourceDir Source storage, the file is read from it once per layer
+     * @param fileName Symbol file name
+     * @param docBuilder Document builder for creating the elements
+     */
+    public SymbolStreamReader(InputStorageInterface sourceDir, String fileName, DocumentBuilder docBuilder) {
+        this.sourceDir = sourceDir;
+        this.fileName = fileName;
+        this.document = docBuilder.newDocument();
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        if (inputFactory.isPropertySupported(REPORT_CDATA_EVENT_PROPERTY)) {
+            inputFactory.setProperty(REPORT_CDATA_EVENT_PROPERTY, true);
+        }
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Reads outline of the symbol - symbol element with the first timeline,
+     * its first DOMTimeline, its first layers element and all its DOMLayer
+     * elements. Other elements are skipped.
+     *
+     * @return Symbol element
+     * @throws IOException On I/O error or invalid XML
+     */
+    public Element readOutline() throws IOException {
+        InputStream is = open();
+        try {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(is);
+            try {
+                reader.nextTag();
+                symbolElement = createElement(reader);
+                document.appendChild(symbolElement);
+                if (toChild(reader, "timeline")) {
+                    Element timeline = createElement(reader);
+                    symbolElement.appendChild(timeline);
+                    if (toChild(reader, "DOMTimeline")) {
+                        timelineElement = createElement(reader);
+                        timeline.appendChild(timelineElement);
+                        if (toChild(reader, "layers")) {
+                            Element layers = createElement(reader);
+                            timelineElement.appendChild(layers);
+                            while (toChild(reader, "DOMLayer")) {
+                                layers.appendChild(createElement(reader));
+                                skipElement(reader);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            throw new IOException("Cannot read " + fileName, ex);
+        } finally {
+            is.close();
+        }
+        return symbolElement;
+    }
+
+    /**
+     * Gets DOMTimeline element of the outline.
+     *
+     * @return DOMTimeline element or null when the symbol has no timeline
+     */
+    public Element getTimeline() {
+        return timelineElement;
+    }
+
+    /**
+     * Opens frames of a layer.
+     *
+     * @param layerIndex Index of the layer in the outline
+     * @return Frame reader, must be closed
+     * @throws IOException On I/O error or invalid XML
+     */
+    public FrameReaderInterface openFrames(int layerIndex) throws IOException {
+        final InputStream is = open();
+        try {
+            final XMLStreamReader reader = inputFactory.createXMLStreamReader(is);
+            boolean found = false;
+            try {
+                reader.nextTag();
+                found = toChild(reader, "timeline")
+                        && toChild(reader, "DOMTimeline")
+                        && toChild(reader, "layers");
+                for (int i = 0; found; i++) {
+                    found = toChild(reader, "DOMLayer");
+                    if (i == layerIndex) {
+                        break;
+                    }
+                    if (found) {
+                        skipElement(reader);
+                    }
+                }
+                found = found && toChild(reader, "frames");
+            } finally {
+                if (!found) {
+                    reader.close();
+                    is.close();
+                }
+            }
+            if (!found) {
+                return new FrameReaderInterface() {
+                    @Override
+                    public Element nextFrame() {
+                        return null;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+            return new FrameReaderInterface() {
+                private boolean finished = false;
+
+                @Override
+                public Element nextFrame() throws IOException {
+                    if (finished) {
+                        return null;
+                    }
+                    try {
+                        if (toChild(reader, "DOMFrame")) {
+                            return readElement(reader);
+                        }
+                    } catch (XMLStreamException ex) {
+                        throw new IOException("Cannot read " + fileName, ex);
+                    }
+                    finished = true;
+                    return null;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    try {
+                        reader.close();
+                    } catch (XMLStreamException ex) {
+                        //ignore
+                    }
+                    is.close();
+                }
+            };
+        } catch (XMLStreamException ex) {
+            is.close();
+            throw new IOException("Cannot read " + fileName, ex);
+        }
+    }
+
+    private InputStream open() throws IOException {
+        InputStream is = sourceDir.readFile(fileName);
+        if (is == null) {
+            throw new FileNotFoundException(fileName);
+        }
+        return is;
+    }
+
+    /**
+     * Moves to next child element with given name, other child elements are
+     * skipped.
+     *
+     * @param reader Reader positioned inside the parent element
+     * @param name Element name
+     * @return True when the reader is at start of the child, false when it is
+     * at end of the parent
+     */
+    private static boolean toChild(XMLStreamReader reader, String name) throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (name.equals(reader.getLocalName())) {
+                    return true;
+                }
+                skipElement(reader);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private Element createElement(XMLStreamReader reader) {
+        //not namespace aware - local names contain prefixes
+        Element element = document.createElement(reader.getLocalName());
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String prefix = reader.getAttributePrefix(i);
+            String name = reader.getAttributeLocalName(i);
+            if (prefix != null && !prefix.isEmpty()) {
+                name = prefix + ":" + name;
+            }
+            element.setAttribute(name, reader.getAttributeValue(i));
+        }
+        return element;
+    }
+
+    /**
+     * Reads element with its subtree.
+     *
+     * @param reader Reader at start of the element
+     * @return Element
+     */
+    private Element readElement(XMLStreamReader reader) throws XMLStreamException {
+        Element root = createElement(reader);
+        Node current = root;
+        //parser can split text to more events, DOM has it in single node
+        StringBuilder text = new StringBuilder();
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE) {
+                text.append(reader.getText());
+                continue;
+            }
+            if (text.length() > 0) {
+                current.appendChild(document.createTextNode(text.toString()));
+                text.setLength(0);
+            }
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element element = createElement(reader);
+                    current.appendChild(element);
+                    current = element;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (current == root) {
+                        return root;
+                    }
+                    current = current.getParentNode();
+                    break;
+                case XMLStreamConstants.CDATA:
+                    current.appendChild(document.createCDATASection(reader.getText()));
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    current.appendChild(document.createComment(reader.getText()));
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    current.appendChild(document.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+                    break;
+            }
+        }
+    }
+}
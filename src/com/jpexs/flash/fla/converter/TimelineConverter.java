@@ -32,14 +32,19 @@ import com.jpexs.flash.fla.converter.filters.FilterInterface;
 import com.jpexs.flash.fla.converter.filters.GlowFilter;
 import com.jpexs.flash.fla.converter.filters.GradientBevelFilter;
 import com.jpexs.flash.fla.converter.filters.GradientGlowFilter;
+import com.jpexs.flash.fla.converter.trace.NoTraceSink;
 import com.jpexs.helpers.Reference;
+import com.jpexs.helpers.ValueParser;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.geom.Point2D;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.StringWriter;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -49,13 +54,15 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 import javax.xml.parsers.ParserConfigurationException;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.OutputKeys;
@@ -73,11 +80,32 @@ import org.w3c.dom.NodeList;
  */
 public class TimelineConverter extends AbstractConverter {
 
-    //https://stackoverflow.com/questions/4077200/whats-the-meaning-of-the-non-numerical-values-in-the-xfls-edge-definition
-    private static final Pattern CUBICS_PATTERN = Pattern.compile("^!(?<mx>-?[0-9]+) +(?<my>-?[0-9]+) *\\(((?<pBCPx>-?[0-9]+) *, *(?<pBCPy>-?[0-9]+))? *; *(?<x1>-?[0-9]+),(?<y1>-?[0-9]+) +(?<x2>-?[0-9]+),(?<y2>-?[0-9]+) +(?<ex>-?[0-9]+),(?<ey>-?[0-9]+) *(?<xy>-?([QqPp]? *-?[0-9]+ +-?[0-9]+)+) *\\)((?<nBCPx>-?[0-9]+) *, *(?<nBCPy>-?[0-9]+))? *; *$");
-    private static final Pattern CUBICS_XY_PATTERN = Pattern.compile("(?<letter>[QqPp]?) *(?<x>-?[0-9]+) +(?<y>-?[0-9]+)");
     private final String title;
 
+    private SymbolStreamReader symbolStreamReader = null;
+
+    /**
+     * Transformer for serializing motionObjectXML. Created on first use and
+     * reused for the rest of the conversion, the converter is used by one
+     * thread only.
+     */
+    private Transformer innerXmlTransformer = null;
+
+    private RecordMemo recordMemo = null;
+
+    /**
+     * Executor for encoding layers in parallel, null to encode them on the
+     * calling thread.
+     */
+    private ExecutorService executor = null;
+
+    /**
+     * Buffer of the layer being encoded for linking later. When set, class
+     * references and component texts are recorded as its patch points
+     * instead of written.
+     */
+    private RelocatableBuffer relocatableBuffer = null;
+
     public TimelineConverter(FlaFormatVersion flaFormatVersion, String charset, String title) {
         super(flaFormatVersion, charset);
         this.title = title;
@@ -87,6 +115,41 @@ public class TimelineConverter extends AbstractConverter {
         return title;
     }
 
+    /**
+     * Sets memo of encoded records shared with other converters of the same
+     * document.
+     *
+     * @param recordMemo Record memo or null to encode every record
+     */
+    public void setRecordMemo(RecordMemo recordMemo) {
+        this.recordMemo = recordMemo;
+    }
+
+    /**
+     * Sets executor for encoding layers of the timeline in parallel. Layers
+     * are encoded to relocatable buffers, which are then linked in the same
+     * order as layers written on the calling thread, so the output does not
+     * depend on the executor. Streamed symbols and traced conversions are
+     * always encoded on the calling thread.
+     *
+     * @param executor Executor or null to encode layers on the calling thread
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    protected void useClass(String className, int defineNum, FlaWriter os,
+            Map<String, Integer> definedClasses,
+            Reference<Integer> totalObjectCount
+    ) throws IOException {
+        if (relocatableBuffer != null) {
+            relocatableBuffer.addClass(os.getPos(), className, defineNum);
+            return;
+        }
+        super.useClass(className, defineNum, os, definedClasses, totalObjectCount);
+    }
+
     /*protected void useClass(String className, FlaWriter os, Map<String, Integer> definedClasses,            Reference<Integer> totalObjectCount) throws IOException {
         if (definedClasses.contains(className)) {
             os.write(1 + 2 * definedClasses.indexOf(className));
@@ -159,44 +222,36 @@ public class TimelineConverter extends AbstractConverter {
                 Node bitmapPathAttr = fillStyleVal.getAttributes().getNamedItem("bitmapPath");
                 if (bitmapPathAttr != null) {
                     String bitmapPath = bitmapPathAttr.getTextContent(); //assuming attribute set
-                    List<Element> mediaElements = getMedia(document);
-                    int mediaId = 0;
-                    for (Element e : mediaElements) {
-                        mediaId++;
-                        if ("DOMBitmapItem".equals(e.getNodeName())) {
-                            String name = e.getAttribute("name");
-                            if (name != null) {
-                                if (bitmapPath.equals(name)) {
-                                    Matrix bitmapMatrix = parseMatrix(getSubElementByName(fillStyleVal, "matrix"));
-
-                                    boolean bitmapIsClipped = false;
-                                    Node bitmapIsClippedAttr = fillStyleVal.getAttributes().getNamedItem("bitmapIsClipped");
-                                    if (bitmapIsClippedAttr != null) {
-                                        bitmapIsClipped = "true".equals(bitmapIsClippedAttr.getTextContent());
-                                    }
-
-                                    boolean allowSmoothing = "true".equals(e.getAttribute("allowSmoothing"));
+                    LibraryIndex index = getLibraryIndex(document);
+                    int mediaId = index.getBitmapId(bitmapPath);
+                    if (mediaId > 0) {
+                        Element e = index.getMediaItem(mediaId);
+                        Matrix bitmapMatrix = parseMatrix(getSubElementByName(fillStyleVal, "matrix"));
+
+                        boolean bitmapIsClipped = false;
+                        Node bitmapIsClippedAttr = fillStyleVal.getAttributes().getNamedItem("bitmapIsClipped");
+                        if (bitmapIsClippedAttr != null) {
+                            bitmapIsClipped = "true".equals(bitmapIsClippedAttr.getTextContent());
+                        }
 
-                                    int type;
-                                    if (allowSmoothing) {
-                                        if (bitmapIsClipped) {
-                                            type = FlaWriter.FILLTYPE_CLIPPED_BITMAP;
-                                        } else {
-                                            type = FlaWriter.FILLTYPE_BITMAP;
-                                        }
-                                    } else {
-                                        if (bitmapIsClipped) {
-                                            type = FlaWriter.FILLTYPE_NON_SMOOTHED_CLIPPED_BITMAP;
-                                        } else {
-                                            type = FlaWriter.FILLTYPE_NON_SMOOTHED_BITMAP;
-                                        }
-                                    }
+                        boolean allowSmoothing = "true".equals(e.getAttribute("allowSmoothing"));
 
-                                    fg.writeBitmapFill(type, bitmapMatrix, mediaId);
-                                    break;
-                                }
+                        int type;
+                        if (allowSmoothing) {
+                            if (bitmapIsClipped) {
+                                type = FlaWriter.FILLTYPE_CLIPPED_BITMAP;
+                            } else {
+                                type = FlaWriter.FILLTYPE_BITMAP;
+                            }
+                        } else {
+                            if (bitmapIsClipped) {
+                                type = FlaWriter.FILLTYPE_NON_SMOOTHED_CLIPPED_BITMAP;
+                            } else {
+                                type = FlaWriter.FILLTYPE_NON_SMOOTHED_BITMAP;
                             }
                         }
+
+                        fg.writeBitmapFill(type, bitmapMatrix, mediaId);
                     }
                 }
             }
@@ -282,17 +337,7 @@ public class TimelineConverter extends AbstractConverter {
 
         String libraryItemName = videoInstance.getAttribute("libraryItemName");
 
-        List<Element> mediaItems = getMedia(document);
-        int videoId = 0;
-        for (int i = 0; i < mediaItems.size(); i++) {
-            Element mediaItem = mediaItems.get(i);
-            if ("DOMVideoItem".equals(mediaItem.getTagName()) && mediaItem.hasAttribute("name")) {
-                if (libraryItemName.equals(mediaItem.getAttribute("name"))) {
-                    videoId = i + 1;
-                    break;
-                }
-            }
-        }
+        int videoId = getLibraryIndex(document).getVideoId(libraryItemName);
 
         fg.writeUI32(frameLeft);
         fg.writeUI32(frameRight);
@@ -316,17 +361,7 @@ public class TimelineConverter extends AbstractConverter {
 
         String libraryItemName = bitmapInstance.getAttribute("libraryItemName");
 
-        List<Element> mediaItems = getMedia(document);
-        int bitmapId = 0;
-        for (int i = 0; i < mediaItems.size(); i++) {
-            Element mediaItem = mediaItems.get(i);
-            if ("DOMBitmapItem".equals(mediaItem.getTagName()) && mediaItem.hasAttribute("name")) {
-                if (libraryItemName.equals(mediaItem.getAttribute("name"))) {
-                    bitmapId = i + 1;
-                    break;
-                }
-            }
-        }
+        int bitmapId = getLibraryIndex(document).getBitmapId(libraryItemName);
 
         if (bitmapId == 0) {
             return;
@@ -691,25 +726,9 @@ public class TimelineConverter extends AbstractConverter {
         }
 
         String libraryItemName = symbolInstance.getAttribute("libraryItemName");
-        List<Element> includes = getSymbols(document);
 
         //Find index in library
-        int libraryItemIndex = -1;
-        for (int e = 0; e < includes.size(); e++) {
-            Element include = includes.get(e);
-            if (!include.hasAttribute("href")) {
-                continue;
-            }
-            String href = include.getAttribute("href");
-            String nameNoXml = href;
-            if (nameNoXml.endsWith(".xml")) {
-                nameNoXml = nameNoXml.substring(0, nameNoXml.length() - 4);
-            }
-            if (nameNoXml.equals(libraryItemName)) {
-                libraryItemIndex = e + 1;
-                break;
-            }
-        }
+        int libraryItemIndex = getLibraryIndex(document).getSymbolId(libraryItemName);
         if (libraryItemIndex == -1) {
             //nothing we can do 
             return;
@@ -784,73 +803,7 @@ public class TimelineConverter extends AbstractConverter {
             centerPoint3DZ = Double.parseDouble(symbolInstance.getAttribute("centerPoint3DZ"));
         }
 
-        ColorEffectInterface colorEffect = new NoColorEffect();
-
-        Element colorElement = getSubElementByName(symbolInstance, "color");
-        if (colorElement != null) {
-            colorElement = getSubElementByName(colorElement, "Color");
-            if (colorElement != null) {
-                if (colorElement.hasAttribute("brightness")) {
-                    double brightness = Double.parseDouble(colorElement.getAttribute("brightness"));
-                    colorEffect = new BrightnessColorEffect(brightness);
-                } else if (colorElement.hasAttribute("tintColor") || colorElement.hasAttribute("tintMultiplier")) {
-                    Color tintColor = Color.black;
-                    if (colorElement.hasAttribute("tintColor")) {
-                        tintColor = parseColor(colorElement.getAttribute("tintColor"));
-                    }
-                    double tintMultiplier = 0;
-                    if (colorElement.hasAttribute("tintMultiplier")) {
-                        tintMultiplier = Double.parseDouble(colorElement.getAttribute("tintMultiplier"));
-                    }
-                    colorEffect = new TintColorEffect(tintMultiplier, tintColor);
-                } else if ( //no Alpha offset - to not be mismatched as Alpha color effect
-                        colorElement.hasAttribute("redMultiplier")
-                        || colorElement.hasAttribute("greenMultiplier")
-                        || colorElement.hasAttribute("blueMultiplier")
-                        || colorElement.hasAttribute("alphaOffset")
-                        || colorElement.hasAttribute("redOffset")
-                        || colorElement.hasAttribute("greenOffset")
-                        || colorElement.hasAttribute("blueOffset")) {
-                    double alphaMultiplier = 1.0;
-                    double redMultiplier = 1.0;
-                    double greenMultiplier = 1.0;
-                    double blueMultiplier = 1.0;
-                    int alphaOffset = 0;
-                    int redOffset = 0;
-                    int greenOffset = 0;
-                    int blueOffset = 0;
-
-                    if (colorElement.hasAttribute("alphaMultiplier")) {
-                        alphaMultiplier = Double.parseDouble(colorElement.getAttribute("alphaMultiplier"));
-                    }
-                    if (colorElement.hasAttribute("redMultiplier")) {
-                        redMultiplier = Double.parseDouble(colorElement.getAttribute("redMultiplier"));
-                    }
-                    if (colorElement.hasAttribute("greenMultiplier")) {
-                        greenMultiplier = Double.parseDouble(colorElement.getAttribute("greenMultiplier"));
-                    }
-                    if (colorElement.hasAttribute("blueMultiplier")) {
-                        blueMultiplier = Double.parseDouble(colorElement.getAttribute("blueMultiplier"));
-                    }
-                    if (colorElement.hasAttribute("alphaOffset")) {
-                        alphaOffset = Integer.parseInt(colorElement.getAttribute("alphaOffset"));
-                    }
-                    if (colorElement.hasAttribute("redOffset")) {
-                        redOffset = Integer.parseInt(colorElement.getAttribute("redOffset"));
-                    }
-                    if (colorElement.hasAttribute("greenOffset")) {
-                        greenOffset = Integer.parseInt(colorElement.getAttribute("greenOffset"));
-                    }
-                    if (colorElement.hasAttribute("blueOffset")) {
-                        blueOffset = Integer.parseInt(colorElement.getAttribute("blueOffset"));
-                    }
-                    colorEffect = new AdvancedColorEffect(alphaMultiplier, redMultiplier, greenMultiplier, blueMultiplier, alphaOffset, redOffset, greenOffset, blueOffset);
-                } else if (colorElement.hasAttribute("alphaMultiplier")) {
-                    double alphaMultiplier = Double.parseDouble(colorElement.getAttribute("alphaMultiplier"));
-                    colorEffect = new AlphaColorEffect(alphaMultiplier);
-                }
-            }
-        }
+        final Element colorElement = getSubElementByName(symbolInstance, "color");
 
         //Order in CS5: normal, layer, darken, multiply, lighten, screen, overlay, hardlight, add, subtract, difference, invert, alpha, erase
         int blendMode = getAttributeAsInt(symbolInstance, "blendMode",
@@ -872,7 +825,7 @@ public class TimelineConverter extends AbstractConverter {
                         "hardlight"
                 ), "normal");
 
-        List<FilterInterface> filters = parseFilters(getSubElementByName(symbolInstance, "filters"));
+        final Element filtersElement = getSubElementByName(symbolInstance, "filters");
 
         String actionScript = "";
 
@@ -922,30 +875,12 @@ public class TimelineConverter extends AbstractConverter {
 
         fg.write(0x00, 0x01);
 
-        int redMultiplier = colorEffect.getRedMultiplier();
-        int greenMultiplier = colorEffect.getGreenMultiplier();
-        int blueMultiplier = colorEffect.getBlueMultiplier();
-        int alphaMultiplier = colorEffect.getAlphaMultiplier();
-        int redOffset = colorEffect.getRedOffset();
-        int greenOffset = colorEffect.getGreenOffset();
-        int blueOffset = colorEffect.getBlueOffset();
-        int alphaOffset = colorEffect.getAlphaOffset();
-        Color effectColor = colorEffect.getValueColor();
-
-        fg.write(
-                debugRandom ? 'X' : (alphaMultiplier & 0xFF), ((alphaMultiplier >> 8) & 0xFF), (alphaOffset & 0xFF), ((alphaOffset >> 8) & 0xFF),
-                debugRandom ? 'X' : (redMultiplier & 0xFF), ((redMultiplier >> 8) & 0xFF), (redOffset & 0xFF), ((redOffset >> 8) & 0xFF),
-                debugRandom ? 'X' : (greenMultiplier & 0xFF), ((greenMultiplier >> 8) & 0xFF), (greenOffset & 0xFF), ((greenOffset >> 8) & 0xFF),
-                debugRandom ? 'X' : (blueMultiplier & 0xFF), ((blueMultiplier >> 8) & 0xFF), (blueOffset & 0xFF), ((blueOffset >> 8) & 0xFF),
-                colorEffect.getType(), 0x00);
-
-        if ((colorEffect instanceof NoColorEffect) && debugRandom) {
-            fg.write('X', 'X');
-            fg.write('X', 'X', 'X', 'X');
-        } else {
-            fg.writeUI16(colorEffect.getValuePercent());
-            fg.write(effectColor.getRed(), effectColor.getGreen(), effectColor.getBlue(), effectColor.getAlpha());
-        }
+        writeRecord(fg, "color", colorElement, new RecordEncoderInterface() {
+            @Override
+            public void encode(FlaWriter recordWriter) throws IOException {
+                writeColorEffect(recordWriter, parseColorEffect(colorElement));
+            }
+        });
 
         fg.writeBomString("");
         if (debugRandom) {
@@ -959,16 +894,22 @@ public class TimelineConverter extends AbstractConverter {
             fg.write(0x00, 0x00, 0x00);
         }
         if (flaFormatVersion.ordinal() >= FlaFormatVersion.F8.ordinal()) {
-            if (!filters.isEmpty()) {
-                fg.write(0x01,
-                        filters.size(), 0x00, 0x00, 0x00);
-
-                for (FilterInterface filter : filters) {
-                    filter.write(fg);
+            writeRecord(fg, "symbolInstanceFilters", filtersElement, new RecordEncoderInterface() {
+                @Override
+                public void encode(FlaWriter recordWriter) throws IOException {
+                    List<FilterInterface> filters = parseFilters(filtersElement);
+                    if (!filters.isEmpty()) {
+                        recordWriter.write(0x01,
+                                filters.size(), 0x00, 0x00, 0x00);
+
+                        for (FilterInterface filter : filters) {
+                            filter.write(recordWriter);
+                        }
+                    } else {
+                        recordWriter.write(0x00);
+                    }
                 }
-            } else {
-                fg.write(0x00);
-            }
+            });
 
             fg.write(
                     blendMode,
@@ -985,13 +926,8 @@ public class TimelineConverter extends AbstractConverter {
             };
             if (symbolInstance.hasAttribute("matrix3D")) {
                 String matrix3DStr = symbolInstance.getAttribute("matrix3D");
-                String[] matrixParts = matrix3DStr.trim().split(" ", -1);
-                if (matrixParts.length != 16) {
+                if (ValueParser.parseFloatList(matrix3DStr, ' ', matrix3D) != 16) {
                     Logger.getLogger(TimelineConverter.class.getName()).warning("matrix3D attribute has incorrect number of parts");
-                } else {
-                    for (int i = 0; i < 16; i++) {
-                        matrix3D[i] = Float.parseFloat(matrixParts[i]);
-                    }
                 }
             }
 
@@ -1085,11 +1021,115 @@ public class TimelineConverter extends AbstractConverter {
         if (flaFormatVersion.ordinal() >= FlaFormatVersion.MX2004.ordinal()) {
             fg.write(0x01, //?
                     debugRandom ? 'U' : 0x00 /*something, but it resets after resaving FLA*/, 0x00, 0x00, 0x00);
-            String componentTxt = "<component metaDataFetched='true' schemaUrl='' schemaOperation='' sceneRootLabel='Scene 1' oldCopiedComponentPath='" + copiedComponentPathRef.getVal() + "'>\n</component>\n";
-            if (debugRandom) {
-                componentTxt = "YYY";
+            if (relocatableBuffer != null) {
+                relocatableBuffer.addCopiedComponentPath(fg.getPos(), copiedComponentPathRef.getVal());
+            } else {
+                fg.writeBomString(getComponentText(copiedComponentPathRef.getVal()));
             }
-            fg.writeBomString(componentTxt);
+        }
+    }
+
+    private String getComponentText(int copiedComponentPath) {
+        if (debugRandom) {
+            return "YYY";
+        }
+        return "<component metaDataFetched='true' schemaUrl='' schemaOperation='' sceneRootLabel='Scene 1' oldCopiedComponentPath='" + copiedComponentPath + "'>\n</component>\n";
+    }
+
+    private ColorEffectInterface parseColorEffect(Element colorElement) {
+        ColorEffectInterface colorEffect = new NoColorEffect();
+
+        if (colorElement != null) {
+            colorElement = getSubElementByName(colorElement, "Color");
+            if (colorElement != null) {
+                if (colorElement.hasAttribute("brightness")) {
+                    double brightness = Double.parseDouble(colorElement.getAttribute("brightness"));
+                    colorEffect = new BrightnessColorEffect(brightness);
+                } else if (colorElement.hasAttribute("tintColor") || colorElement.hasAttribute("tintMultiplier")) {
+                    Color tintColor = Color.black;
+                    if (colorElement.hasAttribute("tintColor")) {
+                        tintColor = parseColor(colorElement.getAttribute("tintColor"));
+                    }
+                    double tintMultiplier = 0;
+                    if (colorElement.hasAttribute("tintMultiplier")) {
+                        tintMultiplier = Double.parseDouble(colorElement.getAttribute("tintMultiplier"));
+                    }
+                    colorEffect = new TintColorEffect(tintMultiplier, tintColor);
+                } else if ( //no Alpha offset - to not be mismatched as Alpha color effect
+                        colorElement.hasAttribute("redMultiplier")
+                        || colorElement.hasAttribute("greenMultiplier")
+                        || colorElement.hasAttribute("blueMultiplier")
+                        || colorElement.hasAttribute("alphaOffset")
+                        || colorElement.hasAttribute("redOffset")
+                        || colorElement.hasAttribute("greenOffset")
+                        || colorElement.hasAttribute("blueOffset")) {
+                    double alphaMultiplier = 1.0;
+                    double redMultiplier = 1.0;
+                    double greenMultiplier = 1.0;
+                    double blueMultiplier = 1.0;
+                    int alphaOffset = 0;
+                    int redOffset = 0;
+                    int greenOffset = 0;
+                    int blueOffset = 0;
+
+                    if (colorElement.hasAttribute("alphaMultiplier")) {
+                        alphaMultiplier = Double.parseDouble(colorElement.getAttribute("alphaMultiplier"));
+                    }
+                    if (colorElement.hasAttribute("redMultiplier")) {
+                        redMultiplier = Double.parseDouble(colorElement.getAttribute("redMultiplier"));
+                    }
+                    if (colorElement.hasAttribute("greenMultiplier")) {
+                        greenMultiplier = Double.parseDouble(colorElement.getAttribute("greenMultiplier"));
+                    }
+                    if (colorElement.hasAttribute("blueMultiplier")) {
+                        blueMultiplier = Double.parseDouble(colorElement.getAttribute("blueMultiplier"));
+                    }
+                    if (colorElement.hasAttribute("alphaOffset")) {
+                        alphaOffset = Integer.parseInt(colorElement.getAttribute("alphaOffset"));
+                    }
+                    if (colorElement.hasAttribute("redOffset")) {
+                        redOffset = Integer.parseInt(colorElement.getAttribute("redOffset"));
+                    }
+                    if (colorElement.hasAttribute("greenOffset")) {
+                        greenOffset = Integer.parseInt(colorElement.getAttribute("greenOffset"));
+                    }
+                    if (colorElement.hasAttribute("blueOffset")) {
+                        blueOffset = Integer.parseInt(colorElement.getAttribute("blueOffset"));
+                    }
+                    colorEffect = new AdvancedColorEffect(alphaMultiplier, redMultiplier, greenMultiplier, blueMultiplier, alphaOffset, redOffset, greenOffset, blueOffset);
+                } else if (colorElement.hasAttribute("alphaMultiplier")) {
+                    double alphaMultiplier = Double.parseDouble(colorElement.getAttribute("alphaMultiplier"));
+                    colorEffect = new AlphaColorEffect(alphaMultiplier);
+                }
+            }
+        }
+        return colorEffect;
+    }
+
+    private void writeColorEffect(FlaWriter fg, ColorEffectInterface colorEffect) throws IOException {
+        int redMultiplier = colorEffect.getRedMultiplier();
+        int greenMultiplier = colorEffect.getGreenMultiplier();
+        int blueMultiplier = colorEffect.getBlueMultiplier();
+        int alphaMultiplier = colorEffect.getAlphaMultiplier();
+        int redOffset = colorEffect.getRedOffset();
+        int greenOffset = colorEffect.getGreenOffset();
+        int blueOffset = colorEffect.getBlueOffset();
+        int alphaOffset = colorEffect.getAlphaOffset();
+        Color effectColor = colorEffect.getValueColor();
+
+        fg.write(
+                debugRandom ? 'X' : (alphaMultiplier & 0xFF), ((alphaMultiplier >> 8) & 0xFF), (alphaOffset & 0xFF), ((alphaOffset >> 8) & 0xFF),
+                debugRandom ? 'X' : (redMultiplier & 0xFF), ((redMultiplier >> 8) & 0xFF), (redOffset & 0xFF), ((redOffset >> 8) & 0xFF),
+                debugRandom ? 'X' : (greenMultiplier & 0xFF), ((greenMultiplier >> 8) & 0xFF), (greenOffset & 0xFF), ((greenOffset >> 8) & 0xFF),
+                debugRandom ? 'X' : (blueMultiplier & 0xFF), ((blueMultiplier >> 8) & 0xFF), (blueOffset & 0xFF), ((blueOffset >> 8) & 0xFF),
+                colorEffect.getType(), 0x00);
+
+        if ((colorEffect instanceof NoColorEffect) && debugRandom) {
+            fg.write('X', 'X');
+            fg.write('X', 'X', 'X', 'X');
+        } else {
+            fg.writeUI16(colorEffect.getValuePercent());
+            fg.write(effectColor.getRed(), effectColor.getGreen(), effectColor.getBlue(), effectColor.getAlpha());
         }
     }
 
@@ -1376,12 +1416,7 @@ public class TimelineConverter extends AbstractConverter {
                     autoExpand ? 0x01 : 0, 0x00
             );
 
-            Element fontsElement = getSubElementByName(document, "fonts");
-            List<Element> domFontItems = new ArrayList<>();
-
-            if (fontsElement != null) {
-                domFontItems = getAllSubElementsByName(fontsElement, "DOMFontItem");
-            }
+            LibraryIndex index = getLibraryIndex(document);
 
             Element textRunsElement = getSubElementByName(element, "textRuns");
             List<Element> domTextRuns = new ArrayList<>();
@@ -1411,15 +1446,10 @@ public class TimelineConverter extends AbstractConverter {
                     if (domTextAttrs.hasAttribute("face")) {
                         String face = domTextAttrs.getAttribute("face");
 
-                        for (Element domFontItem : domFontItems) {
-                            if (face.equals(domFontItem.getAttribute("font"))
-                                    || face.equals(domFontItem.getAttribute("name") + "*") //imported
-                                    ) {
-                                if (domFontItem.hasAttribute("embeddedCharacters")) {
-                                    textFlags |= 0x20;
-                                }
-                                break;
-                            }
+                        List<Element> faceFontItems = index.getFontItemsByFace(face);
+                        if (!faceFontItems.isEmpty()
+                                && faceFontItems.get(0).hasAttribute("embeddedCharacters")) {
+                            textFlags |= 0x20;
                         }
                         break;
                     }
@@ -1445,38 +1475,34 @@ public class TimelineConverter extends AbstractConverter {
                 }
                 if (domTextAttrs.hasAttribute("face")) {
                     String face = domTextAttrs.getAttribute("face");
-                    for (Element domFontItem : domFontItems) {
-                        if (face.equals(domFontItem.getAttribute("font"))
-                                || face.equals(domFontItem.getAttribute("name") + "*") //imported
-                                ) {
-                            faceToRealFace.put(face, domFontItem.getAttribute("font"));
-                            if (flaFormatVersion.ordinal() >= FlaFormatVersion.MX2004.ordinal()) {
+                    for (Element domFontItem : index.getFontItemsByFace(face)) {
+                        faceToRealFace.put(face, domFontItem.getAttribute("font"));
+                        if (flaFormatVersion.ordinal() >= FlaFormatVersion.MX2004.ordinal()) {
+                            embedFlag |= 1;
+                        } else {
+                            if (domFontItem.hasAttribute("linkageExportForAS")
+                                    && "true".equals(domFontItem.getAttribute("linkageExportForAS"))) {
                                 embedFlag |= 1;
-                            } else {
-                                if (domFontItem.hasAttribute("linkageExportForAS")
-                                        && "true".equals(domFontItem.getAttribute("linkageExportForAS"))) {
-                                    embedFlag |= 1;
-                                }
                             }
+                        }
 
-                            if (domFontItem.hasAttribute("embeddedCharacters")) {
-                                embeddedCharacters = domFontItem.getAttribute("embeddedCharacters");
-                                embedFlag |= 0x20;
-                            }
-                            if (domFontItem.hasAttribute("embedRanges")) {
-                                String embedRanges = domFontItem.getAttribute("embedRanges");
-                                String[] rangesParts = embedRanges.split("\\|", -1);
-                                for (String part : rangesParts) {
-                                    if (part.isEmpty()) {
-                                        continue;
-                                    }
-                                    int rangeId = Integer.parseInt(part);
-                                    if (rangeId >= 1 && rangeId <= 4) {
-                                        embedFlag |= (1 << rangeId);
-                                    }
-                                    if (!allEmbedRanges.contains(part)) {
-                                        allEmbedRanges.add(part);
-                                    }
+                        if (domFontItem.hasAttribute("embeddedCharacters")) {
+                            embeddedCharacters = domFontItem.getAttribute("embeddedCharacters");
+                            embedFlag |= 0x20;
+                        }
+                        if (domFontItem.hasAttribute("embedRanges")) {
+                            String embedRanges = domFontItem.getAttribute("embedRanges");
+                            String[] rangesParts = embedRanges.split("\\|", -1);
+                            for (String part : rangesParts) {
+                                if (part.isEmpty()) {
+                                    continue;
+                                }
+                                int rangeId = Integer.parseInt(part);
+                                if (rangeId >= 1 && rangeId <= 4) {
+                                    embedFlag |= (1 << rangeId);
+                                }
+                                if (!allEmbedRanges.contains(part)) {
+                                    allEmbedRanges.add(part);
                                 }
                             }
                         }
@@ -1557,8 +1583,9 @@ public class TimelineConverter extends AbstractConverter {
                                                        </textAttrs>
                                                   </DOMTextRun>
              */
-            List<FilterInterface> filters = parseFilters(getSubElementByName(element, "filters"));
+            final Element filtersElement = getSubElementByName(element, "filters");
 
+            ElementFingerprints textAttrsFingerprints = new ElementFingerprints();
             for (int r = 0; r < domTextRuns.size(); r++) {
                 Element textRun = domTextRuns.get(r);
                 String characters = "";
@@ -1592,7 +1619,7 @@ public class TimelineConverter extends AbstractConverter {
                     if (domTextAttrs2 == null) {
                         break;
                     }
-                    if (areAttributesEqual(domTextAttrs, domTextAttrs2)) {
+                    if (textAttrsFingerprints.areAttributesEqual(domTextAttrs, domTextAttrs2)) {
                         String characters2 = "";
 
                         Element charactersElement2 = getSubElementByName(textRun2, "characters");
@@ -1858,15 +1885,21 @@ public class TimelineConverter extends AbstractConverter {
             }
 
             if (flaFormatVersion.ordinal() >= FlaFormatVersion.F8.ordinal()) {
-                if (!filters.isEmpty()) {
-                    fg.write(0x01);
-                    fg.writeUI32(filters.size()); //Is it really 4 bytes long?
-                    for (FilterInterface filter : filters) {
-                        filter.write(fg);
+                writeRecord(fg, "textFilters", filtersElement, new RecordEncoderInterface() {
+                    @Override
+                    public void encode(FlaWriter recordWriter) throws IOException {
+                        List<FilterInterface> filters = parseFilters(filtersElement);
+                        if (!filters.isEmpty()) {
+                            recordWriter.write(0x01);
+                            recordWriter.writeUI32(filters.size()); //Is it really 4 bytes long?
+                            for (FilterInterface filter : filters) {
+                                filter.write(recordWriter);
+                            }
+                        } else {
+                            recordWriter.write(0x00);
+                        }
                     }
-                } else {
-                    fg.write(0x00);
-                }
+                });
                 fg.write(0x00, 0x00);
             }
         }
@@ -1937,51 +1970,43 @@ public class TimelineConverter extends AbstractConverter {
                 Node bitmapPathAttr = element.getAttributes().getNamedItem("bitmapPath");
                 if (bitmapPathAttr != null) {
                     String bitmapPath = bitmapPathAttr.getTextContent(); //assuming attribute set
-                    List<Element> mediaElements = getMedia(document);
-                    int mediaId = 0;
-                    for (Element e : mediaElements) {
-                        mediaId++;
-                        if ("DOMBitmapItem".equals(e.getNodeName())) {
-                            String name = e.getAttribute("name");
-                            if (name != null) {
-                                if (bitmapPath.equals(name)) {
-                                    Matrix bitmapMatrix = parseMatrix(getSubElementByName(element, "matrix"));
-
-                                    boolean bitmapIsClipped = false;
-                                    Node bitmapIsClippedAttr = element.getAttributes().getNamedItem("bitmapIsClipped");
-                                    if (bitmapIsClippedAttr != null) {
-                                        bitmapIsClipped = "true".equals(bitmapIsClippedAttr.getTextContent());
-                                    }
-
-                                    boolean allowSmoothing = "true".equals(e.getAttribute("allowSmoothing"));
+                    LibraryIndex index = getLibraryIndex(document);
+                    int mediaId = index.getBitmapId(bitmapPath);
+                    if (mediaId > 0) {
+                        Element e = index.getMediaItem(mediaId);
+                        Matrix bitmapMatrix = parseMatrix(getSubElementByName(element, "matrix"));
+
+                        boolean bitmapIsClipped = false;
+                        Node bitmapIsClippedAttr = element.getAttributes().getNamedItem("bitmapIsClipped");
+                        if (bitmapIsClippedAttr != null) {
+                            bitmapIsClipped = "true".equals(bitmapIsClippedAttr.getTextContent());
+                        }
 
-                                    int type;
-                                    if (allowSmoothing) {
-                                        if (bitmapIsClipped) {
-                                            type = FlaWriter.FILLTYPE_CLIPPED_BITMAP;
-                                        } else {
-                                            type = FlaWriter.FILLTYPE_BITMAP;
-                                        }
-                                    } else {
-                                        if (bitmapIsClipped) {
-                                            type = FlaWriter.FILLTYPE_NON_SMOOTHED_CLIPPED_BITMAP;
-                                        } else {
-                                            type = FlaWriter.FILLTYPE_NON_SMOOTHED_BITMAP;
-                                        }
-                                    }
+                        boolean allowSmoothing = "true".equals(e.getAttribute("allowSmoothing"));
 
-                                    fg.write(0xFF, 0x00, 0x00, 0xFF);
-                                    fg.write(type, 0x00);
-                                    fg.writeMatrix(bitmapMatrix);
-                                    if (debugRandom) {
-                                        fg.write('X', 'X');
-                                    } else {
-                                        fg.writeUI16(mediaId);
-                                    }
-                                    break;
-                                }
+                        int type;
+                        if (allowSmoothing) {
+                            if (bitmapIsClipped) {
+                                type = FlaWriter.FILLTYPE_CLIPPED_BITMAP;
+                            } else {
+                                type = FlaWriter.FILLTYPE_BITMAP;
+                            }
+                        } else {
+                            if (bitmapIsClipped) {
+                                type = FlaWriter.FILLTYPE_NON_SMOOTHED_CLIPPED_BITMAP;
+                            } else {
+                                type = FlaWriter.FILLTYPE_NON_SMOOTHED_BITMAP;
                             }
                         }
+
+                        fg.write(0xFF, 0x00, 0x00, 0xFF);
+                        fg.write(type, 0x00);
+                        fg.writeMatrix(bitmapMatrix);
+                        if (debugRandom) {
+                            fg.write('X', 'X');
+                        } else {
+                            fg.writeUI16(mediaId);
+                        }
                     }
 
                 }
@@ -1990,7 +2015,21 @@ public class TimelineConverter extends AbstractConverter {
         }
     }
 
-    private void handleShape(Element element, Element document, FlaWriter fg, boolean inGroup, Map<String, Integer> definedClasses, Reference<Integer> totalObjectCount) throws IOException {
+    private void handleShape(final Element element, final Element document, FlaWriter fg, boolean inGroup, Map<String, Integer> definedClasses, Reference<Integer> totalObjectCount) throws IOException {
+        if (fg.getTraceSink().isEnabled()) {
+            //traced edges are reported with their positions, write them directly
+            writeShape(element, document, fg);
+            return;
+        }
+        writeRecord(fg, "DOMShape", element, new RecordEncoderInterface() {
+            @Override
+            public void encode(FlaWriter recordWriter) throws IOException {
+                writeShape(element, document, recordWriter);
+            }
+        });
+    }
+
+    private void writeShape(Element element, Element document, FlaWriter fg) throws IOException {
         instanceHeader(element, fg, flaFormatVersion.getShapeType(), false);
         fg.write(0x05);
         Node fillsNode = getSubElementByName(element, "fills");
@@ -2030,18 +2069,11 @@ public class TimelineConverter extends AbstractConverter {
             edges = getAllSubElementsByName(edgesNode, "Edge");
         }
 
-        int totalEdgeCount = 0;
-
-        for (Element edge : edges) {
-            if (edge.hasAttribute("edges")) {
-                totalEdgeCount += FlaWriter.getEdgesCount(edge.getAttribute("edges"));
-            }
-        }
-
+        long totalEdgeCountSlot = -1;
         if (debugRandom) {
             fg.writeDebugNote("ECOUNT");
         } else {
-            fg.writeUI32(totalEdgeCount);
+            totalEdgeCountSlot = fg.reserveUI32();
         }
         fg.write(fillStyles.size(), 0x00);
         for (Node fillStyle : fillStyles) {
@@ -2210,6 +2242,7 @@ public class TimelineConverter extends AbstractConverter {
             fg.writeDebugNote("EDGES");
         } else {
             fg.beginShape();
+            int totalEdgeCount = 0;
             for (Element edge : edges) {
                 int strokeStyle = 0;
                 int fillStyle0 = 0;
@@ -2226,125 +2259,81 @@ public class TimelineConverter extends AbstractConverter {
                 if (fillStyle1StyleAttr != null) {
                     fillStyle1 = Integer.parseInt(fillStyle1StyleAttr.getTextContent());
                 }
-                Node edgesAttrNode = edge.getAttributes().getNamedItem("edges");
-                if (edgesAttrNode != null) {
-                    String edgesStr = edgesAttrNode.getTextContent();
-                    fg.writeEdges(edgesStr, strokeStyle, fillStyle0, fillStyle1);
+                if (edge.hasAttribute("edges")) {
+                    EdgeCommands commands = EdgeCommands.parse(edge.getAttribute("edges"));
+                    fg.writeEdges(commands, strokeStyle, fillStyle0, fillStyle1);
+                    totalEdgeCount += commands.getEdgeCount();
                 }
             }
+            fg.patchUI32(totalEdgeCountSlot, totalEdgeCount);
         }
 
         fg.write(0x00); //?
 
         int totalCubicsCount = 0;
-
-        for (Element edge : edges) {
-            if (edge.hasAttribute("cubics")) {
-                totalCubicsCount++;
-            }
-        }
-
-        fg.writeUI32(totalCubicsCount);
+        long totalCubicsCountSlot = fg.reserveUI32();
+        CubicsCommands cubicsCommands = new CubicsCommands();
         for (Element edge : edges) {
             if (edge.hasAttribute("cubics")) {
-                String cubics = edge.getAttribute("cubics");
-                Matcher cubicsMatcher = CUBICS_PATTERN.matcher(cubics);
-                if (!cubicsMatcher.matches()) {
-                    Logger.getLogger(TimelineConverter.class.getName()).warning("Cubics pattern does not match for input string " + cubics);
+                try {
+                    cubicsCommands.parse(edge.getAttribute("cubics"));
+                } catch (ParseException ex) {
+                    Logger.getLogger(TimelineConverter.class.getName()).warning(ex.getMessage());
                     continue;
                 }
-                int mx = Integer.parseInt(cubicsMatcher.group("mx"));
-                int my = Integer.parseInt(cubicsMatcher.group("my"));
-                int x1 = Integer.parseInt(cubicsMatcher.group("x1"));
-                int y1 = Integer.parseInt(cubicsMatcher.group("y1"));
-                int x2 = Integer.parseInt(cubicsMatcher.group("x2"));
-                int y2 = Integer.parseInt(cubicsMatcher.group("y2"));
-                int ex = Integer.parseInt(cubicsMatcher.group("ex"));
-                int ey = Integer.parseInt(cubicsMatcher.group("ey"));
-
-                Integer pBCPx = null;
-                if (cubicsMatcher.group("pBCPx") != null) {
-                    pBCPx = Integer.parseInt(cubicsMatcher.group("pBCPx"));
-                }
-                Integer pBCPy = null;
-                if (cubicsMatcher.group("pBCPy") != null) {
-                    pBCPy = Integer.parseInt(cubicsMatcher.group("pBCPy"));
-                }
-                Integer nBCPx = null;
-                if (cubicsMatcher.group("nBCPx") != null) {
-                    nBCPx = Integer.parseInt(cubicsMatcher.group("nBCPx"));
-                }
-                Integer nBCPy = null;
-                if (cubicsMatcher.group("nBCPy") != null) {
-                    nBCPy = Integer.parseInt(cubicsMatcher.group("nBCPy"));
-                }
-
-                String xy = cubicsMatcher.group("xy");
-                Matcher m2 = CUBICS_XY_PATTERN.matcher(xy);
-                List<String> letterList = new ArrayList<>();
-                List<Integer> xList = new ArrayList<>();
-                List<Integer> yList = new ArrayList<>();
-                String lastLetter = "q";
-                while (m2.find()) {
-                    xList.add(Integer.parseInt(m2.group("x")));
-                    yList.add(Integer.parseInt(m2.group("y")));
-                    String letter = m2.group("letter");
-                    if (letter == null || letter.isEmpty()) {
-                        letter = lastLetter;
-                    }
-                    lastLetter = letter;
-                    letterList.add(letter);
-                }
-
-                fg.writeUI32(mx);
-                fg.writeUI32(my);
-                fg.writeUI32(x1);
-                fg.writeUI32(y1);
-                fg.writeUI32(x2);
-                fg.writeUI32(y2);
-                fg.writeUI32(ex);
-                fg.writeUI32(ey);
+                totalCubicsCount++;
+
+                fg.writeUI32(cubicsCommands.getMoveX());
+                fg.writeUI32(cubicsCommands.getMoveY());
+                fg.writeUI32(cubicsCommands.getX1());
+                fg.writeUI32(cubicsCommands.getY1());
+                fg.writeUI32(cubicsCommands.getX2());
+                fg.writeUI32(cubicsCommands.getY2());
+                fg.writeUI32(cubicsCommands.getEndX());
+                fg.writeUI32(cubicsCommands.getEndY());
 
                 if (flaFormatVersion.ordinal() >= FlaFormatVersion.CS3.ordinal()) {
-                    fg.write(letterList.size());
-                    for (int i = 0; i < letterList.size(); i++) {
-                        fg.writeUI32(xList.get(i));
-                        fg.writeUI32(yList.get(i));
-                        switch (letterList.get(i)) {
-                            case "Q":
+                    int pointCount = cubicsCommands.getPointCount();
+                    fg.write(pointCount);
+                    for (int i = 0; i < pointCount; i++) {
+                        fg.writeUI32(cubicsCommands.getPointX(i));
+                        fg.writeUI32(cubicsCommands.getPointY(i));
+                        switch (cubicsCommands.getPointLetter(i)) {
+                            case 'Q':
                                 fg.write(0x01, 0x00);
                                 break;
-                            case "q":
+                            case 'q':
                                 fg.write(0x00, 0x00);
                                 break;
-                            case "P":
+                            case 'P':
                                 fg.write(0x01, 0x01);
                                 break;
-                            case "p":
+                            case 'p':
                                 fg.write(0x00, 0x01);
                                 break;
                         }
                     }
 
                     int pnFlags = 0;
-                    if (pBCPx != null) {
+                    if (cubicsCommands.hasPrevBCP()) {
                         pnFlags |= 1;
                     }
-                    if (nBCPx != null) {
+                    if (cubicsCommands.hasNextBCP()) {
                         pnFlags |= 2;
                     }
                     fg.write(pnFlags);
-                    if (pBCPx != null) {
-                        fg.writeUI32(pBCPx);
-                        fg.writeUI32(pBCPy);
+                    if (cubicsCommands.hasPrevBCP()) {
+                        fg.writeUI32(cubicsCommands.getPrevBCPx());
+                        fg.writeUI32(cubicsCommands.getPrevBCPy());
                     }
-                    if (nBCPx != null) {
-                        fg.writeUI32(nBCPx);
-                        fg.writeUI32(nBCPy);
+                    if (cubicsCommands.hasNextBCP()) {
+                        fg.writeUI32(cubicsCommands.getNextBCPx());
+                        fg.writeUI32(cubicsCommands.getNextBCPy());
                     }
                 }
             }
         }
+        fg.patchUI32(totalCubicsCountSlot, totalCubicsCount);
     }
 
     private boolean isZeroAlphaStroke(Element element) {
@@ -2378,6 +2367,7 @@ public class TimelineConverter extends AbstractConverter {
 
     private void writeLayerContents(
             Element layer,
+            int layerIndex,
             Element document,
             FlaWriter fg,
             Map<String, Integer> definedClasses, Reference<Integer> totalObjectCount,
@@ -2413,17 +2403,16 @@ public class TimelineConverter extends AbstractConverter {
             layerType = overrideLayerType;
         }
 
-        Node framesNode = getSubElementByName(layer, "frames");
-        if (framesNode == null) {
-        } else {
-            List<Element> frames = getAllSubElementsByName(framesNode, "DOMFrame");
+        try (FrameReaderInterface frameReader = openFrames(layer, layerIndex)) {
             String prevTweenType = "";
-            for (int f = 0; f < frames.size(); f++) {
+            Element nextFrame = frameReader.nextFrame();
+            while (nextFrame != null) {
                 useClass("CPicFrame", fg, definedClasses, totalObjectCount);
                 fg.write(flaFormatVersion.getFrameVersion());
                 fg.write(0x00);
                 totalFramesCountRef.setVal(totalFramesCountRef.getVal() + 1);
-                Element frame = frames.get(f);
+                Element frame = nextFrame;
+                nextFrame = frameReader.nextFrame();
                 Element elementsNode = getSubElementByName(frame, "elements");
 
                 String tweenType = frame.getAttribute("tweenType");
@@ -2544,17 +2533,7 @@ public class TimelineConverter extends AbstractConverter {
                 if (frame.hasAttribute("soundName")) {
                     String soundName = frame.getAttribute("soundName");
 
-                    List<Element> media = getMedia(document);
-                    for (int i = 0; i < media.size(); i++) {
-                        Element mediaItem = media.get(i);
-                        if (mediaItem.hasAttribute("name")) {
-                            String mediaName = mediaItem.getAttribute("name");
-                            if (soundName.equals(mediaName)) {
-                                soundId = i + 1;
-                                break;
-                            }
-                        }
-                    }
+                    soundId = getLibraryIndex(document).getMediaId(soundName);
                 }
 
                 if (soundId > 0) {
@@ -2680,8 +2659,7 @@ public class TimelineConverter extends AbstractConverter {
                     List<Element> fillStyles2 = new ArrayList<>();
                     List<Element> strokeStyles1 = new ArrayList<>();
                     List<Element> strokeStyles2 = new ArrayList<>();
-                    if (f + 1 < frames.size()) {
-                        Element nextFrame = frames.get(f + 1);
+                    if (nextFrame != null) {
                         Element domShape1 = getSubElementByName(elementsNode, "DOMShape");
                         Element nextFrameElementsNode = getSubElementByName(nextFrame, "elements");
                         if (domShape1 != null && nextFrameElementsNode != null) {
@@ -2711,6 +2689,7 @@ public class TimelineConverter extends AbstractConverter {
 
                     List<Element> fills = new ArrayList<>();
                     List<Element> strokes = new ArrayList<>();
+                    ElementFingerprints styleFingerprints = new ElementFingerprints();
 
                     if (!fillStyles1.isEmpty()) {
 
@@ -2720,7 +2699,7 @@ public class TimelineConverter extends AbstractConverter {
                             Element fill2 = fillStyles2.size() > i ? fillStyles2.get(i) : null;
                             fills.add(fill1);
 
-                            if (!areElementsEqual(fill1, fill2, false) || flaFormatVersion.ordinal() <= FlaFormatVersion.MX.ordinal()) {
+                            if (!styleFingerprints.areElementsEqual(fill1, fill2, false) || flaFormatVersion.ordinal() <= FlaFormatVersion.MX.ordinal()) {
                                 fills.add(fill2);
                             }
                         }
@@ -2735,7 +2714,7 @@ public class TimelineConverter extends AbstractConverter {
 
                             strokes.add(stroke1);
 
-                            if (!areElementsEqual(stroke1, stroke2, false) || flaFormatVersion.ordinal() <= FlaFormatVersion.MX.ordinal()) {
+                            if (!styleFingerprints.areElementsEqual(stroke1, stroke2, false) || flaFormatVersion.ordinal() <= FlaFormatVersion.MX.ordinal()) {
                                 strokes.add(stroke2);
                             }
                         }
@@ -2743,8 +2722,10 @@ public class TimelineConverter extends AbstractConverter {
 
                     Element morphSegmentsElement = getSubElementByName(morphShape, "morphSegments");
                     List<Element> morphSegments = getAllSubElementsByName(morphSegmentsElement, "MorphSegment");
-                    fg.writeUI16(morphSegments.size());
+                    int morphSegmentCount = 0;
+                    long morphSegmentCountSlot = fg.reserveUI16();
                     for (Element morphSegment : morphSegments) {
+                        morphSegmentCount++;
                         useClass("CMorphSegment", fg, definedClasses, totalObjectCount);
 
                         Point2D startpointA = fg.parsePoint(morphSegment.getAttribute("startPointA"));
@@ -2793,6 +2774,7 @@ public class TimelineConverter extends AbstractConverter {
                             fg.write(0x00, 0x00, 0x00);
                         }
                     }
+                    fg.patchUI16(morphSegmentCountSlot, morphSegmentCount);
 
                     fg.writeUI16(0);
 
@@ -3037,67 +3019,41 @@ public class TimelineConverter extends AbstractConverter {
         }
     }
 
-    private static boolean areElementsEqual(Element elem1, Element elem2, boolean includeAttributes) {
-        if (elem1 == elem2) {
-            return true;
-        }
-        if (elem1 == null || elem2 == null) {
-            return false;
-        }
-        if (!elem1.getTagName().equals(elem2.getTagName())) {
-            return false;
-        }
-
-        if (includeAttributes) {
-            if (!areAttributesEqual(elem1, elem2)) {
-                return false;
-            }
-        }
-
-        NodeList children1 = elem1.getChildNodes();
-        NodeList children2 = elem2.getChildNodes();
-
-        if (children1.getLength() != children2.getLength()) {
-            return false;
-        }
-
-        for (int i = 0; i < children1.getLength(); i++) {
-            Node child1 = children1.item(i);
-            Node child2 = children2.item(i);
-
-            if (child1.getNodeType() == Node.ELEMENT_NODE && child2.getNodeType() == Node.ELEMENT_NODE) {
-                if (!areElementsEqual((Element) child1, (Element) child2, true)) {
-                    return false;
-                }
-            } else if (!child1.isEqualNode(child2)) {
-                return false;
-            }
-        }
-
-        return true;
-    }
-
-    private static boolean areAttributesEqual(Element elem1, Element elem2) {
-        NamedNodeMap attributes1 = elem1.getAttributes();
-        NamedNodeMap attributes2 = elem2.getAttributes();
-
-        if (attributes1.getLength() != attributes2.getLength()) {
-            return false;
-        }
-
-        for (int i = 0; i < attributes1.getLength(); i++) {
-            Node attr1 = attributes1.item(i);
-            Node attr2 = attributes2.getNamedItem(attr1.getNodeName());
-
-            if (attr2 == null || !attr1.getNodeValue().equals(attr2.getNodeValue())) {
-                return false;
-            }
+    /**
+     * Writes record which depends only on content of the element. When record
+     * memo is set, the record is encoded only once per distinct content and
+     * copied otherwise.
+     *
+     * @param fg Writer
+     * @param kind Kind of record, distinguishes different encodings of the
+     * same element
+     * @param element Element or null to encode directly
+     * @param encoder Encoder
+     * @throws IOException On I/O error
+     */
+    private void writeRecord(FlaWriter fg, String kind, Element element, RecordEncoderInterface encoder) throws IOException {
+        if (recordMemo == null || element == null) {
+            encoder.encode(fg);
+            return;
         }
-
-        return true;
+        ElementFingerprints fingerprints = new ElementFingerprints();
+        long fingerprint = fingerprints.getFingerprint(element);
+        long secondaryFingerprint = fingerprints.getSecondaryFingerprint(element);
+        byte[] data = recordMemo.get(kind, flaFormatVersion, fingerprint, secondaryFingerprint);
+        if (data == null) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            FlaWriter recordWriter = new FlaWriter(baos, flaFormatVersion, charset);
+            recordWriter.setDebugRandom(debugRandom);
+            recordWriter.setTraceSink(NoTraceSink.INSTANCE);
+            encoder.encode(recordWriter);
+            recordWriter.flush();
+            data = baos.toByteArray();
+            recordMemo.put(kind, flaFormatVersion, fingerprint, secondaryFingerprint, data);
+        }
+        fg.write(data);
     }
 
-    private static String getInnerXml(Element element) {
+    private String getInnerXml(Element element) {
         StringBuilder innerXml = new StringBuilder();
         NodeList childNodes = element.getChildNodes();
 
@@ -3105,19 +3061,20 @@ public class TimelineConverter extends AbstractConverter {
             Node node = childNodes.item(i);
 
             try {
-                TransformerFactory tf = TransformerFactory.newInstance();
-                Transformer transformer = tf.newTransformer();
-
-                transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-                transformer.setOutputProperty(OutputKeys.INDENT, "no");
+                if (innerXmlTransformer == null) {
+                    innerXmlTransformer = TransformerFactory.newInstance().newTransformer();
+                    innerXmlTransformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+                    innerXmlTransformer.setOutputProperty(OutputKeys.INDENT, "no");
+                }
 
                 StringWriter writer = new StringWriter();
-                transformer.transform(new DOMSource(node), new StreamResult(writer));
+                innerXmlTransformer.transform(new DOMSource(node), new StreamResult(writer));
 
                 innerXml.append(writer.toString());
 
             } catch (Exception ex) {
-                //ignore
+                //ignore, do not reuse transformer in unknown state
+                innerXmlTransformer = null;
             }
         }
 
@@ -3135,6 +3092,7 @@ public class TimelineConverter extends AbstractConverter {
             Reference<Integer> copiedComponentPathRef,
             Reference<Integer> totalFramesCountRef,
             Map<Integer, Integer> layerIndexToNValue,
+            List<FutureTask<RelocatableBuffer>> encodedLayers,
             boolean hasChildren
     ) throws IOException {
         if (writtenLayers.contains(layerIndex)) {
@@ -3179,7 +3137,6 @@ public class TimelineConverter extends AbstractConverter {
             parentLayerIndex = Integer.parseInt(layer.getAttribute("parentLayerIndex"));
         }
 
-        Integer overrideLayerType = null;
         String parentLayerType = "-";
         if (parentLayerIndex > -1
                 && flaFormatVersion.ordinal() < FlaFormatVersion.MX.ordinal()) {
@@ -3188,11 +3145,6 @@ public class TimelineConverter extends AbstractConverter {
                 parentLayerType = "";
                 parentLayerIndex = -1;
             }
-            if (parentLayerType.equals("guide")) {
-                if (isNormalLayer) {
-                    overrideLayerType = FlaWriter.LAYERTYPE_GUIDED;
-                }
-            }
         }
 
         int animationType = 0;
@@ -3210,7 +3162,11 @@ public class TimelineConverter extends AbstractConverter {
         int nValue = 1 + definedClasses.size() + totalObjectCount.getVal();
         layerIndexToNValue.put(layerIndex, nValue);
 
-        writeLayerContents(layer, document, fg, definedClasses, totalObjectCount, copiedComponentPathRef, totalFramesCountRef, overrideLayerType);
+        if (encodedLayers == null) {
+            writeLayerContents(layer, layerIndex, document, fg, definedClasses, totalObjectCount, copiedComponentPathRef, totalFramesCountRef, getOverrideLayerType(layers, layerIndex));
+        } else {
+            linkLayerContents(getEncodedLayer(encodedLayers.get(layerIndex)), fg, definedClasses, totalObjectCount, copiedComponentPathRef, totalFramesCountRef);
+        }
 
         if (flaFormatVersion.ordinal() <= FlaFormatVersion.F5.ordinal()) {
             if (parentLayerType.equals("mask")) {
@@ -3218,7 +3174,7 @@ public class TimelineConverter extends AbstractConverter {
             }
         }
         if (parentLayerIndex > -1 && !writtenLayers.contains(parentLayerIndex)) {
-            writeLayer(document, fg, layers, parentLayerIndex, writtenLayers, definedClasses, totalObjectCount, copiedComponentPathRef, totalFramesCountRef, layerIndexToNValue, true);
+            writeLayer(document, fg, layers, parentLayerIndex, writtenLayers, definedClasses, totalObjectCount, copiedComponentPathRef, totalFramesCountRef, layerIndexToNValue, encodedLayers, true);
         } else {
             if (parentLayerIndex > -1) {
                 fg.writeEncodedUI(layerIndexToNValue.get(parentLayerIndex));
@@ -3279,10 +3235,219 @@ public class TimelineConverter extends AbstractConverter {
         }
     }
 
+    /**
+     * Gets layer type which overrides type of the layer, when written in a
+     * format without guided layer type.
+     *
+     * @param layers Layers
+     * @param layerIndex Layer index
+     * @return Layer type or null when not overridden
+     */
+    private Integer getOverrideLayerType(List<Element> layers, int layerIndex) {
+        Element layer = layers.get(layerIndex);
+        if (!layer.hasAttribute("parentLayerIndex")
+                || flaFormatVersion.ordinal() >= FlaFormatVersion.MX.ordinal()) {
+            return null;
+        }
+        int parentLayerIndex = Integer.parseInt(layer.getAttribute("parentLayerIndex"));
+        switch (layer.getAttribute("layerType")) {
+            case "folder":
+            case "mask":
+            case "guide":
+                return null;
+        }
+        if (parentLayerIndex > -1
+                && "guide".equals(layers.get(parentLayerIndex).getAttribute("layerType"))) {
+            return FlaWriter.LAYERTYPE_GUIDED;
+        }
+        return null;
+    }
+
+    /**
+     * Starts encoding of all layers on the executor. Each layer gets its own
+     * copy of the DOM, as DOM is not safe for concurrent traversal. Layers are
+     * submitted in the order they are linked.
+     *
+     * @param layers Layers
+     * @param document Document element
+     * @return Encoding tasks by layer index
+     */
+    private List<FutureTask<RelocatableBuffer>> encodeLayers(List<Element> layers, final Element document) throws ParserConfigurationException {
+        final LibraryIndex sharedLibraryIndex = getLibraryIndex(document);
+        DocumentBuilder docBuilder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+        List<FutureTask<RelocatableBuffer>> tasks = new ArrayList<>();
+        for (int layerIndex = 0; layerIndex < layers.size(); layerIndex++) {
+            Document layerDocument = docBuilder.newDocument();
+            final Element layerElement = (Element) layerDocument.importNode(layers.get(layerIndex), true);
+            layerDocument.appendChild(layerElement);
+            final int encodedLayerIndex = layerIndex;
+            final Integer overrideLayerType = getOverrideLayerType(layers, layerIndex);
+            tasks.add(new FutureTask<>(new Callable<RelocatableBuffer>() {
+                @Override
+                public RelocatableBuffer call() throws Exception {
+                    TimelineConverter layerEncoder = new TimelineConverter(flaFormatVersion, charset, title);
+                    layerEncoder.setDebugRandom(debugRandom);
+                    layerEncoder.setLibraryIndex(sharedLibraryIndex);
+                    layerEncoder.setRecordMemo(recordMemo);
+                    return layerEncoder.encodeLayer(layerElement, encodedLayerIndex, document, overrideLayerType);
+                }
+            }));
+        }
+        for (int layerIndex = layers.size() - 1; layerIndex >= 0; layerIndex--) {
+            executor.execute(tasks.get(layerIndex));
+        }
+        return tasks;
+    }
+
+    /**
+     * Encodes layer contents to relocatable buffer.
+     *
+     * @param layer Layer
+     * @param layerIndex Layer index
+     * @param document Document element
+     * @param overrideLayerType Layer type override or null
+     * @return Buffer
+     * @throws IOException On I/O error
+     */
+    private RelocatableBuffer encodeLayer(Element layer, int layerIndex, Element document, Integer overrideLayerType) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        FlaWriter fg = new FlaWriter(baos, flaFormatVersion, charset);
+        fg.setTitle(getTitle());
+        fg.setDebugRandom(debugRandom);
+        fg.setTraceSink(NoTraceSink.INSTANCE);
+        RelocatableBuffer buffer = new RelocatableBuffer();
+        Reference<Integer> copiedComponentPathRef = new Reference<>(0);
+        Reference<Integer> framesCountRef = new Reference<>(0);
+        relocatableBuffer = buffer;
+        try {
+            writeLayerContents(layer, layerIndex, document, fg, new HashMap<String, Integer>(), new Reference<>(0), copiedComponentPathRef, framesCountRef, overrideLayerType);
+        } finally {
+            relocatableBuffer = null;
+        }
+        fg.flush();
+        buffer.setData(baos.toByteArray());
+        buffer.setCopiedComponentCount(copiedComponentPathRef.getVal());
+        buffer.setFramesCount(framesCountRef.getVal());
+        return buffer;
+    }
+
+    /**
+     * Writes encoded layer contents. Class references get their final
+     * numbers here, in the same order as when the contents are written
+     * directly.
+     *
+     * @param buffer Encoded layer contents
+     * @param fg Writer
+     * @param definedClasses Defined classes
+     * @param totalObjectCount Total object count
+     * @param copiedComponentPathRef Number of copied components
+     * @param totalFramesCountRef Total frames count
+     * @throws IOException On I/O error
+     */
+    private void linkLayerContents(
+            RelocatableBuffer buffer,
+            FlaWriter fg,
+            Map<String, Integer> definedClasses,
+            Reference<Integer> totalObjectCount,
+            Reference<Integer> copiedComponentPathRef,
+            Reference<Integer> totalFramesCountRef
+    ) throws IOException {
+        byte[] data = buffer.getData();
+        int start = 0;
+        for (int i = 0; i < buffer.getPatchPointCount(); i++) {
+            int position = buffer.getPatchPosition(i);
+            fg.write(data, start, position - start);
+            switch (buffer.getPatchKind(i)) {
+                case RelocatableBuffer.PATCH_CLASS:
+                    useClass(buffer.getPatchName(i), buffer.getPatchValue(i), fg, definedClasses, totalObjectCount);
+                    break;
+                case RelocatableBuffer.PATCH_COPIED_COMPONENT_PATH:
+                    fg.writeBomString(getComponentText(copiedComponentPathRef.getVal() + buffer.getPatchValue(i)));
+                    break;
+            }
+            start = position;
+        }
+        fg.write(data, start, data.length - start);
+        copiedComponentPathRef.setVal(copiedComponentPathRef.getVal() + buffer.getCopiedComponentCount());
+        totalFramesCountRef.setVal(totalFramesCountRef.getVal() + buffer.getFramesCount());
+    }
+
+    /**
+     * Gets encoded layer. When the encoding was not started yet, it is run on
+     * the calling thread.
+     *
+     * @param task Encoding task
+     * @return Encoded layer
+     * @throws IOException On I/O error
+     */
+    private static RelocatableBuffer getEncodedLayer(FutureTask<RelocatableBuffer> task) throws IOException {
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for layer encoding");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private FrameReaderInterface openFrames(Element layer, int layerIndex) throws IOException {
+        if (symbolStreamReader != null) {
+            return symbolStreamReader.openFrames(layerIndex);
+        }
+        final List<Element> frames = getAllSubElementsByName(getSubElementByName(layer, "frames"), "DOMFrame");
+        return new FrameReaderInterface() {
+            private int pos = 0;
+
+            @Override
+            public Element nextFrame() {
+                if (pos >= frames.size()) {
+                    return null;
+                }
+                return frames.get(pos++);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Converts symbol timeline read by the stream reader. Frames are read one
+     * by one, not the whole symbol is held in memory.
+     *
+     * @param symbolStreamReader Symbol stream reader with outline read
+     * @param document Document element
+     * @param os Output stream
+     */
+    public void convert(SymbolStreamReader symbolStreamReader, Element document, OutputStream os) throws SAXException, IOException, ParserConfigurationException {
+        this.symbolStreamReader = symbolStreamReader;
+        try {
+            convert(symbolStreamReader.getTimeline(), document, os);
+        } finally {
+            this.symbolStreamReader = null;
+        }
+    }
+
     public void convert(Element domTimeLine, Element document, OutputStream os) throws SAXException, IOException, ParserConfigurationException {
         FlaWriter fg = new FlaWriter(os, flaFormatVersion, charset);
         fg.setTitle(getTitle());
         fg.setDebugRandom(debugRandom);
+        if (traceSink != null) {
+            fg.setTraceSink(traceSink);
+        }
         Map<String, Integer> definedClasses = new HashMap<>();
         Reference<Integer> totalObjectCount = new Reference<>(0);
 
@@ -3304,8 +3469,23 @@ public class TimelineConverter extends AbstractConverter {
 
             Set<Integer> writtenLayers = new HashSet<>();
 
-            for (int layerIndex = layers.size() - 1; layerIndex >= 0; layerIndex--) {
-                writeLayer(document, fg, layers, layerIndex, writtenLayers, definedClasses, totalObjectCount, copiedComponentPathRef, totalFramesCountRef, layerIndexToNValue, false);
+            List<FutureTask<RelocatableBuffer>> encodedLayers = null;
+            if (executor != null
+                    && symbolStreamReader == null
+                    && layers.size() > 1
+                    && !fg.getTraceSink().isEnabled()) {
+                encodedLayers = encodeLayers(layers, document);
+            }
+            try {
+                for (int layerIndex = layers.size() - 1; layerIndex >= 0; layerIndex--) {
+                    writeLayer(document, fg, layers, layerIndex, writtenLayers, definedClasses, totalObjectCount, copiedComponentPathRef, totalFramesCountRef, layerIndexToNValue, encodedLayers, false);
+                }
+            } finally {
+                if (encodedLayers != null) {
+                    for (FutureTask<RelocatableBuffer> task : encodedLayers) {
+                        task.cancel(true);
+                    }
+                }
             }
         }
         int currentFrame = 0;
@@ -3361,6 +3541,6 @@ public class TimelineConverter extends AbstractConverter {
         } else {
             fg.write(0x00, 0x00, 0x00, 0x00);
         }
-
+        fg.flush();
     }
 }
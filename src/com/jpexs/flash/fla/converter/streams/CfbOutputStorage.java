@@ -22,6 +22,7 @@ import com.jpexs.cfb.CompoundFileBinary;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
@@ -77,6 +78,11 @@ public class CfbOutputStorage implements OutputStorageInterface {
         cfb.addFile(fileName, file);
     }
 
+    @Override
+    public void storeStream(String fileName, InputStream is, long length) throws IOException {
+        cfb.addFile(fileName, is, length);
+    }
+
     @Override
     public void close() throws Exception {
         cfb.close();
@@ -20,80 +20,416 @@ package com.jpexs.flash.fla.converter.streams;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Allows writing to more than one places simultaneously.
  *
+ * Each child storage has its own writer thread. The caller only fills pooled
+ * buffers and enqueues them, so slow storage does not hold the others. Memory
+ * is bounded by the buffer pool - when all buffers are in use, the caller
+ * waits. Errors of the children are reported by next enqueue or by close.
+ *
  * @author JPEXS
  */
 public class CombinedOutputStorage implements OutputStorageInterface {
 
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    public static final int DEFAULT_BUFFER_COUNT = 16;
+
+    private static final int QUEUE_CAPACITY = 64;
+
     private final OutputStorageInterface[] storages;
 
+    private final Worker[] workers;
+
+    private final int bufferSize;
+
+    private final int bufferCount;
+
+    private final BlockingQueue<byte[]> bufferPool;
+
+    private int allocatedBufferCount = 0;
+
+    private boolean closed = false;
+
     public CombinedOutputStorage(OutputStorageInterface... storages) {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT, storages);
+    }
+
+    public CombinedOutputStorage(int bufferSize, int bufferCount, OutputStorageInterface... storages) {
+        if (bufferSize < 1 || bufferCount < 1) {
+            throw new IllegalArgumentException("Buffer size and count must be positive");
+        }
         this.storages = storages;
+        this.bufferSize = bufferSize;
+        this.bufferCount = bufferCount;
+        this.bufferPool = new ArrayBlockingQueue<>(bufferCount);
+        workers = new Worker[storages.length];
+        for (int i = 0; i < storages.length; i++) {
+            workers[i] = new Worker(storages[i], i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Task executed on the writer thread of single child.
+     */
+    private abstract static class Task {
+
+        public abstract void run(OutputStorageInterface storage) throws Exception;
+
+        /**
+         * Called after run, even when it was skipped due to previous error.
+         */
+        public void release() {
+        }
+    }
+
+    private static final Task POISON = new Task() {
+        @Override
+        public void run(OutputStorageInterface storage) {
+        }
+    };
+
+    private class Worker extends Thread {
+
+        private final OutputStorageInterface storage;
+
+        private final BlockingQueue<Task> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        private volatile Throwable error = null;
+
+        public Worker(OutputStorageInterface storage, int index) {
+            super("CombinedOutputStorage writer " + index);
+            this.storage = storage;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Task task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException ex) {
+                    if (error == null) {
+                        error = ex;
+                    }
+                    return;
+                }
+                if (task == POISON) {
+                    return;
+                }
+                try {
+                    if (error == null) {
+                        task.run(storage);
+                    }
+                } catch (Throwable t) {
+                    error = t;
+                } finally {
+                    task.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Buffer shared by all children, returned to the pool when all of them
+     * have written it.
+     */
+    private class Chunk {
+
+        private final byte[] data;
+        private final int length;
+        private final AtomicInteger references;
+
+        public Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+            this.references = new AtomicInteger(workers.length);
+        }
+
+        public void release() {
+            if (references.decrementAndGet() == 0) {
+                bufferPool.offer(data);
+            }
+        }
+    }
+
+    private byte[] acquireBuffer() throws IOException {
+        byte[] buf = bufferPool.poll();
+        if (buf != null) {
+            return buf;
+        }
+        synchronized (this) {
+            if (allocatedBufferCount < bufferCount) {
+                allocatedBufferCount++;
+                return new byte[bufferSize];
+            }
+        }
+        try {
+            return bufferPool.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for buffer");
+        }
+    }
+
+    /**
+     * Gets number of buffers allocated so far.
+     *
+     * @return Number of buffers
+     */
+    synchronized int getAllocatedBufferCount() {
+        return allocatedBufferCount;
+    }
+
+    /**
+     * Gets number of buffers in the pool.
+     *
+     * @return Number of buffers
+     */
+    int getPooledBufferCount() {
+        return bufferPool.size();
+    }
+
+    private void checkErrors() throws IOException {
+        for (Worker worker : workers) {
+            Throwable error = worker.error;
+            if (error != null) {
+                if (error instanceof IOException) {
+                    throw new IOException("Writing to storage failed: " + error.getMessage(), error);
+                }
+                throw new IOException("Writing to storage failed", error);
+            }
+        }
+    }
+
+    private void enqueue(Worker worker, Task task) throws IOException {
+        try {
+            worker.queue.put(task);
+        } catch (InterruptedException ex) {
+            task.release();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while enqueueing");
+        }
+    }
+
+    private void enqueueAll(TaskFactory factory) throws IOException {
+        try {
+            if (closed) {
+                throw new IOException("Storage is closed");
+            }
+            checkErrors();
+        } catch (IOException ex) {
+            //tasks which are not enqueued still hold their chunk
+            for (int i = 0; i < workers.length; i++) {
+                factory.create(i).release();
+            }
+            throw ex;
+        }
+        for (int i = 0; i < workers.length; i++) {
+            try {
+                enqueue(workers[i], factory.create(i));
+            } catch (IOException ex) {
+                for (int j = i + 1; j < workers.length; j++) {
+                    factory.create(j).release();
+                }
+                throw ex;
+            }
+        }
+    }
+
+    private interface TaskFactory {
+
+        public Task create(int index);
     }
 
     @Override
     public OutputStream getOutputStream(String fileName) throws IOException {
-        List<OutputStream> oss = new ArrayList<>();
-        for (OutputStorageInterface storage : storages) {
-            oss.add(storage.getOutputStream(fileName));
-        }
+        final OutputStream[] childStreams = new OutputStream[workers.length];
+        enqueueAll(new TaskFactory() {
+            @Override
+            public Task create(int index) {
+                return new Task() {
+                    @Override
+                    public void run(OutputStorageInterface storage) throws Exception {
+                        childStreams[index] = storage.getOutputStream(fileName);
+                    }
+                };
+            }
+        });
 
         return new OutputStream() {
+            private byte[] buf = null;
+            private int pos = 0;
+            private boolean streamClosed = false;
+
+            private void sendBuffer() throws IOException {
+                if (buf == null || pos == 0) {
+                    return;
+                }
+                final Chunk chunk = new Chunk(buf, pos);
+                buf = null;
+                pos = 0;
+                enqueueAll(new TaskFactory() {
+                    @Override
+                    public Task create(int index) {
+                        return new Task() {
+                            @Override
+                            public void run(OutputStorageInterface storage) throws Exception {
+                                childStreams[index].write(chunk.data, 0, chunk.length);
+                            }
+
+                            @Override
+                            public void release() {
+                                chunk.release();
+                            }
+                        };
+                    }
+                });
+            }
+
             @Override
             public void write(int b) throws IOException {
-                for (OutputStream os : oss) {
-                    os.write(b);
+                if (buf == null) {
+                    buf = acquireBuffer();
+                }
+                buf[pos++] = (byte) b;
+                if (pos == buf.length) {
+                    sendBuffer();
                 }
             }
 
             @Override
             public void write(byte[] b) throws IOException {
-                for (OutputStream os : oss) {
-                    os.write(b);
-                }
+                write(b, 0, b.length);
             }
 
             @Override
             public void write(byte[] b, int off, int len) throws IOException {
-                for (OutputStream os : oss) {
-                    os.write(b, off, len);
+                while (len > 0) {
+                    if (buf == null) {
+                        buf = acquireBuffer();
+                    }
+                    int cnt = Math.min(len, buf.length - pos);
+                    System.arraycopy(b, off, buf, pos, cnt);
+                    pos += cnt;
+                    off += cnt;
+                    len -= cnt;
+                    if (pos == buf.length) {
+                        sendBuffer();
+                    }
                 }
             }
 
             @Override
             public void close() throws IOException {
-                for (OutputStream os : oss) {
-                    os.close();
+                if (streamClosed) {
+                    return;
+                }
+                streamClosed = true;
+                sendBuffer();
+                if (buf != null) {
+                    bufferPool.offer(buf);
+                    buf = null;
                 }
+                enqueueAll(new TaskFactory() {
+                    @Override
+                    public Task create(int index) {
+                        return new Task() {
+                            @Override
+                            public void run(OutputStorageInterface storage) throws Exception {
+                                childStreams[index].close();
+                            }
+                        };
+                    }
+                });
             }
         };
     }
 
+    /**
+     * Stores data. The array must not be modified after the call.
+     *
+     * @param fileName File name
+     * @param data Data
+     * @throws IOException On I/O error of this or any previous operation
+     */
     @Override
     public void storeData(String fileName, byte[] data) throws IOException {
-        for (OutputStorageInterface storage : storages) {
-            storage.storeData(fileName, data);
-        }
+        enqueueAll(new TaskFactory() {
+            @Override
+            public Task create(int index) {
+                return new Task() {
+                    @Override
+                    public void run(OutputStorageInterface storage) throws Exception {
+                        storage.storeData(fileName, data);
+                    }
+                };
+            }
+        });
     }
 
+    /**
+     * Stores file. The file must exist until this storage is closed.
+     *
+     * @param fileName File name
+     * @param file File
+     * @throws IOException On I/O error of this or any previous operation
+     */
     @Override
     public void storeFile(String fileName, File file) throws IOException {
-        for (OutputStorageInterface storage : storages) {
-            storage.storeFile(fileName, file);
-        }
+        enqueueAll(new TaskFactory() {
+            @Override
+            public Task create(int index) {
+                return new Task() {
+                    @Override
+                    public void run(OutputStorageInterface storage) throws Exception {
+                        storage.storeFile(fileName, file);
+                    }
+                };
+            }
+        });
     }
 
+    /**
+     * Waits for all children to finish their writes, closes them and
+     * propagates first error.
+     *
+     * @throws Exception On error of any child
+     */
     @Override
     public void close() throws Exception {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Worker worker : workers) {
+            enqueue(worker, POISON);
+        }
+        Exception closeError = null;
+        for (Worker worker : workers) {
+            worker.join();
+        }
         for (OutputStorageInterface storage : storages) {
-            storage.close();
+            try {
+                storage.close();
+            } catch (Exception ex) {
+                if (closeError == null) {
+                    closeError = ex;
+                }
+            }
+        }
+        checkErrors();
+        if (closeError != null) {
+            throw closeError;
         }
     }
-
 }
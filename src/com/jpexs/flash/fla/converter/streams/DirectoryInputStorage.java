@@ -22,8 +22,31 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
+ * Reads XFL directory.
+ *
+ * In snapshot mode, the directory tree is walked once and names, sizes and
+ * modification times of the files are cached. Lookups are then answered from
+ * memory. Names are normalized, names not found in the snapshot are checked on
+ * the disk, so file systems which ignore case still find them. Entries which
+ * cannot be read while walking are left out of the snapshot and checked on the
+ * disk the same way. Changes of the files in the snapshot are not seen until
+ * invalidate is called.
  *
  * @author JPEXS
  */
@@ -31,12 +54,137 @@ public class DirectoryInputStorage implements InputStorageInterface {
 
     private final File inputDirectory;
 
+    private final boolean snapshot;
+
+    private Map<String, FileInfo> files = null;
+
+    private static class FileInfo {
+
+        private final long size;
+        private final long lastModified;
+
+        public FileInfo(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
     public DirectoryInputStorage(File inputDirectory) {
         this.inputDirectory = inputDirectory;
+        this.snapshot = false;
+    }
+
+    /**
+     * Constructs storage.
+     *
+     * @param inputDirectory Directory
+     * @param snapshot Walk the directory once and answer lookups from memory
+     * @throws IOException On I/O error while walking the directory
+     */
+    public DirectoryInputStorage(File inputDirectory, boolean snapshot) throws IOException {
+        this.inputDirectory = inputDirectory;
+        this.snapshot = snapshot;
+        if (snapshot) {
+            invalidate();
+        }
+    }
+
+    public boolean isSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Walks the directory again and replaces the snapshot. Does nothing when
+     * not in snapshot mode.
+     *
+     * @throws IOException On I/O error
+     */
+    public synchronized void invalidate() throws IOException {
+        if (!snapshot) {
+            return;
+        }
+        final Path root = inputDirectory.toPath();
+        final Map<String, FileInfo> newFiles = new HashMap<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile()) {
+                    newFiles.put(normalizeName(root.relativize(file).toString()), new FileInfo(attrs.size(), attrs.lastModifiedTime().toMillis()));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                //not in the snapshot, lookups check it on the disk
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        files = newFiles;
+    }
+
+    /**
+     * Reads attributes of single file again and updates the snapshot. Does
+     * nothing when not in snapshot mode.
+     *
+     * @param fileName File name
+     * @throws IOException On I/O error
+     */
+    public synchronized void invalidate(String fileName) throws IOException {
+        if (!snapshot) {
+            return;
+        }
+        String name = normalizeName(fileName);
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(getFile(fileName).toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException ex) {
+            files.remove(name);
+            return;
+        }
+        if (attrs.isRegularFile()) {
+            files.put(name, new FileInfo(attrs.size(), attrs.lastModifiedTime().toMillis()));
+        } else {
+            files.remove(name);
+        }
+    }
+
+    private static String normalizeName(String fileName) {
+        return Paths.get(fileName).normalize().toString().replace(File.separatorChar, '/');
+    }
+
+    private FileInfo getFileInfo(String fileName) {
+        synchronized (this) {
+            FileInfo info = files.get(normalizeName(fileName));
+            if (info != null) {
+                return info;
+            }
+        }
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(getFile(fileName).toPath(), BasicFileAttributes.class);
+        } catch (IOException | InvalidPathException ex) {
+            return null;
+        }
+        if (!attrs.isRegularFile()) {
+            return null;
+        }
+        return new FileInfo(attrs.size(), attrs.lastModifiedTime().toMillis());
     }
 
     @Override
     public InputStream readFile(String fileName) throws IOException {
+        if (snapshot) {
+            if (getFileInfo(fileName) == null) {
+                return null;
+            }
+            return Channels.newInputStream(FileChannel.open(getFile(fileName).toPath(), StandardOpenOption.READ));
+        }
         if (!inputDirectory.toPath().resolve(fileName).toFile().exists()) {
             return null;
         }
@@ -45,9 +193,54 @@ public class DirectoryInputStorage implements InputStorageInterface {
 
     @Override
     public boolean fileExists(String fileName) {
+        if (snapshot) {
+            return getFileInfo(fileName) != null;
+        }
         return inputDirectory.toPath().resolve(fileName).toFile().exists();
     }
 
+    @Override
+    public long getFileSize(String fileName) throws IOException {
+        if (snapshot) {
+            FileInfo info = getFileInfo(fileName);
+            return info == null ? -1 : info.size;
+        }
+        File file = getFile(fileName);
+        if (!file.exists()) {
+            return -1;
+        }
+        return file.length();
+    }
+
+    /**
+     * Gets modification time of the file.
+     *
+     * @param fileName File name
+     * @return Time in milliseconds since the epoch or -1 when the file does
+     * not exist
+     */
+    public long getLastModified(String fileName) {
+        if (snapshot) {
+            FileInfo info = getFileInfo(fileName);
+            return info == null ? -1 : info.lastModified;
+        }
+        File file = getFile(fileName);
+        if (!file.exists()) {
+            return -1;
+        }
+        return file.lastModified();
+    }
+
+    /**
+     * Gets file on the disk.
+     *
+     * @param fileName File name
+     * @return File
+     */
+    public File getFile(String fileName) {
+        return inputDirectory.toPath().resolve(fileName).toFile();
+    }
+
     @Override
     public void close() throws Exception {
 
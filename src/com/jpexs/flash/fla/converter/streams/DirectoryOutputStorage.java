@@ -22,8 +22,10 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  *
@@ -54,6 +56,23 @@ public class DirectoryOutputStorage implements OutputStorageInterface {
         Files.copy(file.toPath(), outputDir.toPath().resolve(fileName), StandardCopyOption.REPLACE_EXISTING);
     }
 
+    @Override
+    public void transfer(String srcPath, InputStorageInterface src, String dstName) throws IOException {
+        if (!(src instanceof DirectoryInputStorage)) {
+            OutputStorageInterface.super.transfer(srcPath, src, dstName);
+            return;
+        }
+        File srcFile = ((DirectoryInputStorage) src).getFile(srcPath);
+        try (FileChannel in = FileChannel.open(srcFile.toPath(), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(outputDir.toPath().resolve(dstName), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long pos = 0;
+            while (pos < size) {
+                pos += in.transferTo(pos, size - pos, out);
+            }
+        }
+    }
+
     @Override
     public void close() throws Exception {
 
@@ -20,6 +20,7 @@ package com.jpexs.flash.fla.converter.streams;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 /**
  *
@@ -30,4 +31,23 @@ public interface InputStorageInterface extends AutoCloseable {
     public boolean fileExists(String fileName);
 
     public InputStream readFile(String fileName) throws IOException;
+
+    /**
+     * Gets size of the file.
+     *
+     * @param fileName File name
+     * @return Size in bytes or -1 when it is not known in advance
+     * @throws IOException On I/O error
+     */
+    public default long getFileSize(String fileName) throws IOException {
+        return -1;
+    }
+
+    /**
+     * Hints which files will be read. Storage may read them ahead of time.
+     *
+     * @param fileNames File names in the order they will be needed
+     */
+    public default void prefetch(List<String> fileNames) {
+    }
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter.streams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Input storage backed by a map of file names to data held in memory.
+ *
+ * @author JPEXS
+ */
+public class MemoryInputStorage implements InputStorageInterface {
+
+    private final Map<String, ByteBuffer> files = new HashMap<>();
+
+    public MemoryInputStorage() {
+    }
+
+    /**
+     * Constructs storage. Arrays are not copied.
+     *
+     * @param files Map of file names to data
+     */
+    public MemoryInputStorage(Map<String, byte[]> files) {
+        for (String fileName : files.keySet()) {
+            putFile(fileName, files.get(fileName));
+        }
+    }
+
+    /**
+     * Reads zipped XFL file held in memory.
+     *
+     * @param zipData Zip data
+     * @return Storage
+     * @throws IOException On invalid zip data
+     */
+    public static MemoryInputStorage fromZip(byte[] zipData) throws IOException {
+        MemoryInputStorage storage = new MemoryInputStorage();
+        try (ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zipData))) {
+            ZipEntry entry;
+            byte[] buf = new byte[4096];
+            while ((entry = zis.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(entry.getSize() > 0 && entry.getSize() <= Integer.MAX_VALUE ? (int) entry.getSize() : 4096);
+                int cnt;
+                while ((cnt = zis.read(buf)) > 0) {
+                    baos.write(buf, 0, cnt);
+                }
+                storage.putFile(entry.getName(), baos.toByteArray());
+            }
+        }
+        return storage;
+    }
+
+    /**
+     * Adds file. The array is not copied.
+     *
+     * @param fileName File name
+     * @param data Data
+     */
+    public synchronized void putFile(String fileName, byte[] data) {
+        files.put(fileName, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Adds file. Bytes between position and limit of the buffer are used, the
+     * buffer itself is not modified.
+     *
+     * @param fileName File name
+     * @param data Data
+     */
+    public synchronized void putFile(String fileName, ByteBuffer data) {
+        files.put(fileName, data.slice());
+    }
+
+    public synchronized void removeFile(String fileName) {
+        files.remove(fileName);
+    }
+
+    public synchronized List<String> getFileNames() {
+        return new ArrayList<>(files.keySet());
+    }
+
+    private synchronized ByteBuffer getBuffer(String fileName) {
+        ByteBuffer buffer = files.get(fileName);
+        if (buffer == null) {
+            return null;
+        }
+        return buffer.duplicate();
+    }
+
+    @Override
+    public boolean fileExists(String fileName) {
+        return getBuffer(fileName) != null;
+    }
+
+    @Override
+    public InputStream readFile(String fileName) throws IOException {
+        ByteBuffer buffer = getBuffer(fileName);
+        if (buffer == null) {
+            return null;
+        }
+        if (buffer.hasArray()) {
+            return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        return new ByteBufferInputStream(buffer);
+    }
+
+    @Override
+    public long getFileSize(String fileName) throws IOException {
+        ByteBuffer buffer = getBuffer(fileName);
+        if (buffer == null) {
+            return -1;
+        }
+        return buffer.remaining();
+    }
+
+    @Override
+    public void close() throws Exception {
+
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        public ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int cnt = Math.min(len, buffer.remaining());
+            buffer.get(b, off, cnt);
+            return cnt;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            int cnt = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + cnt);
+            return cnt;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter.streams;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Output storage which keeps streams in memory.
+ *
+ * Streams are stored as lists of fixed size chunks. Chunks of removed or
+ * overwritten streams return to a pool, so the storage can be cleared and
+ * reused for another conversion without allocating again. A stream becomes
+ * visible when its output stream is closed.
+ *
+ * @author JPEXS
+ */
+public class MemoryOutputStorage implements OutputStorageInterface {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024;
+
+    private final int chunkSize;
+
+    private final Map<String, Stream> streams = new LinkedHashMap<>();
+
+    private final Deque<byte[]> pool = new ArrayDeque<>();
+
+    private static class Stream {
+
+        private final List<byte[]> chunks = new ArrayList<>();
+        private long length = 0;
+    }
+
+    public MemoryOutputStorage() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public MemoryOutputStorage(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    private synchronized byte[] acquireChunk() {
+        byte[] chunk = pool.poll();
+        if (chunk == null) {
+            chunk = new byte[chunkSize];
+        }
+        return chunk;
+    }
+
+    /**
+     * Gets number of chunks in the pool.
+     *
+     * @return Number of chunks
+     */
+    synchronized int getPooledChunkCount() {
+        return pool.size();
+    }
+
+    private synchronized void recycle(Stream stream) {
+        if (stream == null) {
+            return;
+        }
+        pool.addAll(stream.chunks);
+        stream.chunks.clear();
+    }
+
+    private synchronized void publish(String fileName, Stream stream) {
+        recycle(streams.put(fileName, stream));
+    }
+
+    private void append(Stream stream, int b) {
+        int pos = (int) (stream.length % chunkSize);
+        if (pos == 0) {
+            stream.chunks.add(acquireChunk());
+        }
+        stream.chunks.get(stream.chunks.size() - 1)[pos] = (byte) b;
+        stream.length++;
+    }
+
+    private void append(Stream stream, byte[] b, int off, int len) {
+        while (len > 0) {
+            int pos = (int) (stream.length % chunkSize);
+            if (pos == 0) {
+                stream.chunks.add(acquireChunk());
+            }
+            byte[] chunk = stream.chunks.get(stream.chunks.size() - 1);
+            int cnt = Math.min(len, chunkSize - pos);
+            System.arraycopy(b, off, chunk, pos, cnt);
+            stream.length += cnt;
+            off += cnt;
+            len -= cnt;
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream(final String fileName) throws IOException {
+        final Stream stream = new Stream();
+        return new OutputStream() {
+            private boolean closed = false;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                append(stream, b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                append(stream, b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                publish(fileName, stream);
+            }
+        };
+    }
+
+    @Override
+    public void storeData(String fileName, byte[] data) throws IOException {
+        Stream stream = new Stream();
+        append(stream, data, 0, data.length);
+        publish(fileName, stream);
+    }
+
+    @Override
+    public void storeFile(String fileName, File file) throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            storeStream(fileName, is, file.length());
+        }
+    }
+
+    public synchronized boolean fileExists(String fileName) {
+        return streams.containsKey(fileName);
+    }
+
+    /**
+     * Gets names of stored streams.
+     *
+     * @return Names in the order they were stored
+     */
+    public synchronized List<String> getFileNames() {
+        return new ArrayList<>(streams.keySet());
+    }
+
+    /**
+     * Gets length of stored stream.
+     *
+     * @param fileName File name
+     * @return Length or -1 when there is no such stream
+     */
+    public synchronized long getFileSize(String fileName) {
+        Stream stream = streams.get(fileName);
+        if (stream == null) {
+            return -1;
+        }
+        return stream.length;
+    }
+
+    /**
+     * Gets copy of stored stream.
+     *
+     * @param fileName File name
+     * @return Data or null when there is no such stream
+     */
+    public synchronized byte[] getData(String fileName) {
+        Stream stream = streams.get(fileName);
+        if (stream == null) {
+            return null;
+        }
+        byte[] data = new byte[(int) stream.length];
+        int pos = 0;
+        for (byte[] chunk : stream.chunks) {
+            int cnt = Math.min(chunkSize, data.length - pos);
+            System.arraycopy(chunk, 0, data, pos, cnt);
+            pos += cnt;
+        }
+        return data;
+    }
+
+    /**
+     * Writes stored stream to output stream.
+     *
+     * @param fileName File name
+     * @param os Output stream
+     * @throws IOException On I/O error or when there is no such stream
+     */
+    public synchronized void writeTo(String fileName, OutputStream os) throws IOException {
+        Stream stream = streams.get(fileName);
+        if (stream == null) {
+            throw new IOException("No such stream: " + fileName);
+        }
+        long remaining = stream.length;
+        for (byte[] chunk : stream.chunks) {
+            int cnt = (int) Math.min(chunkSize, remaining);
+            os.write(chunk, 0, cnt);
+            remaining -= cnt;
+        }
+    }
+
+    /**
+     * Creates input storage with the stored streams.
+     *
+     * @return Input storage
+     */
+    public synchronized MemoryInputStorage toInputStorage() {
+        MemoryInputStorage ret = new MemoryInputStorage();
+        for (String fileName : streams.keySet()) {
+            ret.putFile(fileName, getData(fileName));
+        }
+        return ret;
+    }
+
+    /**
+     * Removes stored stream and returns its chunks to the pool.
+     *
+     * @param fileName File name
+     */
+    public synchronized void removeFile(String fileName) {
+        recycle(streams.remove(fileName));
+    }
+
+    /**
+     * Removes all stored streams and returns their chunks to the pool.
+     */
+    public synchronized void clear() {
+        for (Stream stream : streams.values()) {
+            recycle(stream);
+        }
+        streams.clear();
+    }
+
+    /**
+     * Does nothing, stored streams stay available.
+     *
+     * @throws Exception Never
+     */
+    @Override
+    public void close() throws Exception {
+
+    }
+}
@@ -19,7 +19,9 @@
 package com.jpexs.flash.fla.converter.streams;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 /**
@@ -33,4 +35,56 @@ public interface OutputStorageInterface extends AutoCloseable {
     public void storeData(String fileName, byte[] data) throws IOException;
 
     public void storeFile(String fileName, File file) throws IOException;
+
+    /**
+     * Stores data of known length.
+     *
+     * @param fileName File name
+     * @param is Input stream, exactly length bytes is read from it
+     * @param length Length of the data
+     * @throws IOException On I/O error
+     */
+    public default void storeStream(String fileName, InputStream is, long length) throws IOException {
+        try (OutputStream os = getOutputStream(fileName)) {
+            byte[] buf = new byte[4096];
+            long remaining = length;
+            while (remaining > 0) {
+                int cnt = is.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (cnt < 0) {
+                    throw new IOException("Premature end of the stream reached");
+                }
+                os.write(buf, 0, cnt);
+                remaining -= cnt;
+            }
+        }
+    }
+
+    /**
+     * Copies file from input storage. Implementations pick the cheapest way
+     * available for given input storage.
+     *
+     * @param srcPath Source file name
+     * @param src Source storage
+     * @param dstName Target file name
+     * @throws IOException On I/O error
+     */
+    public default void transfer(String srcPath, InputStorageInterface src, String dstName) throws IOException {
+        long size = src.getFileSize(srcPath);
+        try (InputStream is = src.readFile(srcPath)) {
+            if (is == null) {
+                throw new FileNotFoundException(srcPath);
+            }
+            if (size >= 0) {
+                storeStream(dstName, is, size);
+                return;
+            }
+            try (OutputStream os = getOutputStream(dstName)) {
+                byte[] buf = new byte[4096];
+                int cnt;
+                while ((cnt = is.read(buf)) > 0) {
+                    os.write(buf, 0, cnt);
+                }
+            }
+        }
+    }
 }
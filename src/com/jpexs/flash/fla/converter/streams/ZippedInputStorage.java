@@ -18,26 +18,317 @@
  */
 package com.jpexs.flash.fla.converter.streams;
 
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 /**
+ * Reads zipped XFL file.
+ *
+ * Files passed to prefetch are inflated ahead of time on a worker pool, each
+ * worker having its own ZipFile handle. Inflated data are held in memory up
+ * to the memory budget, workers wait until the converter takes the data.
+ * Files are expected to be read roughly in the prefetch order. Data of a file
+ * is released when the file is read, or when the reader got more than
+ * READ_AHEAD_WINDOW files past it without reading it.
  *
  * @author JPEXS
  */
 public class ZippedInputStorage implements InputStorageInterface {
 
+    public static final long DEFAULT_MEMORY_BUDGET = 64 * 1024 * 1024;
+
+    /**
+     * Number of files before the furthest read file which are kept, so files
+     * read out of order by parallel converters do not lose their data.
+     */
+    public static final int READ_AHEAD_WINDOW = 64;
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_LOADING = 1;
+    private static final int STATE_READY = 2;
+    private static final int STATE_FAILED = 3;
+    private static final int STATE_DONE = 4;
+
+    private final File flaFile;
+
     private final ZipFile zipFile;
 
+    private final int threadCount;
+
+    private final long memoryBudget;
+
+    private final Object lock = new Object();
+
+    private final List<Prefetched> prefetchQueue = new ArrayList<>();
+
+    private final Map<String, Prefetched> prefetchedByName = new HashMap<>();
+
+    private final List<ZipFile> workerZipFiles = new ArrayList<>();
+
+    private ExecutorService executor = null;
+
+    private int nextIndex = 0;
+
+    private int readIndex = 0;
+
+    private int releasedIndex = 0;
+
+    private long usedMemory = 0;
+
+    private boolean closed = false;
+
+    private static class Prefetched {
+
+        private final String fileName;
+        private final int index;
+        private final int size;
+        private int state = STATE_PENDING;
+        private byte[] data;
+
+        public Prefetched(String fileName, int index, int size) {
+            this.fileName = fileName;
+            this.index = index;
+            this.size = size;
+        }
+    }
+
     public ZippedInputStorage(File flaFile) throws IOException {
+        this(flaFile, Runtime.getRuntime().availableProcessors(), DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Constructs storage.
+     *
+     * @param flaFile Zipped XFL file
+     * @param threadCount Number of prefetching threads, zero disables
+     * prefetching
+     * @param memoryBudget Maximum number of bytes of prefetched data held in
+     * memory
+     * @throws IOException On I/O error
+     */
+    public ZippedInputStorage(File flaFile, int threadCount, long memoryBudget) throws IOException {
+        if (threadCount < 0) {
+            throw new IllegalArgumentException("Thread count must not be negative");
+        }
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("Memory budget must not be negative");
+        }
+        this.flaFile = flaFile;
+        this.threadCount = threadCount;
+        this.memoryBudget = memoryBudget;
         zipFile = new ZipFile(flaFile);
     }
 
+    @Override
+    public void prefetch(List<String> fileNames) {
+        if (threadCount == 0) {
+            return;
+        }
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            for (String fileName : fileNames) {
+                if (prefetchedByName.containsKey(fileName)) {
+                    continue;
+                }
+                ZipEntry entry = zipFile.getEntry(fileName);
+                if (entry == null || entry.isDirectory()) {
+                    continue;
+                }
+                long size = entry.getSize();
+                if (size < 0 || size > memoryBudget || size > Integer.MAX_VALUE) {
+                    continue;
+                }
+                Prefetched p = new Prefetched(fileName, prefetchQueue.size(), (int) size);
+                prefetchQueue.add(p);
+                prefetchedByName.put(fileName, p);
+            }
+            if (executor == null && !prefetchQueue.isEmpty()) {
+                executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                    private int threadNum = 0;
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ZippedInputStorage prefetch " + (++threadNum));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+                for (int i = 0; i < threadCount; i++) {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            prefetchLoop();
+                        }
+                    });
+                }
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Takes next pending file which fits the memory budget, waits when there
+     * is none.
+     *
+     * @return File or null when the storage is closed
+     */
+    private Prefetched takeNext() throws InterruptedException {
+        synchronized (lock) {
+            while (!closed) {
+                if (nextIndex < releasedIndex) {
+                    nextIndex = releasedIndex;
+                }
+                if (nextIndex < prefetchQueue.size()) {
+                    Prefetched p = prefetchQueue.get(nextIndex);
+                    if (p.state != STATE_PENDING) {
+                        nextIndex++;
+                        continue;
+                    }
+                    if (usedMemory + p.size <= memoryBudget) {
+                        p.state = STATE_LOADING;
+                        usedMemory += p.size;
+                        nextIndex++;
+                        return p;
+                    }
+                }
+                lock.wait();
+            }
+            return null;
+        }
+    }
+
+    private void prefetchLoop() {
+        ZipFile workerZipFile = null;
+        try {
+            while (true) {
+                Prefetched p = takeNext();
+                if (p == null) {
+                    return;
+                }
+                byte[] data = null;
+                try {
+                    if (workerZipFile == null) {
+                        workerZipFile = new ZipFile(flaFile);
+                        synchronized (lock) {
+                            if (closed) {
+                                workerZipFile.close();
+                                return;
+                            }
+                            workerZipFiles.add(workerZipFile);
+                        }
+                    }
+                    data = new byte[p.size];
+                    try (InputStream is = workerZipFile.getInputStream(workerZipFile.getEntry(p.fileName))) {
+                        readFully(is, data);
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    Logger.getLogger(ZippedInputStorage.class.getName()).log(Level.FINE, "Prefetching " + p.fileName + " failed", ex);
+                    data = null;
+                }
+                synchronized (lock) {
+                    if (data == null) {
+                        p.state = STATE_FAILED;
+                        usedMemory -= p.size;
+                    } else if (p.index < releasedIndex) {
+                        p.state = STATE_DONE;
+                        usedMemory -= p.size;
+                    } else {
+                        p.state = STATE_READY;
+                        p.data = data;
+                    }
+                    lock.notifyAll();
+                }
+            }
+        } catch (InterruptedException ex) {
+            //closed
+        }
+    }
+
+    private static void readFully(InputStream is, byte[] data) throws IOException {
+        int pos = 0;
+        while (pos < data.length) {
+            int cnt = is.read(data, pos, data.length - pos);
+            if (cnt < 0) {
+                throw new EOFException();
+            }
+            pos += cnt;
+        }
+    }
+
+    /**
+     * Takes prefetched data of the file and releases data of files which are
+     * more than READ_AHEAD_WINDOW files behind the furthest read file.
+     *
+     * @param fileName File name
+     * @return Data or null when the file was not prefetched
+     */
+    private byte[] takePrefetched(String fileName) throws IOException {
+        synchronized (lock) {
+            Prefetched p = prefetchedByName.remove(fileName);
+            if (p == null) {
+                return null;
+            }
+            if (p.index + 1 > readIndex) {
+                readIndex = p.index + 1;
+            }
+            for (; releasedIndex < readIndex - READ_AHEAD_WINDOW; releasedIndex++) {
+                Prefetched skipped = prefetchQueue.get(releasedIndex);
+                if (skipped == p) {
+                    continue;
+                }
+                prefetchedByName.remove(skipped.fileName);
+                if (skipped.state == STATE_READY) {
+                    skipped.data = null;
+                    usedMemory -= skipped.size;
+                }
+                if (skipped.state != STATE_LOADING) {
+                    skipped.state = STATE_DONE;
+                }
+            }
+            try {
+                while (p.state == STATE_LOADING) {
+                    lock.wait();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + fileName);
+            }
+            byte[] data = null;
+            if (p.state == STATE_READY) {
+                data = p.data;
+                p.data = null;
+                usedMemory -= p.size;
+            }
+            p.state = STATE_DONE;
+            lock.notifyAll();
+            return data;
+        }
+    }
+
     @Override
     public InputStream readFile(String fileName) throws IOException {
+        byte[] data = takePrefetched(fileName);
+        if (data != null) {
+            return new ByteArrayInputStream(data);
+        }
         ZipEntry entry = zipFile.getEntry(fileName);
         if (entry == null) {
             return null;
@@ -49,6 +340,15 @@ public class ZippedInputStorage implements InputStorageInterface {
         return zipFile.getInputStream(entry);
     }
 
+    @Override
+    public long getFileSize(String fileName) throws IOException {
+        ZipEntry entry = zipFile.getEntry(fileName);
+        if (entry == null || entry.isDirectory()) {
+            return -1;
+        }
+        return entry.getSize();
+    }
+
     @Override
     public boolean fileExists(String fileName) {
         ZipEntry entry = zipFile.getEntry(fileName);
@@ -63,6 +363,25 @@ public class ZippedInputStorage implements InputStorageInterface {
 
     @Override
     public void close() throws Exception {
+        ExecutorService executorToStop;
+        synchronized (lock) {
+            closed = true;
+            executorToStop = executor;
+            lock.notifyAll();
+        }
+        if (executorToStop != null) {
+            executorToStop.shutdownNow();
+            executorToStop.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        synchronized (lock) {
+            for (ZipFile workerZipFile : workerZipFiles) {
+                workerZipFile.close();
+            }
+            workerZipFiles.clear();
+            for (Prefetched p : prefetchQueue) {
+                p.data = null;
+            }
+        }
         zipFile.close();
     }
 }
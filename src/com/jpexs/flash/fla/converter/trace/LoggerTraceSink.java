@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter.trace;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Trace sink which formats records to a logger.
+ *
+ * @author JPEXS
+ */
+public class LoggerTraceSink implements TraceSinkInterface {
+
+    private final Logger logger;
+
+    private final Level level;
+
+    public LoggerTraceSink(Logger logger) {
+        this(logger, Level.FINE);
+    }
+
+    public LoggerTraceSink(Logger logger, Level level) {
+        this.logger = logger;
+        this.level = level;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return logger.isLoggable(level);
+    }
+
+    @Override
+    public void trace(String stream, long offset, int type, long value1, long value2, long value3) {
+        if (!logger.isLoggable(level)) {
+            return;
+        }
+        logger.log(level, "{0} @{1}: {2}", new Object[]{stream, Long.toString(offset), format(type, value1, value2, value3)});
+    }
+
+    /**
+     * Formats record to human readable form.
+     *
+     * @param type Record type
+     * @param value1 Value 1
+     * @param value2 Value 2
+     * @param value3 Value 3
+     * @return Formatted record
+     */
+    public static String format(int type, long value1, long value2, long value3) {
+        switch (type) {
+            case RECORD_EDGE_TYPE:
+                return String.format("edge type 0x%02X", value1);
+            case RECORD_EDGE_STYLES:
+                return String.format("styles 0x%02X 0x%02X 0x%02X", value1, value2, value3);
+            case RECORD_GENERAL_LINE_FLAG:
+                return "generalLineFlag " + value1;
+            case RECORD_XY_BYTE:
+                return "xy as byte " + formatFixed(value1) + ", " + formatFixed(value2);
+            case RECORD_XY_SHORT:
+                return "xy as short " + formatFixed(value1) + ", " + formatFixed(value2);
+            case RECORD_XY_FRACT:
+                return "xy as fract " + formatFixed(value1) + ", " + formatFixed(value2);
+            default:
+                return "record " + type + " " + value1 + " " + value2 + " " + value3;
+        }
+    }
+
+    private static String formatFixed(long value) {
+        if ((value & 0xFF) == 0) {
+            return Long.toString(value >> 8);
+        }
+        return (value >> 8) + "." + (value & 0xFF) + "/256";
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter.trace;
+
+import java.io.IOException;
+
+/**
+ * Trace sink which keeps last records in a fixed size ring buffer. Records
+ * are stored in preallocated arrays, recording does not allocate.
+ *
+ * @author JPEXS
+ */
+public class RingBufferTraceSink implements TraceSinkInterface {
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final String[] streams;
+    private final long[] offsets;
+    private final int[] types;
+    private final long[] values;
+
+    private long totalCount = 0;
+
+    public RingBufferTraceSink() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RingBufferTraceSink(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        streams = new String[capacity];
+        offsets = new long[capacity];
+        types = new int[capacity];
+        values = new long[capacity * 3];
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public synchronized void trace(String stream, long offset, int type, long value1, long value2, long value3) {
+        int index = (int) (totalCount % streams.length);
+        streams[index] = stream;
+        offsets[index] = offset;
+        types[index] = type;
+        values[index * 3] = value1;
+        values[index * 3 + 1] = value2;
+        values[index * 3 + 2] = value3;
+        totalCount++;
+    }
+
+    /**
+     * Gets number of records recorded so far, including overwritten ones.
+     *
+     * @return Count
+     */
+    public synchronized long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Gets number of records held in the buffer.
+     *
+     * @return Count
+     */
+    public synchronized int getRecordCount() {
+        return (int) Math.min(totalCount, streams.length);
+    }
+
+    private int toIndex(int record) {
+        if (record < 0 || record >= getRecordCount()) {
+            throw new IndexOutOfBoundsException("Record " + record + " is not in the buffer");
+        }
+        return (int) ((totalCount - getRecordCount() + record) % streams.length);
+    }
+
+    /**
+     * Gets stream of the record.
+     *
+     * @param record Record index, 0 is the oldest record held
+     * @return Stream name
+     */
+    public synchronized String getStream(int record) {
+        return streams[toIndex(record)];
+    }
+
+    public synchronized long getOffset(int record) {
+        return offsets[toIndex(record)];
+    }
+
+    public synchronized int getType(int record) {
+        return types[toIndex(record)];
+    }
+
+    /**
+     * Gets value of the record.
+     *
+     * @param record Record index, 0 is the oldest record held
+     * @param valueIndex Value index 0 to 2
+     * @return Value
+     */
+    public synchronized long getValue(int record, int valueIndex) {
+        if (valueIndex < 0 || valueIndex > 2) {
+            throw new IndexOutOfBoundsException("Value index must be 0 to 2");
+        }
+        return values[toIndex(record) * 3 + valueIndex];
+    }
+
+    public synchronized void clear() {
+        totalCount = 0;
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = null;
+        }
+    }
+
+    /**
+     * Writes records held in the buffer in human readable form, one per line.
+     *
+     * @param out Output
+     * @throws IOException On I/O error
+     */
+    public synchronized void dump(Appendable out) throws IOException {
+        int count = getRecordCount();
+        for (int i = 0; i < count; i++) {
+            int index = toIndex(i);
+            out.append(streams[index]).append(" @").append(Long.toString(offsets[index])).append(": ");
+            out.append(LoggerTraceSink.format(types[index], values[index * 3], values[index * 3 + 1], values[index * 3 + 2]));
+            out.append(System.lineSeparator());
+        }
+    }
+}
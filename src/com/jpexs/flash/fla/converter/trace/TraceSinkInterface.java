@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter.trace;
+
+/**
+ * Receives records about data written by FlaWriter, for debugging.
+ *
+ * Writers ask isEnabled once and skip the calls entirely when it returns
+ * false. Values are passed as primitives, so a sink can record them without
+ * allocation.
+ *
+ * @author JPEXS
+ */
+public interface TraceSinkInterface {
+
+    /**
+     * Edge record type byte. Value 1: type.
+     */
+    public static final int RECORD_EDGE_TYPE = 1;
+
+    /**
+     * Edge styles. Values: stroke style, fill style 0, fill style 1.
+     */
+    public static final int RECORD_EDGE_STYLES = 2;
+
+    /**
+     * General line flag. Value 1: flag.
+     */
+    public static final int RECORD_GENERAL_LINE_FLAG = 3;
+
+    /**
+     * XY pair stored as bytes. Values: x, y in 1/256 twips.
+     */
+    public static final int RECORD_XY_BYTE = 4;
+
+    /**
+     * XY pair stored as shorts. Values: x, y in 1/256 twips.
+     */
+    public static final int RECORD_XY_SHORT = 5;
+
+    /**
+     * XY pair stored with fraction. Values: x, y in 1/256 twips.
+     */
+    public static final int RECORD_XY_FRACT = 6;
+
+    public boolean isEnabled();
+
+    /**
+     * Records written data.
+     *
+     * @param stream Stream name
+     * @param offset Offset in the stream where the data start
+     * @param type Record type - one of RECORD_* constants
+     * @param value1 Value 1
+     * @param value2 Value 2
+     * @param value3 Value 3
+     */
+    public void trace(String stream, long offset, int type, long value1, long value2, long value3);
+}
@@ -187,7 +187,7 @@ public class MainMenuFrame extends JFrame {
         try {
             InputStorageInterface inputStorage;
             if (inputFile.getAbsolutePath().toLowerCase().endsWith(".xfl")) {
-                inputStorage = new DirectoryInputStorage(inputFile.getParentFile());
+                inputStorage = new DirectoryInputStorage(inputFile.getParentFile(), true);
             } else {
                 inputStorage = new ZippedInputStorage(inputFile);
             }
@@ -196,6 +196,7 @@ public class MainMenuFrame extends JFrame {
             FlaConverter contentsGenerator = new FlaConverter(flaFormatVersion, 
                     "WINDOWS-1250" //TODO: Create some GUI to select charset
             );
+            contentsGenerator.setThreadCount(Runtime.getRuntime().availableProcessors());
             contentsGenerator.convert(inputStorage, outputStorage);
 
             inputStorage.close();
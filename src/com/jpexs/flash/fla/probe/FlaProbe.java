@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.probe;
+
+import com.jpexs.cfb.CompoundFileBinary;
+import com.jpexs.flash.fla.converter.FlaFormatVersion;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Quick FLA summary. Unlike CompoundFileBinary, it does not load whole FAT
+ * and MiniFAT. It reads the header, directory sectors and first bytes of
+ * Contents stream only, FAT entries are looked up one by one when following
+ * the chains. File shorter than its FAT, directory and streams need is
+ * reported as truncated.
+ *
+ * @author JPEXS
+ */
+public class FlaProbe {
+
+    private static final byte SIGNATURE[] = new byte[]{(byte) 0xD0, (byte) 0xCF, (byte) 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, (byte) 0x1A, (byte) 0xE1};
+
+    private static final long MAXREGSECT = 0xFFFFFFFAl;
+    private static final long ENDOFCHAIN = 0xFFFFFFFEl;
+
+    private static final int HEADER_LENGTH = 512;
+    private static final int NUM_HEADER_DIFAT = 109;
+    private static final int MINI_SECTOR_LENGTH = 64;
+    private static final int DIRECTORY_ENTRY_LENGTH = 128;
+
+    private final RandomAccessFile raf;
+    private final ByteBuffer header;
+    private final int sectorLength;
+    private final long maxChainLength;
+
+    /**
+     * Cached DIFAT sector (DIFAT entries above 109), for long files.
+     */
+    private long cachedDifatIndex = -1;
+    private ByteBuffer cachedDifatSector;
+
+    private FlaProbe(RandomAccessFile raf) throws IOException {
+        this.raf = raf;
+        byte[] headerBytes = new byte[HEADER_LENGTH];
+        raf.seek(0);
+        raf.readFully(headerBytes);
+        if (!Arrays.equals(Arrays.copyOf(headerBytes, SIGNATURE.length), SIGNATURE)) {
+            throw new IOException("Not a CFB file");
+        }
+        header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+        int majorVersion = header.getShort(0x1A) & 0xFFFF;
+        if (majorVersion == 3) {
+            sectorLength = 512;
+        } else if (majorVersion == 4) {
+            sectorLength = 4096;
+        } else {
+            throw new IOException("Unknown version of the file " + majorVersion);
+        }
+        maxChainLength = raf.length() / sectorLength;
+    }
+
+    /**
+     * Probes single FLA file.
+     *
+     * @param file FLA file
+     * @return Summary
+     * @throws IOException On I/O error or when file is not a CFB file
+     */
+    public static FlaProbeResult probe(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return new FlaProbe(raf).run(file);
+        }
+    }
+
+    /**
+     * Probes all *.fla files in a directory tree in parallel. Files which
+     * cannot be probed have result with error set.
+     *
+     * @param dir Directory
+     * @param threadCount Number of threads
+     * @return Results sorted by file path
+     * @throws IOException On I/O error while walking the tree
+     */
+    public static List<FlaProbeResult> probeTree(File dir, int threadCount) throws IOException {
+        final List<File> files = new ArrayList<>();
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.isRegularFile() && file.getFileName().toString().toLowerCase().endsWith(".fla")) {
+                    files.add(file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(files);
+        return probeAll(files, threadCount);
+    }
+
+    /**
+     * Probes files in parallel. Files which cannot be probed have result with
+     * error set.
+     *
+     * @param files Files
+     * @param threadCount Number of threads
+     * @return Results in the same order as files
+     * @throws IOException When probing was interrupted
+     */
+    public static List<FlaProbeResult> probeAll(List<File> files, int threadCount) throws IOException {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        List<Callable<FlaProbeResult>> tasks = new ArrayList<>();
+        for (final File file : files) {
+            tasks.add(new Callable<FlaProbeResult>() {
+                @Override
+                public FlaProbeResult call() {
+                    try {
+                        return probe(file);
+                    } catch (IOException | RuntimeException ex) {
+                        return new FlaProbeResult(file, ex.getMessage() == null ? ex.toString() : ex.getMessage());
+                    }
+                }
+            });
+        }
+        List<FlaProbeResult> ret = new ArrayList<>();
+        if (tasks.isEmpty()) {
+            return ret;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, tasks.size()));
+        try {
+            for (Future<FlaProbeResult> future : executor.invokeAll(tasks)) {
+                ret.add(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Probing interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return ret;
+    }
+
+    private static long ui32(ByteBuffer buffer, int pos) {
+        return buffer.getInt(pos) & 0xFFFFFFFFL;
+    }
+
+    private long readUI32(long offset) throws IOException {
+        byte[] data = new byte[4];
+        raf.seek(offset);
+        raf.readFully(data);
+        return ui32(ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN), 0);
+    }
+
+    private long getFatSector(long fatIndex) throws IOException {
+        if (fatIndex < NUM_HEADER_DIFAT) {
+            return ui32(header, 0x4C + (int) fatIndex * 4);
+        }
+        int entriesPerDifatSector = sectorLength / 4 - 1;
+        long difatIndex = (fatIndex - NUM_HEADER_DIFAT) / entriesPerDifatSector;
+        if (difatIndex != cachedDifatIndex) {
+            long difatSector = ui32(header, 0x44);
+            for (long i = 0; i < difatIndex; i++) {
+                if (difatSector > MAXREGSECT || i >= maxChainLength) {
+                    throw new IOException("Invalid DIFAT chain");
+                }
+                difatSector = readUI32((1 + difatSector) * sectorLength + sectorLength - 4);
+            }
+            if (difatSector > MAXREGSECT) {
+                throw new IOException("Invalid DIFAT chain");
+            }
+            byte[] data = new byte[sectorLength];
+            raf.seek((1 + difatSector) * sectorLength);
+            raf.readFully(data);
+            cachedDifatSector = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            cachedDifatIndex = difatIndex;
+        }
+        return ui32(cachedDifatSector, (int) ((fatIndex - NUM_HEADER_DIFAT) % entriesPerDifatSector) * 4);
+    }
+
+    private long nextSector(long sector) throws IOException {
+        int entriesPerFatSector = sectorLength / 4;
+        long fatSector = getFatSector(sector / entriesPerFatSector);
+        if (fatSector > MAXREGSECT) {
+            throw new IOException("Sector " + sector + " is not covered by FAT");
+        }
+        return readUI32((1 + fatSector) * sectorLength + (sector % entriesPerFatSector) * 4);
+    }
+
+    private long getSectorCount(long streamSize) {
+        if (sectorLength == 512) {
+            streamSize = streamSize & 0xFFFFFFFFl;
+        }
+        return (streamSize + sectorLength - 1) / sectorLength;
+    }
+
+    private FlaProbeResult run(File file) throws IOException {
+        long miniStreamCutoffSize = ui32(header, 0x38);
+        long directorySector = ui32(header, 0x30);
+
+        Map<String, Long> streamSizes = new LinkedHashMap<>();
+        int pageCount = 0;
+        int symbolCount = 0;
+        int mediaCount = 0;
+        long miniStreamStartingSector = ENDOFCHAIN;
+        long contentsStartingSector = -1;
+        long contentsSize = 0;
+        //lower bound of sectors the file must have
+        long neededSectors = ui32(header, 0x2C) + ui32(header, 0x40) + ui32(header, 0x48);
+
+        byte[] sectorData = new byte[sectorLength];
+        ByteBuffer sect = ByteBuffer.wrap(sectorData).order(ByteOrder.LITTLE_ENDIAN);
+        long chainLength = 0;
+        while (directorySector != ENDOFCHAIN) {
+            if (directorySector > MAXREGSECT || ++chainLength > maxChainLength) {
+                throw new IOException("Invalid directory chain");
+            }
+            neededSectors++;
+            raf.seek((1 + directorySector) * sectorLength);
+            raf.readFully(sectorData);
+            for (int i = 0; i < sectorLength; i += DIRECTORY_ENTRY_LENGTH) {
+                int objectType = sectorData[i + 0x42];
+                if (objectType == CompoundFileBinary.TYPE_ROOT_STORAGE_OBJECT) {
+                    miniStreamStartingSector = ui32(sect, i + 0x74);
+                    neededSectors += getSectorCount(sect.getLong(i + 0x78));
+                }
+                if (objectType != CompoundFileBinary.TYPE_STREAM_OBJECT) {
+                    continue;
+                }
+                int nameLen = sect.getShort(i + 0x40) & 0xFFFF;
+                if (nameLen < 2 || nameLen > 64) {
+                    continue;
+                }
+                String name = new String(sectorData, i, nameLen - 2, "UTF-16LE");
+                long streamSize = sect.getLong(i + 0x78);
+                if (sectorLength == 512) {
+                    streamSize = streamSize & 0xFFFFFFFFl;
+                }
+                streamSizes.put(name, streamSize);
+                if (streamSize >= miniStreamCutoffSize) {
+                    neededSectors += getSectorCount(streamSize);
+                }
+                if (name.equals("Contents")) {
+                    contentsStartingSector = ui32(sect, i + 0x74);
+                    contentsSize = streamSize;
+                } else if (name.startsWith("P ") || name.startsWith("Page ")) {
+                    pageCount++;
+                } else if (name.startsWith("S ") || name.startsWith("Symbol ")) {
+                    symbolCount++;
+                } else if (name.startsWith("M ") || name.startsWith("Media ")) {
+                    mediaCount++;
+                }
+            }
+            directorySector = nextSector(directorySector);
+        }
+
+        if (neededSectors > (raf.length() - 1) / sectorLength) {
+            throw new IOException("File is truncated");
+        }
+
+        int contentsVersion = -1;
+        if (contentsStartingSector != -1 && contentsSize > 0) {
+            long offset;
+            if (contentsSize >= miniStreamCutoffSize) {
+                offset = (1 + contentsStartingSector) * sectorLength;
+            } else {
+                long miniOffset = contentsStartingSector * MINI_SECTOR_LENGTH;
+                long miniStreamSector = miniStreamStartingSector;
+                for (long i = 0; i < miniOffset / sectorLength; i++) {
+                    if (miniStreamSector > MAXREGSECT || i >= maxChainLength) {
+                        throw new IOException("Invalid mini stream chain");
+                    }
+                    miniStreamSector = nextSector(miniStreamSector);
+                }
+                if (miniStreamSector > MAXREGSECT) {
+                    throw new IOException("Invalid mini stream chain");
+                }
+                offset = (1 + miniStreamSector) * sectorLength + miniOffset % sectorLength;
+            }
+            raf.seek(offset);
+            contentsVersion = raf.read();
+        }
+
+        FlaFormatVersion version = null;
+        for (FlaFormatVersion v : FlaFormatVersion.values()) {
+            if (v.getContentsVersion() == contentsVersion) {
+                version = v;
+                break;
+            }
+        }
+        return new FlaProbeResult(file, version, contentsVersion, pageCount, symbolCount, mediaCount, streamSizes);
+    }
+}
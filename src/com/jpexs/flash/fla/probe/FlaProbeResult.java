@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.probe;
+
+import com.jpexs.flash.fla.converter.FlaFormatVersion;
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Summary of FLA file obtained by FlaProbe.
+ *
+ * @author JPEXS
+ */
+public class FlaProbeResult {
+
+    private final File file;
+    private final FlaFormatVersion version;
+    private final int contentsVersion;
+    private final int pageCount;
+    private final int symbolCount;
+    private final int mediaCount;
+    private final Map<String, Long> streamSizes;
+    private final String error;
+
+    public FlaProbeResult(File file, FlaFormatVersion version, int contentsVersion, int pageCount, int symbolCount, int mediaCount, Map<String, Long> streamSizes) {
+        this.file = file;
+        this.version = version;
+        this.contentsVersion = contentsVersion;
+        this.pageCount = pageCount;
+        this.symbolCount = symbolCount;
+        this.mediaCount = mediaCount;
+        this.streamSizes = Collections.unmodifiableMap(streamSizes);
+        this.error = null;
+    }
+
+    public FlaProbeResult(File file, String error) {
+        this.file = file;
+        this.version = null;
+        this.contentsVersion = -1;
+        this.pageCount = 0;
+        this.symbolCount = 0;
+        this.mediaCount = 0;
+        this.streamSizes = Collections.emptyMap();
+        this.error = error;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets format version.
+     *
+     * @return Version or null when Contents header does not match any known
+     * version
+     */
+    public FlaFormatVersion getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets first byte of Contents stream.
+     *
+     * @return Contents version or -1 when not available
+     */
+    public int getContentsVersion() {
+        return contentsVersion;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public int getSymbolCount() {
+        return symbolCount;
+    }
+
+    public int getMediaCount() {
+        return mediaCount;
+    }
+
+    /**
+     * Gets sizes of streams.
+     *
+     * @return Map of stream name to size in bytes, in directory order
+     */
+    public Map<String, Long> getStreamSizes() {
+        return streamSizes;
+    }
+
+    /**
+     * Gets error message.
+     *
+     * @return Error or null when probing succeeded
+     */
+    public String getError() {
+        return error;
+    }
+
+    public boolean isValid() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        if (error != null) {
+            return file + ": error " + error;
+        }
+        long totalSize = 0;
+        for (long size : streamSizes.values()) {
+            totalSize += size;
+        }
+        String versionStr;
+        if (version != null) {
+            versionStr = version.toString();
+        } else if (contentsVersion == -1) {
+            versionStr = "unknown(no Contents)";
+        } else {
+            versionStr = String.format("unknown(0x%02X)", contentsVersion);
+        }
+        return file + ": version " + versionStr
+                + ", pages " + pageCount
+                + ", symbols " + symbolCount
+                + ", media " + mediaCount
+                + ", streams " + streamSizes.size()
+                + ", total size " + totalSize;
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.helpers;
+
+/**
+ * Parsers of attribute values - colors, item IDs, CLSIDs, edge numbers, point
+ * pairs and number lists. They work on the characters directly, without
+ * regular expressions and substrings, and accept exactly the same inputs as
+ * the regular expressions they replace. Invalid input throws
+ * NumberFormatException.
+ *
+ * @author JPEXS
+ */
+public final class ValueParser {
+
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        double p = 1;
+        for (int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = p;
+            p *= 10;
+        }
+    }
+
+    private ValueParser() {
+    }
+
+    private static NumberFormatException invalid(CharSequence s, int start, int end) {
+        return new NumberFormatException("For input string: \"" + s.subSequence(start, end) + "\"");
+    }
+
+    /**
+     * Gets value of hex digit.
+     *
+     * @param c Character
+     * @return Value or -1 when not a hex digit
+     */
+    public static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    /**
+     * Parses unsigned hex number of 1 to 16 digits.
+     *
+     * @param s String
+     * @param start Start index
+     * @param end End index (exclusive)
+     * @param lowerCaseOnly Reject upper case digits
+     * @return Value
+     * @throws NumberFormatException On invalid number
+     */
+    public static long parseHex(CharSequence s, int start, int end, boolean lowerCaseOnly) {
+        if (start >= end || end - start > 16) {
+            throw invalid(s, start, end);
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            int d = hexDigit(c);
+            if (d == -1 || (lowerCaseOnly && c >= 'A' && c <= 'F')) {
+                throw invalid(s, start, end);
+            }
+            value = (value << 4) | d;
+        }
+        return value;
+    }
+
+    /**
+     * Parses decimal number. Simple forms like "-12.5" are parsed directly,
+     * others are passed to Double.parseDouble, the result is always the same
+     * as of Double.parseDouble.
+     *
+     * @param s String
+     * @param start Start index
+     * @param end End index (exclusive)
+     * @return Value
+     * @throws NumberFormatException On invalid number
+     */
+    public static double parseDouble(CharSequence s, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if (fractionDigits != -1) {
+                    fractionDigits++;
+                }
+                if (digits > 15) {
+                    break;
+                }
+            } else if (c == '.' && fractionDigits == -1 && digits > 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+        if (i == end && digits > 0 && fractionDigits != 0) {
+            //mantissa and power of ten are exact, so the division is correctly rounded
+            double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : (double) mantissa;
+            return negative ? -value : value;
+        }
+        return Double.parseDouble(s.subSequence(start, end).toString());
+    }
+
+    /**
+     * Parses edge number - either decimal number or "#" followed by hex
+     * integer part (24 bit signed) and optionally "." and one or two hex
+     * digits of fraction.
+     *
+     * @param s String
+     * @param start Start index
+     * @param end End index (exclusive)
+     * @return Value
+     * @throws NumberFormatException On invalid number
+     */
+    public static double parseEdgeNumber(CharSequence s, int start, int end) {
+        if (start < end && s.charAt(start) == '#') {
+            int i = start + 1;
+            long before = 0;
+            int beforeDigits = 0;
+            int d;
+            while (i < end && (d = hexDigit(s.charAt(i))) != -1) {
+                before = (before << 4) | d;
+                if (before > Integer.MAX_VALUE) {
+                    throw invalid(s, start, end);
+                }
+                beforeDigits++;
+                i++;
+            }
+            int after = 0;
+            boolean valid = beforeDigits > 0;
+            if (valid && i < end) {
+                valid = false;
+                if (s.charAt(i) == '.' && (end - i == 2 || end - i == 3)) {
+                    int d1 = hexDigit(s.charAt(i + 1));
+                    int d2 = end - i == 3 ? hexDigit(s.charAt(i + 2)) : 0;
+                    if (d1 != -1 && d2 != -1) {
+                        after = (d1 << 4) | d2;
+                        valid = true;
+                    }
+                }
+            }
+            if (!valid) {
+                throw invalid(s, start, end);
+            }
+            int beforeInt = ((int) before << 8) >> 8; //sign extend
+            return beforeInt + after / 256.0;
+        }
+        return parseDouble(s, start, end);
+    }
+
+    public static double parseEdgeNumber(String s) {
+        return parseEdgeNumber(s, 0, s.length());
+    }
+
+    /**
+     * Parses color in "#RRGGBB" format.
+     *
+     * @param value Value
+     * @return RGB
+     * @throws NumberFormatException On invalid color
+     */
+    public static int parseColor(String value) {
+        if (value.length() != 7 || value.charAt(0) != '#') {
+            throw invalid(value, 0, value.length());
+        }
+        return (int) parseHex(value, 1, 7, false);
+    }
+
+    /**
+     * Parses item ID in "xxxxxxxx-xxxxxxxx" format, lower case hex digits.
+     *
+     * @param value Value
+     * @return High part in upper 32 bits, low part in lower 32 bits
+     * @throws NumberFormatException On invalid item ID
+     */
+    public static long parseItemId(String value) {
+        if (value.length() != 17 || value.charAt(8) != '-') {
+            throw invalid(value, 0, value.length());
+        }
+        return (parseHex(value, 0, 8, true) << 32) | parseHex(value, 9, 17, true);
+    }
+
+    /**
+     * Parses CLSID in "xxxxxxxx-xxxx-xxxx-xxxx-xxxxxxxxxxxx" format to its
+     * binary form - first three parts little endian, the rest as written.
+     *
+     * @param value Value
+     * @return 16 bytes
+     * @throws NumberFormatException On invalid CLSID
+     */
+    public static byte[] parseClsid(String value) {
+        if (value.length() != 36
+                || value.charAt(8) != '-'
+                || value.charAt(13) != '-'
+                || value.charAt(18) != '-'
+                || value.charAt(23) != '-') {
+            throw invalid(value, 0, value.length());
+        }
+        byte[] ret = new byte[16];
+        long part1 = parseHex(value, 0, 8, false);
+        long part2 = parseHex(value, 9, 13, false);
+        long part3 = parseHex(value, 14, 18, false);
+        for (int i = 0; i < 4; i++) {
+            ret[i] = (byte) (part1 >> (8 * i));
+        }
+        ret[4] = (byte) part2;
+        ret[5] = (byte) (part2 >> 8);
+        ret[6] = (byte) part3;
+        ret[7] = (byte) (part3 >> 8);
+        int pos = 8;
+        for (int i = 19; i < 36; i += 2) {
+            if (i == 23) {
+                i++;
+            }
+            ret[pos++] = (byte) parseHex(value, i, i + 2, false);
+        }
+        return ret;
+    }
+
+    private static int trimStart(CharSequence s, int start, int end) {
+        while (start < end && s.charAt(start) <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(CharSequence s, int start, int end) {
+        while (end > start && s.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Parses point in "x, y" format, coordinates are edge numbers. Empty
+     * string is point 0, 0.
+     *
+     * @param value Value
+     * @param result Array of two to store x and y to
+     * @return False when the value does not have two parts
+     * @throws NumberFormatException On invalid number
+     */
+    public static boolean parsePoint(String value, double[] result) {
+        if (value.isEmpty()) {
+            result[0] = 0;
+            result[1] = 0;
+            return true;
+        }
+        int comma = value.indexOf(',');
+        if (comma == -1 || value.indexOf(',', comma + 1) != -1) {
+            return false;
+        }
+        int len = value.length();
+        result[0] = parseEdgeNumber(value, trimStart(value, 0, comma), trimEnd(value, 0, comma));
+        result[1] = parseEdgeNumber(value, trimStart(value, comma + 1, len), trimEnd(value, comma + 1, len));
+        return true;
+    }
+
+    /**
+     * Parses list of floats. The value is trimmed and split by the separator.
+     * Values are parsed only when the number of parts equals to result
+     * length.
+     *
+     * @param value Value
+     * @param separator Separator
+     * @param result Array to store values to
+     * @return Number of parts
+     * @throws NumberFormatException On invalid number
+     */
+    public static int parseFloatList(String value, char separator, float[] result) {
+        int start = trimStart(value, 0, value.length());
+        int end = trimEnd(value, start, value.length());
+        int count = 1;
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i) == separator) {
+                count++;
+            }
+        }
+        if (count != result.length) {
+            return count;
+        }
+        int partStart = start;
+        int index = 0;
+        for (int i = start; i <= end; i++) {
+            if (i == end || value.charAt(i) == separator) {
+                result[index++] = Float.parseFloat(value.substring(partStart, i));
+                partStart = i + 1;
+            }
+        }
+        return count;
+    }
+}
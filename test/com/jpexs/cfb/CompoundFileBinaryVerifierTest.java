@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.cfb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ * Damages small CFB files and checks that the verifier reports the damage.
+ *
+ * @author JPEXS
+ */
+public class CompoundFileBinaryVerifierTest {
+
+    private static final int SECTOR_LENGTH = 512;
+
+    private File createFile(int... streamLengths) throws IOException {
+        File file = File.createTempFile("verifier", ".cfb");
+        file.deleteOnExit();
+        file.delete();
+        CompoundFileBinary cfb = new CompoundFileBinary(file, true);
+        try {
+            for (int i = 0; i < streamLengths.length; i++) {
+                byte[] data = new byte[streamLengths[i]];
+                for (int j = 0; j < data.length; j++) {
+                    data[j] = (byte) (i + j);
+                }
+                cfb.addFile("s" + i, data);
+            }
+        } finally {
+            cfb.close();
+        }
+        return file;
+    }
+
+    private DirectoryEntry getEntry(File file, String path) throws IOException {
+        CompoundFileBinary cfb = new CompoundFileBinary(file);
+        try {
+            return cfb.getEntryByPath(path);
+        } finally {
+            cfb.close();
+        }
+    }
+
+    private static long readUI32(RandomAccessFile raf, long pos) throws IOException {
+        raf.seek(pos);
+        long b0 = raf.read();
+        long b1 = raf.read();
+        long b2 = raf.read();
+        long b3 = raf.read();
+        return b0 | (b1 << 8) | (b2 << 16) | (b3 << 24);
+    }
+
+    private static void writeUI32(RandomAccessFile raf, long pos, long value) throws IOException {
+        raf.seek(pos);
+        raf.write((int) (value & 0xFF));
+        raf.write((int) ((value >> 8) & 0xFF));
+        raf.write((int) ((value >> 16) & 0xFF));
+        raf.write((int) ((value >> 24) & 0xFF));
+    }
+
+    private static long sectorOffset(long sector) {
+        return (sector + 1) * SECTOR_LENGTH;
+    }
+
+    private static void assertProblem(List<String> problems, String expected) {
+        for (String problem : problems) {
+            if (problem.contains(expected)) {
+                return;
+            }
+        }
+        throw new AssertionError("Expected problem containing \"" + expected + "\", found " + problems);
+    }
+
+    @Test
+    public void testValidFile() throws IOException {
+        File file = createFile(10000, 5000, 100);
+        List<String> problems = CompoundFileBinaryVerifier.verify(file, 1);
+        assertTrue(problems.isEmpty(), problems.toString());
+    }
+
+    @Test
+    public void testCyclicFatChain() throws IOException {
+        File file = createFile(10000);
+        DirectoryEntry entry = getEntry(file, "s0");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long fatSector = readUI32(raf, 0x4C);
+            writeUI32(raf, sectorOffset(fatSector) + entry.startingSectorLocation * 4, entry.startingSectorLocation);
+        }
+        assertProblem(CompoundFileBinaryVerifier.verify(file, 1), "cycle detected at sector " + entry.startingSectorLocation);
+    }
+
+    @Test
+    public void testCrossLinkedSector() throws IOException {
+        File file = createFile(10000, 10000);
+        DirectoryEntry first = getEntry(file, "s0");
+        DirectoryEntry second = getEntry(file, "s1");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            writeUI32(raf, second.fileOffset + 0x74, first.startingSectorLocation);
+        }
+        assertProblem(CompoundFileBinaryVerifier.verify(file, 2), "cross-linked with another chain");
+    }
+
+    @Test
+    public void testBadDirectoryColor() throws IOException {
+        File file = createFile(100);
+        DirectoryEntry entry = getEntry(file, "s0");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(entry.fileOffset + 0x43);
+            raf.write(5);
+        }
+        assertProblem(CompoundFileBinaryVerifier.verify(file, 1), "entry " + entry.streamId + " has invalid color flag 5");
+    }
+
+    @Test
+    public void testFatShorterThanFile() throws IOException {
+        File file = createFile(70000);
+        long difatSector;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            assertTrue(readUI32(raf, 0x2C) >= 2, "test file needs more than one FAT sector");
+            //drop the second FAT sector
+            writeUI32(raf, 0x2C, 1);
+            writeUI32(raf, 0x4C + 4, CompoundFileBinary.FREESECT);
+            //and make the last sector an empty DIFAT sector
+            difatSector = raf.length() / SECTOR_LENGTH - 2;
+            writeUI32(raf, 0x44, difatSector);
+            writeUI32(raf, 0x48, 1);
+            for (int i = 0; i < SECTOR_LENGTH - 4; i += 4) {
+                writeUI32(raf, sectorOffset(difatSector) + i, CompoundFileBinary.FREESECT);
+            }
+            writeUI32(raf, sectorOffset(difatSector) + SECTOR_LENGTH - 4, CompoundFileBinary.ENDOFCHAIN);
+        }
+        List<String> problems = CompoundFileBinaryVerifier.verify(file, 1);
+        assertProblem(problems, "FAT: covers " + SECTOR_LENGTH / 4 + " sectors");
+        assertProblem(problems, "DIFAT sector " + difatSector + " not covered by FAT");
+    }
+}
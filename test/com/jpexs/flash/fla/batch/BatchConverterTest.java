@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.batch;
+
+import com.jpexs.flash.fla.converter.FlaFormatVersion;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author JPEXS
+ */
+public class BatchConverterTest {
+
+    private static final String SOURCE_FILE = "testdata/fla/cs5/0001_empty_doc/0001_empty_doc.xfl";
+
+    private static final String OUTPUT_BASE_DIR = "out/tests/batch";
+
+    private static File createDir(String name) throws IOException {
+        File dir = new File(OUTPUT_BASE_DIR, name);
+        deleteTree(dir);
+        if (!dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        return dir;
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static File createFile(File dir, String path, String content) throws IOException {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testReadManifest() throws IOException {
+        File dir = createDir("manifest");
+        File outputDir = new File(dir, "out");
+        File absoluteInput = new File(dir, "abs/c.xfl").getAbsoluteFile();
+        File manifest = createFile(dir, "list/manifest.txt",
+                "\uFEFF# comment\n"
+                + "\n"
+                + "a.fla\n"
+                + "sub/b.xfl\tnamed/b2.fla\n"
+                + "\t\n"
+                + absoluteInput.getPath() + "\t\n"
+        );
+        List<BatchJob> jobs = BatchConverter.readManifest(manifest, outputDir);
+        assertEquals(jobs.size(), 3);
+        File listDir = manifest.getAbsoluteFile().getParentFile();
+        assertEquals(jobs.get(0).getInputFile(), new File(listDir, "a.fla"));
+        assertEquals(jobs.get(0).getOutputFile(), new File(outputDir, "a.fla"));
+        assertEquals(jobs.get(1).getInputFile(), new File(listDir, "sub/b.xfl"));
+        assertEquals(jobs.get(1).getOutputFile(), new File(outputDir, "named/b2.fla"));
+        assertEquals(jobs.get(2).getInputFile(), absoluteInput);
+        assertEquals(jobs.get(2).getOutputFile(), new File(outputDir, "c.fla"));
+    }
+
+    @Test
+    public void testReadManifestInvalidLine() throws IOException {
+        File dir = createDir("invalid-manifest");
+        File manifest = createFile(dir, "manifest.txt", "a.fla\nb.fla\tb.fla\tc.fla\n");
+        try {
+            BatchConverter.readManifest(manifest, dir);
+        } catch (IOException ex) {
+            assertTrue(ex.getMessage().startsWith("Invalid manifest line 2"), ex.getMessage());
+            return;
+        }
+        fail("Expected invalid manifest line");
+    }
+
+    @Test
+    public void testFindJobs() throws IOException {
+        File dir = createDir("find-jobs");
+        File outputDir = new File(dir, "out");
+        createFile(dir, "x.fla", "");
+        createFile(dir, "b/y/y.xfl", "");
+        createFile(dir, "b/notes.txt", "");
+        createFile(dir, "out/old.fla", "");
+
+        //directory - whole tree except the output directory
+        List<BatchJob> jobs = BatchConverter.findJobs(dir.getPath(), outputDir);
+        assertEquals(jobs.size(), 2);
+        assertEquals(jobs.get(0).getInputFile(), new File(dir, "b/y/y.xfl"));
+        assertEquals(jobs.get(0).getOutputFile(), new File(outputDir, "b/y/y.fla"));
+        assertEquals(jobs.get(1).getInputFile(), new File(dir, "x.fla"));
+        assertEquals(jobs.get(1).getOutputFile(), new File(outputDir, "x.fla"));
+
+        //glob - matched relative to the directory before the first wildcard
+        jobs = BatchConverter.findJobs(dir.getPath() + "/**/*.xfl", outputDir);
+        assertEquals(jobs.size(), 1);
+        assertEquals(jobs.get(0).getInputFile(), new File(dir, "b/y/y.xfl"));
+        assertEquals(jobs.get(0).getOutputFile(), new File(outputDir, "b/y/y.fla"));
+
+        jobs = BatchConverter.findJobs(dir.getPath() + "/*.fla", outputDir);
+        assertEquals(jobs.size(), 1);
+        assertEquals(jobs.get(0).getInputFile(), new File(dir, "x.fla"));
+
+        //single file
+        jobs = BatchConverter.findJobs(new File(dir, "b/y/y.xfl").getPath(), outputDir);
+        assertEquals(jobs.size(), 1);
+        assertEquals(jobs.get(0).getOutputFile(), new File(outputDir, "y.fla"));
+
+        try {
+            BatchConverter.findJobs(new File(dir, "missing.fla").getPath(), outputDir);
+            fail("Expected missing file");
+        } catch (FileNotFoundException ex) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testDuplicateOutputs() throws IOException {
+        File outputDir = createDir("duplicate-outputs");
+        File outputFile = new File(outputDir, "doc.fla");
+        File missingFile = new File(outputDir, "missing.fla");
+        BatchJob first = new BatchJob(new File(SOURCE_FILE), outputFile);
+        BatchJob second = new BatchJob(new File(SOURCE_FILE), new File(outputDir, "sub/../doc.fla"));
+        BatchJob missing = new BatchJob(missingFile, new File(outputDir, "missing_out.fla"));
+        BatchConverter converter = new BatchConverter(FlaFormatVersion.CS4, "WINDOWS-1250");
+        converter.setThreadCount(2);
+        List<BatchResult> results = converter.convertAll(Arrays.asList(first, second, missing));
+        assertEquals(results.size(), 3);
+        assertTrue(results.get(0).isValid(), String.valueOf(results.get(0).getError()));
+        assertEquals(results.get(0).getOutputSize(), outputFile.length());
+        assertTrue(outputFile.length() > 0);
+        assertFalse(results.get(1).isValid());
+        assertEquals(results.get(1).getError(), "Output file is used by another document");
+        assertFalse(results.get(2).isValid());
+        assertFalse(new File(outputDir, "missing_out.fla").exists());
+    }
+
+    @Test
+    public void testOutputSameAsInput() throws IOException {
+        File dir = createDir("same-file");
+        File inputFile = createFile(dir, "doc.fla", "original");
+        BatchConverter converter = new BatchConverter(FlaFormatVersion.CS4, "WINDOWS-1250");
+        List<BatchResult> results = converter.convertAll(Arrays.asList(
+                new BatchJob(inputFile, inputFile)
+        ));
+        assertFalse(results.get(0).isValid());
+        assertEquals(results.get(0).getError(), "Output file is the same as input file");
+        assertEquals(new String(Files.readAllBytes(inputFile.toPath()), StandardCharsets.UTF_8), "original");
+
+        BatchResult result = converter.convert(new BatchJob(inputFile, new File(dir, "sub/../doc.fla")));
+        assertFalse(result.isValid());
+        assertEquals(result.getError(), "Output file is the same as input file");
+        assertEquals(new String(Files.readAllBytes(inputFile.toPath()), StandardCharsets.UTF_8), "original");
+        assertEquals(dir.list().length, 1);
+    }
+
+    @Test
+    public void testExistingOutput() throws IOException {
+        File dir = createDir("existing-output");
+        File brokenFile = createFile(dir, "broken.fla", "not a zip file");
+        File outputFile = createFile(dir, "out/doc.fla", "previous");
+        BatchConverter converter = new BatchConverter(FlaFormatVersion.CS4, "WINDOWS-1250");
+
+        //failed conversion keeps the previous output
+        BatchResult result = converter.convert(new BatchJob(brokenFile, outputFile));
+        assertFalse(result.isValid());
+        assertEquals(new String(Files.readAllBytes(outputFile.toPath()), StandardCharsets.UTF_8), "previous");
+        assertEquals(outputFile.getParentFile().list().length, 1);
+
+        //successful conversion replaces it
+        result = converter.convert(new BatchJob(new File(SOURCE_FILE), outputFile));
+        assertTrue(result.isValid(), String.valueOf(result.getError()));
+        assertEquals(result.getOutputSize(), outputFile.length());
+        assertTrue(outputFile.length() > "previous".length());
+        assertEquals(outputFile.getParentFile().list().length, 1);
+    }
+
+    @Test
+    public void testStackOverflow() throws IOException {
+        File dir = createDir("stack-overflow");
+        File sourceDir = new File(SOURCE_FILE).getParentFile();
+        for (File file : sourceDir.listFiles()) {
+            if (file.isFile()) {
+                Files.copy(file.toPath(), new File(dir, file.getName()).toPath());
+            }
+        }
+        File documentFile = new File(dir, "DOMDocument.xml");
+        String document = new String(Files.readAllBytes(documentFile.toPath()), StandardCharsets.UTF_8);
+        StringBuilder groups = new StringBuilder("<elements>");
+        int depth = 100000;
+        for (int i = 0; i < depth; i++) {
+            groups.append("<DOMGroup><members>");
+        }
+        for (int i = 0; i < depth; i++) {
+            groups.append("</members></DOMGroup>");
+        }
+        groups.append("</elements>");
+        document = document.replace("<elements/>", groups.toString());
+        Files.write(documentFile.toPath(), document.getBytes(StandardCharsets.UTF_8));
+
+        File inputFile = new File(dir, new File(SOURCE_FILE).getName());
+        File outputFile = new File(dir, "out/deep.fla");
+        BatchConverter converter = new BatchConverter(FlaFormatVersion.CS4, "WINDOWS-1250");
+        BatchResult result = converter.convert(new BatchJob(inputFile, outputFile));
+        assertFalse(result.isValid());
+        assertEquals(result.getError(), StackOverflowError.class.getName());
+        assertEquals(outputFile.getParentFile().list().length, 0);
+    }
+
+    @Test
+    public void testSummaryEscaping() throws IOException {
+        BatchConverter converter = new BatchConverter(FlaFormatVersion.CS4, "WINDOWS-1250");
+        BatchJob job = new BatchJob(new File("in\"put.fla"), new File("out\\put.fla"));
+        List<BatchResult> results = Arrays.asList(
+                new BatchResult(job, 5, 10, "line1\nline2\r\t\u0001end"),
+                new BatchResult(job, 6, 10, 20L)
+        );
+        StringWriter writer = new StringWriter();
+        converter.writeSummary(writer, results, 11);
+        String summary = writer.toString();
+        assertTrue(summary.contains("\"total\": 2,"), summary);
+        assertTrue(summary.contains("\"succeeded\": 1,"), summary);
+        assertTrue(summary.contains("\"failed\": 1,"), summary);
+        assertTrue(summary.contains("\"input\": \"in\\\"put.fla\""), summary);
+        assertTrue(summary.contains("\"output\": \"out\\\\put.fla\""), summary);
+        assertTrue(summary.contains("\"error\": \"line1\\nline2\\r\\t\\u0001end\""), summary);
+        assertTrue(summary.contains("\"outputSize\": 20"), summary);
+
+        writer = new StringWriter();
+        converter.writeSummary(writer, Arrays.<BatchResult>asList(), 0);
+        assertTrue(writer.toString().contains("\"documents\": []"), writer.toString());
+    }
+}
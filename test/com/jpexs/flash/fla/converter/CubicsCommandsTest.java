@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter;
+
+import java.text.ParseException;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author JPEXS
+ */
+public class CubicsCommandsTest {
+
+    @Test
+    public void testFullForm() throws ParseException {
+        CubicsCommands cubics = new CubicsCommands();
+        cubics.parse("!10 20(1,2;3,4 5,6 7,8q1 2Q3 4 5 6p7 8P9 10)-1,-2;");
+        assertEquals(cubics.getMoveX(), 10);
+        assertEquals(cubics.getMoveY(), 20);
+        assertTrue(cubics.hasPrevBCP());
+        assertEquals(cubics.getPrevBCPx(), 1);
+        assertEquals(cubics.getPrevBCPy(), 2);
+        assertEquals(cubics.getX1(), 3);
+        assertEquals(cubics.getY1(), 4);
+        assertEquals(cubics.getX2(), 5);
+        assertEquals(cubics.getY2(), 6);
+        assertEquals(cubics.getEndX(), 7);
+        assertEquals(cubics.getEndY(), 8);
+        assertTrue(cubics.hasNextBCP());
+        assertEquals(cubics.getNextBCPx(), -1);
+        assertEquals(cubics.getNextBCPy(), -2);
+
+        //point without letter inherits the letter of the previous point
+        int[] xs = new int[]{1, 3, 5, 7, 9};
+        int[] ys = new int[]{2, 4, 6, 8, 10};
+        char[] letters = new char[]{'q', 'Q', 'Q', 'p', 'P'};
+        assertEquals(cubics.getPointCount(), xs.length);
+        for (int i = 0; i < xs.length; i++) {
+            assertEquals(cubics.getPointX(i), xs[i], "x of point " + i);
+            assertEquals(cubics.getPointY(i), ys[i], "y of point " + i);
+            assertEquals(cubics.getPointLetter(i), letters[i], "letter of point " + i);
+        }
+    }
+
+    @Test
+    public void testOptionalParts() throws ParseException {
+        CubicsCommands cubics = new CubicsCommands();
+        cubics.parse("!0 0(;1,2 3,4 5,6 7 8);");
+        assertFalse(cubics.hasPrevBCP());
+        assertFalse(cubics.hasNextBCP());
+        assertEquals(cubics.getPointCount(), 1);
+        //first point defaults to q
+        assertEquals(cubics.getPointLetter(0), 'q');
+
+        //values of the previous parse are replaced
+        cubics.parse("!0 0(1 , 2 ;1,2 3,4 5,6 7 8)3,4;");
+        assertTrue(cubics.hasPrevBCP());
+        assertEquals(cubics.getPrevBCPy(), 2);
+        assertTrue(cubics.hasNextBCP());
+        assertEquals(cubics.getNextBCPx(), 3);
+        assertEquals(cubics.getPointCount(), 1);
+    }
+
+    @Test
+    public void testLeadingMinusBeforePoints() throws ParseException {
+        CubicsCommands cubics = new CubicsCommands();
+        cubics.parse("!0 0(;1,2 3,4 5,6-q7 8);");
+        assertEquals(cubics.getEndY(), 6);
+        assertEquals(cubics.getPointCount(), 1);
+        assertEquals(cubics.getPointX(0), 7);
+        assertEquals(cubics.getPointLetter(0), 'q');
+
+        //minus followed by digit is a negative coordinate
+        cubics.parse("!0 0(;1,2 3,4 5,6-7 8);");
+        assertEquals(cubics.getEndY(), 6);
+        assertEquals(cubics.getPointX(0), -7);
+    }
+
+    @Test
+    public void testIntRange() throws ParseException {
+        CubicsCommands cubics = new CubicsCommands();
+        cubics.parse("!2147483647 -2147483648(;1,2 3,4 5,6 7 8);");
+        assertEquals(cubics.getMoveX(), Integer.MAX_VALUE);
+        assertEquals(cubics.getMoveY(), Integer.MIN_VALUE);
+
+        assertRejected("!2147483648 0(;1,2 3,4 5,6 7 8);", 1);
+        assertRejected("!0 -2147483649(;1,2 3,4 5,6 7 8);", 3);
+        String tooLarge = "!0 0(;1,2 3,4 5,6 7 99999999999);";
+        assertRejected(tooLarge, tooLarge.indexOf('9'));
+    }
+
+    @Test
+    public void testRejectedInputs() {
+        //regular expression used to backtrack into the digits and drop a point
+        String backtracking = "!0 0(;1,2 3,4 5,6q1 23 4);";
+        assertRejected(backtracking, backtracking.indexOf(')'));
+        assertRejected("0 0(;1,2 3,4 5,6 7 8);", 0);
+        assertRejected("!0,0(;1,2 3,4 5,6 7 8);", 2);
+        assertRejected("!0 0(1;1,2 3,4 5,6 7 8);", 6);
+        assertRejected("!0 0(;1,2 3,4 5,6);", 17);
+        assertRejected("!0 0(;1,2 3,4 5,6 7 8)", 22);
+        assertRejected("!0 0(;1,2 3,4 5,6 7 8);x", 23);
+        assertRejected("", 0);
+    }
+
+    private static void assertRejected(String value, int errorOffset) {
+        try {
+            new CubicsCommands().parse(value);
+        } catch (ParseException ex) {
+            assertEquals(ex.getErrorOffset(), errorOffset, "error offset of \"" + value + "\"");
+            return;
+        }
+        fail("Expected \"" + value + "\" to be rejected");
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author JPEXS
+ */
+public class EdgeCommandsTest {
+
+    @Test
+    public void testCommands() {
+        EdgeCommands commands = EdgeCommands.parse("!0 0|10 20[1 2 #3.8 4/5 6!7 8S2|9 10");
+        assertEquals(commands.getEdgeCount(), 4);
+        int[] expectedCommands = new int[]{
+            EdgeCommands.COMMAND_MOVE_TO, 0,
+            EdgeCommands.COMMAND_LINE_TO,
+            EdgeCommands.COMMAND_CURVE_TO,
+            EdgeCommands.COMMAND_GENERAL_LINE_TO,
+            EdgeCommands.COMMAND_MOVE_TO, 2,
+            EdgeCommands.COMMAND_LINE_TO
+        };
+        assertEquals(commands.getCommandsLength(), expectedCommands.length);
+        for (int i = 0; i < expectedCommands.length; i++) {
+            assertEquals(commands.getCommand(i), expectedCommands[i], "command " + i);
+        }
+        double[] expectedCoordinates = new double[]{0, 0, 10, 20, 1, 2, 3.5, 4, 5, 6, 7, 8, 9, 10};
+        for (int i = 0; i < expectedCoordinates.length; i++) {
+            assertEquals(commands.getCoordinate(i), expectedCoordinates[i], "coordinate " + i);
+        }
+    }
+
+    @Test
+    public void testWhitespaceAndIgnoredTokens() {
+        EdgeCommands commands = EdgeCommands.parse(" \n!0\t0 x | 1 2\r\n");
+        assertEquals(commands.getEdgeCount(), 1);
+        assertEquals(commands.getCoordinate(2), 1.0);
+        assertEquals(commands.getCoordinate(3), 2.0);
+        assertTrue(EdgeCommands.parse("  ").isEmpty());
+    }
+
+    @Test
+    public void testRejectedInputs() {
+        assertRejected("|1 2", "edges must start with !");
+        assertRejected("!1", "! requires two arguments");
+        assertRejected("!0 0[1 2 3!4 5", "[ requires four arguments");
+        assertRejected("!0 0|1!2 3", "| requires two arguments");
+        assertRejected("!0 0|1 x", "| has invalid arguments: 1, x");
+        assertRejected("!0 #G", "! has invalid arguments: 0, #G");
+    }
+
+    private static void assertRejected(String edges, String message) {
+        try {
+            EdgeCommands.parse(edges);
+        } catch (IllegalArgumentException ex) {
+            assertEquals(ex.getMessage(), message);
+            return;
+        }
+        fail("Expected \"" + edges + "\" to be rejected");
+    }
+}
@@ -21,18 +21,29 @@ package com.jpexs.flash.fla.converter;
 import com.jpexs.flash.fla.converter.debug.EdgeReader;
 import com.jpexs.flash.fla.converter.streams.DirectoryInputStorage;
 import com.jpexs.flash.fla.converter.streams.DirectoryOutputStorage;
+import com.jpexs.flash.fla.converter.streams.MemoryInputStorage;
+import com.jpexs.flash.fla.converter.streams.MemoryOutputStorage;
 import com.jpexs.flash.fla.extractor.FlaCfbExtractor;
 import com.jpexs.helpers.Reference;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import javax.xml.parsers.ParserConfigurationException;
 import org.testng.annotations.Test;
 import static org.testng.Assert.assertEquals;
@@ -113,9 +124,50 @@ public class FlaConverterTest {
         return provideFolders(FlaFormatVersion.F1);
     }
 
+    @DataProvider(name = "folders-all-cs4")
+    public Object[][] provideAllFoldersCs4() {
+        return provideFolders(FlaFormatVersion.CS4, true);
+    }
+
+    @DataProvider(name = "folders-all-cs3")
+    public Object[][] provideAllFoldersCs3() {
+        return provideFolders(FlaFormatVersion.CS3, true);
+    }
+
+    @DataProvider(name = "folders-all-f8")
+    public Object[][] provideAllFoldersF8() {
+        return provideFolders(FlaFormatVersion.F8, true);
+    }
+
+    @DataProvider(name = "folders-all-mx2004")
+    public Object[][] provideAllFoldersMx2004() {
+        return provideFolders(FlaFormatVersion.MX2004, true);
+    }
+
+    @DataProvider(name = "folders-all-mx")
+    public Object[][] provideAllFoldersMx() {
+        return provideFolders(FlaFormatVersion.MX, true);
+    }
+
+    @DataProvider(name = "folders-all-f5")
+    public Object[][] provideAllFoldersF5() {
+        return provideFolders(FlaFormatVersion.F5, true);
+    }
 
 
     private Object[][] provideFolders(FlaFormatVersion flaFormatVersion) {
+        return provideFolders(flaFormatVersion, false);
+    }
+
+    /**
+     * Provides test folders.
+     *
+     * @param flaFormatVersion FLA format version
+     * @param includeTodo Include folders ending with -todo, their expected
+     * files do not match yet
+     * @return Folder names
+     */
+    private Object[][] provideFolders(FlaFormatVersion flaFormatVersion, boolean includeTodo) {
         File sourceDir = new File(EXPECTED_BASE_DIR + "/" + flaFormatVersion.name().toLowerCase());
         File[] sourceFiles = sourceDir.listFiles(new FileFilter() {
             @Override
@@ -130,8 +182,11 @@ public class FlaConverterTest {
         for (int i = sourceFilesList.size() - 1; i >= 0; i--) {
             String name = sourceFilesList.get(i).getName();
             if (name.endsWith("-todo")) {
-                sourceFilesList.remove(i);
-                continue;
+                if (!includeTodo || !new File(SOURCE_DIR + "/" + name).isDirectory()) {
+                    sourceFilesList.remove(i);
+                    continue;
+                }
+                name = name.substring(0, name.length() - "-todo".length());
             }
             if (name.contains("-")) {
                 String suffix = name.substring(name.indexOf("-") + 1);
@@ -150,16 +205,43 @@ public class FlaConverterTest {
     }
 
     private void convert(String folderName, FlaFormatVersion flaFormatVersion) throws Exception {
+        FlaConverter contentsGenerator = new FlaConverter(flaFormatVersion, "WINDOWS-1250");
+        File actualDir = convertToDir(contentsGenerator, folderName, flaFormatVersion, "");
+        compareWithExpected(actualDir, folderName, flaFormatVersion);
+    }
 
-        String outputDirParent = OUTPUT_BASE_DIR + "/" + flaFormatVersion.name().toLowerCase();
-        String expectedDirParent = EXPECTED_BASE_DIR + "/" + flaFormatVersion.name().toLowerCase();
+    /**
+     * Converts folder with differently configured converter. All the files,
+     * including symbols and media, must be same as in sequential conversion.
+     * Folders which are not todo must match expected files too.
+     *
+     * @param contentsGenerator Configured converter
+     * @param folderName Folder name
+     * @param flaFormatVersion FLA format version
+     * @param variant Variant name, suffix of output directory
+     * @throws Exception On error
+     */
+    private void convertVariant(FlaConverter contentsGenerator, String folderName, FlaFormatVersion flaFormatVersion, String variant) throws Exception {
+        File actualDir = convertToDir(contentsGenerator, folderName, flaFormatVersion, "-" + variant);
+        compareVariant(actualDir, folderName, flaFormatVersion);
+    }
+
+    private void compareVariant(File actualDir, String folderName, FlaFormatVersion flaFormatVersion) throws Exception {
+        File sequentialDir = convertToDir(new FlaConverter(flaFormatVersion, "WINDOWS-1250"), folderName, flaFormatVersion, "-sequential");
+        compareDirs(actualDir, sequentialDir);
+        if (!folderName.endsWith("-todo")) {
+            compareWithExpected(actualDir, folderName, flaFormatVersion);
+        }
+    }
+
+    private File convertToDir(FlaConverter contentsGenerator, String folderName, FlaFormatVersion flaFormatVersion, String outputSuffix) throws Exception {
+        String outputDirParent = OUTPUT_BASE_DIR + "/" + flaFormatVersion.name().toLowerCase() + outputSuffix;
 
         File actualDir = new File(outputDirParent + "/" + folderName);
         deleteDir(actualDir);
         if (!actualDir.exists()) {
             actualDir.mkdirs();
         }
-        FlaConverter contentsGenerator = new FlaConverter(flaFormatVersion, "WINDOWS-1250");
         contentsGenerator.setDebugRandom(true);
 
         contentsGenerator.convert(new DirectoryInputStorage(new File(SOURCE_DIR + "/" + folderName)),
@@ -172,6 +254,25 @@ public class FlaConverterTest {
                     cfb
             );
         }*/
+        return actualDir;
+    }
+
+    private void compareDirs(File actualDir, File sequentialDir) throws IOException {
+        File[] actualFiles = actualDir.listFiles();
+        File[] sequentialFiles = sequentialDir.listFiles();
+        Comparator<File> fileNameComparator = getFileComparator();
+        Arrays.sort(actualFiles, fileNameComparator);
+        Arrays.sort(sequentialFiles, fileNameComparator);
+        assertEquals(actualFiles.length, sequentialFiles.length, "Number of files");
+        for (int i = 0; i < actualFiles.length; i++) {
+            assertEquals(actualFiles[i].getName(), sequentialFiles[i].getName(), "File name");
+            assertEquals(readFile(actualFiles[i]), readFile(sequentialFiles[i]), "Data of file " + actualFiles[i]);
+        }
+    }
+
+    private void compareWithExpected(File actualDir, String folderName, FlaFormatVersion flaFormatVersion) throws Exception {
+        String expectedDirParent = EXPECTED_BASE_DIR + "/" + flaFormatVersion.name().toLowerCase();
+
         File expectedDir = new File(expectedDirParent + "/" + folderName);
 
         Comparator<File> fileNameComparator = getFileComparator();
@@ -448,6 +549,198 @@ public class FlaConverterTest {
         convert(folder, FlaFormatVersion.F5);
     }
     
+    @Test(dataProvider = "folders-all-cs4")
+    public void testConvertThreadedCs4(String folder) throws Exception {
+        convertThreaded(folder, FlaFormatVersion.CS4);
+    }
+
+    @Test(dataProvider = "folders-all-cs3")
+    public void testConvertThreadedCs3(String folder) throws Exception {
+        convertThreaded(folder, FlaFormatVersion.CS3);
+    }
+
+    @Test(dataProvider = "folders-all-f8")
+    public void testConvertThreadedF8(String folder) throws Exception {
+        convertThreaded(folder, FlaFormatVersion.F8);
+    }
+
+    @Test(dataProvider = "folders-all-mx2004")
+    public void testConvertThreadedMx2004(String folder) throws Exception {
+        convertThreaded(folder, FlaFormatVersion.MX2004);
+    }
+
+    @Test(dataProvider = "folders-all-mx")
+    public void testConvertThreadedMx(String folder) throws Exception {
+        convertThreaded(folder, FlaFormatVersion.MX);
+    }
+
+    @Test(dataProvider = "folders-all-f5")
+    public void testConvertThreadedF5(String folder) throws Exception {
+        convertThreaded(folder, FlaFormatVersion.F5);
+    }
+
+    /**
+     * Converts with symbols, scenes and layers encoded in parallel, like the
+     * command line and GUI do by default.
+     */
+    private void convertThreaded(String folder, FlaFormatVersion flaFormatVersion) throws Exception {
+        FlaConverter contentsGenerator = new FlaConverter(flaFormatVersion, "WINDOWS-1250");
+        contentsGenerator.setThreadCount(4);
+        convertVariant(contentsGenerator, folder, flaFormatVersion, "threads");
+    }
+
+    @Test(dataProvider = "folders-cs4")
+    public void testConvertStreamingCs4(String folder) throws Exception {
+        convertStreaming(folder, FlaFormatVersion.CS4);
+    }
+
+    @Test(dataProvider = "folders-cs3")
+    public void testConvertStreamingCs3(String folder) throws Exception {
+        convertStreaming(folder, FlaFormatVersion.CS3);
+    }
+
+    @Test(dataProvider = "folders-f8")
+    public void testConvertStreamingF8(String folder) throws Exception {
+        convertStreaming(folder, FlaFormatVersion.F8);
+    }
+
+    @Test(dataProvider = "folders-mx2004")
+    public void testConvertStreamingMx2004(String folder) throws Exception {
+        convertStreaming(folder, FlaFormatVersion.MX2004);
+    }
+
+    @Test(dataProvider = "folders-mx")
+    public void testConvertStreamingMx(String folder) throws Exception {
+        convertStreaming(folder, FlaFormatVersion.MX);
+    }
+
+    @Test(dataProvider = "folders-f5")
+    public void testConvertStreamingF5(String folder) throws Exception {
+        convertStreaming(folder, FlaFormatVersion.F5);
+    }
+
+    /**
+     * Converts with all symbols read frame by frame by StAX parser, like
+     * symbols larger than the streaming threshold are.
+     */
+    private void convertStreaming(String folder, FlaFormatVersion flaFormatVersion) throws Exception {
+        FlaConverter contentsGenerator = new FlaConverter(flaFormatVersion, "WINDOWS-1250");
+        contentsGenerator.setStreamingThreshold(0);
+        convertVariant(contentsGenerator, folder, flaFormatVersion, "streaming");
+    }
+
+    @Test(dataProvider = "folders-cs4")
+    public void testConvertMemoryCs4(String folder) throws Exception {
+        convertMemory(folder, FlaFormatVersion.CS4);
+    }
+
+    @Test(dataProvider = "folders-cs3")
+    public void testConvertMemoryCs3(String folder) throws Exception {
+        convertMemory(folder, FlaFormatVersion.CS3);
+    }
+
+    @Test(dataProvider = "folders-f8")
+    public void testConvertMemoryF8(String folder) throws Exception {
+        convertMemory(folder, FlaFormatVersion.F8);
+    }
+
+    @Test(dataProvider = "folders-mx2004")
+    public void testConvertMemoryMx2004(String folder) throws Exception {
+        convertMemory(folder, FlaFormatVersion.MX2004);
+    }
+
+    @Test(dataProvider = "folders-mx")
+    public void testConvertMemoryMx(String folder) throws Exception {
+        convertMemory(folder, FlaFormatVersion.MX);
+    }
+
+    @Test(dataProvider = "folders-f5")
+    public void testConvertMemoryF5(String folder) throws Exception {
+        convertMemory(folder, FlaFormatVersion.F5);
+    }
+
+    /**
+     * Converts zipped XFL held in memory to memory output storage.
+     */
+    private void convertMemory(String folderName, FlaFormatVersion flaFormatVersion) throws Exception {
+        ByteArrayOutputStream zipData = new ByteArrayOutputStream();
+        try (ZipOutputStream zos = new ZipOutputStream(zipData)) {
+            zipDir(zos, new File(SOURCE_DIR + "/" + folderName), "");
+        }
+        FlaConverter contentsGenerator = new FlaConverter(flaFormatVersion, "WINDOWS-1250");
+        contentsGenerator.setDebugRandom(true);
+        MemoryOutputStorage outputStorage = new MemoryOutputStorage();
+        contentsGenerator.convert(MemoryInputStorage.fromZip(zipData.toByteArray()), outputStorage);
+
+        File actualDir = new File(OUTPUT_BASE_DIR + "/" + flaFormatVersion.name().toLowerCase() + "-memory/" + folderName);
+        deleteDir(actualDir);
+        actualDir.mkdirs();
+        for (String fileName : outputStorage.getFileNames()) {
+            try (OutputStream os = new FileOutputStream(new File(actualDir, fileName))) {
+                outputStorage.writeTo(fileName, os);
+            }
+        }
+        compareVariant(actualDir, folderName, flaFormatVersion);
+    }
+
+    private void zipDir(ZipOutputStream zos, File dir, String path) throws IOException {
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                zipDir(zos, file, path + file.getName() + "/");
+                continue;
+            }
+            zos.putNextEntry(new ZipEntry(path + file.getName()));
+            zos.write(readFile(file));
+        }
+    }
+
+    /**
+     * Copied component paths are replaced with YYY when debugging randomness,
+     * so they are compared separately. Button symbol of the components fixture
+     * has movie clip instances in several layers, which are encoded in
+     * parallel and relocated when linking.
+     */
+    @Test
+    public void testConvertThreadedCopiedComponentPaths() throws Exception {
+        String folderName = "0025_components-todo";
+        List<Map<String, List<String>>> copiedComponentPaths = new ArrayList<>();
+        for (int threadCount : new int[]{4, 1}) {
+            File actualDir = new File(OUTPUT_BASE_DIR + "/cs4-copied-component-paths/" + threadCount);
+            deleteDir(actualDir);
+            actualDir.mkdirs();
+            FlaConverter contentsGenerator = new FlaConverter(FlaFormatVersion.CS4, "WINDOWS-1250");
+            contentsGenerator.setThreadCount(threadCount);
+            contentsGenerator.convert(new DirectoryInputStorage(new File(SOURCE_DIR + "/" + folderName)), new DirectoryOutputStorage(actualDir));
+            copiedComponentPaths.add(getCopiedComponentPaths(actualDir));
+        }
+        assertEquals(copiedComponentPaths.get(0), copiedComponentPaths.get(1));
+        assertTrue(copiedComponentPaths.get(1).containsKey("S 1"), copiedComponentPaths.get(1).toString());
+    }
+
+    /**
+     * Gets copied component paths of each file. Files are identified by name
+     * without the random part.
+     */
+    private Map<String, List<String>> getCopiedComponentPaths(File actualDir) throws IOException {
+        Map<String, List<String>> ret = new TreeMap<>();
+        Pattern pattern = Pattern.compile("oldCopiedComponentPath='([0-9]+)'");
+        for (File actualFile : actualDir.listFiles()) {
+            String name = actualFile.getName();
+            if (name.contains(" ")) {
+                name = name.substring(0, name.lastIndexOf(" "));
+            }
+            List<String> paths = new ArrayList<>();
+            Matcher matcher = pattern.matcher(new String(readFile(actualFile), StandardCharsets.UTF_16LE));
+            while (matcher.find()) {
+                paths.add(matcher.group(1));
+            }
+            if (!paths.isEmpty()) {
+                ret.put(name, paths);
+            }
+        }
+        return ret;
+    }
+
     /*@Test(dataProvider = "folders-f4")
     public void testConvertF4(String folder) throws Exception {
         convert(folder, FlaFormatVersion.F4);
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter;
+
+import com.jpexs.flash.fla.converter.streams.MemoryInputStorage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author JPEXS
+ */
+public class SymbolStreamReaderTest {
+
+    private static final String FILE_NAME = "LIBRARY/Symbol 1.xml";
+
+    private static String createSymbol(String script) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<DOMSymbolItem xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xmlns=\"http://ns.adobe.com/xfl/2008/\" name=\"Symbol 1\" itemID=\"1\">\n"
+                + "  <timeline>\n"
+                + "    <DOMTimeline name=\"Symbol 1\">\n"
+                + "      <layers>\n"
+                + "        <DOMLayer name=\"Layer 2\" color=\"#4FFF4F\">\n"
+                + "          <frames>\n"
+                + "            <DOMFrame index=\"0\" keyMode=\"9728\">\n"
+                + "              <Actionscript>\n"
+                + "                <script>" + script + "</script>\n"
+                + "              </Actionscript>\n"
+                + "              <elements/>\n"
+                + "            </DOMFrame>\n"
+                + "            <DOMFrame index=\"1\" duration=\"2\" keyMode=\"9728\">\n"
+                + "              <elements/>\n"
+                + "            </DOMFrame>\n"
+                + "          </frames>\n"
+                + "        </DOMLayer>\n"
+                + "        <DOMLayer name=\"Layer 1\" color=\"#9933CC\">\n"
+                + "          <frames/>\n"
+                + "        </DOMLayer>\n"
+                + "      </layers>\n"
+                + "    </DOMTimeline>\n"
+                + "  </timeline>\n"
+                + "</DOMSymbolItem>\n";
+    }
+
+    private static DocumentBuilder createDocumentBuilder() throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    }
+
+    private static SymbolStreamReader createReader(String symbol) throws Exception {
+        MemoryInputStorage storage = new MemoryInputStorage();
+        storage.putFile(FILE_NAME, symbol.getBytes(StandardCharsets.UTF_8));
+        return new SymbolStreamReader(storage, FILE_NAME, createDocumentBuilder());
+    }
+
+    @Test
+    public void testReadOutline() throws Exception {
+        SymbolStreamReader reader = createReader(createSymbol("stop();"));
+        Element symbol = reader.readOutline();
+        assertEquals(symbol.getTagName(), "DOMSymbolItem");
+        assertEquals(symbol.getAttribute("name"), "Symbol 1");
+        assertEquals(symbol.getAttribute("xmlns:xsi"), "http://www.w3.org/2001/XMLSchema-instance");
+        Element timeline = reader.getTimeline();
+        assertNotNull(timeline);
+        assertEquals(timeline.getAttribute("name"), "Symbol 1");
+        NodeList layers = timeline.getElementsByTagName("DOMLayer");
+        assertEquals(layers.getLength(), 2);
+        assertEquals(((Element) layers.item(0)).getAttribute("name"), "Layer 2");
+        assertEquals(((Element) layers.item(1)).getAttribute("color"), "#9933CC");
+        //frames are not part of the outline
+        assertFalse(layers.item(0).hasChildNodes());
+    }
+
+    @Test
+    public void testOpenFrames() throws Exception {
+        SymbolStreamReader reader = createReader(createSymbol("stop();"));
+        reader.readOutline();
+        try (FrameReaderInterface frames = reader.openFrames(0)) {
+            Element frame = frames.nextFrame();
+            assertEquals(frame.getAttribute("index"), "0");
+            assertEquals(frame.getElementsByTagName("script").item(0).getTextContent(), "stop();");
+            frame = frames.nextFrame();
+            assertEquals(frame.getAttribute("duration"), "2");
+            assertNull(frames.nextFrame());
+            assertNull(frames.nextFrame());
+        }
+        try (FrameReaderInterface frames = reader.openFrames(1)) {
+            assertNull(frames.nextFrame());
+        }
+    }
+
+    @Test
+    public void testMissingLayer() throws Exception {
+        SymbolStreamReader reader = createReader(createSymbol("stop();"));
+        reader.readOutline();
+        try (FrameReaderInterface frames = reader.openFrames(2)) {
+            assertNull(frames.nextFrame());
+        }
+
+        reader = createReader("<DOMSymbolItem name=\"Symbol 1\"><timeline><DOMTimeline name=\"Symbol 1\"/></timeline></DOMSymbolItem>");
+        reader.readOutline();
+        assertNotNull(reader.getTimeline());
+        try (FrameReaderInterface frames = reader.openFrames(0)) {
+            assertNull(frames.nextFrame());
+        }
+
+        reader = createReader("<DOMSymbolItem name=\"Symbol 1\"/>");
+        reader.readOutline();
+        assertNull(reader.getTimeline());
+    }
+
+    @Test
+    public void testSplitText() throws Exception {
+        //long text, entities and character references are reported
+        //by the parser in several events
+        StringBuilder script = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            script.append("if (a &lt; ").append(i).append(" &amp;&amp; b &gt; 0) trace(&quot;&#x10D;&#269;&quot;);\n");
+        }
+        script.append("<![CDATA[ if (a < b) {} ]]>//end");
+        String symbol = createSymbol(script.toString());
+        SymbolStreamReader reader = createReader(symbol);
+        reader.readOutline();
+
+        Element expectedFrame = (Element) createDocumentBuilder()
+                .parse(new ByteArrayInputStream(symbol.getBytes(StandardCharsets.UTF_8)))
+                .getElementsByTagName("DOMFrame").item(0);
+        try (FrameReaderInterface frames = reader.openFrames(0)) {
+            Element frame = frames.nextFrame();
+            Element scriptElement = (Element) frame.getElementsByTagName("script").item(0);
+            Element expectedScriptElement = (Element) expectedFrame.getElementsByTagName("script").item(0);
+            assertEquals(scriptElement.getChildNodes().getLength(), 3);
+            assertEquals(scriptElement.getTextContent(), expectedScriptElement.getTextContent());
+            assertTrue(scriptElement.getTextContent().contains("trace(\"\u010D\u010D\");\n"));
+            assertTrue(frame.isEqualNode(expectedFrame));
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testInvalidXml() throws Exception {
+        SymbolStreamReader reader = createReader(createSymbol("stop();").replace("</DOMFrame>", ""));
+        reader.readOutline();
+    }
+}
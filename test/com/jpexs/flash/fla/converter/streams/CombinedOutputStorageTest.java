@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter.streams;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author JPEXS
+ */
+public class CombinedOutputStorageTest {
+
+    private static final int BUFFER_SIZE = 16;
+
+    private static final int BUFFER_COUNT = 2;
+
+    /**
+     * Storage which waits before each operation and fails the operation on
+     * given file.
+     */
+    private static class TestStorage implements OutputStorageInterface {
+
+        private final MemoryOutputStorage storage = new MemoryOutputStorage();
+
+        private final long delayMs;
+
+        private final String failingFileName;
+
+        private final IOException error = new IOException("Test error");
+
+        private volatile boolean closed = false;
+
+        public TestStorage(long delayMs, String failingFileName) {
+            this.delayMs = delayMs;
+            this.failingFileName = failingFileName;
+        }
+
+        private void check(String fileName) throws IOException {
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            if (fileName.equals(failingFileName)) {
+                throw error;
+            }
+        }
+
+        @Override
+        public OutputStream getOutputStream(final String fileName) throws IOException {
+            check(fileName);
+            return new FilterOutputStream(storage.getOutputStream(fileName)) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    check(fileName);
+                    out.write(b, off, len);
+                }
+            };
+        }
+
+        @Override
+        public void storeData(String fileName, byte[] data) throws IOException {
+            check(fileName);
+            storage.storeData(fileName, data);
+        }
+
+        @Override
+        public void storeFile(String fileName, File file) throws IOException {
+            check(fileName);
+            storage.storeFile(fileName, file);
+        }
+
+        @Override
+        public void close() throws Exception {
+            closed = true;
+        }
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+        return data;
+    }
+
+    @Test
+    public void testCloseWaitsForChildren() throws Exception {
+        TestStorage fast = new TestStorage(0, null);
+        TestStorage slow = new TestStorage(5, null);
+        CombinedOutputStorage storage = new CombinedOutputStorage(BUFFER_SIZE, BUFFER_COUNT, fast, slow);
+        byte[] data = createData(BUFFER_SIZE * 20 + 3);
+        try (OutputStream os = storage.getOutputStream("a")) {
+            os.write(data[0]);
+            os.write(data, 1, data.length - 1);
+        }
+        storage.storeData("b", data);
+        storage.close();
+        for (TestStorage child : new TestStorage[]{fast, slow}) {
+            assertTrue(child.closed);
+            assertEquals(child.storage.getData("a"), data);
+            assertEquals(child.storage.getData("b"), data);
+        }
+        assertEquals(storage.getPooledBufferCount(), storage.getAllocatedBufferCount());
+        assertTrue(storage.getAllocatedBufferCount() <= BUFFER_COUNT);
+    }
+
+    @Test
+    public void testErrorOnEnqueue() throws Exception {
+        TestStorage failing = new TestStorage(0, "bad");
+        TestStorage slow = new TestStorage(5, null);
+        CombinedOutputStorage storage = new CombinedOutputStorage(BUFFER_SIZE, BUFFER_COUNT, failing, slow);
+        storage.storeData("bad", createData(10));
+        IOException enqueueError = null;
+        for (int i = 0; i < 1000 && enqueueError == null; i++) {
+            try {
+                storage.storeData("good" + i, createData(10));
+            } catch (IOException ex) {
+                enqueueError = ex;
+            }
+            Thread.sleep(5);
+        }
+        if (enqueueError == null) {
+            fail("Expected error of the child");
+        }
+        assertSame(enqueueError.getCause(), failing.error);
+        try {
+            storage.close();
+            fail("Expected error of the child");
+        } catch (IOException ex) {
+            assertSame(ex.getCause(), failing.error);
+        }
+        assertTrue(failing.closed);
+        assertTrue(slow.closed);
+    }
+
+    @Test
+    public void testErrorOnClose() throws Exception {
+        TestStorage failing = new TestStorage(0, "bad");
+        TestStorage slow = new TestStorage(5, null);
+        CombinedOutputStorage storage = new CombinedOutputStorage(BUFFER_SIZE, BUFFER_COUNT, slow, failing);
+        byte[] data = createData(BUFFER_SIZE * 10);
+        try (OutputStream os = storage.getOutputStream("bad")) {
+            os.write(data);
+        } catch (IOException ex) {
+            //the error may be reported already when writing
+        }
+        try {
+            storage.close();
+            fail("Expected error of the child");
+        } catch (IOException ex) {
+            assertSame(ex.getCause(), failing.error);
+        }
+        //chunks skipped by failed child are returned to the pool too
+        assertEquals(storage.getPooledBufferCount(), storage.getAllocatedBufferCount());
+        try {
+            storage.storeData("c", data);
+            fail("Expected closed storage");
+        } catch (IOException ex) {
+            assertEquals(ex.getMessage(), "Storage is closed");
+        }
+    }
+}
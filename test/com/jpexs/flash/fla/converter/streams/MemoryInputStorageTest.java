@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter.streams;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author JPEXS
+ */
+public class MemoryInputStorageTest {
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buf = new byte[3];
+        int cnt;
+        while ((cnt = is.read(buf)) > 0) {
+            baos.write(buf, 0, cnt);
+        }
+        return baos.toByteArray();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testFromZip() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] large = new byte[100000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        try (ZipOutputStream zos = new ZipOutputStream(baos)) {
+            zos.putNextEntry(new ZipEntry("DOMDocument.xml"));
+            zos.write(bytes("<DOMDocument/>"));
+            zos.putNextEntry(new ZipEntry("LIBRARY/"));
+            zos.putNextEntry(new ZipEntry("LIBRARY/Symbol 1.xml"));
+            zos.write(bytes("<DOMSymbolItem/>"));
+            zos.putNextEntry(new ZipEntry("bin/M 1.dat"));
+            zos.write(large);
+            zos.putNextEntry(new ZipEntry("empty.txt"));
+        }
+        MemoryInputStorage storage = MemoryInputStorage.fromZip(baos.toByteArray());
+        assertEquals(storage.getFileNames().size(), 4);
+        assertFalse(storage.fileExists("LIBRARY/"));
+        assertTrue(storage.fileExists("LIBRARY/Symbol 1.xml"));
+        assertEquals(readAll(storage.readFile("DOMDocument.xml")), bytes("<DOMDocument/>"));
+        assertEquals(readAll(storage.readFile("bin/M 1.dat")), large);
+        assertEquals(storage.getFileSize("bin/M 1.dat"), large.length);
+        assertEquals(storage.getFileSize("empty.txt"), 0);
+        assertEquals(storage.getFileSize("missing.txt"), -1);
+        assertNull(storage.readFile("missing.txt"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testFromZipInvalid() throws Exception {
+        byte[] data = new byte[100];
+        Arrays.fill(data, (byte) 'P');
+        data[0] = 'P';
+        data[1] = 'K';
+        data[2] = 3;
+        data[3] = 4;
+        MemoryInputStorage.fromZip(data);
+    }
+
+    @Test
+    public void testByteBuffers() throws Exception {
+        ByteBuffer direct = ByteBuffer.allocateDirect(10);
+        direct.put(bytes("0123456789"));
+        direct.position(2);
+        direct.limit(7);
+        Map<String, byte[]> files = new HashMap<>();
+        files.put("a", bytes("abc"));
+        MemoryInputStorage storage = new MemoryInputStorage(files);
+        storage.putFile("direct", direct);
+        storage.putFile("wrapped", ByteBuffer.wrap(bytes("0123456789"), 3, 4));
+        //the buffer itself is not modified
+        assertEquals(direct.position(), 2);
+        assertEquals(readAll(storage.readFile("direct")), bytes("23456"));
+        //each read starts from the beginning
+        assertEquals(readAll(storage.readFile("direct")), bytes("23456"));
+        assertEquals(storage.getFileSize("direct"), 5);
+        assertEquals(readAll(storage.readFile("wrapped")), bytes("3456"));
+        assertEquals(readAll(storage.readFile("a")), bytes("abc"));
+
+        InputStream is = storage.readFile("direct");
+        assertEquals(is.skip(3), 3);
+        assertEquals(is.available(), 2);
+        assertEquals(is.read(), '5');
+
+        storage.removeFile("a");
+        assertFalse(storage.fileExists("a"));
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.converter.streams;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author JPEXS
+ */
+public class MemoryOutputStorageTest {
+
+    private static final int CHUNK_SIZE = 16;
+
+    private static byte[] createData(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (seed + i);
+        }
+        return data;
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        MemoryOutputStorage storage = new MemoryOutputStorage(CHUNK_SIZE);
+        byte[] data = createData(CHUNK_SIZE * 3 + 5, 1);
+        OutputStream os = storage.getOutputStream("a");
+        os.write(data[0]);
+        os.write(data, 1, CHUNK_SIZE);
+        os.write(data, CHUNK_SIZE + 1, data.length - CHUNK_SIZE - 1);
+        //visible after close only
+        assertFalse(storage.fileExists("a"));
+        assertNull(storage.getData("a"));
+        os.close();
+        os.close();
+        try {
+            os.write(1);
+            fail("Expected closed stream");
+        } catch (IOException ex) {
+            //expected
+        }
+        assertEquals(storage.getData("a"), data);
+        assertEquals(storage.getFileSize("a"), data.length);
+
+        storage.storeData("b", createData(CHUNK_SIZE, 2));
+        storage.storeData("empty", new byte[0]);
+        assertEquals(storage.getFileNames(), Arrays.asList("a", "b", "empty"));
+        assertEquals(storage.getData("b"), createData(CHUNK_SIZE, 2));
+        assertEquals(storage.getData("empty"), new byte[0]);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        storage.writeTo("a", baos);
+        assertEquals(baos.toByteArray(), data);
+
+        MemoryInputStorage inputStorage = storage.toInputStorage();
+        assertEquals(inputStorage.getFileSize("a"), data.length);
+        assertEquals(inputStorage.getFileSize("empty"), 0);
+    }
+
+    @Test
+    public void testChunkReuse() throws Exception {
+        MemoryOutputStorage storage = new MemoryOutputStorage(CHUNK_SIZE);
+        storage.storeData("a", createData(CHUNK_SIZE * 4, 1));
+        storage.storeData("b", createData(CHUNK_SIZE + 1, 2));
+        assertEquals(storage.getPooledChunkCount(), 0);
+
+        //overwriting returns chunks of the previous stream
+        storage.storeData("a", createData(CHUNK_SIZE - 1, 3));
+        assertEquals(storage.getPooledChunkCount(), 4);
+        assertEquals(storage.getData("a"), createData(CHUNK_SIZE - 1, 3));
+
+        storage.removeFile("b");
+        assertEquals(storage.getPooledChunkCount(), 6);
+        assertFalse(storage.fileExists("b"));
+
+        //new streams take chunks from the pool, old data is overwritten
+        storage.storeData("c", createData(CHUNK_SIZE * 2 + 3, 4));
+        assertEquals(storage.getPooledChunkCount(), 3);
+        assertEquals(storage.getData("c"), createData(CHUNK_SIZE * 2 + 3, 4));
+        assertEquals(storage.getData("a"), createData(CHUNK_SIZE - 1, 3));
+
+        storage.clear();
+        assertEquals(storage.getPooledChunkCount(), 7);
+        assertTrue(storage.getFileNames().isEmpty());
+        storage.storeData("d", createData(CHUNK_SIZE * 7, 5));
+        assertEquals(storage.getPooledChunkCount(), 0);
+        assertEquals(storage.getData("d"), createData(CHUNK_SIZE * 7, 5));
+    }
+
+    @Test
+    public void testDataAfterClose() throws Exception {
+        MemoryOutputStorage storage = new MemoryOutputStorage();
+        byte[] data = createData(MemoryOutputStorage.DEFAULT_CHUNK_SIZE + 100, 7);
+        try (OutputStream os = storage.getOutputStream("a")) {
+            os.write(data);
+        }
+        storage.close();
+        assertTrue(storage.fileExists("a"));
+        assertEquals(storage.getData("a"), data);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        storage.writeTo("a", baos);
+        assertEquals(baos.toByteArray(), data);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testWriteToMissing() throws Exception {
+        new MemoryOutputStorage().writeTo("missing", new ByteArrayOutputStream());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidChunkSize() {
+        new MemoryOutputStorage(0);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.flash.fla.probe;
+
+import com.jpexs.cfb.CompoundFileBinary;
+import com.jpexs.flash.fla.converter.FlaFormatVersion;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.Test;
+
+/**
+ * Probes generated FLA files and compares the summary with what was written.
+ *
+ * @author JPEXS
+ */
+public class FlaProbeTest {
+
+    private static final String OUTPUT_BASE_DIR = "out/tests/probe";
+
+    private static File createDir(String name) throws IOException {
+        File dir = new File(OUTPUT_BASE_DIR, name);
+        deleteTree(dir);
+        if (!dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+        return dir;
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Creates FLA file with streams of given lengths, in given order. Contents
+     * stream starts with the contents version.
+     */
+    private static File createFla(File dir, String name, FlaFormatVersion version, Map<String, Integer> streamLengths) throws IOException {
+        File file = new File(dir, name);
+        dir.mkdirs();
+        CompoundFileBinary cfb = new CompoundFileBinary(file, true);
+        try {
+            for (String streamName : streamLengths.keySet()) {
+                byte[] data = new byte[streamLengths.get(streamName)];
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = (byte) (i + 1);
+                }
+                if (streamName.equals("Contents")) {
+                    data[0] = (byte) version.getContentsVersion();
+                }
+                cfb.addFile(streamName, data);
+            }
+        } finally {
+            cfb.close();
+        }
+        return file;
+    }
+
+    private static void assertResult(FlaProbeResult result, FlaFormatVersion version, int pageCount, int symbolCount, int mediaCount, Map<String, Integer> streamLengths) {
+        assertTrue(result.isValid(), result.getError());
+        assertNull(result.getError());
+        assertEquals(result.getVersion(), version);
+        assertEquals(result.getContentsVersion(), version.getContentsVersion());
+        assertEquals(result.getPageCount(), pageCount);
+        assertEquals(result.getSymbolCount(), symbolCount);
+        assertEquals(result.getMediaCount(), mediaCount);
+        Map<String, Long> expectedSizes = new LinkedHashMap<>();
+        for (String streamName : streamLengths.keySet()) {
+            expectedSizes.put(streamName, (long) (int) streamLengths.get(streamName));
+        }
+        assertEquals(result.getStreamSizes(), expectedSizes);
+    }
+
+    private static Map<String, Integer> createMiniStreamLengths() {
+        //Contents in the mini stream, after more than one sector of other
+        //mini streams
+        Map<String, Integer> streamLengths = new LinkedHashMap<>();
+        streamLengths.put("P 1 1234567890", 700);
+        streamLengths.put("S 1 1234567891", 300);
+        streamLengths.put("S 2 1234567892", 1);
+        streamLengths.put("M 1 1234567893", 200);
+        streamLengths.put("Contents", 900);
+        return streamLengths;
+    }
+
+    private static Map<String, Integer> createRegularStreamLengths() {
+        Map<String, Integer> streamLengths = new LinkedHashMap<>();
+        streamLengths.put("M 1 1234567890", 5000);
+        streamLengths.put("Contents", 10000);
+        streamLengths.put("P 1 1234567891", 100);
+        streamLengths.put("P 2 1234567892", 4096);
+        streamLengths.put("M 2 1234567893", 64);
+        streamLengths.put("M 3 1234567894", 7000);
+        return streamLengths;
+    }
+
+    @Test
+    public void testMiniStreamContents() throws IOException {
+        File dir = createDir("mini");
+        Map<String, Integer> streamLengths = createMiniStreamLengths();
+        File file = createFla(dir, "mini.fla", FlaFormatVersion.CS4, streamLengths);
+        FlaProbeResult result = FlaProbe.probe(file);
+        assertEquals(result.getFile(), file);
+        assertResult(result, FlaFormatVersion.CS4, 1, 2, 1, streamLengths);
+    }
+
+    @Test
+    public void testRegularStreamContents() throws IOException {
+        File dir = createDir("regular");
+        Map<String, Integer> streamLengths = createRegularStreamLengths();
+        File file = createFla(dir, "regular.fla", FlaFormatVersion.F8, streamLengths);
+        assertResult(FlaProbe.probe(file), FlaFormatVersion.F8, 2, 0, 3, streamLengths);
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        File dir = createDir("truncated");
+        File file = createFla(dir, "truncated.fla", FlaFormatVersion.F8, createRegularStreamLengths());
+        long length = file.length();
+        for (long truncatedLength : new long[]{length - 1024, 1024, 100, 0}) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(truncatedLength);
+            }
+            try {
+                FlaProbe.probe(file);
+                fail("Expected error when probing file truncated to " + truncatedLength + " bytes");
+            } catch (IOException ex) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void testProbeTree() throws IOException {
+        File dir = createDir("tree");
+        createFla(new File(dir, "b"), "regular.fla", FlaFormatVersion.MX2004, createRegularStreamLengths());
+        createFla(dir, "mini.FLA", FlaFormatVersion.CS3, createMiniStreamLengths());
+        File truncatedFile = createFla(dir, "truncated.fla", FlaFormatVersion.CS3, createRegularStreamLengths());
+        try (RandomAccessFile raf = new RandomAccessFile(truncatedFile, "rw")) {
+            raf.setLength(2048);
+        }
+        createFla(dir, "other.cfb", FlaFormatVersion.CS3, createMiniStreamLengths());
+
+        List<FlaProbeResult> results = FlaProbe.probeTree(dir, 2);
+        assertEquals(results.size(), 3);
+        assertEquals(results.get(0).getFile(), new File(new File(dir, "b"), "regular.fla"));
+        assertResult(results.get(0), FlaFormatVersion.MX2004, 2, 0, 3, createRegularStreamLengths());
+        assertEquals(results.get(1).getFile(), new File(dir, "mini.FLA"));
+        assertResult(results.get(1), FlaFormatVersion.CS3, 1, 2, 1, createMiniStreamLengths());
+        assertEquals(results.get(2).getFile(), truncatedFile);
+        assertFalse(results.get(2).isValid());
+        assertTrue(results.get(2).getError() != null);
+    }
+}
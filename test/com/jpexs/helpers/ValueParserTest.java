@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2024 JPEXS.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package com.jpexs.helpers;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ *
+ * @author JPEXS
+ */
+public class ValueParserTest {
+
+    @DataProvider(name = "doubles")
+    public Object[][] provideDoubles() {
+        return new Object[][]{
+            {"0"},
+            {"12"},
+            {"-12.5"},
+            {"+3.25"},
+            {"0.1"},
+            {"1."},
+            {"123456789012345678"},
+            {"0.30000000000000004"},
+            {"1e3"},
+            {"-1.5E-2"},
+            {"Infinity"}
+        };
+    }
+
+    @Test(dataProvider = "doubles")
+    public void testParseDoubleMatchesDoubleParseDouble(String value) {
+        assertEquals(ValueParser.parseDouble(value, 0, value.length()), Double.parseDouble(value));
+    }
+
+    @Test
+    public void testParseDoubleRange() {
+        assertEquals(ValueParser.parseDouble("x-2.5y", 1, 5), -2.5);
+    }
+
+    @Test
+    public void testParseEdgeNumber() {
+        assertEquals(ValueParser.parseEdgeNumber("20.5"), 20.5);
+        assertEquals(ValueParser.parseEdgeNumber("-20"), -20.0);
+        assertEquals(ValueParser.parseEdgeNumber("#1A"), 26.0);
+        //single fraction digit is the high one
+        assertEquals(ValueParser.parseEdgeNumber("#1a.8"), 26.5);
+        assertEquals(ValueParser.parseEdgeNumber("#1A.08"), 26.03125);
+        assertEquals(ValueParser.parseEdgeNumber("#1A.80"), 26.5);
+        assertEquals(ValueParser.parseEdgeNumber("#FFFFFF"), -1.0);
+        assertEquals(ValueParser.parseEdgeNumber("#FFFFFF.80"), -0.5);
+        assertEquals(ValueParser.parseEdgeNumber("|#10 5", 1, 4), 16.0);
+    }
+
+    @Test
+    public void testParseHex() {
+        assertEquals(ValueParser.parseHex("ff00", 0, 4, true), 0xff00L);
+        assertEquals(ValueParser.parseHex("FFFFFFFFFFFFFFFF", 0, 16, false), -1L);
+        assertEquals(ValueParser.hexDigit('g'), -1);
+        assertInvalid("FF", new Runnable() {
+            @Override
+            public void run() {
+                ValueParser.parseHex("FF", 0, 2, true);
+            }
+        });
+        assertInvalid("00000000000000000", new Runnable() {
+            @Override
+            public void run() {
+                ValueParser.parseHex("00000000000000000", 0, 17, false);
+            }
+        });
+        assertInvalid("", new Runnable() {
+            @Override
+            public void run() {
+                ValueParser.parseHex("abc", 1, 1, false);
+            }
+        });
+    }
+
+    @Test
+    public void testParseColorItemIdAndClsid() {
+        assertEquals(ValueParser.parseColor("#FF8000"), 0xFF8000);
+        assertEquals(ValueParser.parseItemId("0000000a-000000ff"), (0xAL << 32) | 0xFF);
+        byte[] clsid = ValueParser.parseClsid("00020810-0000-0000-C000-000000000046");
+        assertEquals(clsid, new byte[]{0x10, 0x08, 0x02, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xC0, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x46});
+    }
+
+    @Test
+    public void testWhitespace() {
+        double[] point = new double[2];
+        assertTrue(ValueParser.parsePoint(" 1.5 ,\t#10 ", point));
+        assertEquals(point[0], 1.5);
+        assertEquals(point[1], 16.0);
+        assertTrue(ValueParser.parsePoint("", point));
+        assertEquals(point[0], 0.0);
+        assertEquals(point[1], 0.0);
+        assertFalse(ValueParser.parsePoint("1 2", point));
+        assertFalse(ValueParser.parsePoint("1,2,3", point));
+
+        float[] list = new float[3];
+        assertEquals(ValueParser.parseFloatList("  1 -2.5 3e1\n", ' ', list), 3);
+        assertEquals(list, new float[]{1f, -2.5f, 30f});
+        assertEquals(ValueParser.parseFloatList("1 2", ' ', list), 2);
+
+        //whitespace inside a number is not allowed
+        assertInvalid("1 5", new Runnable() {
+            @Override
+            public void run() {
+                ValueParser.parseEdgeNumber("1 5");
+            }
+        });
+    }
+
+    @Test
+    public void testMalformedInputReportsToken() {
+        final String edges = "!0 0|#1G 5";
+        //only the token in the range is reported, not the whole string
+        assertInvalid("#1G", new Runnable() {
+            @Override
+            public void run() {
+                ValueParser.parseEdgeNumber(edges, 5, 8);
+            }
+        });
+        String[] invalidEdgeNumbers = new String[]{"#", "#.8", "#1.", "#1.123", "#1.G", "#80000000", "-", "1-", "abc"};
+        for (final String value : invalidEdgeNumbers) {
+            assertInvalid(value, new Runnable() {
+                @Override
+                public void run() {
+                    ValueParser.parseEdgeNumber(value);
+                }
+            });
+        }
+        String[] invalidColors = new String[]{"FF8000", "#FF800", "#FF80000"};
+        for (final String value : invalidColors) {
+            assertInvalid(value, new Runnable() {
+                @Override
+                public void run() {
+                    ValueParser.parseColor(value);
+                }
+            });
+        }
+        //digits of well formed color are reported without the hash
+        assertInvalid("GG8000", new Runnable() {
+            @Override
+            public void run() {
+                ValueParser.parseColor("#GG8000");
+            }
+        });
+        assertInvalid("0000000A", new Runnable() {
+            @Override
+            public void run() {
+                ValueParser.parseItemId("0000000A-000000ff");
+            }
+        });
+        assertInvalid("00020810-0000-0000-C000_000000000046", new Runnable() {
+            @Override
+            public void run() {
+                ValueParser.parseClsid("00020810-0000-0000-C000_000000000046");
+            }
+        });
+    }
+
+    private static void assertInvalid(String token, Runnable parse) {
+        try {
+            parse.run();
+        } catch (NumberFormatException nfe) {
+            assertTrue(nfe.getMessage().contains("\"" + token + "\""), "Expected \"" + token + "\" in message: " + nfe.getMessage());
+            return;
+        }
+        fail("Expected NumberFormatException for \"" + token + "\"");
+    }
+}